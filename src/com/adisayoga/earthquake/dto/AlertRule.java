@@ -0,0 +1,73 @@
+/*
+ * Copyright 2011 Adi Sayoga.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.adisayoga.earthquake.dto;
+
+/**
+ * Satu aturan pemberitahuan: gempa yang memenuhi semua syarat dikirim ke
+ * saluran aturan ini. Syarat yang tidak diubah dari nilai awalnya tidak
+ * membatasi apapun. Aturan dikompilasi oleh
+ * {@link com.adisayoga.earthquake.services.AlertEngine} sebelum digunakan.
+ *
+ * @author Adi Sayoga
+ */
+public class AlertRule {
+
+	public static final int MINUTES_PER_DAY = 24 * 60;
+
+	/** Nama saluran, misalnya notifikasi, Facebook, email */
+	public final String channel;
+
+	public float minMagnitude = Float.NEGATIVE_INFINITY;
+	public float maxMagnitude = Float.POSITIVE_INFINITY;
+
+	/** Kedalaman (km) */
+	public float minDepth = Float.NEGATIVE_INFINITY;
+	public float maxDepth = Float.POSITIVE_INFINITY;
+
+	/** Jarak maksimal dari lokasi user (meter) */
+	public float maxDistance = Float.POSITIVE_INFINITY;
+
+	/** Bagian dari nama region (tidak membedakan huruf besar/kecil), null untuk semua */
+	public String region = null;
+
+	/**
+	 * Rentang waktu lokal gempa dalam menit sejak tengah malam, [start, end).
+	 * Jika start lebih besar dari end, rentang melewati tengah malam.
+	 */
+	public int startMinute = 0;
+	public int endMinute = MINUTES_PER_DAY;
+
+	public AlertRule(String channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * Apakah aturan dibatasi jarak dari lokasi user (regional).
+	 *
+	 * @return True jika regional
+	 */
+	public boolean isRegional() {
+		return maxDistance != Float.POSITIVE_INFINITY;
+	}
+
+	@Override
+	public String toString() {
+		return channel + " M" + minMagnitude + ".." + maxMagnitude + " depth " + minDepth
+				+ ".." + maxDepth + " distance <= " + maxDistance + " region " + region
+				+ " minute " + startMinute + ".." + endMinute;
+	}
+}
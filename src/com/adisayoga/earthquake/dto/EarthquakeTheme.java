@@ -16,8 +16,6 @@
  
 package com.adisayoga.earthquake.dto;
 
-import android.graphics.Color;
-
 import com.adisayoga.earthquake.R;
 
 /**
@@ -42,9 +40,20 @@ public enum EarthquakeTheme {
 	private final String majorColor[] = new String[]       { "fc5a00", "fc5a00", "fc5a00" };
 	private final String dissasterColor[] = new String[]   { "ec0000", "ec0000", "ec0000" };
 	
+	/** Warna (color-int tanpa alpha) untuk setiap tingkat magnitudo */
+	private final int[] quakeColors;
+	
 	private EarthquakeTheme(int resId, int position) {
 		this.resId = resId;
 		this.position = position;
+		
+		// Warna di-parse sekali, selanjutnya cukup dibaca dari tabel
+		String[][] colors = new String[][] { shockColor, smallColor, strongColor, 
+				damageColor, destructiveColor, majorColor, dissasterColor };
+		quakeColors = new int[colors.length];
+		for (int level = 0; level < colors.length; level++) {
+			quakeColors[level] = Integer.parseInt(colors[level][position], 16);
+		}
 	}
 	
 	/**
@@ -54,7 +63,7 @@ public enum EarthquakeTheme {
 	 * @return color-int
 	 */
 	public int getQuakeColor(float magnitude) {
-		return getQuakeColor(magnitude, "");
+		return 0xff000000 | quakeColors[getLevel(magnitude)];
 	}
 	
 	/**
@@ -65,24 +74,39 @@ public enum EarthquakeTheme {
 	 * @return color-int
 	 */
 	public int getQuakeColor(float magnitude, String alpha) {
-		String colorString;
-		
-		if (magnitude < 3) {
-			colorString = shockColor[position];
-		} else if (magnitude < 4) {
-			colorString = smallColor[position];
-		} else if (magnitude < 5) {
-			colorString = strongColor[position];
-		} else if (magnitude < 6) {
-			colorString = damageColor[position];
-		} else if (magnitude < 7) {
-			colorString = destructiveColor[position];
-		} else if (magnitude < 8) {
-			colorString = majorColor[position];
-		} else {
-			colorString = dissasterColor[position];
-		}
-		
-		return Color.parseColor("#" + alpha + colorString);
+		if (alpha.length() == 0) return getQuakeColor(magnitude);
+		return getQuakeColor(magnitude, Integer.parseInt(alpha, 16));
+	}
+	
+	/**
+	 * Mendapatkan warna (dengan alpha) sesuai dengan magnitudo gempa.
+	 * 
+	 * @param magnitude Magnitudo gempa
+	 * @param alpha Alpha, 0-255
+	 * @return color-int
+	 */
+	public int getQuakeColor(float magnitude, int alpha) {
+		return (alpha << 24) | quakeColors[getLevel(magnitude)];
+	}
+	
+	/**
+	 * Mendapatkan warna semua tingkat magnitudo, dari yang terkecil.
+	 * 
+	 * @return color-int tanpa alpha
+	 */
+	public int[] getPalette() {
+		return quakeColors.clone();
+	}
+	
+	/**
+	 * Tingkat magnitudo gempa, posisi pada tabel warna.
+	 * 
+	 * @param magnitude Magnitudo gempa
+	 * @return Tingkat magnitudo, 0-6
+	 */
+	private static int getLevel(float magnitude) {
+		if (magnitude < 3) return 0;
+		if (!(magnitude < 8)) return 6;
+		return (int) magnitude - 2;
 	}
 }
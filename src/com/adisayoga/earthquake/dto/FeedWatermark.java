@@ -0,0 +1,106 @@
+/*
+ * Copyright 2011 Adi Sayoga.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.adisayoga.earthquake.dto;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * High-water mark dari feed USGS: waktu gempa terbaru yang sudah dibaca beserta
+ * eqid gempa pada waktu tersebut. Digunakan untuk menghentikan pembacaan feed
+ * (yang diurutkan dari yang terbaru) saat sudah mencapai data lama.
+ *
+ * @author Adi Sayoga
+ */
+public class FeedWatermark {
+
+	private static final String SEPARATOR = ",";
+
+	/** Waktu gempa terbaru yang sudah dibaca */
+	public final long time;
+	/** Eqid gempa yang terjadi tepat pada waktu {@link #time} */
+	public final Set<String> eqids;
+
+	public FeedWatermark(long time, Set<String> eqids) {
+		this.time = time;
+		this.eqids = eqids;
+	}
+
+	/**
+	 * Apakah data gempa sudah pernah dibaca, yaitu terjadi tepat pada waktu
+	 * watermark dan eqid-nya sudah tercatat.
+	 *
+	 * @param quake Data gempa
+	 * @return True jika sudah dibaca
+	 */
+	public boolean isSeen(EarthquakeDTO quake) {
+		return quake.time == time && eqids.contains(quake.eqid);
+	}
+
+	/**
+	 * Buat watermark baru dari data gempa yang baru dibaca. Jika data kosong,
+	 * watermark lama yang dikembalikan.
+	 *
+	 * @param previous Watermark sebelumnya, boleh null
+	 * @param quakes Data gempa yang baru dibaca
+	 * @return Watermark baru
+	 */
+	public static FeedWatermark advance(FeedWatermark previous, List<EarthquakeDTO> quakes) {
+		long time = (previous != null) ? previous.time : Long.MIN_VALUE;
+		for (EarthquakeDTO quake : quakes) {
+			if (quake.time > time) time = quake.time;
+		}
+		if (time == Long.MIN_VALUE) return previous;
+
+		Set<String> eqids = new HashSet<String>();
+		if (previous != null && previous.time == time) eqids.addAll(previous.eqids);
+		for (EarthquakeDTO quake : quakes) {
+			if (quake.time == time) eqids.add(quake.eqid);
+		}
+		return new FeedWatermark(time, eqids);
+	}
+
+	/**
+	 * Gabungkan eqid menjadi string untuk disimpan pada preference.
+	 *
+	 * @return Eqid dipisahkan koma
+	 */
+	public String joinEqids() {
+		StringBuilder builder = new StringBuilder();
+		for (String eqid : eqids) {
+			if (builder.length() > 0) builder.append(SEPARATOR);
+			builder.append(eqid);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Pecah string eqid yang disimpan pada preference.
+	 *
+	 * @param value Eqid dipisahkan koma
+	 * @return Set eqid
+	 */
+	public static Set<String> splitEqids(String value) {
+		Set<String> eqids = new HashSet<String>();
+		if (value == null || value.length() == 0) return eqids;
+		for (String eqid : value.split(SEPARATOR)) {
+			eqids.add(eqid);
+		}
+		return eqids;
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2011 Adi Sayoga.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.adisayoga.earthquake.dto;
+
+/**
+ * Data Transfer Object untuk satu pengiriman pemberitahuan pada outbox: satu 
+ * gempa ke satu penerima melalui satu saluran.
+ * 
+ * @author Adi Sayoga
+ */
+public class OutboxDTO {
+
+	public long id;
+	public String key;
+	public String channel;
+	public String recipient;
+	public long quakeId;
+	public int attempts;
+	
+	/** Batas waktu lease selama dikirim, diisi oleh OutboxModel.claimDue */
+	public long lease;
+	
+	public OutboxDTO(long id, String key, String channel, String recipient, long quakeId, 
+			int attempts) {
+		this.id = id;
+		this.key = key;
+		this.channel = channel;
+		this.recipient = recipient;
+		this.quakeId = quakeId;
+		this.attempts = attempts;
+	}
+	
+	/**
+	 * Membuat pengiriman baru.
+	 * 
+	 * @param quake Data gempa, harus sudah memiliki id tabel
+	 * @param channel Nama saluran
+	 * @param recipient Penerima (alamat email, nomor telepon, atau akun)
+	 * @return Pengiriman
+	 */
+	public static OutboxDTO create(EarthquakeDTO quake, String channel, String recipient) {
+		return new OutboxDTO(0, getKey(quake, channel, recipient), channel, recipient, 
+				quake.id, 0);
+	}
+	
+	/**
+	 * Kunci idempotensi: gempa yang sama tidak dikirim dua kali ke penerima yang 
+	 * sama melalui saluran yang sama, termasuk jika gempa direvisi.
+	 * 
+	 * @param quake Data gempa
+	 * @param channel Nama saluran
+	 * @param recipient Penerima
+	 * @return Kunci
+	 */
+	public static String getKey(EarthquakeDTO quake, String channel, String recipient) {
+		return quake.source + quake.eqid + "|" + channel + "|" + recipient;
+	}
+	
+	@Override
+	public String toString() {
+		return key + " (percobaan " + attempts + ")";
+	}
+}
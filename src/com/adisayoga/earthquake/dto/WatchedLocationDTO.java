@@ -0,0 +1,50 @@
+/*
+ * Copyright 2011 Adi Sayoga.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.adisayoga.earthquake.dto;
+
+/**
+ * Data Transfer Object untuk satu lokasi pantauan.
+ * 
+ * @author Adi Sayoga
+ */
+public class WatchedLocationDTO {
+
+	public long id;
+	public String name;
+	public double latitude;
+	public double longitude;
+	
+	/** Radius pantauan (meter) */
+	public float radius;
+	public float minMagnitude;
+	
+	public WatchedLocationDTO(long id, String name, double latitude, double longitude, 
+			float radius, float minMagnitude) {
+		this.id = id;
+		this.name = name;
+		this.latitude = latitude;
+		this.longitude = longitude;
+		this.radius = radius;
+		this.minMagnitude = minMagnitude;
+	}
+	
+	@Override
+	public String toString() {
+		return name + " (" + latitude + ", " + longitude + ", " + radius + " m, M" 
+				+ minMagnitude + ")";
+	}
+}
@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.Context;
 import android.database.Cursor;
 import android.util.Log;
@@ -37,6 +38,7 @@ import com.adisayoga.earthquake.providers.EarthquakeProvider;
 public class EarthquakeModel {
 	
 	private static final String TAG = "EarthquakeModel";
+	private static final int MAX_IDS_PER_QUERY = 500;
 	
 	private final Context context;
 	
@@ -66,27 +68,7 @@ public class EarthquakeModel {
     	Cursor cursor = resolver.query(EarthquakeProvider.CONTENT_URI, null, where, 
     			null, sortOrder);
     	
-    	List<EarthquakeDTO> quakes = new ArrayList<EarthquakeDTO>();
-		while (cursor.moveToNext()) {
-    		long id = cursor.getLong(EarthquakeColumns._ID_INDEX);
-    		String source = cursor.getString(EarthquakeColumns.SRC_INDEX);
-    		String eqid = cursor.getString(EarthquakeColumns.EQID_INDEX);
-    		String version = cursor.getString(EarthquakeColumns.VERSION_INDEX);
-    		
-    		long time = cursor.getLong(EarthquakeColumns.DATE_INDEX);
-    		double latitude = cursor.getDouble(EarthquakeColumns.LATITUDE_INDEX);
-    		double longitude = cursor.getDouble(EarthquakeColumns.LONGITUDE_INDEX);
-    		float magnitude = cursor.getFloat(EarthquakeColumns.MAGNITUDE_INDEX);
-    		
-    		float depth = cursor.getFloat(EarthquakeColumns.DEPTH_INDEX);
-    		int nst = cursor.getInt(EarthquakeColumns.NST_INDEX);
-    		String region = cursor.getString(EarthquakeColumns.REGION_INDEX);
-    		
-    		// Tambahkan ke arraylist
-    		EarthquakeDTO quake = new EarthquakeDTO(id, source, eqid, version, 
-    				time, latitude, longitude, magnitude, depth, nst, region);
-    		quakes.add(quake);
-    	}
+    	List<EarthquakeDTO> quakes = readQuakes(cursor);
     	cursor.close();
     	
     	Log.d(TAG, "Selesai mengambil data, " + cursor.getCount() + " items");
@@ -105,6 +87,151 @@ public class EarthquakeModel {
 		return getMatchQuakes(minMagnitude, maxAge, null);
 	}
 	
+	/**
+	 * Mendapatkan data gempa berdasarkan id tabel.
+	 * 
+	 * @param id Id tabel
+	 * @return Data gempa, atau null jika tidak ada
+	 */
+	public EarthquakeDTO getQuake(long id) {
+		ContentResolver resolver = context.getContentResolver();
+		Cursor cursor = resolver.query(ContentUris.withAppendedId(
+				EarthquakeProvider.CONTENT_URI, id), null, null, null, null);
+		List<EarthquakeDTO> quakes = readQuakes(cursor);
+		cursor.close();
+		
+		return (quakes.size() > 0) ? quakes.get(0) : null;
+	}
+	
+	/**
+	 * Mendapatkan data gempa berdasarkan beberapa id tabel sekaligus.
+	 * 
+	 * @param ids Id tabel
+	 * @return List gempa yang ditemukan, urutannya tidak ditentukan
+	 */
+	public List<EarthquakeDTO> getQuakes(long[] ids) {
+		List<EarthquakeDTO> quakes = new ArrayList<EarthquakeDTO>(ids.length);
+		ContentResolver resolver = context.getContentResolver();
+		
+		// Id dibagi per bagian supaya query tidak terlalu panjang
+		for (int start = 0; start < ids.length; start += MAX_IDS_PER_QUERY) {
+			int end = Math.min(start + MAX_IDS_PER_QUERY, ids.length);
+			StringBuilder where = new StringBuilder(EarthquakeColumns._ID).append(" IN (");
+			for (int i = start; i < end; i++) {
+				if (i > start) where.append(",");
+				where.append(ids[i]);
+			}
+			where.append(")");
+			
+			Cursor cursor = resolver.query(EarthquakeProvider.CONTENT_URI, null, 
+					where.toString(), null, null);
+			quakes.addAll(readQuakes(cursor));
+			cursor.close();
+		}
+		return quakes;
+	}
+	
+	/**
+	 * Mendapatkan satu halaman data gempa, diurutkan dari yang terbaru 
+	 * berdasarkan (date, _id). Halaman berikutnya dimulai setelah data terakhir 
+	 * halaman sebelumnya (keyset paging), sehingga waktu query tidak bergantung 
+	 * pada posisi halaman.
+	 * 
+	 * @param minMagnitude Mangitudo minimal
+	 * @param minTime Waktu gempa paling lama yang akan ditampilkan
+	 * @param after Data terakhir dari halaman sebelumnya, null untuk halaman pertama
+	 * @param limit Jumlah data maksimal
+	 * @return List gempa
+	 */
+	public List<EarthquakeDTO> getQuakesPage(float minMagnitude, long minTime, 
+			EarthquakeDTO after, int limit) {
+		String where = EarthquakeColumns.MAGNITUDE + " >= " + minMagnitude 
+				+ " AND " + EarthquakeColumns.DATE + " >= " + minTime;
+		String[] whereArgs = null;
+		if (after != null) {
+			where += " AND " + EarthquakeColumns.DATE + " <= ? AND (" 
+					+ EarthquakeColumns.DATE + " < ? OR " + EarthquakeColumns._ID + " < ?)";
+			String time = Long.toString(after.time);
+			whereArgs = new String[] { time, time, Long.toString(after.id) };
+		}
+		String sortOrder = EarthquakeColumns.DATE + " DESC, " + EarthquakeColumns._ID 
+				+ " DESC";
+		
+		ContentResolver resolver = context.getContentResolver();
+		Cursor cursor = resolver.query(EarthquakeProvider.CONTENT_URI.buildUpon()
+				.appendQueryParameter(EarthquakeProvider.PARAM_LIMIT, 
+						Integer.toString(limit)).build(), 
+				null, where, whereArgs, sortOrder);
+		
+		List<EarthquakeDTO> quakes = readQuakes(cursor);
+		cursor.close();
+		return quakes;
+	}
+	
+	/**
+	 * Mendapatkan data gempa yang berada di dalam bounding box, termasuk bounding
+	 * box yang melewati garis bujur 180 derajat (minLon lebih besar dari maxLon).
+	 * 
+	 * @param minLat Lintang minimal (selatan)
+	 * @param minLon Bujur minimal (barat)
+	 * @param maxLat Lintang maksimal (utara)
+	 * @param maxLon Bujur maksimal (timur)
+	 * @param minMagnitude Mangitudo minimal
+	 * @param minTime Waktu gempa paling lama yang akan ditampilkan
+	 * @param sortOrder Sort order, default berdasarkan tanggal descending
+	 * @return List gempa
+	 */
+	public List<EarthquakeDTO> getQuakesInBounds(double minLat, double minLon, 
+			double maxLat, double maxLon, float minMagnitude, long minTime, 
+			String sortOrder) {
+		Log.i(TAG, "Mengambil data dari provider (bounding box)...");
+		
+		String where = EarthquakeColumns.MAGNITUDE + " >= " + minMagnitude 
+				+ " AND " + EarthquakeColumns.DATE + " >= " + minTime;
+		
+		ContentResolver resolver = context.getContentResolver();
+		Cursor cursor = resolver.query(EarthquakeProvider.getBoundsUri(minLat, minLon, 
+				maxLat, maxLon), null, where, null, sortOrder);
+		
+		List<EarthquakeDTO> quakes = readQuakes(cursor);
+		cursor.close();
+		
+		Log.d(TAG, "Selesai mengambil data, " + quakes.size() + " items");
+		return quakes;
+	}
+	
+	/**
+	 * Membaca semua baris cursor menjadi list data gempa.
+	 * 
+	 * @param cursor Cursor dengan kolom tabel earthquake
+	 * @return List gempa
+	 */
+	private List<EarthquakeDTO> readQuakes(Cursor cursor) {
+		List<EarthquakeDTO> quakes = new ArrayList<EarthquakeDTO>();
+		while (cursor.moveToNext()) {
+			long id = cursor.getLong(EarthquakeColumns._ID_INDEX);
+			String source = cursor.getString(EarthquakeColumns.SRC_INDEX);
+			String eqid = cursor.getString(EarthquakeColumns.EQID_INDEX);
+			String version = cursor.getString(EarthquakeColumns.VERSION_INDEX);
+			
+			long time = cursor.getLong(EarthquakeColumns.DATE_INDEX);
+			double latitude = cursor.getDouble(EarthquakeColumns.LATITUDE_INDEX);
+			double longitude = cursor.getDouble(EarthquakeColumns.LONGITUDE_INDEX);
+			float magnitude = cursor.getFloat(EarthquakeColumns.MAGNITUDE_INDEX);
+			
+			float depth = cursor.getFloat(EarthquakeColumns.DEPTH_INDEX);
+			int nst = cursor.getInt(EarthquakeColumns.NST_INDEX);
+			String region = cursor.getString(EarthquakeColumns.REGION_INDEX);
+			
+			// Tambahkan ke arraylist
+			EarthquakeDTO quake = new EarthquakeDTO(id, source, eqid, version, 
+					time, latitude, longitude, magnitude, depth, nst, region);
+			quakes.add(quake);
+		}
+		
+		return quakes;
+	}
+	
 	/**
 	 * Menghapus data gempa yang lebih lama dari age yang ditentukan. Jika age -1
 	 * artinya menghapus semua data.
@@ -113,15 +240,26 @@ public class EarthquakeModel {
 	 * @return Jumlah data yang dihapus
 	 */
 	public int deleteQuakes(long age) {
+		if (age == -1) return deleteQuakesBefore(-1);
+		return deleteQuakesBefore(System.currentTimeMillis() - age);
+	}
+	
+	/**
+	 * Menghapus data gempa yang terjadi sebelum waktu yang ditentukan. Jika time 
+	 * -1 artinya menghapus semua data.
+	 * 
+	 * @param time Batas waktu
+	 * @return Jumlah data yang dihapus
+	 */
+	public int deleteQuakesBefore(long time) {
 		Log.d(TAG, "Menghapus data...");
 		
 		ContentResolver resolver = context.getContentResolver();
 		String where = null;
 		String[] whereArgs = null;
-		if (age != -1) {
+		if (time != -1) {
 			where = EarthquakeColumns.DATE + " < ?";
-			long limit = System.currentTimeMillis() - age;
-			whereArgs = new String[] { Long.toString(limit) };
+			whereArgs = new String[] { Long.toString(time) };
 		}
 		int count = resolver.delete(EarthquakeProvider.CONTENT_URI, where, whereArgs);
 		
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2011 Adi Sayoga.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.adisayoga.earthquake.models;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import com.adisayoga.earthquake.dto.EarthquakeDTO;
+
+/**
+ * Sumber data daftar gempa yang di-load per halaman pada background thread.
+ * Halaman di-load dengan keyset paging (date, _id) sehingga halaman pertama
+ * langsung tampil berapapun jumlah data pada provider, dan halaman berikutnya
+ * di-load saat list di-scroll mendekati akhir data. Jika data sudah ada pada
+ * {@link QuakeRepository}, halaman diambil dari memory.
+ * <p>
+ * Jumlah halaman yang disimpan di memory dibatasi, halaman yang paling lama
+ * tidak diakses akan dibuang dan di-load ulang jika diperlukan. Yang selalu
+ * disimpan hanya data terakhir dari setiap halaman sebagai key halaman
+ * berikutnya.
+ * <p>
+ * Semua method harus dipanggil dari UI thread.
+ *
+ * @author Adi Sayoga
+ */
+public class EarthquakePager {
+
+	private static final String TAG = "EarthquakePager";
+
+	/** Jumlah data setiap halaman */
+	public static final int PAGE_SIZE = 50;
+
+	/** Jumlah halaman maksimal yang disimpan di memory */
+	private static final int MAX_PAGES = 8;
+
+	/** Halaman berikutnya di-load jika posisi sudah sedekat ini dengan akhir data */
+	private static final int PREFETCH_DISTANCE = PAGE_SIZE / 2;
+
+	private final QuakeRepository repository;
+	private final OnPageLoadedListener listener;
+
+	private float minMagnitude;
+	private long minTime;
+
+	// Halaman yang ada di memory, diurutkan berdasarkan akses terakhir
+	private final Map<Integer, List<EarthquakeDTO>> pages =
+			new LinkedHashMap<Integer, List<EarthquakeDTO>>(MAX_PAGES + 1, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, List<EarthquakeDTO>> eldest) {
+			return size() > MAX_PAGES;
+		}
+	};
+
+	// Data terakhir dari setiap halaman yang sudah di-load
+	private final List<EarthquakeDTO> pageEnds = new ArrayList<EarthquakeDTO>();
+	private final Set<Integer> loadingPages = new HashSet<Integer>();
+
+	private int count = 0;
+	private boolean complete = false;
+
+	// Dinaikkan setiap halaman diganti, hasil load dari generasi sebelumnya diabaikan
+	private int generation = 0;
+
+	// Dinaikkan setiap load ulang, hanya load ulang terakhir yang dipakai
+	private int reloadGeneration = 0;
+
+	public EarthquakePager(Context context, OnPageLoadedListener listener) {
+		this.repository = QuakeRepository.getInstance(context);
+		this.listener = listener;
+	}
+
+	/**
+	 * Load ulang mulai dari halaman pertama dengan filter baru. Data lama tetap
+	 * dipakai sampai halaman pertama selesai di-load, kemudian diganti sekaligus
+	 * dan listener dipanggil pada giliran UI thread yang sama, sehingga jumlah
+	 * data tidak pernah berubah tanpa pemberitahuan ke adapter.
+	 *
+	 * @param minMagnitude Mangitudo minimal
+	 * @param minTime Waktu gempa paling lama yang akan ditampilkan
+	 */
+	public void reset(float minMagnitude, long minTime) {
+		reload(minMagnitude, minTime, 1, new HashSet<Integer>());
+	}
+
+	/**
+	 * Load ulang halaman yang sudah di-load setelah data berubah, sehingga posisi
+	 * scroll tetap. Seperti {@link #reset}, data lama tetap dipakai sampai semua
+	 * halaman tersebut selesai di-load. Jika filter berubah, sama dengan
+	 * {@link #reset}.
+	 *
+	 * @param minMagnitude Mangitudo minimal
+	 * @param minTime Waktu gempa paling lama yang akan ditampilkan
+	 */
+	public void refresh(float minMagnitude, long minTime) {
+		if (minMagnitude != this.minMagnitude || minTime != this.minTime
+				|| pageEnds.isEmpty()) {
+			reset(minMagnitude, minTime);
+			return;
+		}
+		reload(minMagnitude, minTime, pageEnds.size(), new HashSet<Integer>(pages.keySet()));
+	}
+
+	/**
+	 * Load halaman pertama sampai halaman tertentu pada background thread,
+	 * kemudian ganti semua halaman sekaligus. Isi halaman hanya disimpan untuk
+	 * halaman pertama dan halaman yang sebelumnya ada di memory, halaman lainnya
+	 * hanya disimpan key-nya.
+	 *
+	 * @param minMagnitude Mangitudo minimal
+	 * @param minTime Waktu gempa paling lama yang akan ditampilkan
+	 * @param pageCount Jumlah halaman yang di-load
+	 * @param keepPages Halaman yang isinya disimpan
+	 */
+	private void reload(final float minMagnitude, final long minTime, final int pageCount,
+			final Set<Integer> keepPages) {
+		final int loadGeneration = ++reloadGeneration;
+
+		new AsyncTask<Void, Void, Void>() {
+			private final Map<Integer, List<EarthquakeDTO>> newPages =
+					new HashMap<Integer, List<EarthquakeDTO>>();
+			private final List<EarthquakeDTO> newPageEnds = new ArrayList<EarthquakeDTO>();
+			private int newCount = 0;
+			private boolean newComplete = false;
+
+			@Override
+			protected Void doInBackground(Void... params) {
+				EarthquakeDTO after = null;
+				for (int page = 0; page < pageCount; page++) {
+					List<EarthquakeDTO> quakes = repository.getPage(minMagnitude, minTime,
+							after, PAGE_SIZE);
+					if (page == 0 || keepPages.contains(page)) newPages.put(page, quakes);
+					if (quakes.size() > 0) {
+						after = quakes.get(quakes.size() - 1);
+						newPageEnds.add(after);
+						newCount += quakes.size();
+					}
+					if (quakes.size() < PAGE_SIZE) {
+						newComplete = true;
+						break;
+					}
+				}
+				return null;
+			}
+
+			@Override
+			protected void onPostExecute(Void result) {
+				if (loadGeneration != reloadGeneration) return;
+
+				// Hasil load halaman dari data lama diabaikan
+				generation++;
+				EarthquakePager.this.minMagnitude = minMagnitude;
+				EarthquakePager.this.minTime = minTime;
+				pages.clear();
+				pages.putAll(newPages);
+				pageEnds.clear();
+				pageEnds.addAll(newPageEnds);
+				loadingPages.clear();
+				count = newCount;
+				complete = newComplete;
+				Log.d(TAG, pageCount + " halaman di-load ulang, total " + count + " items");
+
+				listener.onPageLoaded(0);
+			}
+		}.execute();
+	}
+
+	/**
+	 * Jumlah data yang sudah diketahui, bertambah setiap halaman baru di-load.
+	 *
+	 * @return Jumlah data
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Apakah semua data sudah di-load minimal sekali.
+	 *
+	 * @return True jika sudah mencapai akhir data
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Mendapatkan data gempa pada posisi tertentu. Jika halaman data tersebut
+	 * tidak ada di memory, halaman akan di-load dan null dikembalikan. Jika posisi
+	 * mendekati akhir data, halaman berikutnya juga di-load.
+	 *
+	 * @param position Posisi data
+	 * @return Data gempa, atau null jika belum di-load
+	 */
+	public EarthquakeDTO getItem(int position) {
+		if (position < 0 || position >= count) return null;
+
+		if (!complete && position >= count - PREFETCH_DISTANCE) {
+			loadPage(pageEnds.size());
+		}
+
+		int page = position / PAGE_SIZE;
+		List<EarthquakeDTO> quakes = pages.get(page);
+		if (quakes == null) {
+			loadPage(page);
+			return null;
+		}
+
+		int index = position % PAGE_SIZE;
+		return (index < quakes.size()) ? quakes.get(index) : null;
+	}
+
+	/**
+	 * Load halaman pada background thread, jika belum sedang di-load.
+	 *
+	 * @param page Nomor halaman
+	 */
+	private void loadPage(final int page) {
+		if (loadingPages.contains(page)) return;
+		loadingPages.add(page);
+
+		final int loadGeneration = generation;
+		final EarthquakeDTO after = (page > 0) ? pageEnds.get(page - 1) : null;
+		final float minMagnitude = this.minMagnitude;
+		final long minTime = this.minTime;
+
+		new AsyncTask<Void, Void, List<EarthquakeDTO>>() {
+			@Override
+			protected List<EarthquakeDTO> doInBackground(Void... params) {
+				return repository.getPage(minMagnitude, minTime, after, PAGE_SIZE);
+			}
+
+			@Override
+			protected void onPostExecute(List<EarthquakeDTO> quakes) {
+				if (loadGeneration != generation) return;
+				onPageLoaded(page, quakes);
+			}
+		}.execute();
+	}
+
+	/**
+	 * Simpan halaman yang sudah di-load. Halaman baru di akhir data menambah
+	 * jumlah data dan menyimpan key untuk halaman berikutnya.
+	 *
+	 * @param page Nomor halaman
+	 * @param quakes Data gempa
+	 */
+	private void onPageLoaded(int page, List<EarthquakeDTO> quakes) {
+		loadingPages.remove(page);
+		pages.put(page, quakes);
+
+		if (page == pageEnds.size()) {
+			if (quakes.size() > 0) {
+				pageEnds.add(quakes.get(quakes.size() - 1));
+				count += quakes.size();
+			}
+			if (quakes.size() < PAGE_SIZE) complete = true;
+			Log.d(TAG, "Halaman " + page + " di-load, total " + count + " items");
+		}
+
+		listener.onPageLoaded(page);
+	}
+
+	/**
+	 * Listener saat halaman selesai di-load.
+	 */
+	public interface OnPageLoadedListener {
+
+		/**
+		 * Dipanggil pada UI thread setelah halaman selesai di-load.
+		 *
+		 * @param page Nomor halaman, 0 untuk halaman pertama setelah reset atau
+		 *        refresh, semua halaman mungkin berubah
+		 */
+		public void onPageLoaded(int page);
+	}
+}
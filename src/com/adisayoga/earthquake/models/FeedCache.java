@@ -0,0 +1,147 @@
+/*
+ * Copyright 2011 Adi Sayoga.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.adisayoga.earthquake.models;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Cache pada disk untuk response terakhir dari setiap file feed USGS. Yang
+ * disimpan hanya header validator (ETag dan Last-Modified) beserta ukuran data,
+ * karena response 304 berarti data tidak berubah sehingga isi feed tidak perlu
+ * di-parse ulang.
+ *
+ * @author Adi Sayoga
+ */
+public class FeedCache {
+
+	private static final String TAG = "FeedCache";
+	private static final String DIR_NAME = "feeds";
+
+	private static final String KEY_ETAG = "etag";
+	private static final String KEY_LAST_MODIFIED = "last_modified";
+	private static final String KEY_LENGTH = "length";
+
+	private final File dir;
+
+	public FeedCache(Context context) {
+		dir = new File(context.getCacheDir(), DIR_NAME);
+	}
+
+	/**
+	 * Mendapatkan data cache dari file feed.
+	 *
+	 * @param filename Nama file feed
+	 * @return Data cache, atau null jika belum ada
+	 */
+	public Entry get(String filename) {
+		File file = new File(dir, filename);
+		if (!file.exists()) return null;
+
+		InputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			Properties properties = new Properties();
+			properties.load(in);
+
+			Entry entry = new Entry();
+			entry.etag = properties.getProperty(KEY_ETAG);
+			entry.lastModified = properties.getProperty(KEY_LAST_MODIFIED);
+			entry.length = Long.parseLong(properties.getProperty(KEY_LENGTH, "0"));
+			return entry;
+
+		} catch (IOException e) {
+			Log.w(TAG, "Gagal membaca cache " + filename + ": " + e.getMessage());
+			return null;
+
+		} catch (NumberFormatException e) {
+			Log.w(TAG, "Cache " + filename + " tidak valid");
+			return null;
+
+		} finally {
+			try { if (in != null) in.close(); } catch (IOException e) {}
+		}
+	}
+
+	/**
+	 * Menyimpan data cache file feed. Jika tidak ada validator sama sekali,
+	 * cache lama dihapus.
+	 *
+	 * @param filename Nama file feed
+	 * @param entry Data cache
+	 */
+	public void put(String filename, Entry entry) {
+		File file = new File(dir, filename);
+		if (entry == null || (entry.etag == null && entry.lastModified == null)) {
+			file.delete();
+			return;
+		}
+
+		OutputStream out = null;
+		try {
+			if (!dir.exists()) dir.mkdirs();
+
+			Properties properties = new Properties();
+			if (entry.etag != null) properties.setProperty(KEY_ETAG, entry.etag);
+			if (entry.lastModified != null) {
+				properties.setProperty(KEY_LAST_MODIFIED, entry.lastModified);
+			}
+			properties.setProperty(KEY_LENGTH, Long.toString(entry.length));
+
+			out = new FileOutputStream(file);
+			properties.store(out, null);
+
+		} catch (IOException e) {
+			Log.w(TAG, "Gagal menyimpan cache " + filename + ": " + e.getMessage());
+			file.delete();
+
+		} finally {
+			try { if (out != null) out.close(); } catch (IOException e) {}
+		}
+	}
+
+	/**
+	 * Hapus semua cache, request berikutnya akan mengambil data secara penuh.
+	 */
+	public void clear() {
+		File[] files = dir.listFiles();
+		if (files == null) return;
+		for (File file : files) {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Data cache dari satu file feed.
+	 */
+	public static class Entry {
+		/** Header ETag dari response terakhir */
+		public String etag;
+		/** Header Last-Modified dari response terakhir */
+		public String lastModified;
+		/** Ukuran data (tidak terkompresi) dalam byte */
+		public long length;
+	}
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2011 Adi Sayoga.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.adisayoga.earthquake.models;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.adisayoga.earthquake.dto.EarthquakeDTO;
+import com.adisayoga.earthquake.dto.WatchedLocationDTO;
+
+/**
+ * Index spasial lokasi pantauan berupa grid latitude/longitude dengan ukuran
+ * sel tetap. Setiap lokasi dimasukkan ke semua sel yang beririsan dengan
+ * lingkaran pantauannya, sehingga untuk satu gempa cukup diperiksa lokasi pada
+ * sel tempat gempa berada, bukan semua lokasi. Isi setiap sel disimpan
+ * berurutan pada satu array seperti {@link com.adisayoga.earthquake.ui.QuakeGrid}.
+ * <p>
+ * Lokasi dengan radius sangat besar (mencakup terlalu banyak sel) tidak
+ * dimasukkan ke grid, tetapi selalu diperiksa. Jarak dihitung dengan haversine
+ * dari nilai yang sudah dihitung saat index dibuat. Index tidak berubah setelah
+ * dibuat, aman digunakan dari banyak thread.
+ *
+ * @author Adi Sayoga
+ */
+public class GeofenceIndex {
+
+	/** Ukuran sel (derajat) */
+	private static final double CELL_SIZE = 1;
+
+	private static final int ROWS = (int) (180 / CELL_SIZE);
+	private static final int COLUMNS = (int) (360 / CELL_SIZE);
+
+	/** Lokasi yang mencakup lebih banyak sel dari ini tidak dimasukkan ke grid */
+	private static final int MAX_CELLS = 1024;
+
+	/** Radius rata-rata bumi (meter) */
+	private static final double EARTH_RADIUS = 6371008.8;
+
+	private final WatchedLocationDTO[] locations;
+	private final Map<Long, WatchedLocationDTO> locationsById;
+
+	// Nilai yang sudah dihitung untuk setiap lokasi, latitude/longitude dalam radian
+	private final double[] latitudes;
+	private final double[] longitudes;
+	private final double[] cosLatitudes;
+	/** hav(radius / R), lebih dari 1 jika mencakup seluruh bumi */
+	private final double[] maxHaversines;
+	private final float[] minMagnitudes;
+
+	/** Magnitudo minimal dari semua lokasi, gempa di bawahnya langsung dilewati */
+	private final float minMagnitude;
+
+	// Isi sel ke-c adalah cellItems[cellStart[c]] s/d cellItems[cellStart[c + 1] - 1]
+	private final int[] cellStart = new int[ROWS * COLUMNS + 1];
+	private final int[] cellItems;
+
+	/** Lokasi yang tidak dimasukkan ke grid */
+	private final int[] wideItems;
+
+	/**
+	 * Buat index dari lokasi pantauan.
+	 *
+	 * @param locations Lokasi pantauan
+	 */
+	public GeofenceIndex(List<WatchedLocationDTO> locations) {
+		int n = locations.size();
+		this.locations = locations.toArray(new WatchedLocationDTO[n]);
+		this.locationsById = new HashMap<Long, WatchedLocationDTO>(n * 2);
+		latitudes = new double[n];
+		longitudes = new double[n];
+		cosLatitudes = new double[n];
+		maxHaversines = new double[n];
+		minMagnitudes = new float[n];
+
+		// Rentang sel setiap lokasi: baris awal, baris akhir, kolom awal, kolom
+		// akhir. Kolom tidak dinormalisasi, bisa melewati garis 180 derajat.
+		int[] ranges = new int[n * 4];
+		boolean[] wide = new boolean[n];
+		int wideCount = 0;
+		float minMagnitude = Float.POSITIVE_INFINITY;
+
+		for (int i = 0; i < n; i++) {
+			WatchedLocationDTO location = this.locations[i];
+			locationsById.put(location.id, location);
+			latitudes[i] = Math.toRadians(location.latitude);
+			longitudes[i] = Math.toRadians(location.longitude);
+			cosLatitudes[i] = Math.cos(latitudes[i]);
+			minMagnitudes[i] = location.minMagnitude;
+			minMagnitude = Math.min(minMagnitude, location.minMagnitude);
+
+			double angle = location.radius / EARTH_RADIUS;
+			if (angle >= Math.PI) {
+				maxHaversines[i] = 2;
+				wide[i] = true;
+				wideCount++;
+				continue;
+			}
+			double sin = Math.sin(angle / 2);
+			maxHaversines[i] = sin * sin;
+
+			if (!getRange(location, angle, ranges, i * 4)) {
+				wide[i] = true;
+				wideCount++;
+				continue;
+			}
+			for (int row = ranges[i * 4]; row <= ranges[i * 4 + 1]; row++) {
+				for (int k = ranges[i * 4 + 2]; k <= ranges[i * 4 + 3]; k++) {
+					cellStart[cellOf(row, k) + 1]++;
+				}
+			}
+		}
+		this.minMagnitude = minMagnitude;
+
+		for (int c = 0; c < ROWS * COLUMNS; c++) {
+			cellStart[c + 1] += cellStart[c];
+		}
+
+		// Urutan lokasi dalam setiap sel tetap sesuai urutan list
+		cellItems = new int[cellStart[ROWS * COLUMNS]];
+		wideItems = new int[wideCount];
+		int[] next = new int[ROWS * COLUMNS];
+		System.arraycopy(cellStart, 0, next, 0, next.length);
+		int w = 0;
+		for (int i = 0; i < n; i++) {
+			if (wide[i]) {
+				wideItems[w++] = i;
+				continue;
+			}
+			for (int row = ranges[i * 4]; row <= ranges[i * 4 + 1]; row++) {
+				for (int k = ranges[i * 4 + 2]; k <= ranges[i * 4 + 3]; k++) {
+					cellItems[next[cellOf(row, k)]++] = i;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Menghitung rentang sel yang beririsan dengan lingkaran pantauan, yaitu
+	 * kotak latitude/longitude yang melingkupi lingkaran tersebut.
+	 *
+	 * @param location Lokasi pantauan
+	 * @param angle Radius dalam radian
+	 * @param ranges Diisi dengan baris awal, baris akhir, kolom awal, kolom akhir
+	 * @param offset Posisi pada ranges
+	 * @return False jika rentangnya mencakup lebih dari {@link #MAX_CELLS} sel
+	 */
+	private static boolean getRange(WatchedLocationDTO location, double angle, 
+			int[] ranges, int offset) {
+		double radius = Math.toDegrees(angle);
+		double minLatitude = location.latitude - radius;
+		double maxLatitude = location.latitude + radius;
+
+		int fromColumn;
+		int toColumn;
+		double sin = Math.sin(angle) / Math.cos(Math.toRadians(location.latitude));
+		if (minLatitude <= -90 || maxLatitude >= 90 || sin >= 1) {
+			// Lingkaran mencakup kutub, semua longitude
+			fromColumn = 0;
+			toColumn = COLUMNS - 1;
+		} else {
+			// Longitude terjauh dari lingkaran pada bola
+			double halfWidth = Math.toDegrees(Math.asin(sin));
+			fromColumn = (int) Math.floor((location.longitude - halfWidth + 180) / CELL_SIZE);
+			toColumn = (int) Math.floor((location.longitude + halfWidth + 180) / CELL_SIZE);
+			if (toColumn - fromColumn + 1 >= COLUMNS) {
+				fromColumn = 0;
+				toColumn = COLUMNS - 1;
+			}
+		}
+
+		int fromRow = rowOf(minLatitude);
+		int toRow = rowOf(maxLatitude);
+		if ((toRow - fromRow + 1) * (toColumn - fromColumn + 1) > MAX_CELLS) return false;
+
+		ranges[offset] = fromRow;
+		ranges[offset + 1] = toRow;
+		ranges[offset + 2] = fromColumn;
+		ranges[offset + 3] = toColumn;
+		return true;
+	}
+
+	/**
+	 * Jumlah lokasi pada index.
+	 *
+	 * @return Jumlah lokasi
+	 */
+	public int size() {
+		return locations.length;
+	}
+
+	/**
+	 * Mendapatkan lokasi pantauan berdasarkan id.
+	 *
+	 * @param id Id lokasi
+	 * @return Lokasi, null jika tidak ada
+	 */
+	public WatchedLocationDTO get(long id) {
+		return locationsById.get(id);
+	}
+
+	/**
+	 * Cari lokasi pantauan yang radiusnya mencakup gempa dan magnitudo gempa
+	 * memenuhi minimal magnitudo lokasi tersebut.
+	 *
+	 * @param quake Data gempa
+	 * @param out Diisi dengan lokasi yang cocok
+	 * @return Jumlah lokasi yang cocok
+	 */
+	public int query(EarthquakeDTO quake, List<WatchedLocationDTO> out) {
+		float magnitude = quake.magnitude;
+		if (magnitude < minMagnitude) return 0;
+
+		double latitude = Math.toRadians(quake.latitude);
+		double longitude = Math.toRadians(quake.longitude);
+		double cosLatitude = Math.cos(latitude);
+
+		int count = 0;
+		int cell = cellOf(rowOf(quake.latitude), 
+				(int) Math.floor((quake.longitude + 180) / CELL_SIZE));
+		for (int j = cellStart[cell]; j < cellStart[cell + 1]; j++) {
+			int i = cellItems[j];
+			if (matches(i, magnitude, latitude, longitude, cosLatitude)) {
+				out.add(locations[i]);
+				count++;
+			}
+		}
+		for (int i : wideItems) {
+			if (matches(i, magnitude, latitude, longitude, cosLatitude)) {
+				out.add(locations[i]);
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private boolean matches(int i, float magnitude, double latitude, double longitude, 
+			double cosLatitude) {
+		if (magnitude < minMagnitudes[i]) return false;
+
+		double sinLat = Math.sin((latitude - latitudes[i]) / 2);
+		double sinLon = Math.sin((longitude - longitudes[i]) / 2);
+		return sinLat * sinLat + cosLatitude * cosLatitudes[i] * sinLon * sinLon 
+				<= maxHaversines[i];
+	}
+
+	/**
+	 * Posisi sel, kolom dinormalisasi sehingga kolom di luar 0 s/d COLUMNS - 1 
+	 * melewati garis 180 derajat.
+	 */
+	private static int cellOf(int row, int column) {
+		column %= COLUMNS;
+		if (column < 0) column += COLUMNS;
+		return row * COLUMNS + column;
+	}
+
+	private static int rowOf(double latitude) {
+		int row = (int) Math.floor((latitude + 90) / CELL_SIZE);
+		if (row < 0) return 0;
+		return (row >= ROWS) ? ROWS - 1 : row;
+	}
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2011 Adi Sayoga.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.adisayoga.earthquake.models;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.adisayoga.earthquake.utils.BitmapUtils;
+
+/**
+ * Semua gambar globe USGS dalam satu file untuk mode offline. Globe hanya ada
+ * untuk setiap 5 derajat latitude/longitude, sehingga jumlahnya tetap (37 x 73
+ * sel) dan posisinya pada file dapat langsung dihitung.
+ * <p>
+ * Format file: magic, versi, jumlah sel, kemudian tabel offset dan panjang data
+ * setiap sel (int), diikuti data JPEG setiap sel apa adanya. Sel yang panjangnya
+ * 0 belum berhasil di-download. File dibaca melalui memory-mapped buffer, gambar
+ * satu sel adalah potongan (slice) dari buffer tersebut tanpa disalin.
+ *
+ * @author Adi Sayoga
+ */
+public class GlobeAtlas {
+
+	private static final String TAG = "GlobeAtlas";
+	private static final String FILE_NAME = "globes.atlas";
+
+	/** Action intent untuk membuat atlas pada {@link com.adisayoga.earthquake.services.GlobeAtlasService} */
+	public static final String ACTION_BUILD = "com.adisayoga.earthquake.BUILD_GLOBE_ATLAS";
+
+	private static final int MAGIC = 0x474c4241; // "GLBA"
+	private static final int VERSION = 1;
+
+	/** Jarak antar globe (derajat) */
+	private static final int STEP = 5;
+	private static final int ROWS = 180 / STEP + 1;
+	private static final int COLUMNS = 360 / STEP + 1;
+	private static final int CELLS = ROWS * COLUMNS;
+
+	/** Ukuran header: magic, versi, jumlah sel, kemudian offset dan panjang setiap sel */
+	private static final int HEADER_SIZE = 12 + CELLS * 8;
+
+	private static GlobeAtlas instance = null;
+
+	private final File file;
+	private ByteBuffer buffer = null;
+
+	private GlobeAtlas(Context context) {
+		file = new File(context.getFilesDir(), FILE_NAME);
+		open();
+	}
+
+	public static synchronized GlobeAtlas getInstance(Context context) {
+		if (instance == null) instance = new GlobeAtlas(context.getApplicationContext());
+		return instance;
+	}
+
+	/**
+	 * Map file atlas ke memory, jika ada dan valid.
+	 */
+	private synchronized void open() {
+		buffer = null;
+		if (!file.exists()) return;
+
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			FileChannel channel = raf.getChannel();
+			// Mapping tetap berlaku setelah file ditutup
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (mapped.capacity() < HEADER_SIZE || mapped.getInt(0) != MAGIC
+					|| mapped.getInt(4) != VERSION || mapped.getInt(8) != CELLS) {
+				Log.w(TAG, "File atlas tidak valid, diabaikan");
+				return;
+			}
+			buffer = mapped;
+
+		} catch (IOException e) {
+			Log.w(TAG, "Gagal membuka atlas: " + e.getMessage());
+
+		} finally {
+			try { if (raf != null) raf.close(); } catch (IOException e) {}
+		}
+	}
+
+	/**
+	 * Apakah atlas sudah tersedia.
+	 *
+	 * @return True jika ada
+	 */
+	public synchronized boolean isAvailable() {
+		return buffer != null;
+	}
+
+	/**
+	 * Mendapatkan data JPEG globe dari atlas.
+	 *
+	 * @param url URL globe ({@link UsgsSource#getGlobeURL})
+	 * @return Buffer read-only berisi data gambar (tanpa disalin), atau null jika
+	 *         tidak ada pada atlas
+	 */
+	public ByteBuffer get(URL url) {
+		int cell = getCell(url);
+		if (cell < 0) return null;
+		return get(cell);
+	}
+
+	private synchronized ByteBuffer get(int cell) {
+		if (buffer == null) return null;
+
+		int offset = buffer.getInt(12 + cell * 8);
+		int length = buffer.getInt(12 + cell * 8 + 4);
+		if (length <= 0 || offset < HEADER_SIZE || offset + length > buffer.capacity()) {
+			return null;
+		}
+
+		ByteBuffer slice = buffer.duplicate();
+		slice.position(offset);
+		slice.limit(offset + length);
+		return slice.slice().asReadOnlyBuffer();
+	}
+
+	/**
+	 * Buat atlas: globe yang sudah ada pada atlas lama digunakan lagi, sisanya
+	 * di-download. Atlas baru ditulis ke file sementara dan baru menggantikan
+	 * atlas lama setelah selesai. Jangan dipanggil dari UI thread.
+	 *
+	 * @param canceller Dicek sebelum setiap download, atlas tidak diganti jika
+	 *        dibatalkan; boleh null
+	 * @return Jumlah globe yang belum berhasil di-download, atau -1 jika gagal
+	 */
+	public int build(Canceller canceller) {
+		File temp = new File(file.getPath() + ".tmp");
+		RandomAccessFile out = null;
+		int missing = 0;
+		try {
+			out = new RandomAccessFile(temp, "rw");
+			out.setLength(0);
+			out.seek(HEADER_SIZE);
+
+			int[] offsets = new int[CELLS];
+			int[] lengths = new int[CELLS];
+			for (int row = 0; row < ROWS; row++) {
+				for (int column = 0; column < COLUMNS; column++) {
+					if (canceller != null && canceller.isCancelled()) {
+						Log.d(TAG, "Pembuatan atlas dibatalkan");
+						return -1;
+					}
+
+					int cell = row * COLUMNS + column;
+					byte[] data = getData(cell, row * STEP - 90, column * STEP - 180);
+					if (data == null) {
+						missing++;
+						continue;
+					}
+					offsets[cell] = (int) out.getFilePointer();
+					lengths[cell] = data.length;
+					out.write(data);
+				}
+			}
+
+			out.seek(0);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(CELLS);
+			for (int cell = 0; cell < CELLS; cell++) {
+				out.writeInt(offsets[cell]);
+				out.writeInt(lengths[cell]);
+			}
+			out.close();
+			out = null;
+
+			// Pembatalan dicek dengan lock yang sama dengan delete(), sehingga atlas
+			// yang baru dihapus tidak diganti oleh pembuatan yang sudah dibatalkan
+			synchronized (this) {
+				if (canceller != null && canceller.isCancelled()) {
+					Log.d(TAG, "Pembuatan atlas dibatalkan");
+					return -1;
+				}
+				if (!temp.renameTo(file)) throw new IOException("Gagal mengganti " + file);
+				open();
+			}
+			Log.i(TAG, "Atlas selesai, " + missing + " globe belum tersedia");
+			return missing;
+
+		} catch (IOException e) {
+			Log.w(TAG, "Gagal membuat atlas: " + e.getMessage());
+			return -1;
+
+		} finally {
+			try { if (out != null) out.close(); } catch (IOException e) {}
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Data globe satu sel dari atlas lama, atau download jika belum ada.
+	 */
+	private byte[] getData(int cell, int latitude, int longitude) {
+		ByteBuffer old = get(cell);
+		if (old != null) {
+			byte[] data = new byte[old.remaining()];
+			old.get(data);
+			return data;
+		}
+
+		URL url = UsgsSource.getGlobeURL(latitude, longitude);
+		return (url != null) ? BitmapUtils.download(url) : null;
+	}
+
+	/**
+	 * Hapus atlas, globe kembali diambil dari server.
+	 */
+	public synchronized void delete() {
+		buffer = null;
+		file.delete();
+	}
+
+	/**
+	 * Posisi sel dari nama file globe (misalnya -5_120.jpg).
+	 *
+	 * @param url URL globe
+	 * @return Posisi sel, atau -1 jika bukan URL globe
+	 */
+	private static int getCell(URL url) {
+		String path = url.getPath();
+		String name = path.substring(path.lastIndexOf('/') + 1);
+		int separator = name.indexOf('_', 1);
+		int dot = name.lastIndexOf('.');
+		if (separator < 0 || dot < separator) return -1;
+
+		try {
+			int latitude = Integer.parseInt(name.substring(0, separator));
+			int longitude = Integer.parseInt(name.substring(separator + 1, dot));
+			int row = (latitude + 90) / STEP;
+			int column = (longitude + 180) / STEP;
+			if (latitude % STEP != 0 || longitude % STEP != 0) return -1;
+			if (row < 0 || row >= ROWS || column < 0 || column >= COLUMNS) return -1;
+			return row * COLUMNS + column;
+
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Pemeriksa pembatalan pembuatan atlas.
+	 */
+	public interface Canceller {
+
+		/**
+		 * @return True jika pembuatan atlas harus dihentikan
+		 */
+		public boolean isCancelled();
+	}
+}
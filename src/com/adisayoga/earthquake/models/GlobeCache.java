@@ -0,0 +1,268 @@
+/*
+ * Copyright 2011 Adi Sayoga.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.adisayoga.earthquake.models;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import com.adisayoga.earthquake.utils.BitmapUtils;
+
+/**
+ * Cache gambar globe USGS dua tingkat: memory (LRU berdasarkan jumlah byte) dan
+ * disk. Yang disimpan adalah gambar yang sudah diperkecil sesuai ukuran view dan
+ * sudah dibulatkan, sehingga membuka detail gempa yang globe-nya sudah pernah
+ * diambil tidak memerlukan jaringan maupun decode ukuran penuh.
+ * <p>
+ * Globe dikelompokkan per 5 derajat ({@link UsgsSource#getGlobeURL}), sehingga
+ * jumlah gambar berbeda hanya beberapa ribu. Jika mode offline aktif
+ * ({@link GlobeAtlas}), gambar diambil dari atlas, bukan dari server.
+ *
+ * @author Adi Sayoga
+ */
+public class GlobeCache {
+
+	private static final String TAG = "GlobeCache";
+	private static final String DIR_NAME = "globes";
+
+	/** Ukuran view globe pada layout detail gempa (dip) */
+	public static final int GLOBE_SIZE = 146;
+
+	/** Batas memory maksimal untuk semua globe (byte) */
+	private static final int MAX_MEMORY_BYTES = 4 * 1024 * 1024;
+
+	/** Batas ukuran semua file globe pada disk (byte) */
+	private static final long MAX_DISK_BYTES = 8 * 1024 * 1024;
+
+	private static GlobeCache instance = null;
+
+	private final File dir;
+	private final GlobeAtlas atlas;
+	private final int size;
+	private final int maxMemoryBytes;
+	private int memoryBytes = 0;
+
+	// Diurutkan berdasarkan akses terakhir, yang paling lama di awal
+	private final Map<String, Bitmap> bitmaps = new LinkedHashMap<String, Bitmap>(16, 0.75f, true);
+
+	private GlobeCache(Context context) {
+		dir = new File(context.getCacheDir(), DIR_NAME);
+		atlas = GlobeAtlas.getInstance(context);
+		float density = context.getResources().getDisplayMetrics().density;
+		size = (int) (GLOBE_SIZE * density + 0.5f);
+
+		// Maksimal 1/16 dari memory aplikasi
+		maxMemoryBytes = (int) Math.min(MAX_MEMORY_BYTES, Runtime.getRuntime().maxMemory() / 16);
+	}
+
+	public static synchronized GlobeCache getInstance(Context context) {
+		if (instance == null) instance = new GlobeCache(context.getApplicationContext());
+		return instance;
+	}
+
+	/**
+	 * Mendapatkan globe dari memory saja, aman dipanggil dari UI thread.
+	 *
+	 * @param url URL globe
+	 * @return Globe, atau null jika tidak ada di memory
+	 */
+	public synchronized Bitmap getCached(URL url) {
+		return bitmaps.get(getKey(url));
+	}
+
+	/**
+	 * Mendapatkan globe dari memory, disk, atau jika belum ada download dari
+	 * server. Jangan dipanggil dari UI thread.
+	 *
+	 * @param url URL globe
+	 * @return Globe, atau null jika gagal
+	 */
+	public Bitmap get(URL url) {
+		String key = getKey(url);
+		Bitmap bitmap;
+		synchronized (this) {
+			bitmap = bitmaps.get(key);
+		}
+		if (bitmap != null) return bitmap;
+
+		bitmap = load(url, key);
+		if (bitmap != null) putMemory(key, bitmap);
+		return bitmap;
+	}
+
+	/**
+	 * Download globe ke disk jika belum ada, tanpa menyimpannya di memory.
+	 * Digunakan oleh service untuk gempa yang kemungkinan besar akan dibuka.
+	 * Jangan dipanggil dari UI thread.
+	 *
+	 * @param url URL globe
+	 */
+	public void prefetch(URL url) {
+		String key = getKey(url);
+		synchronized (this) {
+			if (bitmaps.containsKey(key)) return;
+		}
+		if (getFile(key).exists()) return;
+
+		Bitmap bitmap = load(url, key);
+		if (bitmap != null) bitmap.recycle();
+	}
+
+	/**
+	 * Baca globe dari disk, atau dari atlas/download, perkecil, bulatkan dan 
+	 * simpan ke disk.
+	 */
+	private Bitmap load(URL url, String key) {
+		File file = getFile(key);
+		if (file.exists()) {
+			Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+			if (bitmap != null) {
+				// Tandai baru digunakan, file yang paling lama tidak digunakan dihapus lebih dulu
+				file.setLastModified(System.currentTimeMillis());
+				return bitmap;
+			}
+			file.delete();
+		}
+
+		Bitmap sampled;
+		ByteBuffer packed = atlas.get(url);
+		if (packed != null) {
+			sampled = BitmapUtils.decodeSampled(packed, size, size);
+		} else {
+			byte[] data = BitmapUtils.download(url);
+			if (data == null) return null;
+			sampled = BitmapUtils.decodeSampled(data, size, size);
+		}
+		if (sampled == null) return null;
+		Bitmap scaled = sampled;
+		if (sampled.getWidth() != size || sampled.getHeight() != size) {
+			scaled = Bitmap.createScaledBitmap(sampled, size, size, true);
+			if (scaled != sampled) sampled.recycle();
+		}
+		Bitmap globe = BitmapUtils.getRoundedCorner(scaled, size / 2);
+		scaled.recycle();
+
+		saveFile(file, globe);
+		return globe;
+	}
+
+	private void saveFile(File file, Bitmap bitmap) {
+		OutputStream out = null;
+		try {
+			if (!dir.exists()) dir.mkdirs();
+			// PNG agar sisi yang transparan tetap tersimpan
+			out = new FileOutputStream(file);
+			bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+
+		} catch (IOException e) {
+			Log.w(TAG, "Gagal menyimpan globe " + file.getName() + ": " + e.getMessage());
+			file.delete();
+
+		} finally {
+			try { if (out != null) out.close(); } catch (IOException e) {}
+		}
+		trimDisk();
+	}
+
+	/**
+	 * Hapus file yang paling lama tidak digunakan sampai ukuran semua file di
+	 * bawah {@link #MAX_DISK_BYTES}.
+	 */
+	private synchronized void trimDisk() {
+		File[] files = dir.listFiles();
+		if (files == null) return;
+
+		long total = 0;
+		for (File file : files) {
+			total += file.length();
+		}
+		if (total <= MAX_DISK_BYTES) return;
+
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				long diff = a.lastModified() - b.lastModified();
+				return (diff < 0) ? -1 : (diff > 0) ? 1 : 0;
+			}
+		});
+		for (int i = 0; i < files.length && total > MAX_DISK_BYTES; i++) {
+			total -= files[i].length();
+			files[i].delete();
+		}
+	}
+
+	private synchronized void putMemory(String key, Bitmap bitmap) {
+		Bitmap old = bitmaps.put(key, bitmap);
+		if (old != null) memoryBytes -= getBytes(old);
+		memoryBytes += getBytes(bitmap);
+
+		// Bitmap yang dibuang tidak di-recycle, mungkin masih ditampilkan
+		Iterator<Bitmap> iterator = bitmaps.values().iterator();
+		while (memoryBytes > maxMemoryBytes && iterator.hasNext()) {
+			Bitmap eldest = iterator.next();
+			if (eldest == bitmap) break;
+			memoryBytes -= getBytes(eldest);
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Hapus semua globe di memory dan disk.
+	 */
+	public synchronized void clear() {
+		bitmaps.clear();
+		memoryBytes = 0;
+		File[] files = dir.listFiles();
+		if (files == null) return;
+		for (File file : files) {
+			file.delete();
+		}
+	}
+
+	private File getFile(String key) {
+		return new File(dir, key + ".png");
+	}
+
+	/**
+	 * Key cache dari nama file globe (misalnya -5_120), ditambah ukuran gambar
+	 * karena ukuran berbeda untuk setiap kepadatan layar.
+	 */
+	private String getKey(URL url) {
+		String path = url.getPath();
+		String name = path.substring(path.lastIndexOf('/') + 1);
+		int dot = name.lastIndexOf('.');
+		if (dot > 0) name = name.substring(0, dot);
+		return name + "_" + size;
+	}
+
+	private static int getBytes(Bitmap bitmap) {
+		return bitmap.getRowBytes() * bitmap.getHeight();
+	}
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2011 Adi Sayoga.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.adisayoga.earthquake.models;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.adisayoga.earthquake.dto.OutboxDTO;
+import com.adisayoga.earthquake.providers.DatabaseHelper;
+import com.adisayoga.earthquake.providers.OutboxColumns;
+
+/**
+ * Antrian pengiriman pemberitahuan yang disimpan di database, sehingga
+ * pemberitahuan yang gagal dikirim (misalnya jaringan terputus) dikirim ulang
+ * nanti, termasuk setelah proses restart.
+ * <p>
+ * Setiap pengiriman memiliki kunci idempotensi ({@link OutboxDTO#getKey}),
+ * pengiriman yang kuncinya sudah ada diabaikan. Sebelum dikirim, pengiriman
+ * ditandai sedang dikirim dengan lease (lihat {@link #claimDue}), dan hasilnya
+ * disimpan per penerima segera setelah dikirim, sehingga pengiriman yang sudah
+ * berhasil tidak dikirim lagi. Pengiriman yang gagal dicoba lagi dengan jeda
+ * yang bertambah dua kali lipat setiap percobaan. Outbox tidak dibuka melalui
+ * provider karena berisi alamat penerima.
+ *
+ * @author Adi Sayoga
+ */
+public class OutboxModel {
+
+	private static final String TAG = "OutboxModel";
+
+	/** Jeda sebelum percobaan kedua */
+	private static final long BASE_DELAY = 30 * 1000; // 30 detik
+
+	/** Jeda maksimal antar percobaan */
+	private static final long MAX_DELAY = 60 * 60 * 1000; // 1 jam
+
+	/** Jumlah percobaan maksimal, setelah itu pengiriman dianggap gagal */
+	public static final int MAX_ATTEMPTS = 10;
+
+	/**
+	 * Lama lease pengiriman. Harus lebih lama dari batas waktu saluran ditambah
+	 * pengiriman SMTP/HTTP yang tidak dapat diinterupsi.
+	 */
+	public static final long LEASE_TIME = 10 * 60 * 1000; // 10 menit
+
+	private static final String[] PROJECTION = new String[] {
+		OutboxColumns._ID, OutboxColumns.KEY, OutboxColumns.CHANNEL,
+		OutboxColumns.RECIPIENT, OutboxColumns.QUAKE_ID, OutboxColumns.STATUS,
+		OutboxColumns.ATTEMPTS, OutboxColumns.NEXT_ATTEMPT, OutboxColumns.CREATED };
+
+	private static OutboxModel instance = null;
+
+	private final DatabaseHelper dbHelper;
+
+	private OutboxModel(Context context) {
+		dbHelper = DatabaseHelper.getInstance(context);
+	}
+
+	public static synchronized OutboxModel getInstance(Context context) {
+		if (instance == null) instance = new OutboxModel(context);
+		return instance;
+	}
+
+	/**
+	 * Masukkan pengiriman ke antrian dalam satu transaksi. Pengiriman yang
+	 * kuncinya sudah ada (sudah diantrikan atau sudah terkirim) diabaikan.
+	 *
+	 * @param entries Pengiriman
+	 * @param now Waktu saat ini, pengiriman langsung dapat dikirim
+	 * @return Jumlah pengiriman yang baru diantrikan
+	 */
+	public synchronized int enqueue(List<OutboxDTO> entries, long now) {
+		if (entries.isEmpty()) return 0;
+
+		SQLiteDatabase db = dbHelper.getWritableDatabase();
+		SQLiteStatement insert = db.compileStatement("INSERT OR IGNORE INTO "
+				+ OutboxColumns.TABLE_NAME + " (" + OutboxColumns.KEY + ", "
+				+ OutboxColumns.CHANNEL + ", " + OutboxColumns.RECIPIENT + ", "
+				+ OutboxColumns.QUAKE_ID + ", " + OutboxColumns.STATUS + ", "
+				+ OutboxColumns.ATTEMPTS + ", " + OutboxColumns.NEXT_ATTEMPT + ", "
+				+ OutboxColumns.CREATED + ") VALUES (?, ?, ?, ?, ?, 0, ?, ?)");
+		// Jumlah baris yang berubah oleh insert terakhir, 0 jika diabaikan
+		SQLiteStatement changes = db.compileStatement("SELECT changes()");
+
+		int count = 0;
+		db.beginTransaction();
+		try {
+			for (OutboxDTO entry : entries) {
+				insert.bindString(1, entry.key);
+				insert.bindString(2, entry.channel);
+				insert.bindString(3, entry.recipient);
+				insert.bindLong(4, entry.quakeId);
+				insert.bindLong(5, OutboxColumns.STATUS_PENDING);
+				insert.bindLong(6, now);
+				insert.bindLong(7, now);
+				insert.execute();
+				if (changes.simpleQueryForLong() > 0) count++;
+			}
+			db.setTransactionSuccessful();
+
+		} finally {
+			db.endTransaction();
+			insert.close();
+			changes.close();
+		}
+
+		Log.d(TAG, "Diantrikan " + count + " dari " + entries.size() + " pengiriman");
+		return count;
+	}
+
+	/**
+	 * Mengambil pengiriman yang sudah waktunya dikirim, diurutkan sesuai urutan
+	 * masuk antrian, dan menandainya sedang dikirim dengan lease
+	 * {@link #LEASE_TIME} dalam satu transaksi. Selama lease belum habis,
+	 * pengiriman tersebut tidak diambil lagi, walaupun pengirimnya masih
+	 * berjalan setelah batas waktu saluran. Lease yang sudah habis (proses
+	 * dihentikan sebelum hasilnya disimpan) diambil lagi dan dihitung sebagai
+	 * satu percobaan.
+	 *
+	 * @param now Waktu saat ini
+	 * @param limit Jumlah maksimal
+	 * @return List pengiriman, {@link OutboxDTO#lease} sudah terisi
+	 */
+	public synchronized List<OutboxDTO> claimDue(long now, int limit) {
+		SQLiteDatabase db = dbHelper.getWritableDatabase();
+		SQLiteStatement claim = db.compileStatement("UPDATE " + OutboxColumns.TABLE_NAME
+				+ " SET " + OutboxColumns.STATUS + " = " + OutboxColumns.STATUS_SENDING
+				+ ", " + OutboxColumns.ATTEMPTS + " = ?, " + OutboxColumns.NEXT_ATTEMPT
+				+ " = ? WHERE " + OutboxColumns._ID + " = ?");
+		SQLiteStatement update = null;
+
+		long lease = now + LEASE_TIME;
+		List<OutboxDTO> entries = new ArrayList<OutboxDTO>();
+		db.beginTransaction();
+		try {
+			Cursor cursor = db.query(OutboxColumns.TABLE_NAME, PROJECTION,
+					OutboxColumns.STATUS + " IN (" + OutboxColumns.STATUS_PENDING + ", "
+					+ OutboxColumns.STATUS_SENDING + ") AND " + OutboxColumns.NEXT_ATTEMPT
+					+ " <= " + now, null, null, null, OutboxColumns._ID,
+					Integer.toString(limit));
+			try {
+				while (cursor.moveToNext()) {
+					OutboxDTO entry = new OutboxDTO(cursor.getLong(OutboxColumns._ID_INDEX),
+							cursor.getString(OutboxColumns.KEY_INDEX),
+							cursor.getString(OutboxColumns.CHANNEL_INDEX),
+							cursor.getString(OutboxColumns.RECIPIENT_INDEX),
+							cursor.getLong(OutboxColumns.QUAKE_ID_INDEX),
+							cursor.getInt(OutboxColumns.ATTEMPTS_INDEX));
+
+					if (cursor.getInt(OutboxColumns.STATUS_INDEX)
+							== OutboxColumns.STATUS_SENDING) {
+						// Lease habis, mungkin sudah terkirim sebelum proses dihentikan
+						Log.w(TAG, "Lease habis, dikirim ulang: " + entry.key);
+						entry.attempts++;
+						if (entry.attempts >= MAX_ATTEMPTS) {
+							if (update == null) update = compileUpdate(db);
+							update(update, entry, OutboxColumns.STATUS_FAILED, entry.attempts,
+									now);
+							continue;
+						}
+					}
+
+					claim.bindLong(1, entry.attempts);
+					claim.bindLong(2, lease);
+					claim.bindLong(3, entry.id);
+					claim.execute();
+					entry.lease = lease;
+					entries.add(entry);
+				}
+			} finally {
+				cursor.close();
+			}
+			db.setTransactionSuccessful();
+
+		} finally {
+			db.endTransaction();
+			claim.close();
+			if (update != null) update.close();
+		}
+		return entries;
+	}
+
+	/**
+	 * Simpan hasil pengiriman dalam satu transaksi, dipanggil segera setelah
+	 * setiap penerima selesai dikirim. Pengiriman yang gagal dijadwalkan ulang,
+	 * atau ditandai gagal jika sudah mencapai {@link #MAX_ATTEMPTS}.
+	 * <p>
+	 * Pengiriman yang berhasil selalu ditandai terkirim. Pengiriman yang gagal
+	 * hanya diubah jika lease-nya masih dipegang, jika lease sudah habis dan
+	 * diambil lagi, hasilnya ditentukan oleh pengirim yang baru.
+	 *
+	 * @param sent Pengiriman yang berhasil
+	 * @param failed Pengiriman yang gagal dan perlu dicoba lagi
+	 * @param dropped Pengiriman yang tidak mungkin dikirim (misalnya data gempa
+	 *        sudah dihapus), tidak dicoba lagi
+	 * @param now Waktu saat ini
+	 */
+	public synchronized void commit(List<OutboxDTO> sent, List<OutboxDTO> failed,
+			List<OutboxDTO> dropped, long now) {
+		if (sent.isEmpty() && failed.isEmpty() && dropped.isEmpty()) return;
+
+		SQLiteDatabase db = dbHelper.getWritableDatabase();
+		SQLiteStatement update = compileUpdate(db);
+		SQLiteStatement release = db.compileStatement("UPDATE " + OutboxColumns.TABLE_NAME
+				+ " SET " + OutboxColumns.STATUS + " = ?, " + OutboxColumns.ATTEMPTS
+				+ " = ?, " + OutboxColumns.NEXT_ATTEMPT + " = ? WHERE "
+				+ OutboxColumns._ID + " = ? AND " + OutboxColumns.STATUS + " = "
+				+ OutboxColumns.STATUS_SENDING + " AND " + OutboxColumns.NEXT_ATTEMPT
+				+ " = ?");
+		// Jumlah baris yang berubah oleh update terakhir, 0 jika lease sudah hilang
+		SQLiteStatement changes = db.compileStatement("SELECT changes()");
+
+		int retried = 0;
+		int lost = 0;
+		db.beginTransaction();
+		try {
+			for (OutboxDTO entry : sent) {
+				update(update, entry, OutboxColumns.STATUS_SENT, entry.attempts + 1, now);
+			}
+			for (OutboxDTO entry : dropped) {
+				release.bindLong(5, entry.lease);
+				update(release, entry, OutboxColumns.STATUS_FAILED, entry.attempts, now);
+				if (changes.simpleQueryForLong() == 0) lost++;
+			}
+			for (OutboxDTO entry : failed) {
+				int attempts = entry.attempts + 1;
+				release.bindLong(5, entry.lease);
+				if (attempts >= MAX_ATTEMPTS) {
+					Log.w(TAG, "Pengiriman gagal setelah " + attempts + " percobaan: "
+							+ entry.key);
+					update(release, entry, OutboxColumns.STATUS_FAILED, attempts, now);
+				} else {
+					update(release, entry, OutboxColumns.STATUS_PENDING, attempts,
+							now + getDelay(attempts));
+					retried++;
+				}
+				if (changes.simpleQueryForLong() == 0) lost++;
+			}
+			db.setTransactionSuccessful();
+
+		} finally {
+			db.endTransaction();
+			update.close();
+			release.close();
+			changes.close();
+		}
+
+		Log.d(TAG, "Terkirim " + sent.size() + ", dicoba lagi " + retried + ", gagal "
+				+ (failed.size() - retried + dropped.size()) + ", lease hilang " + lost);
+	}
+
+	private static SQLiteStatement compileUpdate(SQLiteDatabase db) {
+		return db.compileStatement("UPDATE " + OutboxColumns.TABLE_NAME
+				+ " SET " + OutboxColumns.STATUS + " = ?, " + OutboxColumns.ATTEMPTS
+				+ " = ?, " + OutboxColumns.NEXT_ATTEMPT + " = ? WHERE "
+				+ OutboxColumns._ID + " = ?");
+	}
+
+	private void update(SQLiteStatement update, OutboxDTO entry, int status, int attempts,
+			long nextAttempt) {
+		update.bindLong(1, status);
+		update.bindLong(2, attempts);
+		update.bindLong(3, nextAttempt);
+		update.bindLong(4, entry.id);
+		update.execute();
+	}
+
+	/**
+	 * Jeda sebelum percobaan berikutnya, dua kali lipat untuk setiap percobaan.
+	 *
+	 * @param attempts Jumlah percobaan yang sudah dilakukan
+	 * @return Jeda (milliseconds)
+	 */
+	private static long getDelay(int attempts) {
+		long delay = BASE_DELAY << Math.min(attempts - 1, 16);
+		return Math.min(delay, MAX_DELAY);
+	}
+
+	/**
+	 * Mendapatkan waktu percobaan berikutnya yang paling awal, termasuk batas
+	 * waktu lease pengiriman yang sedang dikirim.
+	 *
+	 * @return Waktu, atau -1 jika antrian kosong
+	 */
+	public synchronized long getNextAttempt() {
+		SQLiteDatabase db = dbHelper.getWritableDatabase();
+		Cursor cursor = db.rawQuery("SELECT MIN(" + OutboxColumns.NEXT_ATTEMPT + ") FROM "
+				+ OutboxColumns.TABLE_NAME + " WHERE " + OutboxColumns.STATUS + " IN ("
+				+ OutboxColumns.STATUS_PENDING + ", " + OutboxColumns.STATUS_SENDING + ")",
+				null);
+		try {
+			if (!cursor.moveToFirst() || cursor.isNull(0)) return -1;
+			return cursor.getLong(0);
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Hapus pengiriman yang sudah selesai (terkirim atau gagal) dan lebih lama
+	 * dari waktu yang ditentukan. Kunci idempotensi gempa yang sudah dihapus
+	 * tidak diperlukan lagi.
+	 *
+	 * @param time Batas waktu
+	 * @return Jumlah data yang dihapus
+	 */
+	public synchronized int deleteBefore(long time) {
+		SQLiteDatabase db = dbHelper.getWritableDatabase();
+		return db.delete(OutboxColumns.TABLE_NAME, OutboxColumns.STATUS + " IN ("
+				+ OutboxColumns.STATUS_SENT + ", " + OutboxColumns.STATUS_FAILED + ") AND " + OutboxColumns.CREATED + " < "
+				+ time, null);
+	}
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright 2011 Adi Sayoga.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.adisayoga.earthquake.models;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.adisayoga.earthquake.dto.EarthquakeDTO;
+
+/**
+ * Data gempa yang sesuai dengan filter (magnitudo minimal dan waktu minimal),
+ * disimpan di memory dan digunakan bersama oleh semua activity. Data di-load
+ * dari provider sekali, setelah itu service hanya mengirimkan id yang berubah,
+ * dan observer diberitahukan perubahannya (diff).
+ * <p>
+ * Data disimpan sebagai {@link QuakeStore.Snapshot} (array primitif per kolom,
+ * bukan objek per gempa) yang tidak pernah diubah. Query ke provider
+ * dijalankan tanpa lock, kemudian snapshot baru dipasang di dalam lock. Pembaca
+ * ({@link #isLoaded(float, long)}, {@link #getQuake(long)}) hanya membaca
+ * snapshot terakhir tanpa lock, sehingga aman dipanggil dari UI thread.
+ * Observer dipanggil pada UI thread.
+ *
+ * @author Adi Sayoga
+ */
+public class QuakeRepository {
+
+	private static final String TAG = "QuakeRepository";
+	private static QuakeRepository instance = null;
+
+	/** Urutan data: dari yang terbaru, kemudian id terbesar */
+	public static final Comparator<EarthquakeDTO> NEWEST_FIRST = new Comparator<EarthquakeDTO>() {
+		@Override
+		public int compare(EarthquakeDTO a, EarthquakeDTO b) {
+			if (a.time != b.time) return (a.time > b.time) ? -1 : 1;
+			if (a.id != b.id) return (a.id > b.id) ? -1 : 1;
+			return 0;
+		}
+	};
+
+	private final Context context;
+	private final EarthquakeModel model;
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	private final List<OnQuakesChangedListener> listeners =
+			new CopyOnWriteArrayList<OnQuakesChangedListener>();
+
+	// Data di memory, null jika belum di-load. Catalog tidak pernah diubah,
+	// perubahan membuat catalog baru yang diganti di dalam lock
+	private volatile Catalog catalog = null;
+
+	// Bertambah setiap catalog diganti, untuk mengetahui apakah load masih berlaku
+	private int generation = 0;
+
+	private QuakeRepository(Context context) {
+		this.context = context.getApplicationContext();
+		model = new EarthquakeModel(this.context);
+	}
+
+	public static synchronized QuakeRepository getInstance(Context context) {
+		if (instance == null) instance = new QuakeRepository(context);
+		return instance;
+	}
+
+	/**
+	 * Load data dari provider jika belum di-load atau filter berubah. Query
+	 * dijalankan tanpa lock, hasilnya dipasang sebagai data baru jika data di
+	 * memory tidak berubah selama query. Jangan dipanggil dari UI thread.
+	 *
+	 * @param minMagnitude Magnitudo minimal
+	 * @param minTime Waktu gempa paling lama
+	 * @return Data gempa, diurutkan dengan {@link #NEWEST_FIRST}
+	 */
+	public QuakeStore.Snapshot load(float minMagnitude, long minTime) {
+		int startGeneration;
+		synchronized (this) {
+			if (isLoaded(minMagnitude, minTime)) return catalog.quakes;
+			startGeneration = generation;
+		}
+
+		QuakeStore.Snapshot quakes = QuakeStore.query(context, minMagnitude, minTime);
+
+		synchronized (this) {
+			if (isLoaded(minMagnitude, minTime)) return catalog.quakes;
+			// Data diganti (invalidate atau perubahan dari service) selama query,
+			// hasil query mungkin sudah lama, jadi tidak dipasang
+			if (generation != startGeneration) return quakes;
+
+			catalog = new Catalog(minMagnitude, minTime, quakes);
+			generation++;
+		}
+		return quakes;
+	}
+
+	/**
+	 * Apakah data dengan filter ini sudah ada di memory. Tidak menggunakan lock,
+	 * aman dipanggil dari UI thread.
+	 *
+	 * @param minMagnitude Magnitudo minimal
+	 * @param minTime Waktu gempa paling lama
+	 * @return True jika sudah di-load
+	 */
+	public boolean isLoaded(float minMagnitude, long minTime) {
+		Catalog current = catalog;
+		return current != null && current.matches(minMagnitude, minTime);
+	}
+
+	/**
+	 * Data gempa yang sudah di-load, tanpa mengakses provider.
+	 *
+	 * @return Data gempa, kosong jika belum di-load
+	 */
+	public QuakeStore.Snapshot getSnapshot() {
+		Catalog current = catalog;
+		return (current != null) ? current.quakes : QuakeStore.Snapshot.EMPTY;
+	}
+
+	/**
+	 * Mendapatkan data gempa berdasarkan id. Jika tidak ada di memory, data
+	 * diambil dari provider.
+	 *
+	 * @param id Id tabel
+	 * @return Data gempa, atau null jika tidak ada
+	 */
+	public EarthquakeDTO getQuake(long id) {
+		Catalog current = catalog;
+		if (current != null) {
+			int row = current.quakes.indexOfId(id);
+			if (row >= 0) return current.quakes.toDTO(row);
+		}
+		return model.getQuake(id);
+	}
+
+	/**
+	 * Mendapatkan satu halaman data dengan keyset (time, id). Jika data dengan
+	 * filter ini sudah di-load, halaman diambil dari memory, jika tidak dari
+	 * provider.
+	 *
+	 * @param minMagnitude Magnitudo minimal
+	 * @param minTime Waktu gempa paling lama
+	 * @param after Data terakhir dari halaman sebelumnya, null untuk halaman pertama
+	 * @param limit Jumlah data maksimal
+	 * @return List gempa
+	 */
+	public List<EarthquakeDTO> getPage(float minMagnitude, long minTime,
+			EarthquakeDTO after, int limit) {
+		Catalog current = catalog;
+		if (current == null || !current.matches(minMagnitude, minTime)) {
+			return model.getQuakesPage(minMagnitude, minTime, after, limit);
+		}
+
+		QuakeStore.Snapshot quakes = current.quakes;
+		int start = (after != null) ? quakes.indexAfter(after.time, after.id) : 0;
+		int end = Math.min(start + limit, quakes.size);
+		List<EarthquakeDTO> page = new ArrayList<EarthquakeDTO>(Math.max(0, end - start));
+		for (int row = start; row < end; row++) {
+			page.add(quakes.toDTO(row));
+		}
+		return page;
+	}
+
+	/**
+	 * Terapkan perubahan dari service: data yang ditambahkan atau di-update
+	 * diambil dari provider berdasarkan id-nya (tanpa lock), dan data yang lebih
+	 * lama dari deletedBefore dibuang. Observer diberitahukan perubahannya. Jangan
+	 * dipanggil dari UI thread.
+	 *
+	 * @param addedIds Id data baru
+	 * @param updatedIds Id data yang direvisi
+	 * @param deletedBefore Data yang lebih lama dari waktu ini sudah dihapus
+	 */
+	public void applyChanges(long[] addedIds, long[] updatedIds, long deletedBefore) {
+		Diff diff;
+		if (catalog == null) {
+			// Belum ada data di memory, observer cukup membaca ulang
+			diff = new Diff(true, new long[0], new long[0], new long[0]);
+
+		} else {
+			long[] changedIds = new long[addedIds.length + updatedIds.length];
+			System.arraycopy(addedIds, 0, changedIds, 0, addedIds.length);
+			System.arraycopy(updatedIds, 0, changedIds, addedIds.length, updatedIds.length);
+			List<EarthquakeDTO> changedQuakes = (changedIds.length > 0)
+					? model.getQuakes(changedIds) : new ArrayList<EarthquakeDTO>();
+
+			synchronized (this) {
+				if (catalog == null) {
+					// Di-invalidate selama query
+					diff = new Diff(true, new long[0], new long[0], new long[0]);
+				} else {
+					diff = merge(changedIds, changedQuakes, deletedBefore);
+				}
+			}
+		}
+
+		if (diff.isEmpty()) return;
+		Log.d(TAG, "Perubahan data: " + diff);
+		notifyListeners(diff);
+	}
+
+	/**
+	 * Gabungkan perubahan dengan data di memory menjadi catalog baru. Baris yang
+	 * tidak berubah disalin langsung dari snapshot lama tanpa membuat objek 
+	 * gempa. Hanya dipanggil di dalam lock, tanpa mengakses provider.
+	 */
+	private Diff merge(long[] changedIds, List<EarthquakeDTO> changedQuakes, 
+			long deletedBefore) {
+		Catalog current = catalog;
+		QuakeStore.Snapshot quakes = current.quakes;
+
+		Set<Long> requested = new HashSet<Long>();
+		for (long id : changedIds) {
+			requested.add(id);
+		}
+		Map<Long, EarthquakeDTO> changed = new HashMap<Long, EarthquakeDTO>();
+		for (EarthquakeDTO quake : changedQuakes) {
+			changed.put(quake.id, quake);
+		}
+
+		List<Long> added = new ArrayList<Long>();
+		List<Long> updated = new ArrayList<Long>();
+		List<Long> removed = new ArrayList<Long>();
+
+		// Baris lama yang tetap, data yang sudah dihapus oleh service dibuang
+		Set<Long> existing = new HashSet<Long>();
+		int[] kept = new int[quakes.size];
+		int keptCount = 0;
+		for (int row = 0; row < quakes.size; row++) {
+			long id = quakes.getId(row);
+			if (quakes.getTime(row) < deletedBefore) {
+				removed.add(id);
+			} else if (changed.containsKey(id)) {
+				existing.add(id);
+			} else if (requested.contains(id)) {
+				// Berubah tetapi sudah tidak ada pada provider
+				removed.add(id);
+			} else {
+				kept[keptCount++] = row;
+			}
+		}
+
+		List<EarthquakeDTO> matched = new ArrayList<EarthquakeDTO>();
+		for (EarthquakeDTO quake : changed.values()) {
+			boolean existed = existing.contains(quake.id);
+			boolean matches = quake.magnitude >= current.minMagnitude
+					&& quake.time >= current.minTime && quake.time >= deletedBefore;
+
+			if (matches) {
+				matched.add(quake);
+				if (existed) {
+					updated.add(quake.id);
+				} else {
+					added.add(quake.id);
+				}
+			} else if (existed) {
+				// Data direvisi dan tidak lagi sesuai filter
+				removed.add(quake.id);
+			}
+		}
+
+		if (added.size() > 0 || updated.size() > 0 || removed.size() > 0) {
+			// Gabungkan dua urutan yang sama-sama dari yang terbaru
+			Collections.sort(matched, NEWEST_FIRST);
+			QuakeStore.Builder builder = new QuakeStore.Builder(keptCount + matched.size(), 
+					quakes);
+			int i = 0;
+			int j = 0;
+			while (i < keptCount || j < matched.size()) {
+				if (j == matched.size() || (i < keptCount 
+						&& isNewer(quakes, kept[i], matched.get(j)))) {
+					builder.add(quakes, kept[i++]);
+				} else {
+					builder.add(matched.get(j++));
+				}
+			}
+			catalog = new Catalog(current.minMagnitude, current.minTime, builder.build());
+			generation++;
+		}
+
+		return new Diff(false, toArray(added), toArray(updated), toArray(removed));
+	}
+
+	/**
+	 * Apakah baris snapshot lebih dulu dari data gempa pada urutan 
+	 * {@link #NEWEST_FIRST}.
+	 */
+	private static boolean isNewer(QuakeStore.Snapshot quakes, int row, EarthquakeDTO quake) {
+		long time = quakes.getTime(row);
+		if (time != quake.time) return time > quake.time;
+		return quakes.getId(row) > quake.id;
+	}
+
+	/**
+	 * Hapus semua data di memory, data akan di-load ulang dari provider.
+	 */
+	public void invalidate() {
+		synchronized (this) {
+			catalog = null;
+			generation++;
+		}
+		notifyListeners(new Diff(true, new long[0], new long[0], new long[0]));
+	}
+
+	public void registerListener(OnQuakesChangedListener listener) {
+		listeners.add(listener);
+	}
+
+	public void unregisterListener(OnQuakesChangedListener listener) {
+		listeners.remove(listener);
+	}
+
+	private void notifyListeners(final Diff diff) {
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				for (OnQuakesChangedListener listener : listeners) {
+					listener.onQuakesChanged(diff);
+				}
+			}
+		});
+	}
+
+	private static long[] toArray(List<Long> values) {
+		long[] array = new long[values.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = values.get(i);
+		}
+		return array;
+	}
+
+	/**
+	 * Data gempa di memory untuk satu filter. Tidak pernah diubah setelah dibuat.
+	 */
+	private static class Catalog {
+		final float minMagnitude;
+		final long minTime;
+		final QuakeStore.Snapshot quakes;
+
+		Catalog(float minMagnitude, long minTime, QuakeStore.Snapshot quakes) {
+			this.minMagnitude = minMagnitude;
+			this.minTime = minTime;
+			this.quakes = quakes;
+		}
+
+		boolean matches(float minMagnitude, long minTime) {
+			return this.minMagnitude == minMagnitude && this.minTime == minTime;
+		}
+	}
+
+	/**
+	 * Perubahan data gempa.
+	 */
+	public static class Diff {
+		/** True jika semua data harus dibaca ulang, id perubahan tidak diketahui */
+		public final boolean reset;
+		public final long[] added;
+		public final long[] updated;
+		public final long[] removed;
+
+		Diff(boolean reset, long[] added, long[] updated, long[] removed) {
+			this.reset = reset;
+			this.added = added;
+			this.updated = updated;
+			this.removed = removed;
+		}
+
+		public boolean isEmpty() {
+			return !reset && added.length == 0 && updated.length == 0
+					&& removed.length == 0;
+		}
+
+		@Override
+		public String toString() {
+			return "reset=" + reset + ", added=" + added.length + ", updated="
+					+ updated.length + ", removed=" + removed.length;
+		}
+	}
+
+	/**
+	 * Listener perubahan data gempa.
+	 */
+	public interface OnQuakesChangedListener {
+
+		/**
+		 * Dipanggil pada UI thread saat data gempa berubah.
+		 *
+		 * @param diff Perubahan data
+		 */
+		public void onQuakesChanged(Diff diff);
+	}
+}
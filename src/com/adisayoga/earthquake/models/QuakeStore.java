@@ -0,0 +1,676 @@
+/*
+ * Copyright 2011 Adi Sayoga.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.adisayoga.earthquake.models;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.location.Location;
+import android.util.Log;
+
+import com.adisayoga.earthquake.dto.EarthquakeDTO;
+import com.adisayoga.earthquake.providers.EarthquakeColumns;
+import com.adisayoga.earthquake.providers.EarthquakeProvider;
+
+/**
+ * Penyimpanan data gempa di memory dalam bentuk kolom (array primitif). Data 
+ * gempa tidak disimpan sebagai objek per baris: waktu, magnitudo, kedalaman dan
+ * koordinat (fixed point 1E6, sama dengan GeoPoint) disimpan pada array 
+ * paralel, sedangkan string src, version dan region yang banyak berulang 
+ * disimpan sebagai kode kamus.
+ * <p>
+ * Eqid dikemas menjadi long. Memory per gempa sekitar 60 byte, dibandingkan 
+ * sekitar 330 byte untuk {@link EarthquakeDTO} beserta string-nya dan entry 
+ * map id (lihat QuakeStoreMemoryBenchmark pada project test).
+ * <p>
+ * Data dibaca melalui {@link Snapshot} yang tidak berubah setelah dibuat,
+ * sehingga aman dibaca dari thread manapun. {@link QuakeRepository} menyimpan
+ * data gempa yang digunakan bersama seluruh proses sebagai snapshot ini, dan
+ * perubahan dari service digabungkan menjadi snapshot baru dengan 
+ * {@link Builder}.
+ *
+ * @author Adi Sayoga
+ */
+public class QuakeStore {
+
+	private static final String TAG = "QuakeStore";
+
+	// Urutan kolom query, index sesuai dengan urutan array ini
+	private static final String[] PROJECTION = new String[] {
+		EarthquakeColumns._ID, EarthquakeColumns.SRC, EarthquakeColumns.EQID,
+		EarthquakeColumns.VERSION, EarthquakeColumns.DATE, EarthquakeColumns.LATITUDE,
+		EarthquakeColumns.LONGITUDE, EarthquakeColumns.MAGNITUDE, EarthquakeColumns.DEPTH,
+		EarthquakeColumns.NST, EarthquakeColumns.REGION };
+
+	private QuakeStore() {
+	}
+
+	/**
+	 * Load data gempa yang sesuai filter dari provider dalam satu kali baca,
+	 * diurutkan dari yang terbaru. Jangan dipanggil dari UI thread.
+	 *
+	 * @param context Context
+	 * @param minMagnitude Magnitudo minimal
+	 * @param minTime Waktu gempa paling lama
+	 * @return Snapshot
+	 */
+	public static Snapshot query(Context context, float minMagnitude, long minTime) {
+		Log.i(TAG, "Mengambil data dari provider...");
+
+		String where = EarthquakeColumns.MAGNITUDE + " >= " + minMagnitude
+				+ " AND " + EarthquakeColumns.DATE + " >= " + minTime;
+		ContentResolver resolver = context.getContentResolver();
+		Cursor cursor = resolver.query(EarthquakeProvider.CONTENT_URI, PROJECTION, where,
+				null, EarthquakeColumns.DATE + " DESC, " + EarthquakeColumns._ID + " DESC");
+		Snapshot snapshot;
+		try {
+			snapshot = new Snapshot(cursor);
+		} finally {
+			cursor.close();
+		}
+
+		Log.d(TAG, "Selesai mengambil data, " + snapshot.size + " items");
+		return snapshot;
+	}
+
+	/**
+	 * Membuat snapshot dari list gempa.
+	 *
+	 * @param quakes Data gempa, diurutkan dari yang terbaru (waktu, kemudian id)
+	 * @return Snapshot
+	 */
+	public static Snapshot fromList(List<EarthquakeDTO> quakes) {
+		Builder builder = new Builder(quakes.size());
+		for (EarthquakeDTO quake : quakes) {
+			builder.add(quake);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Data gempa pada satu waktu, diurutkan berdasarkan waktu dari yang terbaru.
+	 * Baris diakses dengan index 0 sampai {@link #size} - 1.
+	 */
+	public static class Snapshot {
+
+		/** Snapshot tanpa data */
+		public static final Snapshot EMPTY = new Snapshot(0).finish();
+
+		/** Jumlah data */
+		public final int size;
+
+		private final long[] ids;
+		private final long[] times;
+		private final float[] magnitudes;
+		private final int[] latitudesE6;
+		private final int[] longitudesE6;
+		private final float[] depths;
+		private final int[] nsts;
+
+		// Eqid dikemas menjadi long, yang tidak bisa dikemas disimpan sebagai string
+		private final long[] eqidKeys;
+		private String[] eqidStrings = null;
+
+		private final StringTable strings;
+		private final int[] sourceCodes;
+		private final int[] versionCodes;
+		private final int[] regionCodes;
+
+		// Index baris diurutkan berdasarkan id, untuk pencarian id
+		private final int[] idOrder;
+
+		private Snapshot(int size) {
+			this(size, new StringTable());
+		}
+
+		private Snapshot(int size, StringTable strings) {
+			this.size = size;
+			ids = new long[size];
+			times = new long[size];
+			magnitudes = new float[size];
+			latitudesE6 = new int[size];
+			longitudesE6 = new int[size];
+			depths = new float[size];
+			nsts = new int[size];
+			eqidKeys = new long[size];
+
+			this.strings = strings;
+			sourceCodes = new int[size];
+			versionCodes = new int[size];
+			regionCodes = new int[size];
+			idOrder = new int[size];
+		}
+
+		private Snapshot(Cursor cursor) {
+			this(cursor.getCount());
+
+			int row = 0;
+			while (row < size && cursor.moveToNext()) {
+				ids[row] = cursor.getLong(0);
+				sourceCodes[row] = strings.encode(cursor.getString(1));
+				setEqid(row, cursor.getString(2));
+				versionCodes[row] = strings.encode(cursor.getString(3));
+				times[row] = cursor.getLong(4);
+				latitudesE6[row] = toE6(cursor.getDouble(5));
+				longitudesE6[row] = toE6(cursor.getDouble(6));
+				magnitudes[row] = cursor.getFloat(7);
+				depths[row] = cursor.getFloat(8);
+				nsts[row] = cursor.getInt(9);
+				regionCodes[row] = strings.encode(cursor.getString(10));
+				row++;
+			}
+			finish();
+		}
+
+		/**
+		 * Buat index id setelah semua baris diisi. Kamus string tidak bisa 
+		 * ditambah lagi.
+		 */
+		private Snapshot finish() {
+			for (int i = 0; i < size; i++) idOrder[i] = i;
+			sort(idOrder, 0, size - 1, new RowComparator() {
+				@Override
+				public int compare(int a, int b) {
+					return (ids[a] < ids[b]) ? -1 : ((ids[a] == ids[b]) ? 0 : 1);
+				}
+			});
+			strings.freeze();
+			return this;
+		}
+
+		public long getId(int row) {
+			return ids[row];
+		}
+
+		public long getTime(int row) {
+			return times[row];
+		}
+
+		public float getMagnitude(int row) {
+			return magnitudes[row];
+		}
+
+		public int getLatitudeE6(int row) {
+			return latitudesE6[row];
+		}
+
+		public int getLongitudeE6(int row) {
+			return longitudesE6[row];
+		}
+
+		public double getLatitude(int row) {
+			return latitudesE6[row] / 1E6;
+		}
+
+		public double getLongitude(int row) {
+			return longitudesE6[row] / 1E6;
+		}
+
+		public float getDepth(int row) {
+			return depths[row];
+		}
+
+		public int getNst(int row) {
+			return nsts[row];
+		}
+
+		public String getEqid(int row) {
+			if (eqidKeys[row] < 0) return (eqidStrings != null) ? eqidStrings[row] : null;
+			return unpackEqid(eqidKeys[row]);
+		}
+
+		public String getSource(int row) {
+			return strings.decode(sourceCodes[row]);
+		}
+
+		public String getVersion(int row) {
+			return strings.decode(versionCodes[row]);
+		}
+
+		public String getRegion(int row) {
+			return strings.decode(regionCodes[row]);
+		}
+
+		private void setEqid(int row, String eqid) {
+			setEqid(row, packEqid(eqid), eqid);
+		}
+
+		private void setEqid(int row, long key, String eqid) {
+			eqidKeys[row] = key;
+			if (key < 0 && eqid != null) {
+				if (eqidStrings == null) eqidStrings = new String[size];
+				eqidStrings[row] = eqid;
+			}
+		}
+
+		/**
+		 * Jarak gempa dari lokasi, tanpa membuat objek Location.
+		 *
+		 * @param row Index baris
+		 * @param location Lokasi
+		 * @param results Array minimal 1 elemen untuk hasil sementara, supaya bisa
+		 *        dipakai ulang
+		 * @return Jarak dalam meter
+		 */
+		public float distanceTo(int row, Location location, float[] results) {
+			Location.distanceBetween(getLatitude(row), getLongitude(row),
+					location.getLatitude(), location.getLongitude(), results);
+			return results[0];
+		}
+
+		/**
+		 * Membuat objek data gempa dari satu baris, untuk kode yang masih
+		 * memerlukan {@link EarthquakeDTO} (detail, share, Parcelable).
+		 *
+		 * @param row Index baris
+		 * @return Data gempa
+		 */
+		public EarthquakeDTO toDTO(int row) {
+			return new EarthquakeDTO(ids[row], getSource(row), getEqid(row), getVersion(row),
+					times[row], getLatitude(row), getLongitude(row), magnitudes[row],
+					depths[row], nsts[row], getRegion(row));
+		}
+
+		/**
+		 * Mencari baris berdasarkan id tabel.
+		 *
+		 * @param id Id tabel
+		 * @return Index baris, atau -1 jika tidak ada
+		 */
+		public int indexOfId(long id) {
+			int low = 0;
+			int high = size - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				long midId = ids[idOrder[mid]];
+				if (midId < id) {
+					low = mid + 1;
+				} else if (midId > id) {
+					high = mid - 1;
+				} else {
+					return idOrder[mid];
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Jumlah baris dengan waktu >= minTime. Karena data diurutkan dari yang
+		 * terbaru, baris tersebut adalah baris 0 sampai hasil - 1.
+		 *
+		 * @param minTime Waktu minimal
+		 * @return Jumlah baris
+		 */
+		public int countSince(long minTime) {
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (times[mid] >= minTime) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * Posisi baris pertama setelah data (time, id) pada urutan snapshot (dari
+		 * yang terbaru, kemudian id terbesar), untuk paging dengan keyset.
+		 *
+		 * @param time Waktu data terakhir halaman sebelumnya
+		 * @param id Id data terakhir halaman sebelumnya
+		 * @return Index baris, 0 sampai {@link #size}
+		 */
+		public int indexAfter(long time, long id) {
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (times[mid] > time || (times[mid] == time && ids[mid] >= id)) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * Filter data berdasarkan magnitudo minimal dan waktu minimal.
+		 *
+		 * @param minMagnitude Magnitudo minimal
+		 * @param minTime Waktu minimal
+		 * @return Index baris yang sesuai, diurutkan dari yang terbaru
+		 */
+		public int[] filter(float minMagnitude, long minTime) {
+			int end = countSince(minTime);
+			int count = 0;
+			for (int row = 0; row < end; row++) {
+				if (magnitudes[row] >= minMagnitude) count++;
+			}
+
+			int[] rows = new int[count];
+			int i = 0;
+			for (int row = 0; row < end; row++) {
+				if (magnitudes[row] >= minMagnitude) rows[i++] = row;
+			}
+			return rows;
+		}
+
+		/**
+		 * Urutkan index baris berdasarkan magnitudo, dari yang terbesar. Baris
+		 * dengan magnitudo sama diurutkan dari yang terbaru.
+		 *
+		 * @param rows Index baris, diurutkan langsung pada array ini
+		 */
+		public void sortByMagnitude(int[] rows) {
+			sort(rows, 0, rows.length - 1, new RowComparator() {
+				@Override
+				public int compare(int a, int b) {
+					if (magnitudes[a] != magnitudes[b]) {
+						return (magnitudes[a] > magnitudes[b]) ? -1 : 1;
+					}
+					return a - b;
+				}
+			});
+		}
+
+		/**
+		 * Urutkan index baris berdasarkan waktu.
+		 *
+		 * @param rows Index baris, diurutkan langsung pada array ini
+		 * @param ascending True untuk yang paling lama lebih dulu
+		 */
+		public void sortByTime(int[] rows, final boolean ascending) {
+			sort(rows, 0, rows.length - 1, new RowComparator() {
+				@Override
+				public int compare(int a, int b) {
+					// Baris sudah diurutkan berdasarkan waktu dari yang terbaru
+					return ascending ? b - a : a - b;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Membuat snapshot baris per baris, dari baris snapshot lain atau dari data
+	 * gempa. Baris harus ditambahkan sesuai urutan snapshot (dari yang terbaru),
+	 * dan jumlahnya tepat sama dengan kapasitas.
+	 */
+	public static class Builder {
+
+		/** Batas jumlah string kamus dasar per baris agar kamus tetap dipakai */
+		private static final int MAX_STRINGS_PER_ROW = 2;
+
+		private final Snapshot snapshot;
+		private int row = 0;
+
+		// Kamus string sumber yang kodenya sama dengan kamus snapshot baru
+		private final StringTable baseStrings;
+
+		/**
+		 * @param size Jumlah baris
+		 */
+		public Builder(int size) {
+			snapshot = new Snapshot(size);
+			baseStrings = null;
+		}
+
+		/**
+		 * Kamus string snapshot baru dimulai dari salinan kamus snapshot dasar,
+		 * sehingga baris yang disalin dari snapshot dasar tidak perlu di-encode
+		 * ulang. Snapshot dasar tidak diubah. Jika kamus dasar sudah berisi 
+		 * terlalu banyak string yang tidak dipakai lagi (data sudah dihapus), 
+		 * kamus baru dibuat dari awal.
+		 *
+		 * @param size Jumlah baris
+		 * @param base Snapshot dasar, biasanya snapshot sebelumnya
+		 */
+		public Builder(int size, Snapshot base) {
+			if (base.strings.size() > MAX_STRINGS_PER_ROW * (size + 1)) {
+				snapshot = new Snapshot(size);
+				baseStrings = null;
+			} else {
+				snapshot = new Snapshot(size, new StringTable(base.strings));
+				baseStrings = base.strings;
+			}
+		}
+
+		/**
+		 * Salin satu baris dari snapshot lain, tanpa membuat objek apapun. Kode
+		 * string disalin langsung jika sumbernya snapshot dasar.
+		 *
+		 * @param source Snapshot sumber
+		 * @param sourceRow Index baris pada snapshot sumber
+		 */
+		public void add(Snapshot source, int sourceRow) {
+			Snapshot target = snapshot;
+			target.ids[row] = source.ids[sourceRow];
+			target.times[row] = source.times[sourceRow];
+			target.magnitudes[row] = source.magnitudes[sourceRow];
+			target.latitudesE6[row] = source.latitudesE6[sourceRow];
+			target.longitudesE6[row] = source.longitudesE6[sourceRow];
+			target.depths[row] = source.depths[sourceRow];
+			target.nsts[row] = source.nsts[sourceRow];
+
+			long eqidKey = source.eqidKeys[sourceRow];
+			target.setEqid(row, eqidKey, (eqidKey < 0 && source.eqidStrings != null) 
+					? source.eqidStrings[sourceRow] : null);
+
+			if (source.strings == baseStrings) {
+				target.sourceCodes[row] = source.sourceCodes[sourceRow];
+				target.versionCodes[row] = source.versionCodes[sourceRow];
+				target.regionCodes[row] = source.regionCodes[sourceRow];
+			} else {
+				StringTable strings = target.strings;
+				target.sourceCodes[row] = strings.encode(source.getSource(sourceRow));
+				target.versionCodes[row] = strings.encode(source.getVersion(sourceRow));
+				target.regionCodes[row] = strings.encode(source.getRegion(sourceRow));
+			}
+			row++;
+		}
+
+		/**
+		 * Tambahkan satu baris dari data gempa.
+		 *
+		 * @param quake Data gempa
+		 */
+		public void add(EarthquakeDTO quake) {
+			Snapshot target = snapshot;
+			target.ids[row] = quake.id;
+			target.times[row] = quake.time;
+			target.magnitudes[row] = quake.magnitude;
+			target.latitudesE6[row] = toE6(quake.latitude);
+			target.longitudesE6[row] = toE6(quake.longitude);
+			target.depths[row] = quake.depth;
+			target.nsts[row] = quake.nst;
+			target.setEqid(row, quake.eqid);
+			target.sourceCodes[row] = target.strings.encode(quake.source);
+			target.versionCodes[row] = target.strings.encode(quake.version);
+			target.regionCodes[row] = target.strings.encode(quake.region);
+			row++;
+		}
+
+		/**
+		 * @return Snapshot, tidak bisa ditambah lagi
+		 */
+		public Snapshot build() {
+			if (row != snapshot.size) {
+				throw new IllegalStateException("Jumlah baris " + row + ", seharusnya " 
+						+ snapshot.size);
+			}
+			return snapshot.finish();
+		}
+	}
+
+	/**
+	 * Koordinat dalam derajat ke fixed point 1E6.
+	 */
+	private static int toE6(double degrees) {
+		return (int) Math.round(degrees * 1E6);
+	}
+
+	/**
+	 * Kemas eqid menjadi long dengan basis 37 (0 sebagai akhir string, kemudian
+	 * 0-9 dan a-z). Eqid USGS terdiri dari angka dan huruf kecil, maksimal 12
+	 * karakter muat pada satu long.
+	 *
+	 * @param eqid Eqid
+	 * @return Hasil kemasan, atau -1 jika eqid tidak bisa dikemas
+	 */
+	static long packEqid(String eqid) {
+		if (eqid == null || eqid.length() > 12) return -1;
+		long key = 0;
+		for (int i = eqid.length() - 1; i >= 0; i--) {
+			char c = eqid.charAt(i);
+			int digit;
+			if (c >= '0' && c <= '9') {
+				digit = c - '0' + 1;
+			} else if (c >= 'a' && c <= 'z') {
+				digit = c - 'a' + 11;
+			} else {
+				return -1;
+			}
+			key = key * 37 + digit;
+		}
+		return key;
+	}
+
+	/**
+	 * Kebalikan dari {@link #packEqid(String)}.
+	 */
+	static String unpackEqid(long key) {
+		StringBuilder builder = new StringBuilder(12);
+		while (key > 0) {
+			int digit = (int) (key % 37);
+			builder.append((digit <= 10) ? (char) ('0' + digit - 1) 
+					: (char) ('a' + digit - 11));
+			key /= 37;
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Pembanding dua baris berdasarkan index-nya.
+	 */
+	private interface RowComparator {
+		int compare(int a, int b);
+	}
+
+	/**
+	 * Quicksort index baris, tanpa boxing.
+	 */
+	private static void sort(int[] rows, int low, int high, RowComparator comparator) {
+		while (high - low > 16) {
+			int pivot = rows[(low + high) >>> 1];
+			int i = low;
+			int j = high;
+			while (i <= j) {
+				while (comparator.compare(rows[i], pivot) < 0) i++;
+				while (comparator.compare(rows[j], pivot) > 0) j--;
+				if (i <= j) {
+					int tmp = rows[i];
+					rows[i++] = rows[j];
+					rows[j--] = tmp;
+				}
+			}
+			// Rekursi pada bagian yang lebih kecil untuk membatasi kedalaman stack
+			if (j - low < high - i) {
+				sort(rows, low, j, comparator);
+				low = i;
+			} else {
+				sort(rows, i, high, comparator);
+				high = j;
+			}
+		}
+
+		// Insertion sort untuk bagian yang kecil
+		for (int i = low + 1; i <= high; i++) {
+			int row = rows[i];
+			int j = i - 1;
+			while (j >= low && comparator.compare(rows[j], row) > 0) {
+				rows[j + 1] = rows[j];
+				j--;
+			}
+			rows[j + 1] = row;
+		}
+	}
+
+	/**
+	 * Kamus string, setiap string yang berbeda disimpan sekali dan direferensikan
+	 * dengan kode. Kode 0 untuk null.
+	 */
+	private static class StringTable {
+		private final ArrayList<String> values;
+		private Map<String, Integer> codes = new HashMap<String, Integer>();
+
+		StringTable() {
+			values = new ArrayList<String>();
+			values.add(null);
+		}
+
+		/**
+		 * Salinan kamus lain dengan kode yang sama, map kode dibuat saat string
+		 * baru pertama kali di-encode.
+		 */
+		StringTable(StringTable base) {
+			values = new ArrayList<String>(base.values);
+			codes = null;
+		}
+
+		int encode(String value) {
+			if (value == null) return 0;
+			if (codes == null) {
+				codes = new HashMap<String, Integer>(values.size() * 2);
+				for (int i = 1; i < values.size(); i++) {
+					codes.put(values.get(i), i);
+				}
+			}
+			Integer code = codes.get(value);
+			if (code == null) {
+				code = values.size();
+				values.add(value);
+				codes.put(value, code);
+			}
+			return code;
+		}
+
+		String decode(int code) {
+			return values.get(code);
+		}
+
+		int size() {
+			return values.size();
+		}
+
+		/**
+		 * Buang map kode setelah semua string dimasukkan, hanya list string yang
+		 * disimpan.
+		 */
+		void freeze() {
+			codes = null;
+			values.trimToSize();
+		}
+	}
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright 2011 Adi Sayoga.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.adisayoga.earthquake.models;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import android.util.Log;
+
+import com.adisayoga.earthquake.dto.EarthquakeDTO;
+import com.adisayoga.earthquake.utils.TimeUtils;
+
+/**
+ * Parser streaming untuk feed CSV USGS, pengganti regex pada UsgsSource.
+ * <p>
+ * Data dibaca langsung dalam bentuk byte (ISO-8859-1), setiap baris dipecah
+ * menjadi field tanpa membuat String sementara, dan angka serta tanggal di-parse
+ * langsung dari buffer. String yang sering berulang (src, version, region)
+ * diambil dari pool sehingga alokasi per baris hanya objek EarthquakeDTO dan
+ * eqid-nya.
+ * <p>
+ * Format baris:
+ * <pre>
+ * Src,Eqid,Version,"Datetime UTC",Lat,Lon,Magnitude,Depth,NST,"Region"
+ * </pre>
+ * Satu instance hanya untuk satu stream dan tidak thread-safe.
+ *
+ * @author Adi Sayoga
+ */
+public class UsgsParser {
+
+	private static final String TAG = "UsgsParser";
+
+	private static final int FIELD_COUNT = 10;
+	private static final int SRC = 0;
+	private static final int EQID = 1;
+	private static final int VERSION = 2;
+	private static final int DATETIME = 3;
+	private static final int LATITUDE = 4;
+	private static final int LONGITUDE = 5;
+	private static final int MAGNITUDE = 6;
+	private static final int DEPTH = 7;
+	private static final int NST = 8;
+	private static final int REGION = 9;
+
+	private static final char[] UTC_SUFFIX = " UTC".toCharArray();
+
+	/** Digit maksimal agar parse double cepat menghasilkan nilai yang sama persis */
+	private static final int MAX_FAST_DIGITS = 15;
+	private static final double[] POWERS_OF_TEN = new double[] {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+		1e11, 1e12, 1e13, 1e14, 1e15 };
+
+	/** Batas mantissa dan digit pecahan agar parse float cepat sama persis */
+	private static final long MAX_FAST_FLOAT_MANTISSA = 1L << 24;
+	private static final int MAX_FAST_FLOAT_FRACTION = 10;
+	private static final float[] FLOAT_POWERS_OF_TEN = new float[] {
+		1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f };
+
+	private final InputStream in;
+	private final byte[] buffer = new byte[8192];
+	private int bufferPos = 0;
+	private int bufferLimit = 0;
+	private boolean skipLineFeed = false;
+
+	private char[] line = new char[256];
+	private int lineLength = 0;
+	private final int[] fieldStart = new int[FIELD_COUNT];
+	private final int[] fieldEnd = new int[FIELD_COUNT];
+
+	private final StringPool sourcePool = new StringPool(16);
+	private final StringPool versionPool = new StringPool(16);
+	private final StringPool regionPool = new StringPool(512);
+
+	// Hanya untuk fallback, instance per parser sehingga tidak dipakai bersama thread lain
+	private SimpleDateFormat dateFormat = null;
+
+	private int lineCount = 0;
+	private int errorCount = 0;
+
+	// Hasil scanDecimal
+	private long decimalMantissa;
+	private int decimalFraction;
+	private boolean decimalNegative;
+
+	public UsgsParser(InputStream in) {
+		this.in = in;
+	}
+
+	/**
+	 * Membaca data gempa berikutnya dari stream. Baris yang tidak sesuai format
+	 * (misalnya header) akan dilewati.
+	 *
+	 * @return Data gempa, atau null jika stream sudah habis
+	 * @throws IOException Jika gagal membaca stream
+	 */
+	public EarthquakeDTO next() throws IOException {
+		while (readLine()) {
+			lineCount++;
+			if (!tokenize()) continue;
+
+			try {
+				EarthquakeDTO quake = createQuake();
+				if (quake != null) return quake;
+			} catch (NumberFormatException e) {
+				errorCount++;
+				Log.e(TAG, "Error parse data dari baris: " + new String(line, 0,
+						lineLength), e);
+			} catch (ParseException e) {
+				errorCount++;
+				Log.e(TAG, "Error parse data dari baris: " + new String(line, 0,
+						lineLength), e);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Mendapatkan jumlah baris yang sudah dibaca.
+	 *
+	 * @return Jumlah baris
+	 */
+	public int getLineCount() {
+		return lineCount;
+	}
+
+	/**
+	 * Mendapatkan jumlah baris yang gagal di-parse.
+	 *
+	 * @return Jumlah baris error
+	 */
+	public int getErrorCount() {
+		return errorCount;
+	}
+
+	/**
+	 * Membaca satu baris ke buffer line. Akhir baris bisa berupa \n, \r, atau \r\n.
+	 *
+	 * @return False jika stream sudah habis
+	 * @throws IOException
+	 */
+	private boolean readLine() throws IOException {
+		lineLength = 0;
+		boolean hasData = false;
+
+		while (true) {
+			if (bufferPos >= bufferLimit) {
+				bufferLimit = in.read(buffer, 0, buffer.length);
+				bufferPos = 0;
+				if (bufferLimit <= 0) {
+					bufferLimit = 0;
+					return hasData;
+				}
+			}
+
+			int b = buffer[bufferPos++] & 0xff;
+			if (skipLineFeed) {
+				skipLineFeed = false;
+				if (b == '\n') continue;
+			}
+			if (b == '\n') return true;
+			if (b == '\r') {
+				skipLineFeed = true;
+				return true;
+			}
+
+			hasData = true;
+			if (lineLength == line.length) {
+				char[] newLine = new char[line.length * 2];
+				System.arraycopy(line, 0, newLine, 0, lineLength);
+				line = newLine;
+			}
+			line[lineLength++] = (char) b;
+		}
+	}
+
+	/**
+	 * Memecah baris menjadi field, aturannya sama dengan regex sebelumnya:
+	 * <pre>
+	 * ([^,]+),([^,]+),([^,]+),"([^"]+) UTC",([^,]+),([^,]+),([^,]+),
+	 * ([^,]+),\s?([^,]+),"([^"]+)"
+	 * </pre>
+	 *
+	 * @return True jika baris sesuai format
+	 */
+	private boolean tokenize() {
+		int pos = 0;
+
+		// src, eqid, version
+		for (int field = SRC; field <= VERSION; field++) {
+			pos = scanUntilComma(field, pos);
+			if (pos < 0) return false;
+		}
+
+		// "datetime UTC"
+		if (pos >= lineLength || line[pos] != '"') return false;
+		int start = ++pos;
+		while (pos < lineLength && line[pos] != '"') pos++;
+		int end = pos - UTC_SUFFIX.length;
+		if (pos >= lineLength || end <= start) return false;
+		for (int i = 0; i < UTC_SUFFIX.length; i++) {
+			if (line[end + i] != UTC_SUFFIX[i]) return false;
+		}
+		fieldStart[DATETIME] = start;
+		fieldEnd[DATETIME] = end;
+		pos++;
+		if (pos >= lineLength || line[pos] != ',') return false;
+		pos++;
+
+		// lat, lon, magnitude, depth
+		for (int field = LATITUDE; field <= DEPTH; field++) {
+			pos = scanUntilComma(field, pos);
+			if (pos < 0) return false;
+		}
+
+		// nst (boleh diawali satu whitespace)
+		if (pos < lineLength && isWhitespace(line[pos])) pos++;
+		pos = scanUntilComma(NST, pos);
+		if (pos < 0) return false;
+
+		// "region" harus merupakan akhir baris
+		if (pos >= lineLength || line[pos] != '"') return false;
+		start = ++pos;
+		while (pos < lineLength && line[pos] != '"') pos++;
+		if (pos != lineLength - 1 || pos == start) return false;
+		fieldStart[REGION] = start;
+		fieldEnd[REGION] = pos;
+		return true;
+	}
+
+	/**
+	 * Scan field yang tidak kosong sampai tanda koma.
+	 *
+	 * @param field Index field
+	 * @param pos Posisi awal
+	 * @return Posisi setelah koma, atau -1 jika tidak sesuai
+	 */
+	private int scanUntilComma(int field, int pos) {
+		int start = pos;
+		while (pos < lineLength && line[pos] != ',') pos++;
+		if (pos == start || pos >= lineLength) return -1;
+		fieldStart[field] = start;
+		fieldEnd[field] = pos;
+		return pos + 1;
+	}
+
+	/**
+	 * Whitespace sesuai dengan \s pada regex.
+	 */
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f'
+				|| c == '\r';
+	}
+
+	/**
+	 * Buat objek EarthquakeDTO dari field yang sudah dipecah.
+	 *
+	 * @return Data gempa
+	 * @throws NumberFormatException
+	 * @throws ParseException
+	 */
+	private EarthquakeDTO createQuake() throws NumberFormatException, ParseException {
+		String source = sourcePool.get(line, fieldStart[SRC], fieldEnd[SRC]);
+		String eqid = new String(line, fieldStart[EQID], fieldEnd[EQID] - fieldStart[EQID]);
+		String version = versionPool.get(line, fieldStart[VERSION], fieldEnd[VERSION]);
+
+		double latitude = parseDouble(LATITUDE);
+		double longitude = parseDouble(LONGITUDE);
+		long time = parseTime();
+
+		float magnitude = parseFloat(MAGNITUDE);
+		float depth = parseFloat(DEPTH) * 1000;
+		int nst = parseInt(NST);
+		String region = regionPool.get(line, fieldStart[REGION], fieldEnd[REGION]);
+
+		return new EarthquakeDTO(0, source, eqid, version, time, latitude, longitude,
+				magnitude, depth, nst, region);
+	}
+
+	/**
+	 * Parse tanggal, gunakan SimpleDateFormat jika format tidak dikenali.
+	 */
+	private long parseTime() throws ParseException {
+		int start = fieldStart[DATETIME];
+		int end = fieldEnd[DATETIME];
+		long time = TimeUtils.parseUsgsDate(line, start, end);
+		if (time != TimeUtils.INVALID_DATE) return time;
+
+		// Waktu pada feed dalam UTC, sama dengan hasil TimeUtils.parseUsgsDate
+		if (dateFormat == null) {
+			dateFormat = new SimpleDateFormat("EEEE, MMMM d, yyyy HH:mm:ss", Locale.US);
+			dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		}
+		String value = new String(line, start, end - start);
+		try {
+			return dateFormat.parse(value).getTime();
+		} catch (ParseException e) {
+			Log.e(TAG, "Tidak dapat mem-parse tanggal dari string: " + value);
+			throw e;
+		}
+	}
+
+	/**
+	 * Parse angka desimal sederhana (tanpa eksponen). Untuk maksimal 15 digit
+	 * hasilnya sama persis dengan Double.parseDouble, selain itu akan
+	 * menggunakan Double.parseDouble.
+	 */
+	private double parseDouble(int field) throws NumberFormatException {
+		if (scanDecimal(field)) {
+			// Mantissa dan 10^n tepat dalam double, jadi satu pembagian hasilnya 
+			// dibulatkan dengan benar
+			double value = (decimalFraction > 0) 
+					? decimalMantissa / POWERS_OF_TEN[decimalFraction] : decimalMantissa;
+			return decimalNegative ? -value : value;
+		}
+		return Double.parseDouble(fieldString(field));
+	}
+
+	/**
+	 * Parse angka float, hasilnya sama persis dengan Float.parseFloat. Jika
+	 * mantissa kurang dari 2^24 dan maksimal 10 digit di belakang koma,
+	 * mantissa dan 10^n tepat dalam float sehingga satu pembagian float
+	 * dibulatkan dengan benar. Selain itu akan menggunakan Float.parseFloat.
+	 */
+	private float parseFloat(int field) throws NumberFormatException {
+		if (scanDecimal(field) && decimalMantissa < MAX_FAST_FLOAT_MANTISSA
+				&& decimalFraction <= MAX_FAST_FLOAT_FRACTION) {
+			float value = (decimalFraction > 0) 
+					? (float) decimalMantissa / FLOAT_POWERS_OF_TEN[decimalFraction]
+					: (float) decimalMantissa;
+			return decimalNegative ? -value : value;
+		}
+		return Float.parseFloat(fieldString(field));
+	}
+
+	/**
+	 * Memecah angka desimal dari buffer line menjadi mantissa dan jumlah digit
+	 * di belakang koma, hasilnya disimpan pada field decimal*.
+	 *
+	 * @param field Index field
+	 * @return True jika berhasil, false jika harus menggunakan parser standar
+	 */
+	private boolean scanDecimal(int field) {
+		int pos = fieldStart[field];
+		int end = fieldEnd[field];
+
+		// Double.parseDouble mengabaikan whitespace di awal dan akhir
+		while (pos < end && line[pos] <= ' ') pos++;
+		while (end > pos && line[end - 1] <= ' ') end--;
+		if (pos >= end) return false;
+
+		boolean negative = false;
+		if (line[pos] == '-' || line[pos] == '+') {
+			negative = line[pos] == '-';
+			pos++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int fraction = -1;
+		for (; pos < end; pos++) {
+			char c = line[pos];
+			if (c >= '0' && c <= '9') {
+				mantissa = mantissa * 10 + (c - '0');
+				if (++digits > MAX_FAST_DIGITS) return false;
+				if (fraction >= 0) fraction++;
+			} else if (c == '.' && fraction < 0) {
+				fraction = 0;
+			} else {
+				return false;
+			}
+		}
+		if (digits == 0) return false;
+
+		decimalMantissa = mantissa;
+		decimalFraction = Math.max(fraction, 0);
+		decimalNegative = negative;
+		return true;
+	}
+
+	/**
+	 * Parse angka integer, hasilnya sama dengan Integer.parseInt.
+	 */
+	private int parseInt(int field) throws NumberFormatException {
+		int pos = fieldStart[field];
+		int end = fieldEnd[field];
+		boolean negative = line[pos] == '-';
+		if (negative || line[pos] == '+') pos++;
+
+		int digits = end - pos;
+		if (digits <= 0 || digits > 9) return Integer.parseInt(fieldString(field));
+
+		int value = 0;
+		for (; pos < end; pos++) {
+			char c = line[pos];
+			if (c < '0' || c > '9') return Integer.parseInt(fieldString(field));
+			value = value * 10 + (c - '0');
+		}
+		return negative ? -value : value;
+	}
+
+	private String fieldString(int field) {
+		return new String(line, fieldStart[field], fieldEnd[field] - fieldStart[field]);
+	}
+
+	/**
+	 * Pool string sederhana (open addressing, replace saat tabrakan), sehingga
+	 * nilai yang berulang tidak perlu dibuat ulang.
+	 */
+	private static class StringPool {
+		private final String[] values;
+		private final int mask;
+
+		public StringPool(int size) {
+			// size harus kelipatan 2
+			values = new String[size];
+			mask = size - 1;
+		}
+
+		public String get(char[] chars, int start, int end) {
+			int hash = 0;
+			for (int i = start; i < end; i++) {
+				hash = 31 * hash + chars[i];
+			}
+
+			int slot = (hash ^ (hash >>> 16)) & mask;
+			String value = values[slot];
+			if (value != null && equals(value, chars, start, end)) return value;
+
+			value = new String(chars, start, end - start);
+			values[slot] = value;
+			return value;
+		}
+
+		private static boolean equals(String value, char[] chars, int start, int end) {
+			int length = end - start;
+			if (value.length() != length) return false;
+			for (int i = 0; i < length; i++) {
+				if (value.charAt(i) != chars[start + i]) return false;
+			}
+			return true;
+		}
+	}
+}
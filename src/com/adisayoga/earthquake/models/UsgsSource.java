@@ -16,26 +16,23 @@
  
 package com.adisayoga.earthquake.models;
 
-import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 
 import android.app.AlarmManager;
+import android.content.Context;
 import android.net.Uri;
 import android.util.Log;
 
 import com.adisayoga.earthquake.dto.EarthquakeDTO;
-import com.adisayoga.earthquake.utils.TimeUtils;
+import com.adisayoga.earthquake.dto.FeedWatermark;
 
 /**
  * Class untuk komunikasi data dengan USGS.
@@ -53,80 +50,193 @@ public class UsgsSource {
 	public static final String DETAIL = "http://10.0.2.2/earthquake/details/";
 	public static final String GLOBE = "http://10.0.2.2/earthquake/globes/";*/
 	
-	private static final Pattern PATTERN = Pattern.compile( 
-	      // src____ eqid___ ver____ datetime________ lat____ lon____ mag_____ 
-			"([^,]+),([^,]+),([^,]+),\"([^\"]+) UTC\",([^,]+),([^,]+),([^,]+),"
-		  // depth__ nst________ region______
-		  + "([^,]+),\\s?([^,]+),\"([^\"]+)\"");
-
-	private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("EEEE, MMMM d, yyyy HH:mm:ss", Locale.US);
-	
 	private UsgsSource() {
 	}
 	
 	/**
 	 * Membaca data feed dari usgs.
 	 * 
+	 * @param context Context, digunakan untuk lokasi cache
 	 * @param lastUpdate Terakhir kali data diambil
 	 * @param minMagnitude Magnitudo minimal
-	 * @return ArrayList dari data gempa
+	 * @return ArrayList dari data gempa, list kosong jika tidak ada perubahan
+	 * @throws IOException Jika tidak dapat connect ke server
+	 * 
+	 * @see #read(Context, String, FeedWatermark, long)
+	 */
+	public static List<EarthquakeDTO> read(Context context, long lastUpdate, 
+			float minMagnitude) throws IOException {
+		long interval = System.currentTimeMillis() - lastUpdate;
+		Feed feed = read(context, getFilename(minMagnitude, interval), lastUpdate > 0, 
+				null, 0, null);
+		feed.commit(context);
+		return feed.quakes;
+	}
+	
+	/**
+	 * Membaca data feed dari usgs secara incremental. Feed USGS diurutkan dari 
+	 * yang terbaru, jadi pembacaan dihentikan saat menemukan gempa yang lebih 
+	 * lama dari waktu watermark dikurangi revisionWindow. Gempa pada waktu 
+	 * watermark yang eqid-nya sudah tercatat juga dilewati jika revisionWindow 0.
+	 * <p>
+	 * Hasilnya adalah delta: gempa baru, ditambah gempa dalam revisionWindow yang
+	 * mungkin merupakan revisi dari data yang sudah tersimpan.
+	 * 
+	 * @param context Context, digunakan untuk lokasi cache
+	 * @param filename Nama file feed, lihat {@link #getFilename(float, long)}
+	 * @param watermark Watermark terakhir file feed ini, null untuk membaca semua
+	 * @param revisionWindow Rentang waktu sebelum watermark yang tetap dibaca
+	 * @return ArrayList dari data gempa, list kosong jika tidak ada perubahan
 	 * @throws IOException Jika tidak dapat connect ke server
 	 */
-	public static List<EarthquakeDTO> read(long lastUpdate, float minMagnitude) 
+	public static List<EarthquakeDTO> read(Context context, String filename, 
+			FeedWatermark watermark, long revisionWindow) throws IOException {
+		Feed feed = read(context, filename, watermark != null, watermark, revisionWindow, 
+				null);
+		feed.commit(context);
+		return feed.quakes;
+	}
+	
+	/**
+	 * Membaca data feed dari usgs secara incremental seperti 
+	 * {@link #read(Context, String, FeedWatermark, long)}, dan setiap data gempa 
+	 * juga langsung dikirim ke listener begitu selesai di-parse, sehingga data 
+	 * dapat diproses selagi sisa feed masih di-download.
+	 * <p>
+	 * Validator response (ETag dan Last-Modified) tidak langsung disimpan, 
+	 * pemanggil menyimpannya melalui {@link Feed#commit(Context)} setelah data 
+	 * selesai diproses. Jika validator disimpan sebelum data tersimpan dan 
+	 * prosesnya gagal, request berikutnya mendapat 304 dan data tersebut tidak 
+	 * pernah dibaca lagi.
+	 * 
+	 * @param context Context, digunakan untuk lokasi cache
+	 * @param filename Nama file feed, lihat {@link #getFilename(float, long)}
+	 * @param watermark Watermark terakhir file feed ini, null untuk membaca semua
+	 * @param revisionWindow Rentang waktu sebelum watermark yang tetap dibaca
+	 * @param listener Listener untuk setiap data gempa
+	 * @return Hasil pembacaan beserta validator yang belum disimpan
+	 * @throws IOException Jika tidak dapat connect ke server, atau dari listener
+	 */
+	public static Feed read(Context context, String filename, 
+			FeedWatermark watermark, long revisionWindow, OnQuakeReadListener listener) 
 			throws IOException {
+		return read(context, filename, watermark != null, watermark, revisionWindow, 
+				listener);
+	}
+	
+	/**
+	 * Membaca data feed dari usgs.
+	 * <p>
+	 * Request dikirim dengan header conditional GET (If-None-Match dan 
+	 * If-Modified-Since) sesuai dengan response terakhir dari file feed yang 
+	 * sama, dan dengan Accept-Encoding gzip. Jika server menjawab 304 (tidak ada
+	 * perubahan) akan langsung mengembalikan list kosong tanpa parse data.
+	 * 
+	 * @param context Context, digunakan untuk lokasi cache
+	 * @param filename Nama file feed
+	 * @param conditional Gunakan conditional GET atau tidak
+	 * @param watermark Watermark terakhir, null untuk membaca semua
+	 * @param revisionWindow Rentang waktu sebelum watermark yang tetap dibaca
+	 * @param listener Listener untuk setiap data gempa, boleh null
+	 * @return Hasil pembacaan beserta validator yang belum disimpan
+	 * @throws IOException Jika tidak dapat connect ke server
+	 */
+	private static Feed read(Context context, String filename, 
+			boolean conditional, FeedWatermark watermark, long revisionWindow, 
+			OnQuakeReadListener listener) throws IOException {
 		Log.i(TAG, "Mendapatkan data dari server...");
 		
-		BufferedReader reader = null;
+		InputStream in = null;
 		List<EarthquakeDTO> quakes = new ArrayList<EarthquakeDTO>();
-		long interval = System.currentTimeMillis() - lastUpdate;
 		
 		try {
-			URL url = getUrl(minMagnitude, interval);
+			URL url = new URL(FEED + filename);
 			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
 			connection.setConnectTimeout(30 * 1000); // 30 detik
 			connection.setReadTimeout(30 * 1000);    // 30 detik
+			connection.setRequestProperty("Accept-Encoding", "gzip");
+			
+			FeedCache cache = new FeedCache(context);
+			FeedCache.Entry cached = (conditional) ? cache.get(filename) : null;
+			if (cached != null) {
+				if (cached.etag != null) {
+					connection.setRequestProperty("If-None-Match", cached.etag);
+				}
+				if (cached.lastModified != null) {
+					connection.setRequestProperty("If-Modified-Since", cached.lastModified);
+				}
+			}
 			
-			if (connection.getResponseCode() != 200) { 
+			int responseCode = connection.getResponseCode();
+			if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+				// Tidak ada perubahan sejak request terakhir
+				Log.d(TAG, "Feed tidak berubah (304), " + cached.length 
+						+ " bytes dihemat");
+				return new Feed(filename, quakes, null, 0, cached.length);
+			}
+			if (responseCode != HttpURLConnection.HTTP_OK) { 
 				// Koneksi gagal
-				Log.e(TAG, "Koneksi gagal, response code: " + connection
-						.getResponseCode());
-				return null;
+				Log.e(TAG, "Koneksi gagal, response code: " + responseCode);
+				return new Feed(filename, null, null, 0, 0);
 			}
 			
-			reader = new BufferedReader(new InputStreamReader(connection.getInputStream(),
-					"ISO-8859-1"), 8192);
-			String line;
-			while ((line = reader.readLine()) != null) {
-				try {
-					EarthquakeDTO quake = getQuake(line);
-					if (quake != null) quakes.add(quake);
-				} catch (Exception e) {
-					Log.e(TAG, "Error parse data dari baris: " + line, e);
+			CountingInputStream rawIn = new CountingInputStream(
+					connection.getInputStream());
+			boolean gzip = "gzip".equalsIgnoreCase(connection.getContentEncoding());
+			CountingInputStream dataIn = (gzip) 
+					? new CountingInputStream(new GZIPInputStream(rawIn)) : rawIn;
+			in = dataIn;
+			
+			long stopBefore = (watermark != null) ? watermark.time - revisionWindow 
+					: Long.MIN_VALUE;
+			boolean skipSeen = watermark != null && revisionWindow <= 0;
+			boolean stopped = false;
+			
+			UsgsParser parser = new UsgsParser(in);
+			EarthquakeDTO quake;
+			while ((quake = parser.next()) != null) {
+				if (quake.time < stopBefore) {
+					// Sisanya data lama, tidak perlu dibaca
+					stopped = true;
+					break;
 				}
+				if (skipSeen && watermark.isSeen(quake)) continue;
+				quakes.add(quake);
+				if (listener != null) listener.onQuakeRead(quake);
 			}
 			
-			Log.d(TAG, "Selesai mengambil data: " + quakes.size() + " items");
-			return quakes;
+			// Validator untuk request berikutnya disimpan oleh pemanggil
+			FeedCache.Entry entry = new FeedCache.Entry();
+			entry.etag = connection.getHeaderField("ETag");
+			entry.lastModified = connection.getHeaderField("Last-Modified");
+			entry.length = (stopped && cached != null) 
+					? Math.max(cached.length, dataIn.getCount()) : dataIn.getCount();
+			
+			Log.d(TAG, "Selesai mengambil data: " + quakes.size() + " items, " 
+					+ parser.getLineCount() + " baris" + (stopped ? " (berhenti di "
+					+ "watermark)" : "") + ", " + rawIn.getCount() + "/" 
+					+ dataIn.getCount() + " bytes");
+			long saved = (gzip) ? dataIn.getCount() - rawIn.getCount() : 0;
+			return new Feed(filename, quakes, entry, rawIn.getCount(), saved);
 			
 		} catch (IOException e) {
 			Log.e(TAG, "Gagal mendapatkan data dari server: " + e.getMessage());
 			throw e;
 			
 		} finally {
-			try { if (reader != null) reader.close(); } catch(IOException e) {}
+			try { if (in != null) in.close(); } catch(IOException e) {}
 		}
 	}
 
 	/**
-	 * Mendapatkan url feed USGS berdasarkan minimal magnitudo dan interval refresh.
+	 * Mendapatkan nama file feed USGS berdasarkan minimal magnitudo dan interval 
+	 * refresh.
 	 * 
 	 * @param minMagnitude Minimal magnitudo
 	 * @param interval Interval refresh
-	 * @return Url feed USGS
-	 * @throws MalformedURLException
+	 * @return Nama file feed USGS
 	 */
-	private static URL getUrl(float minMagnitude, long interval) 
-			throws MalformedURLException {
+	public static String getFilename(float minMagnitude, long interval) {
 		String filename;
 		if (interval <= AlarmManager.INTERVAL_HOUR) { // 1 jam kurang
 			if (minMagnitude < 1) { 
@@ -152,43 +262,11 @@ public class UsgsSource {
 			}
 		}
 		
-		URL url = new URL(FEED + filename);
 		Log.d(TAG, "Magnitude=" + minMagnitude + " interval=" + interval 
-				+ ", url dipilih: " + url.toString());
-		return url;
+				+ ", file dipilih: " + filename);
+		return filename;
 	}
 	
-	/**
-	 * Parse data baris string ke objek EarthquakeDTO.
-	 * 
-	 * @param line Baris data sumber
-	 * @param lastUpdate Terakhir kali diupdate
-	 * @return Objek EarthquakeDTO
-	 * @throws NumberFormatException
-	 * @throws ParseException
-	 */
-	private static EarthquakeDTO getQuake(String line) 
-			throws NumberFormatException, ParseException {
-		Matcher matcher = PATTERN.matcher(line);
-		if (!matcher.matches()) return null;
-		
-		String source = matcher.group(1);
-		String eqid = matcher.group(2);
-		String version = matcher.group(3);
-		
-		double latitude = Double.parseDouble(matcher.group(5));
-		double longitude = Double.parseDouble(matcher.group(6));
-		long time = TimeUtils.parseDate(matcher.group(4), DATE_FORMAT).getTime();
-		
-		float magnitude = Float.parseFloat(matcher.group(7));
-		float depth = Float.parseFloat(matcher.group(8)) * 1000;
-		int nst = Integer.parseInt(matcher.group(9));
-		String region = matcher.group(10);
-		
-		return new EarthquakeDTO(0, source, eqid, version, time, latitude, longitude, 
-				magnitude, depth, nst, region);
-	}
-
 	/**
 	 * Mendapatkan alamat URL untuk gambar globe.
 	 * 
@@ -199,13 +277,23 @@ public class UsgsSource {
 		// Bulatkan (step 5)
 		int latitude = (int) (Math.round(quake.latitude / 5) * 5);
 		int longitude = (int) (Math.round(quake.longitude / 5) * 5);
+		Log.d(TAG, "getImageUri: latitude=" + quake.latitude + ", longitude="
+				+ quake.longitude);
+		return getGlobeURL(latitude, longitude);
+	}
+	
+	/**
+	 * Mendapatkan alamat URL untuk gambar globe pada posisi yang sudah dibulatkan.
+	 * 
+	 * @param latitude Latitude, kelipatan 5 derajat
+	 * @param longitude Longitude, kelipatan 5 derajat
+	 * @return URL globe atau null jika terdapat kesalahan
+	 */
+	public static URL getGlobeURL(int latitude, int longitude) {
 		String imageName = latitude + "_" + longitude + ".jpg";
 		
 		try {
-			URL url = new URL(UsgsSource.GLOBE + imageName);
-			Log.d(TAG, "getImageUri: latitude=" + quake.latitude + ", longitude="
-					+ quake.longitude + ", image=" + url.toString());
-			return url;
+			return new URL(UsgsSource.GLOBE + imageName);
 			
 		} catch (MalformedURLException e) {
 			Log.e(TAG, "Error generate url, " + e.getMessage());
@@ -222,4 +310,98 @@ public class UsgsSource {
 	public static Uri getExternalUri(EarthquakeDTO quake) {
 		return Uri.parse(UsgsSource.DETAIL + quake.source + quake.eqid + ".php");
 	}
-}
+	
+	/**
+	 * Hasil membaca satu file feed.
+	 */
+	public static class Feed {
+		/** Nama file feed */
+		public final String filename;
+		/** Data gempa, null jika koneksi gagal */
+		public final List<EarthquakeDTO> quakes;
+		/** Validator response yang belum disimpan, null jika tidak ada (304) */
+		public final FeedCache.Entry validators;
+		/** Jumlah byte yang diterima dari server (sebelum dekompresi) */
+		public final long bytesDownloaded;
+		/** Jumlah byte yang dihemat oleh kompresi gzip atau response 304 */
+		public final long bytesSaved;
+		
+		Feed(String filename, List<EarthquakeDTO> quakes, FeedCache.Entry validators, 
+				long bytesDownloaded, long bytesSaved) {
+			this.filename = filename;
+			this.quakes = quakes;
+			this.validators = validators;
+			this.bytesDownloaded = bytesDownloaded;
+			this.bytesSaved = bytesSaved;
+		}
+		
+		/**
+		 * Apakah server menjawab 304 (tidak ada perubahan).
+		 * 
+		 * @return True jika tidak ada perubahan
+		 */
+		public boolean isNotModified() {
+			return quakes != null && validators == null;
+		}
+		
+		/**
+		 * Simpan validator ke cache, request berikutnya menggunakan conditional 
+		 * GET. Panggil hanya setelah data selesai diproses.
+		 * 
+		 * @param context Context, digunakan untuk lokasi cache
+		 */
+		public void commit(Context context) {
+			if (validators != null) new FeedCache(context).put(filename, validators);
+		}
+	}
+	
+	/**
+	 * Listener untuk data gempa yang selesai di-parse.
+	 */
+	public interface OnQuakeReadListener {
+		
+		/**
+		 * Dipanggil pada thread pembaca untuk setiap data gempa.
+		 * 
+		 * @param quake Data gempa
+		 * @throws IOException Untuk menghentikan pembacaan
+		 */
+		public void onQuakeRead(EarthquakeDTO quake) throws IOException;
+	}
+	
+	/**
+	 * InputStream yang menghitung jumlah byte yang dibaca.
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		private long count = 0;
+		
+		public CountingInputStream(InputStream in) {
+			super(in);
+		}
+		
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) count++;
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int n = super.read(buffer, offset, length);
+			if (n > 0) count += n;
+			return n;
+		}
+		
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+		
+		public long getCount() {
+			return count;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2011 Adi Sayoga.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.adisayoga.earthquake.models;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.adisayoga.earthquake.dto.WatchedLocationDTO;
+import com.adisayoga.earthquake.providers.DatabaseHelper;
+import com.adisayoga.earthquake.providers.WatchedLocationColumns;
+
+/**
+ * Class untuk mengelola data lokasi pantauan. Index spasial 
+ * ({@link GeofenceIndex}) dibuat sekali dan disimpan di memory, kemudian 
+ * dibuat ulang hanya jika data lokasi berubah.
+ * 
+ * @author Adi Sayoga
+ */
+public class WatchedLocationModel {
+
+	private static final String TAG = "WatchedLocationModel";
+	
+	private static final String[] PROJECTION = new String[] {
+		WatchedLocationColumns._ID, WatchedLocationColumns.NAME, 
+		WatchedLocationColumns.LATITUDE, WatchedLocationColumns.LONGITUDE, 
+		WatchedLocationColumns.RADIUS, WatchedLocationColumns.MIN_MAGNITUDE };
+	
+	private static WatchedLocationModel instance = null;
+	
+	private final DatabaseHelper dbHelper;
+	private GeofenceIndex index = null;
+	
+	private WatchedLocationModel(Context context) {
+		dbHelper = DatabaseHelper.getInstance(context);
+	}
+	
+	public static synchronized WatchedLocationModel getInstance(Context context) {
+		if (instance == null) instance = new WatchedLocationModel(context);
+		return instance;
+	}
+	
+	/**
+	 * Mendapatkan semua lokasi pantauan.
+	 * 
+	 * @return List lokasi
+	 */
+	public synchronized List<WatchedLocationDTO> getLocations() {
+		SQLiteDatabase db = dbHelper.getReadableDatabase();
+		Cursor cursor = db.query(WatchedLocationColumns.TABLE_NAME, PROJECTION, null, 
+				null, null, null, WatchedLocationColumns._ID);
+		
+		List<WatchedLocationDTO> locations = new ArrayList<WatchedLocationDTO>(
+				cursor.getCount());
+		try {
+			while (cursor.moveToNext()) {
+				locations.add(new WatchedLocationDTO(
+						cursor.getLong(WatchedLocationColumns._ID_INDEX), 
+						cursor.getString(WatchedLocationColumns.NAME_INDEX), 
+						cursor.getDouble(WatchedLocationColumns.LATITUDE_INDEX), 
+						cursor.getDouble(WatchedLocationColumns.LONGITUDE_INDEX), 
+						cursor.getFloat(WatchedLocationColumns.RADIUS_INDEX), 
+						cursor.getFloat(WatchedLocationColumns.MIN_MAGNITUDE_INDEX)));
+			}
+		} finally {
+			cursor.close();
+		}
+		return locations;
+	}
+	
+	/**
+	 * Mendapatkan index spasial semua lokasi pantauan.
+	 * 
+	 * @return Index, kosong jika tidak ada lokasi pantauan
+	 */
+	public synchronized GeofenceIndex getIndex() {
+		if (index == null) {
+			long start = System.currentTimeMillis();
+			index = new GeofenceIndex(getLocations());
+			Log.d(TAG, "Index " + index.size() + " lokasi dibuat dalam " 
+					+ (System.currentTimeMillis() - start) + " ms");
+		}
+		return index;
+	}
+	
+	/**
+	 * Tambahkan lokasi pantauan dalam satu transaksi, misalnya saat mengimpor 
+	 * daftar lokasi. Id setiap lokasi diisi dengan id tabelnya.
+	 * 
+	 * @param locations Lokasi pantauan
+	 */
+	public synchronized void insert(List<WatchedLocationDTO> locations) {
+		SQLiteDatabase db = dbHelper.getWritableDatabase();
+		db.beginTransaction();
+		try {
+			for (WatchedLocationDTO location : locations) {
+				location.id = db.insertOrThrow(WatchedLocationColumns.TABLE_NAME, null, 
+						getContentValues(location));
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+			index = null;
+		}
+	}
+	
+	/**
+	 * Update lokasi pantauan.
+	 * 
+	 * @param location Lokasi pantauan
+	 * @return True jika lokasi ditemukan
+	 */
+	public synchronized boolean update(WatchedLocationDTO location) {
+		SQLiteDatabase db = dbHelper.getWritableDatabase();
+		int count = db.update(WatchedLocationColumns.TABLE_NAME, getContentValues(location), 
+				WatchedLocationColumns._ID + " = " + location.id, null);
+		index = null;
+		return count > 0;
+	}
+	
+	/**
+	 * Hapus lokasi pantauan.
+	 * 
+	 * @param id Id lokasi
+	 * @return True jika lokasi ditemukan
+	 */
+	public synchronized boolean delete(long id) {
+		SQLiteDatabase db = dbHelper.getWritableDatabase();
+		int count = db.delete(WatchedLocationColumns.TABLE_NAME, 
+				WatchedLocationColumns._ID + " = " + id, null);
+		index = null;
+		return count > 0;
+	}
+	
+	private ContentValues getContentValues(WatchedLocationDTO location) {
+		ContentValues values = new ContentValues();
+		values.put(WatchedLocationColumns.NAME, location.name);
+		values.put(WatchedLocationColumns.LATITUDE, location.latitude);
+		values.put(WatchedLocationColumns.LONGITUDE, location.longitude);
+		values.put(WatchedLocationColumns.RADIUS, location.radius);
+		values.put(WatchedLocationColumns.MIN_MAGNITUDE, location.minMagnitude);
+		return values;
+	}
+}
@@ -63,7 +63,7 @@ public class ContactProvider extends ContentProvider {
 	@Override
 	public boolean onCreate() {
 		Context context = getContext();
-		DatabaseHelper dbHelper = new DatabaseHelper(context, null);
+		DatabaseHelper dbHelper = DatabaseHelper.getInstance(context);
 		try {
 			db = dbHelper.getWritableDatabase();
 		} catch (SQLException e) {
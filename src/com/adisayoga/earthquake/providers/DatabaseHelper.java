@@ -17,13 +17,20 @@
 package com.adisayoga.earthquake.providers;
 
 import android.content.Context;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteDatabase.CursorFactory;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
 
 /**
- * Helper class untuk membuka, membuat, dan mengelola version control database
+ * Helper class untuk membuka, membuat, dan mengelola version control database.
+ * <p>
+ * Perubahan skema dilakukan secara bertahap melalui {@link Migration}, satu 
+ * migrasi untuk setiap versi. Database baru dibuat dengan skema versi 1 kemudian 
+ * menjalankan semua migrasi, sehingga database baru dan database hasil upgrade 
+ * selalu memiliki skema yang sama. Untuk mengubah skema, tambahkan migrasi baru
+ * di akhir {@link #MIGRATIONS}, jangan mengubah migrasi yang sudah ada.
  * 
  * @author Adi Sayoga
  */
@@ -32,14 +39,208 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 	private static final String TAG = "DatabaseHelper";
 	
 	public static final String DATABASE_NAME = "earthquake.db";
-	public static final int DATABASE_VERSION = 1;
+	
+	/** Daftar migrasi, diurutkan berdasarkan versi */
+	private static final Migration[] MIGRATIONS = new Migration[] {
+		
+		// Versi 2: gempa diidentifikasi oleh (src, eqid). Data duplikat dari versi
+		// sebelumnya dihapus (yang tersisa data yang terakhir disimpan), kemudian 
+		// dibuat unique index.
+		new Migration(2) {
+			@Override
+			public void migrate(SQLiteDatabase db) {
+				db.execSQL("DELETE FROM " + EarthquakeColumns.TABLE_NAME + " WHERE " 
+						+ EarthquakeColumns.SRC + " IS NOT NULL AND " 
+						+ EarthquakeColumns.EQID + " IS NOT NULL AND " 
+						+ EarthquakeColumns._ID + " NOT IN (SELECT MAX(" 
+						+ EarthquakeColumns._ID + ") FROM " + EarthquakeColumns.TABLE_NAME 
+						+ " GROUP BY " + EarthquakeColumns.SRC + ", " 
+						+ EarthquakeColumns.EQID + ")");
+				db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS " 
+						+ EarthquakeColumns.SRC_EQID_INDEX + " ON " 
+						+ EarthquakeColumns.TABLE_NAME + " (" + EarthquakeColumns.SRC 
+						+ ", " + EarthquakeColumns.EQID + ")");
+			}
+		},
+		
+		// Versi 3: index (date, magnitude) untuk query daftar/peta (magnitude >= ? 
+		// AND date >= ? ORDER BY date) dan penghapusan data lama (date < ?). 
+		// Magnitudo ikut disimpan pada index sehingga filter magnitudo tidak perlu
+		// membaca baris tabel.
+		new Migration(3) {
+			@Override
+			public void migrate(SQLiteDatabase db) {
+				db.execSQL("CREATE INDEX IF NOT EXISTS " 
+						+ EarthquakeColumns.DATE_MAGNITUDE_INDEX + " ON " 
+						+ EarthquakeColumns.TABLE_NAME + " (" + EarthquakeColumns.DATE 
+						+ ", " + EarthquakeColumns.MAGNITUDE + ")");
+			}
+		},
+		
+		// Versi 4: index spasial R*Tree, disinkronkan dengan tabel earthquake melalui
+		// trigger. Tidak semua build SQLite menyertakan modul rtree, jika tidak ada
+		// maka index tidak dibuat dan query bounding box menggunakan tabel biasa.
+		new Migration(4) {
+			@Override
+			public void migrate(SQLiteDatabase db) {
+				try {
+					db.execSQL("CREATE VIRTUAL TABLE " + EarthquakeColumns.SPATIAL_TABLE_NAME 
+							+ " USING rtree(" + EarthquakeColumns.SPATIAL_ID + ", " 
+							+ EarthquakeColumns.SPATIAL_MIN_LAT + ", " 
+							+ EarthquakeColumns.SPATIAL_MAX_LAT + ", " 
+							+ EarthquakeColumns.SPATIAL_MIN_LON + ", " 
+							+ EarthquakeColumns.SPATIAL_MAX_LON + ")");
+				} catch (SQLException e) {
+					Log.w(TAG, "Modul rtree tidak tersedia, index spasial tidak dibuat: " 
+							+ e.getMessage());
+					return;
+				}
+				
+				db.execSQL("INSERT INTO " + EarthquakeColumns.SPATIAL_TABLE_NAME 
+						+ " SELECT " + EarthquakeColumns._ID + ", " 
+						+ EarthquakeColumns.LATITUDE + ", " + EarthquakeColumns.LATITUDE + ", "
+						+ EarthquakeColumns.LONGITUDE + ", " + EarthquakeColumns.LONGITUDE 
+						+ " FROM " + EarthquakeColumns.TABLE_NAME);
+				
+				db.execSQL("CREATE TRIGGER " + EarthquakeColumns.SPATIAL_TABLE_NAME 
+						+ "_insert AFTER INSERT ON " + EarthquakeColumns.TABLE_NAME 
+						+ " BEGIN INSERT INTO " + EarthquakeColumns.SPATIAL_TABLE_NAME 
+						+ " VALUES (new." + EarthquakeColumns._ID 
+						+ ", new." + EarthquakeColumns.LATITUDE 
+						+ ", new." + EarthquakeColumns.LATITUDE 
+						+ ", new." + EarthquakeColumns.LONGITUDE 
+						+ ", new." + EarthquakeColumns.LONGITUDE + "); END");
+				db.execSQL("CREATE TRIGGER " + EarthquakeColumns.SPATIAL_TABLE_NAME 
+						+ "_update AFTER UPDATE OF " + EarthquakeColumns.LATITUDE + ", " 
+						+ EarthquakeColumns.LONGITUDE + " ON " + EarthquakeColumns.TABLE_NAME 
+						+ " BEGIN UPDATE " + EarthquakeColumns.SPATIAL_TABLE_NAME + " SET " 
+						+ EarthquakeColumns.SPATIAL_MIN_LAT + " = new." + EarthquakeColumns.LATITUDE + ", " 
+						+ EarthquakeColumns.SPATIAL_MAX_LAT + " = new." + EarthquakeColumns.LATITUDE + ", " 
+						+ EarthquakeColumns.SPATIAL_MIN_LON + " = new." + EarthquakeColumns.LONGITUDE + ", " 
+						+ EarthquakeColumns.SPATIAL_MAX_LON + " = new." + EarthquakeColumns.LONGITUDE 
+						+ " WHERE " + EarthquakeColumns.SPATIAL_ID + " = new." 
+						+ EarthquakeColumns._ID + "; END");
+				db.execSQL("CREATE TRIGGER " + EarthquakeColumns.SPATIAL_TABLE_NAME 
+						+ "_delete AFTER DELETE ON " + EarthquakeColumns.TABLE_NAME 
+						+ " BEGIN DELETE FROM " + EarthquakeColumns.SPATIAL_TABLE_NAME 
+						+ " WHERE " + EarthquakeColumns.SPATIAL_ID + " = old." 
+						+ EarthquakeColumns._ID + "; END");
+			}
+		},
+		
+		// Versi 5: index (date) untuk paging daftar gempa dengan key (date, _id). 
+		// Baris index diurutkan berdasarkan (date, rowid), sehingga ORDER BY date, 
+		// _id dengan LIMIT tidak memerlukan sorting seluruh hasil query.
+		new Migration(5) {
+			@Override
+			public void migrate(SQLiteDatabase db) {
+				db.execSQL("CREATE INDEX IF NOT EXISTS " + EarthquakeColumns.DATE_ROWID_INDEX 
+						+ " ON " + EarthquakeColumns.TABLE_NAME + " (" 
+						+ EarthquakeColumns.DATE + ")");
+			}
+		},
+		
+		// Versi 6: outbox pengiriman pemberitahuan. Kunci idempotensi unik, sehingga 
+		// pemberitahuan yang sama tidak diantrikan dua kali walaupun proses restart.
+		// Index (status, next_attempt) untuk mengambil antrian yang sudah waktunya
+		// dikirim.
+		new Migration(6) {
+			@Override
+			public void migrate(SQLiteDatabase db) {
+				db.execSQL("CREATE TABLE " + OutboxColumns.TABLE_NAME + " ("
+						+ OutboxColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+						+ OutboxColumns.KEY + " TEXT NOT NULL UNIQUE, "
+						+ OutboxColumns.CHANNEL + " TEXT NOT NULL, "
+						+ OutboxColumns.RECIPIENT + " TEXT NOT NULL, "
+						+ OutboxColumns.QUAKE_ID + " INTEGER NOT NULL, "
+						
+						+ OutboxColumns.STATUS + " INTEGER NOT NULL, "
+						+ OutboxColumns.ATTEMPTS + " INTEGER NOT NULL, "
+						+ OutboxColumns.NEXT_ATTEMPT + " INTEGER NOT NULL, "
+						+ OutboxColumns.CREATED + " INTEGER NOT NULL);");
+				db.execSQL("CREATE INDEX IF NOT EXISTS " 
+						+ OutboxColumns.STATUS_NEXT_ATTEMPT_INDEX + " ON " 
+						+ OutboxColumns.TABLE_NAME + " (" + OutboxColumns.STATUS + ", " 
+						+ OutboxColumns.NEXT_ATTEMPT + ")");
+			}
+		},
+		
+		// Versi 7: lokasi pantauan, masing-masing dengan radius dan minimal 
+		// magnitudo sendiri. Index spasial dibuat di memory (GeofenceIndex).
+		new Migration(7) {
+			@Override
+			public void migrate(SQLiteDatabase db) {
+				db.execSQL("CREATE TABLE " + WatchedLocationColumns.TABLE_NAME + " ("
+						+ WatchedLocationColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+						+ WatchedLocationColumns.NAME + " TEXT NOT NULL, "
+						+ WatchedLocationColumns.LATITUDE + " FLOAT NOT NULL, "
+						+ WatchedLocationColumns.LONGITUDE + " FLOAT NOT NULL, "
+						+ WatchedLocationColumns.RADIUS + " FLOAT NOT NULL, "
+						+ WatchedLocationColumns.MIN_MAGNITUDE + " FLOAT NOT NULL);");
+			}
+		},
+	};
+	
+	public static final int DATABASE_VERSION = MIGRATIONS[MIGRATIONS.length - 1].version;
+	
+	private static DatabaseHelper instance = null;
 
 	public DatabaseHelper(Context context, CursorFactory factory) {
 		super(context, DATABASE_NAME, factory, DATABASE_VERSION);
 	}
+	
+	/**
+	 * Helper yang digunakan bersama oleh semua provider dan model dalam satu 
+	 * proses. Satu koneksi database untuk semua, sehingga penulisan dari thread 
+	 * yang berbeda saling menunggu, bukan gagal karena database terkunci.
+	 * 
+	 * @param context Context
+	 * @return Helper
+	 */
+	public static synchronized DatabaseHelper getInstance(Context context) {
+		if (instance == null) instance = new DatabaseHelper(context.getApplicationContext(), null);
+		return instance;
+	}
 
 	@Override
 	public void onCreate(SQLiteDatabase db) {
+		createVersion1(db);
+		migrate(db, 1, DATABASE_VERSION);
+	}
+	
+	@Override
+	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+		Log.i(TAG, "Meng-upgrade database dari versi " + oldVersion + " ke " 
+				+ newVersion);
+		migrate(db, oldVersion, newVersion);
+	}
+	
+	/**
+	 * Menjalankan migrasi secara berurutan. Method ini dipanggil di dalam 
+	 * transaksi oleh {@link SQLiteOpenHelper}, sehingga jika salah satu migrasi 
+	 * gagal, semua perubahan dibatalkan dan versi database tidak berubah.
+	 * 
+	 * @param db Database
+	 * @param fromVersion Versi database saat ini
+	 * @param toVersion Versi tujuan
+	 */
+	private void migrate(SQLiteDatabase db, int fromVersion, int toVersion) {
+		for (Migration migration : MIGRATIONS) {
+			if (migration.version <= fromVersion || migration.version > toVersion) {
+				continue;
+			}
+			Log.d(TAG, "Migrasi database ke versi " + migration.version);
+			migration.migrate(db);
+		}
+	}
+	
+	/**
+	 * Skema awal database (versi 1). Jangan diubah, perubahan skema dilakukan 
+	 * melalui migrasi.
+	 * 
+	 * @param db Database
+	 */
+	private void createVersion1(SQLiteDatabase db) {
 		// Tabel gempa bumi
 		db.execSQL("CREATE TABLE " + EarthquakeColumns.TABLE_NAME + " ("
 				+ EarthquakeColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
@@ -63,17 +264,23 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 				+ ContactColumns.MAIL + " TEXT);");
 	}
 	
-	@Override
-	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-		Log.w(TAG, "Meng-upgrade database dari versi " + oldVersion + " ke " 
-				+ newVersion + ", yang akan menghapus semua data lama");
+	/**
+	 * Satu langkah perubahan skema database.
+	 */
+	private static abstract class Migration {
+		/** Versi database setelah migrasi dijalankan */
+		final int version;
 		
-		// Hapus semua tabel
-		db.execSQL("DROP TABLE IF EXISTS " + EarthquakeColumns.TABLE_NAME);
-		db.execSQL("DROP TABLE IF EXISTS " + ContactColumns.TABLE_NAME);
+		Migration(int version) {
+			this.version = version;
+		}
 		
-		// Ciptakan tabel baru
-		onCreate(db);
+		/**
+		 * Ubah skema database dari versi (version - 1) ke version.
+		 * 
+		 * @param db Database
+		 */
+		public abstract void migrate(SQLiteDatabase db);
 	}
 
 }
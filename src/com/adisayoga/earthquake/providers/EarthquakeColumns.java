@@ -27,6 +27,19 @@ public class EarthquakeColumns {
 
 	public static final String TABLE_NAME = "earthquake";
 	
+	// Nama index
+	public static final String SRC_EQID_INDEX = "earthquake_src_eqid";
+	public static final String DATE_MAGNITUDE_INDEX = "earthquake_date_magnitude";
+	public static final String DATE_ROWID_INDEX = "earthquake_date";
+	
+	// Tabel R*Tree untuk index spasial, id sama dengan _id tabel earthquake
+	public static final String SPATIAL_TABLE_NAME = "earthquake_rtree";
+	public static final String SPATIAL_ID = "id";
+	public static final String SPATIAL_MIN_LAT = "min_lat";
+	public static final String SPATIAL_MAX_LAT = "max_lat";
+	public static final String SPATIAL_MIN_LON = "min_lon";
+	public static final String SPATIAL_MAX_LON = "max_lon";
+	
 	// Nama kolom
 	public static final String _ID = BaseColumns._ID;
 	
@@ -16,15 +16,23 @@
  
 package com.adisayoga.earthquake.providers;
 
+import java.util.ArrayList;
+import java.util.Map;
+
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.text.TextUtils;
 import android.util.Log;
@@ -38,16 +46,58 @@ import android.util.Log;
 public class EarthquakeProvider extends ContentProvider {
 	
 	private static final String TAG = "EarthquakeProvider";
-	private static final String AUTHORITY = "com.adisayoga.provider.earthquake";
+	public static final String AUTHORITY = "com.adisayoga.provider.earthquake";
 	
 	public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY 
 			+ "/earthquakes");
 	
+	/** 
+	 * Uri untuk insert atau update berdasarkan (src, eqid). Data hanya di-update 
+	 * jika versinya lebih baru. Uri hasil insert berisi parameter 
+	 * {@link #PARAM_STATUS}.
+	 */
+	public static final Uri UPSERT_URI = Uri.withAppendedPath(CONTENT_URI, "upsert");
+	
+	/** Uri query bounding box, buat menggunakan {@link #getBoundsUri} */
+	public static final Uri BOUNDS_URI = Uri.withAppendedPath(CONTENT_URI, "bounds");
+	
+	public static final String PARAM_MIN_LAT = "min_lat";
+	public static final String PARAM_MIN_LON = "min_lon";
+	public static final String PARAM_MAX_LAT = "max_lat";
+	public static final String PARAM_MAX_LON = "max_lon";
+	
+	/** Parameter jumlah maksimal baris hasil query */
+	public static final String PARAM_LIMIT = "limit";
+	
+	/** Parameter status hasil upsert, berisi salah satu nilai STATUS_* */
+	public static final String PARAM_STATUS = "status";
+	public static final String STATUS_NEW = "new";
+	public static final String STATUS_REVISED = "revised";
+	public static final String STATUS_UNCHANGED = "unchanged";
+	
 	private SQLiteDatabase db;
+	private boolean hasSpatialIndex = false;
+	
+	// Kolom yang di-bind pada statement insert, urutannya sesuai parameter
+	private static final String[] INSERT_COLUMNS = new String[] {
+		EarthquakeColumns.SRC, EarthquakeColumns.EQID, EarthquakeColumns.VERSION, 
+		EarthquakeColumns.DATE, EarthquakeColumns.LATITUDE, EarthquakeColumns.LONGITUDE,
+		EarthquakeColumns.MAGNITUDE, EarthquakeColumns.DEPTH, EarthquakeColumns.NST, 
+		EarthquakeColumns.REGION };
+	
+	private SQLiteStatement insertStatement = null;
+	private SQLiteStatement updateStatement = null;
+	private SQLiteStatement selectIdStatement = null;
+	private SQLiteStatement selectVersionStatement = null;
+	
+	// Selama applyBatch, notifikasi perubahan ditunda sampai batch selesai
+	private final ThreadLocal<Boolean> applyingBatch = new ThreadLocal<Boolean>();
 	
 	// Buat konstanta untuk membedakan URI request
 	private static final int QUAKES = 1;
 	private static final int QUAKE_ID = 2;
+	private static final int UPSERT = 3;
+	private static final int BOUNDS = 4;
 	
 	private static final UriMatcher uriMatcher;
 	
@@ -56,14 +106,17 @@ public class EarthquakeProvider extends ContentProvider {
 		uriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 		uriMatcher.addURI(AUTHORITY, "earthquakes", QUAKES);
 		uriMatcher.addURI(AUTHORITY, "earthquakes/#", QUAKE_ID);
+		uriMatcher.addURI(AUTHORITY, "earthquakes/upsert", UPSERT);
+		uriMatcher.addURI(AUTHORITY, "earthquakes/bounds", BOUNDS);
 	}
 	
 	@Override
 	public boolean onCreate() {
 		Context context = getContext();
-		DatabaseHelper dbHelper = new DatabaseHelper(context, null);
+		DatabaseHelper dbHelper = DatabaseHelper.getInstance(context);
 		try {
 			db = dbHelper.getWritableDatabase();
+			hasSpatialIndex = hasTable(EarthquakeColumns.SPATIAL_TABLE_NAME);
 		} catch (SQLException e) {
 			db = null;
 			Log.d(TAG, "Error membuka database, " + e.getMessage());
@@ -71,9 +124,49 @@ public class EarthquakeProvider extends ContentProvider {
 		return (db == null) ? false : true;
 	}
 
+	/**
+	 * Apakah tabel terdapat pada database.
+	 * 
+	 * @param table Nama tabel
+	 * @return True jika ada
+	 */
+	private boolean hasTable(String table) {
+		Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table' "
+				+ "AND name = ?", new String[] { table });
+		try {
+			return cursor.getCount() > 0;
+		} finally {
+			cursor.close();
+		}
+	}
+	
+	/**
+	 * Membuat Uri query gempa yang berada di dalam bounding box. Jika minLon lebih
+	 * besar dari maxLon, bounding box melewati garis bujur 180 derajat.
+	 * 
+	 * @param minLat Lintang minimal (selatan)
+	 * @param minLon Bujur minimal (barat)
+	 * @param maxLat Lintang maksimal (utara)
+	 * @param maxLon Bujur maksimal (timur)
+	 * @return Uri query
+	 */
+	public static Uri getBoundsUri(double minLat, double minLon, double maxLat, 
+			double maxLon) {
+		return BOUNDS_URI.buildUpon()
+				.appendQueryParameter(PARAM_MIN_LAT, Double.toString(minLat))
+				.appendQueryParameter(PARAM_MIN_LON, Double.toString(minLon))
+				.appendQueryParameter(PARAM_MAX_LAT, Double.toString(maxLat))
+				.appendQueryParameter(PARAM_MAX_LON, Double.toString(maxLon))
+				.build();
+	}
+
 	@Override
 	public Cursor query(Uri uri, String[] projection, String selection, 
 			String[] selectionArgs, String sortOrder) {
+		if (uriMatcher.match(uri) == BOUNDS) {
+			return queryBounds(uri, projection, selection, selectionArgs, sortOrder);
+		}
+		
 		SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
 		builder.setTables(EarthquakeColumns.TABLE_NAME);
 		
@@ -90,9 +183,16 @@ public class EarthquakeProvider extends ContentProvider {
 		// Jika sort order tidak ditentukan, urutkan berdasarkan date/time
 		if (TextUtils.isEmpty(sortOrder)) sortOrder = EarthquakeColumns.DATE + " DESC";
 		
+		// Batasi jumlah baris jika terdapat parameter limit
+		String limit = uri.getQueryParameter(PARAM_LIMIT);
+		if (limit != null && !TextUtils.isDigitsOnly(limit)) {
+			throw new IllegalArgumentException("Parameter " + PARAM_LIMIT 
+					+ " tidak valid: " + uri);
+		}
+		
 		// Terapkan query ke database
 		Cursor cursor = builder.query(db, projection, selection, selectionArgs, 
-				null, null, sortOrder);
+				null, null, sortOrder, limit);
 		
 		// Register contexts ContentResolver untuk diberitahukan jika cursor result
 		// set berubah.
@@ -103,21 +203,360 @@ public class EarthquakeProvider extends ContentProvider {
 		return cursor;
 	}
 
+	/**
+	 * Query gempa di dalam bounding box. Jika tersedia, index R*Tree digunakan 
+	 * sehingga hanya baris di dalam bounding box yang dibaca. Bounding box yang 
+	 * melewati garis bujur 180 derajat dipecah menjadi dua dan digabung dengan 
+	 * UNION ALL, sehingga urutan data tetap sesuai sort order.
+	 */
+	private Cursor queryBounds(Uri uri, String[] projection, String selection, 
+			String[] selectionArgs, String sortOrder) {
+		double minLat = getDoubleParameter(uri, PARAM_MIN_LAT);
+		double minLon = getDoubleParameter(uri, PARAM_MIN_LON);
+		double maxLat = getDoubleParameter(uri, PARAM_MAX_LAT);
+		double maxLon = getDoubleParameter(uri, PARAM_MAX_LON);
+		if (TextUtils.isEmpty(sortOrder)) sortOrder = EarthquakeColumns.DATE + " DESC";
+		
+		SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+		if (hasSpatialIndex) {
+			builder.setTables(EarthquakeColumns.SPATIAL_TABLE_NAME + " JOIN " 
+					+ EarthquakeColumns.TABLE_NAME + " ON (" + EarthquakeColumns.TABLE_NAME 
+					+ "." + EarthquakeColumns._ID + " = " 
+					+ EarthquakeColumns.SPATIAL_TABLE_NAME + "." 
+					+ EarthquakeColumns.SPATIAL_ID + ")");
+			// Hanya kolom tabel earthquake, sehingga index kolom tetap sama
+			if (projection == null) {
+				projection = new String[] { EarthquakeColumns.TABLE_NAME + ".*" };
+			}
+		} else {
+			builder.setTables(EarthquakeColumns.TABLE_NAME);
+		}
+		
+		String sql;
+		String[] args;
+		if (minLon <= maxLon) {
+			sql = builder.buildQuery(projection, getBoundsSelection(minLat, minLon, 
+					maxLat, maxLon, selection), null, null, null, sortOrder, null);
+			args = selectionArgs;
+		} else {
+			String[] subQueries = new String[] {
+				builder.buildQuery(projection, getBoundsSelection(minLat, minLon, 
+						maxLat, 180, selection), null, null, null, null, null),
+				builder.buildQuery(projection, getBoundsSelection(minLat, -180, 
+						maxLat, maxLon, selection), null, null, null, null, null)
+			};
+			sql = builder.buildUnionQuery(subQueries, sortOrder, null);
+			
+			// Parameter selection digunakan oleh kedua sub query
+			if (selectionArgs != null) {
+				args = new String[selectionArgs.length * 2];
+				System.arraycopy(selectionArgs, 0, args, 0, selectionArgs.length);
+				System.arraycopy(selectionArgs, 0, args, selectionArgs.length, 
+						selectionArgs.length);
+			} else {
+				args = null;
+			}
+		}
+		
+		Cursor cursor = db.rawQuery(sql, args);
+		cursor.setNotificationUri(getContext().getContentResolver(), CONTENT_URI);
+		//Log.d(TAG, "queryBounds: " + uri + ", result count=" + cursor.getCount());
+		return cursor;
+	}
+	
+	/**
+	 * Membuat kondisi where untuk bounding box (minLon <= maxLon). Nilai 
+	 * koordinat dari R*Tree disimpan sebagai float 32 bit yang dibulatkan keluar,
+	 * sehingga koordinat asli juga dibandingkan.
+	 */
+	private String getBoundsSelection(double minLat, double minLon, double maxLat, 
+			double maxLon, String selection) {
+		StringBuilder where = new StringBuilder();
+		if (hasSpatialIndex) {
+			where.append(EarthquakeColumns.SPATIAL_MIN_LAT).append(" <= ").append(maxLat)
+					.append(" AND ").append(EarthquakeColumns.SPATIAL_MAX_LAT).append(" >= ")
+					.append(minLat).append(" AND ").append(EarthquakeColumns.SPATIAL_MIN_LON)
+					.append(" <= ").append(maxLon).append(" AND ")
+					.append(EarthquakeColumns.SPATIAL_MAX_LON).append(" >= ").append(minLon)
+					.append(" AND ");
+		}
+		where.append(EarthquakeColumns.LATITUDE).append(" BETWEEN ").append(minLat)
+				.append(" AND ").append(maxLat).append(" AND ")
+				.append(EarthquakeColumns.LONGITUDE).append(" BETWEEN ").append(minLon)
+				.append(" AND ").append(maxLon);
+		if (!TextUtils.isEmpty(selection)) where.append(" AND (").append(selection).append(")");
+		return where.toString();
+	}
+	
+	/**
+	 * Mendapatkan parameter Uri berupa angka.
+	 */
+	private static double getDoubleParameter(Uri uri, String name) {
+		String value = uri.getQueryParameter(name);
+		if (value == null) {
+			throw new IllegalArgumentException("Parameter " + name + " diperlukan: " + uri);
+		}
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Parameter " + name + " tidak valid: " + uri);
+		}
+	}
+	
 	@Override
 	public Uri insert(Uri uri, ContentValues values) {
+		if (uriMatcher.match(uri) == UPSERT) return upsert(uri, values);
+		
 		// Insert baris baru, akan mengembalikan no baris jika sukses
-		long rowId = db.insert(EarthquakeColumns.TABLE_NAME, "nullhack", values);
+		long rowId = insertQuake(values);
 		
 		// Mengembalikan URI ke baris yang baru diinsert saat sukses
 		if (rowId > 0) {
 			Uri newUri = ContentUris.withAppendedId(CONTENT_URI, rowId);
-			getContext().getContentResolver().notifyChange(uri, null);
+			notifyChange(uri);
 			//Log.d(TAG, "insert: " + uri + ", newUri=" + newUri);
 			return newUri;
 		}
 		Log.d(TAG, "Gagal insert: " + uri);
 		throw new SQLException("Gagal insert: " + uri);
 	}
+	
+	/**
+	 * Insert data gempa baru, atau update jika (src, eqid) sudah ada dan versinya
+	 * lebih baru. Hanya kolom pada statement insert yang disimpan.
+	 * 
+	 * @param uri Uri upsert
+	 * @param values Nilai kolom
+	 * @return Uri ke baris data dengan parameter status
+	 */
+	private Uri upsert(Uri uri, ContentValues values) {
+		String src = values.getAsString(EarthquakeColumns.SRC);
+		String eqid = values.getAsString(EarthquakeColumns.EQID);
+		if (src == null || eqid == null) {
+			throw new IllegalArgumentException("Upsert memerlukan src dan eqid: " + uri);
+		}
+		
+		long rowId;
+		String status;
+		synchronized (this) {
+			if (selectIdStatement == null) {
+				selectIdStatement = db.compileStatement("SELECT " + EarthquakeColumns._ID 
+						+ " FROM " + EarthquakeColumns.TABLE_NAME + " WHERE " 
+						+ EarthquakeColumns.SRC + " = ? AND " + EarthquakeColumns.EQID 
+						+ " = ?");
+				selectVersionStatement = db.compileStatement("SELECT " 
+						+ EarthquakeColumns.VERSION + " FROM " + EarthquakeColumns.TABLE_NAME 
+						+ " WHERE " + EarthquakeColumns._ID + " = ?");
+			}
+			
+			selectIdStatement.bindString(1, src);
+			selectIdStatement.bindString(2, eqid);
+			try {
+				rowId = selectIdStatement.simpleQueryForLong();
+			} catch (SQLiteDoneException e) {
+				rowId = -1;
+			}
+			
+			if (rowId < 0) {
+				rowId = insertQuake(values);
+				status = STATUS_NEW;
+				
+			} else {
+				selectVersionStatement.bindLong(1, rowId);
+				String version = selectVersionStatement.simpleQueryForString();
+				if (isNewerVersion(values.getAsString(EarthquakeColumns.VERSION), version)) {
+					updateQuake(rowId, values);
+					status = STATUS_REVISED;
+				} else {
+					status = STATUS_UNCHANGED;
+				}
+			}
+		}
+		
+		if (rowId <= 0) {
+			Log.d(TAG, "Gagal upsert: " + uri);
+			throw new SQLException("Gagal upsert: " + uri);
+		}
+		if (!STATUS_UNCHANGED.equals(status)) notifyChange(CONTENT_URI);
+		
+		return ContentUris.withAppendedId(CONTENT_URI, rowId).buildUpon()
+				.appendQueryParameter(PARAM_STATUS, status).build();
+	}
+	
+	/**
+	 * Update satu baris menggunakan statement yang sudah di-compile.
+	 * 
+	 * @param rowId Id baris
+	 * @param values Nilai kolom
+	 */
+	private synchronized void updateQuake(long rowId, ContentValues values) {
+		if (updateStatement == null) {
+			StringBuilder sql = new StringBuilder("UPDATE ")
+					.append(EarthquakeColumns.TABLE_NAME).append(" SET ");
+			for (int i = 0; i < INSERT_COLUMNS.length; i++) {
+				if (i > 0) sql.append(", ");
+				sql.append(INSERT_COLUMNS[i]).append(" = ?");
+			}
+			sql.append(" WHERE ").append(EarthquakeColumns._ID).append(" = ?");
+			updateStatement = db.compileStatement(sql.toString());
+		}
+		
+		updateStatement.clearBindings();
+		for (int i = 0; i < INSERT_COLUMNS.length; i++) {
+			bindValue(updateStatement, i + 1, values.get(INSERT_COLUMNS[i]));
+		}
+		updateStatement.bindLong(INSERT_COLUMNS.length + 1, rowId);
+		updateStatement.execute();
+	}
+	
+	/**
+	 * Membandingkan versi data gempa. Versi USGS berupa satu karakter (0-9, 
+	 * kemudian A-Z), versi numerik dibandingkan sebagai angka.
+	 * 
+	 * @param newVersion Versi data yang baru
+	 * @param oldVersion Versi data yang tersimpan
+	 * @return True jika versi baru lebih baru dari versi yang tersimpan
+	 */
+	private static boolean isNewerVersion(String newVersion, String oldVersion) {
+		if (newVersion == null) return false;
+		if (oldVersion == null) return true;
+		try {
+			return Integer.parseInt(newVersion) > Integer.parseInt(oldVersion);
+		} catch (NumberFormatException e) {
+			if (newVersion.length() != oldVersion.length()) {
+				return newVersion.length() > oldVersion.length();
+			}
+			return newVersion.compareTo(oldVersion) > 0;
+		}
+	}
+	
+	/**
+	 * Insert banyak baris dalam satu transaksi, dengan satu notifikasi perubahan.
+	 */
+	@Override
+	public int bulkInsert(Uri uri, ContentValues[] values) {
+		int count = 0;
+		db.beginTransaction();
+		try {
+			for (ContentValues value : values) {
+				if (insertQuake(value) <= 0) {
+					throw new SQLException("Gagal insert: " + uri);
+				}
+				count++;
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+		
+		getContext().getContentResolver().notifyChange(uri, null);
+		//Log.d(TAG, "bulkInsert: " + uri + ", result count=" + count);
+		return count;
+	}
+	
+	/**
+	 * Jalankan semua operasi dalam satu transaksi, dengan satu notifikasi 
+	 * perubahan. Hasil insert berisi URI dengan id baris yang baru.
+	 */
+	@Override
+	public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) 
+			throws OperationApplicationException {
+		ContentProviderResult[] results;
+		applyingBatch.set(Boolean.TRUE);
+		db.beginTransaction();
+		try {
+			results = super.applyBatch(operations);
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+			applyingBatch.set(Boolean.FALSE);
+		}
+		
+		getContext().getContentResolver().notifyChange(CONTENT_URI, null);
+		//Log.d(TAG, "applyBatch: result count=" + results.length);
+		return results;
+	}
+	
+	/**
+	 * Insert satu baris menggunakan statement yang sudah di-compile. Jika 
+	 * terdapat kolom yang tidak dikenal, gunakan insert biasa.
+	 * 
+	 * @param values Nilai kolom
+	 * @return Id baris yang baru, atau -1 jika gagal
+	 */
+	private long insertQuake(ContentValues values) {
+		for (Map.Entry<String, Object> entry : values.valueSet()) {
+			if (!isInsertColumn(entry.getKey())) {
+				return db.insert(EarthquakeColumns.TABLE_NAME, "nullhack", values);
+			}
+		}
+		
+		synchronized (this) {
+			if (insertStatement == null) {
+				StringBuilder sql = new StringBuilder("INSERT INTO ")
+						.append(EarthquakeColumns.TABLE_NAME).append(" (");
+				for (int i = 0; i < INSERT_COLUMNS.length; i++) {
+					if (i > 0) sql.append(", ");
+					sql.append(INSERT_COLUMNS[i]);
+				}
+				sql.append(") VALUES (");
+				for (int i = 0; i < INSERT_COLUMNS.length; i++) {
+					sql.append((i > 0) ? ", ?" : "?");
+				}
+				sql.append(")");
+				insertStatement = db.compileStatement(sql.toString());
+			}
+			
+			insertStatement.clearBindings();
+			for (int i = 0; i < INSERT_COLUMNS.length; i++) {
+				bindValue(insertStatement, i + 1, values.get(INSERT_COLUMNS[i]));
+			}
+			return insertStatement.executeInsert();
+		}
+	}
+	
+	/**
+	 * Apakah kolom termasuk kolom pada statement insert.
+	 */
+	private static boolean isInsertColumn(String column) {
+		for (String insertColumn : INSERT_COLUMNS) {
+			if (insertColumn.equals(column)) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Bind nilai ke statement sesuai dengan tipenya.
+	 * 
+	 * @param statement Statement
+	 * @param index Index parameter (mulai dari 1)
+	 * @param value Nilai
+	 */
+	private static void bindValue(SQLiteStatement statement, int index, Object value) {
+		if (value == null) {
+			statement.bindNull(index);
+		} else if (value instanceof Double || value instanceof Float) {
+			statement.bindDouble(index, ((Number) value).doubleValue());
+		} else if (value instanceof Number) {
+			statement.bindLong(index, ((Number) value).longValue());
+		} else if (value instanceof Boolean) {
+			statement.bindLong(index, ((Boolean) value) ? 1 : 0);
+		} else if (value instanceof byte[]) {
+			statement.bindBlob(index, (byte[]) value);
+		} else {
+			statement.bindString(index, value.toString());
+		}
+	}
+	
+	/**
+	 * Beritahukan perubahan data, kecuali sedang menjalankan applyBatch.
+	 * 
+	 * @param uri Uri yang berubah
+	 */
+	private void notifyChange(Uri uri) {
+		if (applyingBatch.get() == Boolean.TRUE) return;
+		getContext().getContentResolver().notifyChange(uri, null);
+	}
 
 	@Override
 	public int update(Uri uri, ContentValues values, String selection, 
@@ -141,7 +580,7 @@ public class EarthquakeProvider extends ContentProvider {
 			throw new IllegalArgumentException("URI tidak didukung: " + uri);
 		}
 		
-		getContext().getContentResolver().notifyChange(uri, null);
+		notifyChange(uri);
 		//Log.d(TAG, "update: " + uri + ", result count=" + count);
 		return count;
 	}
@@ -167,7 +606,7 @@ public class EarthquakeProvider extends ContentProvider {
 			throw new IllegalArgumentException("Uri tidak didukung: " + uri);
 		}
 		
-		getContext().getContentResolver().notifyChange(uri, null);
+		notifyChange(uri);
 		//Log.d(TAG, "delete: " + uri + ", result count=" + count);
 		return count;
 	}
@@ -176,8 +615,10 @@ public class EarthquakeProvider extends ContentProvider {
 	public String getType(Uri uri) {
 		switch (uriMatcher.match(uri)) {
 		case QUAKES:
+		case BOUNDS:
 			return "vnd.android.cursor.dir/vnd.adisayoga.earthquake";
 		case QUAKE_ID:
+		case UPSERT:
 			return "vnd.android.cursor.item/vnd.adisayoga.earthquake";
 		default:
 			throw new IllegalArgumentException("URI tidak didukung: " + uri);
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2011 Adi Sayoga.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.adisayoga.earthquake.providers;
+
+import android.provider.BaseColumns;
+
+/**
+ * Berisi konstanta daftar nama field dan field index untuk tabel outbox, yaitu
+ * antrian pengiriman pemberitahuan ke setiap saluran dan penerima.
+ * 
+ * @author Adi Sayoga
+ */
+public class OutboxColumns {
+
+	public static final String TABLE_NAME = "outbox";
+	
+	// Nama index
+	public static final String STATUS_NEXT_ATTEMPT_INDEX = "outbox_status_next_attempt";
+	
+	// Nilai kolom status
+	public static final int STATUS_PENDING = 0;
+	public static final int STATUS_SENT = 1;
+	public static final int STATUS_FAILED = 2;
+	/** Sedang dikirim, {@link #NEXT_ATTEMPT} berisi batas waktu lease */
+	public static final int STATUS_SENDING = 3;
+	
+	// Nama kolom
+	public static final String _ID = BaseColumns._ID;
+	
+	/** Kunci idempotensi: src dan eqid gempa, saluran, dan penerima */
+	public static final String KEY = "key";
+	public static final String CHANNEL = "channel";
+	public static final String RECIPIENT = "recipient";
+	public static final String QUAKE_ID = "quake_id";
+	
+	public static final String STATUS = "status";
+	public static final String ATTEMPTS = "attempts";
+	/** Waktu percobaan berikutnya, atau batas waktu lease jika sedang dikirim */
+	public static final String NEXT_ATTEMPT = "next_attempt";
+	public static final String CREATED = "created";
+	
+	// Kolom index
+	public static final int _ID_INDEX = 0;
+	public static final int KEY_INDEX = 1;
+	public static final int CHANNEL_INDEX = 2;
+	public static final int RECIPIENT_INDEX = 3;
+	public static final int QUAKE_ID_INDEX = 4;
+	
+	public static final int STATUS_INDEX = 5;
+	public static final int ATTEMPTS_INDEX = 6;
+	public static final int NEXT_ATTEMPT_INDEX = 7;
+	public static final int CREATED_INDEX = 8;
+}
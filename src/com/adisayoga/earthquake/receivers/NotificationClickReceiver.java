@@ -21,7 +21,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.util.Log;
 
-import com.adisayoga.earthquake.dto.EarthquakeDTO;
 import com.adisayoga.earthquake.providers.EarthquakeColumns;
 import com.adisayoga.earthquake.ui.EarthquakeDetailActivity;
 
@@ -36,15 +35,12 @@ public class NotificationClickReceiver extends BroadcastReceiver {
 	
 	@Override
 	public void onReceive(Context context, Intent intent) {
-		EarthquakeDTO quake = null;
-		// Ambil data gempa di extra
-		if (intent.hasExtra(EarthquakeColumns.TABLE_NAME)) {
-			quake = (EarthquakeDTO) intent.getExtras().get(EarthquakeColumns.TABLE_NAME);
-		}
-		if (quake != null) {
+		// Ambil id data gempa di extra
+		long id = intent.getLongExtra(EarthquakeColumns._ID, -1);
+		if (id != -1) {
 			// Terdapat data, tampilkan detail gempa
 			Intent detailIntent = new Intent(context, EarthquakeDetailActivity.class);
-			detailIntent.putExtra(EarthquakeColumns.TABLE_NAME, quake);
+			detailIntent.putExtra(EarthquakeColumns._ID, id);
 			detailIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK 
 					            | Intent.FLAG_ACTIVITY_CLEAR_TOP);
 			context.startActivity(detailIntent);
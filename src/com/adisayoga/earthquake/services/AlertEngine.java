@@ -0,0 +1,413 @@
+/*
+ * Copyright 2011 Adi Sayoga.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.adisayoga.earthquake.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import android.location.Location;
+
+import com.adisayoga.earthquake.dto.AlertRule;
+import com.adisayoga.earthquake.dto.EarthquakeDTO;
+
+/**
+ * Aturan pemberitahuan ({@link AlertRule}) yang sudah dikompilasi menjadi pohon
+ * predikat. Setiap aturan menjadi gabungan (AND) dari syarat yang benar-benar
+ * dibatasi saja, diurutkan dari yang paling murah. Nilai yang dibutuhkan syarat
+ * sudah dihitung saat kompilasi: lokasi user dalam radian beserta cosinus
+ * latitude-nya, dan batas jarak dalam bentuk haversine, sehingga pemeriksaan
+ * jarak tidak memerlukan objek Location, akar, maupun arcsin.
+ * <p>
+ * Satu gempa dievaluasi terhadap semua aturan sekaligus, hasilnya adalah bit
+ * mask aturan yang cocok (bit ke-i untuk aturan ke-i). Jarak, waktu lokal dan
+ * region setiap gempa hanya dihitung sekali walaupun dipakai banyak aturan.
+ * Objek ini tidak berubah setelah dibuat, aman digunakan dari banyak thread.
+ *
+ * @author Adi Sayoga
+ */
+public class AlertEngine {
+
+	/** Jumlah aturan maksimal, sesuai jumlah bit pada long */
+	public static final int MAX_RULES = 64;
+
+	/** Jumlah gempa minimal untuk dievaluasi secara paralel */
+	private static final int PARALLEL_THRESHOLD = 4096;
+
+	/** Radius rata-rata bumi (meter) */
+	private static final double EARTH_RADIUS = 6371008.8;
+
+	private static final long MINUTE = 60 * 1000;
+	private static final long DAY = AlertRule.MINUTES_PER_DAY * MINUTE;
+
+	private static ExecutorService executor = null;
+
+	private final Node[] rules;
+
+	/** Magnitudo minimal dari semua aturan, gempa di bawahnya langsung dilewati */
+	private final float minMagnitude;
+
+	private final double referenceLatitude;
+	private final double referenceLongitude;
+	private final double referenceCosLatitude;
+	private final TimeZone timeZone;
+
+	private AlertEngine(Node[] rules, float minMagnitude, Location reference,
+			TimeZone timeZone) {
+		this.rules = rules;
+		this.minMagnitude = minMagnitude;
+		this.referenceLatitude = (reference != null) ? Math.toRadians(reference.getLatitude()) : 0;
+		this.referenceLongitude = (reference != null) ? Math.toRadians(reference.getLongitude()) : 0;
+		this.referenceCosLatitude = Math.cos(referenceLatitude);
+		this.timeZone = timeZone;
+	}
+
+	/**
+	 * Kompilasi aturan.
+	 *
+	 * @param rules Daftar aturan, maksimal {@link #MAX_RULES}
+	 * @param reference Lokasi user untuk syarat jarak, null jika tidak diketahui
+	 *        (aturan dengan syarat jarak tidak pernah cocok)
+	 * @param timeZone Zona waktu untuk syarat waktu
+	 * @return Aturan yang sudah dikompilasi
+	 */
+	public static AlertEngine compile(List<AlertRule> rules, Location reference,
+			TimeZone timeZone) {
+		if (rules.size() > MAX_RULES) {
+			throw new IllegalArgumentException("Jumlah aturan maksimal " + MAX_RULES);
+		}
+
+		Node[] nodes = new Node[rules.size()];
+		float minMagnitude = Float.POSITIVE_INFINITY;
+		for (int i = 0; i < nodes.length; i++) {
+			AlertRule rule = rules.get(i);
+			nodes[i] = compile(rule, reference != null);
+			minMagnitude = Math.min(minMagnitude, rule.minMagnitude);
+		}
+		return new AlertEngine(nodes, minMagnitude, reference, timeZone);
+	}
+
+	private static Node compile(AlertRule rule, boolean hasReference) {
+		// Diurutkan dari yang paling murah
+		List<Node> conditions = new ArrayList<Node>();
+		if (rule.minMagnitude != Float.NEGATIVE_INFINITY
+				|| rule.maxMagnitude != Float.POSITIVE_INFINITY) {
+			conditions.add(new MagnitudeBetween(rule.minMagnitude, rule.maxMagnitude));
+		}
+		if (rule.minDepth != Float.NEGATIVE_INFINITY
+				|| rule.maxDepth != Float.POSITIVE_INFINITY) {
+			conditions.add(new DepthBetween(rule.minDepth, rule.maxDepth));
+		}
+		if (rule.startMinute != 0 || rule.endMinute != AlertRule.MINUTES_PER_DAY) {
+			conditions.add(new TimeOfDay(rule.startMinute, rule.endMinute));
+		}
+		if (rule.isRegional()) {
+			if (!hasReference) return Node.FALSE;
+			conditions.add(new Within(rule.maxDistance));
+		}
+		if (rule.region != null) {
+			conditions.add(new RegionContains(rule.region.toLowerCase(Locale.US)));
+		}
+
+		if (conditions.isEmpty()) return Node.TRUE;
+		if (conditions.size() == 1) return conditions.get(0);
+		return new And(conditions.toArray(new Node[conditions.size()]));
+	}
+
+	/**
+	 * Evaluasi satu gempa.
+	 *
+	 * @param quake Data gempa
+	 * @return Bit mask aturan yang cocok
+	 */
+	public long evaluate(EarthquakeDTO quake) {
+		Sample sample = new Sample();
+		sample.reset(quake);
+		return evaluate(sample);
+	}
+
+	/**
+	 * Evaluasi semua gempa dalam satu kali jalan. Jika jumlahnya besar (misalnya
+	 * saat membaca ulang seluruh feed), gempa dibagi ke beberapa thread sesuai
+	 * jumlah prosesor.
+	 *
+	 * @param quakes Daftar gempa, sebaiknya random access
+	 * @return Bit mask aturan yang cocok untuk setiap gempa, sesuai urutan
+	 */
+	public long[] evaluate(final List<EarthquakeDTO> quakes) {
+		final long[] masks = new long[quakes.size()];
+		int threads = Math.min(Runtime.getRuntime().availableProcessors(),
+				masks.length / (PARALLEL_THRESHOLD / 2));
+		if (masks.length < PARALLEL_THRESHOLD || threads < 2) {
+			evaluate(quakes, 0, masks.length, masks);
+			return masks;
+		}
+
+		List<Future<?>> futures = new ArrayList<Future<?>>(threads);
+		int chunk = (masks.length + threads - 1) / threads;
+		for (int start = 0; start < masks.length; start += chunk) {
+			final int from = start;
+			final int to = Math.min(start + chunk, masks.length);
+			futures.add(getExecutor().submit(new Runnable() {
+				@Override
+				public void run() {
+					evaluate(quakes, from, to, masks);
+				}
+			}));
+		}
+
+		// Setiap bagian hanya perhitungan singkat, jadi walaupun thread ini 
+		// diinterupsi tetap ditunggu sampai selesai, hasilnya tetap lengkap dan 
+		// tidak ada thread lain yang masih menulis ke masks
+		boolean interrupted = false;
+		try {
+			for (Future<?> future : futures) {
+				while (true) {
+					try {
+						future.get();
+						break;
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			}
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			throw new IllegalStateException(cause);
+
+		} finally {
+			if (interrupted) Thread.currentThread().interrupt();
+		}
+		return masks;
+	}
+
+	/**
+	 * Thread pool untuk evaluasi paralel, dibuat sekali dan digunakan bersama 
+	 * oleh semua AlertEngine. Thread-nya daemon, sehingga tidak menahan proses.
+	 */
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(
+					Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				private int count = 0;
+
+				@Override
+				public synchronized Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "AlertEngine-" + (++count));
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+
+	private void evaluate(List<EarthquakeDTO> quakes, int from, int to, long[] masks) {
+		Sample sample = new Sample();
+		for (int i = from; i < to; i++) {
+			sample.reset(quakes.get(i));
+			masks[i] = evaluate(sample);
+		}
+	}
+
+	private long evaluate(Sample sample) {
+		if (sample.quake.magnitude < minMagnitude) return 0;
+
+		long mask = 0;
+		for (int i = 0; i < rules.length; i++) {
+			if (rules[i].test(sample)) mask |= 1L << i;
+		}
+		return mask;
+	}
+
+	/**
+	 * Nilai turunan satu gempa yang dihitung hanya saat dibutuhkan, dan hanya
+	 * sekali untuk semua aturan.
+	 */
+	private class Sample {
+		EarthquakeDTO quake;
+		private double haversine;
+		private int minute;
+		private String region;
+
+		void reset(EarthquakeDTO quake) {
+			this.quake = quake;
+			this.haversine = Double.NaN;
+			this.minute = -1;
+			this.region = null;
+		}
+
+		/**
+		 * Haversine jarak sudut dari lokasi user, hav(d/R).
+		 */
+		double getHaversine() {
+			if (Double.isNaN(haversine)) {
+				double latitude = Math.toRadians(quake.latitude);
+				double sinLat = Math.sin((latitude - referenceLatitude) / 2);
+				double sinLon = Math.sin((Math.toRadians(quake.longitude)
+						- referenceLongitude) / 2);
+				haversine = sinLat * sinLat
+						+ referenceCosLatitude * Math.cos(latitude) * sinLon * sinLon;
+			}
+			return haversine;
+		}
+
+		int getMinute() {
+			if (minute < 0) {
+				long local = (quake.time + timeZone.getOffset(quake.time)) % DAY;
+				if (local < 0) local += DAY;
+				minute = (int) (local / MINUTE);
+			}
+			return minute;
+		}
+
+		String getRegion() {
+			if (region == null) {
+				region = (quake.region != null) ? quake.region.toLowerCase(Locale.US) : "";
+			}
+			return region;
+		}
+	}
+
+	/**
+	 * Node pohon predikat.
+	 */
+	private abstract static class Node {
+
+		static final Node TRUE = new Node() {
+			@Override
+			boolean test(Sample sample) {
+				return true;
+			}
+		};
+
+		static final Node FALSE = new Node() {
+			@Override
+			boolean test(Sample sample) {
+				return false;
+			}
+		};
+
+		abstract boolean test(Sample sample);
+	}
+
+	private static class And extends Node {
+		private final Node[] children;
+
+		And(Node[] children) {
+			this.children = children;
+		}
+
+		@Override
+		boolean test(Sample sample) {
+			for (Node child : children) {
+				if (!child.test(sample)) return false;
+			}
+			return true;
+		}
+	}
+
+	private static class MagnitudeBetween extends Node {
+		private final float min;
+		private final float max;
+
+		MagnitudeBetween(float min, float max) {
+			this.min = min;
+			this.max = max;
+		}
+
+		@Override
+		boolean test(Sample sample) {
+			float magnitude = sample.quake.magnitude;
+			return magnitude >= min && magnitude <= max;
+		}
+	}
+
+	private static class DepthBetween extends Node {
+		private final float min;
+		private final float max;
+
+		DepthBetween(float min, float max) {
+			this.min = min;
+			this.max = max;
+		}
+
+		@Override
+		boolean test(Sample sample) {
+			float depth = sample.quake.depth;
+			return depth >= min && depth <= max;
+		}
+	}
+
+	private static class TimeOfDay extends Node {
+		private final int start;
+		private final int end;
+
+		TimeOfDay(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		boolean test(Sample sample) {
+			int minute = sample.getMinute();
+			// Rentang yang melewati tengah malam, misalnya 22:00 - 06:00
+			if (start > end) return minute >= start || minute < end;
+			return minute >= start && minute < end;
+		}
+	}
+
+	private static class Within extends Node {
+		/** hav(maxDistance / R), lebih dari 1 jika mencakup seluruh bumi */
+		private final double maxHaversine;
+
+		Within(float maxDistance) {
+			double angle = maxDistance / EARTH_RADIUS;
+			if (angle >= Math.PI) {
+				maxHaversine = 2;
+			} else {
+				double sin = Math.sin(angle / 2);
+				maxHaversine = sin * sin;
+			}
+		}
+
+		@Override
+		boolean test(Sample sample) {
+			return sample.getHaversine() <= maxHaversine;
+		}
+	}
+
+	private static class RegionContains extends Node {
+		private final String region;
+
+		RegionContains(String region) {
+			this.region = region;
+		}
+
+		@Override
+		boolean test(Sample sample) {
+			return sample.getRegion().indexOf(region) >= 0;
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2011 Adi Sayoga.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.adisayoga.earthquake.services;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import android.util.Log;
+
+/**
+ * Menjalankan pengiriman ke beberapa saluran (Facebook, Twitter, email, SMS)
+ * secara bersamaan dengan batas waktu untuk setiap saluran. Saluran yang lambat
+ * tidak menunda saluran lainnya, dan saluran yang melewati batas waktu
+ * dibatalkan (thread-nya diinterupsi).
+ *
+ * @author Adi Sayoga
+ */
+public class ChannelFanOut {
+
+	private static final String TAG = "ChannelFanOut";
+
+	/** Hasil pengiriman satu saluran */
+	public enum Result {
+		SENT, FAILED, TIMEOUT, SKIPPED
+	}
+
+	private final int maxThreads;
+	private final Map<String, Callable<Boolean>> channels =
+			new LinkedHashMap<String, Callable<Boolean>>();
+
+	/**
+	 * @param maxThreads Jumlah thread maksimal
+	 */
+	public ChannelFanOut(int maxThreads) {
+		this.maxThreads = maxThreads;
+	}
+
+	/**
+	 * Tambahkan saluran.
+	 *
+	 * @param name Nama saluran
+	 * @param task Pengiriman, mengembalikan true jika terkirim, false jika gagal,
+	 *        atau null jika tidak dikirim (misalnya belum login)
+	 */
+	public void add(String name, Callable<Boolean> task) {
+		channels.put(name, task);
+	}
+
+	/**
+	 * Jalankan semua saluran dan tunggu hasilnya. Batas waktu setiap saluran 
+	 * dihitung sejak saluran tersebut mulai berjalan, bukan sejak dimasukkan ke
+	 * antrian, jadi saluran yang menunggu thread kosong (jika jumlah saluran 
+	 * lebih banyak dari maxThreads) tetap mendapat waktu penuh. Saluran yang 
+	 * melewati batas waktu dibatalkan oleh thread pengawas.
+	 *
+	 * @param timeout Batas waktu setiap saluran (milliseconds)
+	 * @return Hasil setiap saluran, sesuai urutan ditambahkan
+	 * @throws InterruptedException Jika thread diinterupsi selama menunggu
+	 */
+	public Map<String, Result> run(long timeout) throws InterruptedException {
+		Map<String, Result> results = new LinkedHashMap<String, Result>();
+		if (channels.isEmpty()) return results;
+
+		ExecutorService executor = Executors.newFixedThreadPool(
+				Math.min(maxThreads, channels.size()));
+		ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor();
+		long start = System.currentTimeMillis();
+		try {
+			List<TimedTask> tasks = new ArrayList<TimedTask>(channels.size());
+			for (Callable<Boolean> task : channels.values()) {
+				TimedTask timed = new TimedTask(task, timeout, watchdog);
+				executor.execute(timed.future);
+				tasks.add(timed);
+			}
+
+			int i = 0;
+			for (String name : channels.keySet()) {
+				results.put(name, getResult(name, tasks.get(i++)));
+			}
+
+		} finally {
+			// Saluran yang belum selesai dihentikan, hasilnya tidak dibutuhkan lagi
+			executor.shutdownNow();
+			watchdog.shutdownNow();
+		}
+
+		Log.d(TAG, "Selesai dalam " + (System.currentTimeMillis() - start) + " ms: "
+				+ results);
+		return results;
+	}
+
+	private Result getResult(String name, TimedTask task) throws InterruptedException {
+		try {
+			Boolean sent = task.future.get();
+			if (sent == null) return Result.SKIPPED;
+			return (sent) ? Result.SENT : Result.FAILED;
+
+		} catch (CancellationException e) {
+			Log.w(TAG, "Batas waktu terlewati: " + name);
+			return Result.TIMEOUT;
+
+		} catch (ExecutionException e) {
+			Log.e(TAG, "Gagal mengirim ke " + name + ": " + e.getCause(), e.getCause());
+			return Result.FAILED;
+		}
+	}
+
+	/**
+	 * Pengiriman satu saluran yang dibatalkan jika berjalan melewati batas 
+	 * waktu. Waktu mulai dihitung saat pengiriman mulai berjalan pada thread.
+	 */
+	private static class TimedTask implements Callable<Boolean> {
+		final FutureTask<Boolean> future = new FutureTask<Boolean>(this);
+		private final Callable<Boolean> task;
+		private final long timeout;
+		private final ScheduledExecutorService watchdog;
+
+		TimedTask(Callable<Boolean> task, long timeout, ScheduledExecutorService watchdog) {
+			this.task = task;
+			this.timeout = timeout;
+			this.watchdog = watchdog;
+		}
+
+		@Override
+		public Boolean call() throws Exception {
+			ScheduledFuture<?> timer = watchdog.schedule(new Runnable() {
+				@Override
+				public void run() {
+					future.cancel(true);
+				}
+			}, timeout, TimeUnit.MILLISECONDS);
+			try {
+				return task.call();
+			} finally {
+				timer.cancel(false);
+			}
+		}
+	}
+}
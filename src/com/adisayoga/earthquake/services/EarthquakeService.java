@@ -17,30 +17,56 @@
 package com.adisayoga.earthquake.services;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
 
+import android.app.AlarmManager;
 import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
+import android.content.OperationApplicationException;
+import android.database.SQLException;
 import android.location.Location;
 import android.location.LocationListener;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.RemoteException;
 import android.util.Log;
 import android.widget.Toast;
 
 import com.adisayoga.earthquake.R;
+import com.adisayoga.earthquake.dto.AlertRule;
 import com.adisayoga.earthquake.dto.EarthquakeDTO;
+import com.adisayoga.earthquake.dto.FeedWatermark;
 import com.adisayoga.earthquake.dto.LocationType;
+import com.adisayoga.earthquake.dto.OutboxDTO;
+import com.adisayoga.earthquake.dto.WatchedLocationDTO;
 import com.adisayoga.earthquake.models.ContactModel;
 import com.adisayoga.earthquake.models.EarthquakeModel;
+import com.adisayoga.earthquake.models.GeofenceIndex;
+import com.adisayoga.earthquake.models.GlobeCache;
+import com.adisayoga.earthquake.models.OutboxModel;
+import com.adisayoga.earthquake.models.QuakeRepository;
 import com.adisayoga.earthquake.models.UsgsSource;
+import com.adisayoga.earthquake.models.WatchedLocationModel;
 import com.adisayoga.earthquake.providers.EarthquakeColumns;
 import com.adisayoga.earthquake.providers.EarthquakeProvider;
 import com.adisayoga.earthquake.receivers.EarthquakeReceiver;
@@ -64,12 +90,54 @@ public class EarthquakeService extends IntentService {
 
 	private static final String TAG = "EarthquakeService";
 	private static final String NAME = "EarthquakeService";
+	
+	/** Magnitudo minimal gempa baru yang globe-nya di-download lebih dulu */
+	private static final float GLOBE_PREFETCH_MAGNITUDE = 5;
+	
+	/** Jumlah maksimal globe yang di-download setiap refresh */
+	private static final int GLOBE_PREFETCH_MAX = 10;
+	
+	/** Jumlah data gempa dalam satu batch pada pipeline */
+	private static final int PIPELINE_BATCH_SIZE = 50;
+	
+	/** Kapasitas antrian setiap tahap pipeline (batch) */
+	private static final int PIPELINE_CAPACITY = 4;
+	
+	/** Batas waktu menunggu pipeline selesai */
+	private static final long PIPELINE_TIMEOUT = 5 * 60 * 1000; // 5 menit
+	
+	/** Jumlah thread maksimal untuk pengiriman ke saluran */
+	private static final int CHANNEL_THREADS = 4;
+	
+	/** Batas waktu setiap saluran */
+	private static final long CHANNEL_TIMEOUT = 60 * 1000; // 1 menit
+	
+	private static final String CHANNEL_NOTIFY = "notify";
+	private static final String CHANNEL_FACEBOOK = "facebook";
+	private static final String CHANNEL_TWITTER = "twitter";
+	private static final String CHANNEL_MAIL = "mail";
+	private static final String CHANNEL_SMS = "sms";
+	
+	/** Notifikasi lokasi pantauan, penerimanya adalah id lokasi */
+	private static final String CHANNEL_WATCHED_LOCATION = "watched_location";
+	
+	/** Penerima untuk saluran yang dikirim ke akun sendiri (Facebook, Twitter) */
+	private static final String RECIPIENT_SELF = "me";
+	
+	/** Action intent untuk mengirim outbox, dijadwalkan melalui AlarmManager */
+	private static final String ACTION_DRAIN_OUTBOX = "com.adisayoga.earthquake.DRAIN_OUTBOX";
+	
+	/** Jumlah pengiriman maksimal setiap kali outbox dikirim */
+	private static final int OUTBOX_DRAIN_LIMIT = 100;
+	
+	private static volatile List<Pipeline.StageStats> pipelineStats = 
+			Collections.<Pipeline.StageStats>emptyList();
+	
 	private static Location location;
 	
 	private Prefs prefs;
 	private EarthquakeFacebook facebook;
 	private EarthquakeTwitter twitter;
-	private EarthquakeMail mail;
 	private LocationFinder locationFinder;
 	private final Handler handler = new Handler();
 	
@@ -83,7 +151,6 @@ public class EarthquakeService extends IntentService {
 		prefs = Prefs.getInstance(this);
 		facebook = new EarthquakeFacebook(this);
 		twitter = new EarthquakeTwitter(this);
-		mail = new EarthquakeMail(this);
 		
 		// Menentukan lokasi kita saat ini
 		locationFinder = new LocationFinder(this);
@@ -115,183 +182,479 @@ public class EarthquakeService extends IntentService {
 
 	@Override
 	protected void onHandleIntent(Intent intent) {
-		// Hapus data lama
-		deleteOldQuakes(prefs.getMaxAge());
+		if (ACTION_DRAIN_OUTBOX.equals(intent.getAction())) {
+			try {
+				drainOutbox();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return;
+		}
+		
+		// Hapus data lama, data di memory langsung diperbaharui
+		long deletedBefore = System.currentTimeMillis() - prefs.getMaxAge();
+		int deletedCount = deleteOldQuakes(deletedBefore);
+		OutboxModel.getInstance(this).deleteBefore(deletedBefore);
+		updateRepository(new ArrayList<Long>(), new ArrayList<Long>(), deletedBefore, 
+				deletedCount);
 		
+		// Data dari server diproses oleh pipeline selagi masih di-download. Jika
+		// batas waktu terlewati, tahap persist bisa masih menambahkan data
+		List<EarthquakeDTO> changedList = Collections.synchronizedList(
+				new ArrayList<EarthquakeDTO>());
+		Pipeline pipeline = createPipeline(deletedBefore, changedList);
+		QuakeBatcher batcher = new QuakeBatcher(pipeline);
+		pipeline.start();
+		
+		UsgsSource.Feed feed;
+		FeedWatermark newWatermark;
 		try {
 			// Mendapatkan data dari USGS
 			long lastUpdate = prefs.getLastUpdate();
 			float minMagnitude = prefs.getMinMagnitude();
 			SimpleDateFormat sdf = new SimpleDateFormat("MM-dd HH:mm:ss");
 			Log.i(TAG, "Merefresh data... Last update=" + sdf.format(lastUpdate));
-			List<EarthquakeDTO> quakes = UsgsSource.read(lastUpdate, minMagnitude);
+			
+			// Baca secara incremental berdasarkan watermark file feed yang dipilih
+			String filename = UsgsSource.getFilename(minMagnitude, 
+					System.currentTimeMillis() - lastUpdate);
+			FeedWatermark watermark = (lastUpdate > 0) 
+					? prefs.getFeedWatermark(filename) : null;
+			feed = UsgsSource.read(this, filename, watermark, prefs.getRevisionWindow(), 
+					batcher);
+			batcher.flush();
+			prefs.addFeedStats(feed.bytesDownloaded, feed.bytesSaved, feed.isNotModified());
+			Log.d(TAG, "Feed total: " + prefs.getFeedBytesDownloaded() + " bytes diterima, " 
+					+ prefs.getFeedBytesSaved() + " bytes dihemat, " 
+					+ prefs.getFeedNotModifiedCount() + " kali tidak berubah (304)");
+			List<EarthquakeDTO> quakes = feed.quakes;
 			// Kita sudah selesai mendapatkan data, simpan terakhir kali diupdate
 			prefs.setLastUpdate(System.currentTimeMillis());
-			
+			newWatermark = (quakes != null) ? FeedWatermark.advance(watermark, quakes) 
+					: watermark;
 			if (quakes != null && quakes.size() > 0) {
-				// Terdapat data pada server, filter data ini sehingga data yang
-				// didapat merupakan data yang benar-benar baru
 				Log.d(TAG, "Data pada server: " + quakes.size() + " items");
-				quakes = getNewQuakes(quakes);
-			}
-			
-			if (quakes != null && quakes.size() > 0) {
-				// Terdapat data, simpan ke provider, beritahukan ada gempa baru 
-				// (jika sesuai dengan minimal magnitudo pengaturan), dan kirim 
-				// broadcast terdapat data baru
-				Log.d(TAG, "Terdapat data baru: " + quakes.size() + " items");
-				addNewQuakes(quakes);
-				notifyNewQuake(quakes);
-				sendBroadcast(new Intent(EarthquakeReceiver.NEW_QUAKE_FOUND));
-			} else {
-				// Tidak ada data baru, kirim broadcast tidak ada data baru
-				Log.d(TAG, "Tidak ada data yang perlu di-update");
-				sendBroadcast(new Intent(EarthquakeReceiver.NO_NEW_QUAKE));
 			}
 			
 		} catch (IOException e) {
-			// Terdapat error, kirim broadcast jaringan error
+			// Terdapat error, kirim broadcast jaringan error. Data yang sudah 
+			// terbaca tetap diselesaikan oleh pipeline.
 			Log.w(TAG, "Gagal mendapatkan data dari server");
+			finishPipeline(pipeline);
 			sendBroadcast(new Intent(EarthquakeReceiver.NETWORK_ERROR));
+			return;
 		}
+		
+		boolean completed = finishPipeline(pipeline);
+		List<EarthquakeDTO> changedQuakes;
+		synchronized (changedList) {
+			changedQuakes = new ArrayList<EarthquakeDTO>(changedList);
+		}
+		
+		// Watermark dan validator feed (ETag, Last-Modified) disimpan bersama 
+		// setelah semua data tersimpan. Jika pipeline gagal keduanya tidak 
+		// berubah, jadi refresh berikutnya tidak mendapat 304 dan data yang sama 
+		// dibaca lagi. Disimpan sebelum pengiriman outbox dan prefetch yang 
+		// memerlukan jaringan, jika proses dihentikan saat itu data yang sudah 
+		// tersimpan tidak dibaca ulang.
+		if (completed) {
+			prefs.setFeedWatermark(feed.filename, newWatermark);
+			feed.commit(this);
+		}
+		
+		if (changedQuakes.size() > 0) {
+			// Terdapat data baru, notifikasi sudah dikirim oleh pipeline, kirim 
+			// broadcast terdapat data baru
+			Log.d(TAG, "Terdapat data baru: " + changedQuakes.size() + " items");
+			sendBroadcast(new Intent(EarthquakeReceiver.NEW_QUAKE_FOUND));
+		} else {
+			// Tidak ada data baru, kirim broadcast tidak ada data baru
+			Log.d(TAG, "Tidak ada data yang perlu di-update");
+			sendBroadcast(new Intent(EarthquakeReceiver.NO_NEW_QUAKE));
+		}
+		
+		// Jaringan tersedia, kirim ulang pengiriman yang sebelumnya gagal. 
+		// Dilakukan setelah broadcast, karena bisa memakan waktu sampai batas 
+		// waktu saluran.
+		try {
+			drainOutbox();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		
+		if (changedQuakes.size() > 0) prefetchGlobes(changedQuakes);
 	}
 	
 	/**
-	 * Menghapus data gempa yang lebih lama dari age yang ditentukan.
+	 * Membuat pipeline untuk data dari server: buang data ganda, simpan ke 
+	 * provider, evaluasi pemberitahuan, kemudian kirim ke setiap saluran 
+	 * (notifikasi, Facebook, Twitter, email, SMS). Setiap tahap berjalan pada 
+	 * thread-nya sendiri, jadi penyimpanan berjalan bersamaan dengan parse dan 
+	 * evaluasi pemberitahuan.
 	 * 
-	 * @param age Umur dalam milisecond
+	 * @param deletedBefore Batas waktu data yang dihapus
+	 * @param changedQuakes Diisi dengan gempa yang baru atau direvisi
+	 * @return Pipeline, input-nya adalah batch data gempa dari server
+	 */
+	private Pipeline createPipeline(final long deletedBefore, 
+			final List<EarthquakeDTO> changedQuakes) {
+		final Set<String> keys = new HashSet<String>();
+		final Alerts alerts = new Alerts();
+		
+		return new Pipeline("fetch", PIPELINE_CAPACITY)
+				.add(new Pipeline.Stage<List<EarthquakeDTO>, List<EarthquakeDTO>>("dedupe") {
+					@Override
+					protected void process(List<EarthquakeDTO> quakes) 
+							throws InterruptedException {
+						List<EarthquakeDTO> unique = new ArrayList<EarthquakeDTO>(quakes.size());
+						for (EarthquakeDTO quake : quakes) {
+							if (keys.add(quake.source + quake.eqid)) unique.add(quake);
+						}
+						if (unique.size() > 0) emit(unique);
+					}
+				})
+				.add(new Pipeline.Stage<List<EarthquakeDTO>, List<EarthquakeDTO>>("persist") {
+					@Override
+					protected void process(List<EarthquakeDTO> quakes) 
+							throws InterruptedException {
+						// Data yang tersisa hanya data yang benar-benar baru atau direvisi
+						List<Long> addedIds = new ArrayList<Long>();
+						List<Long> updatedIds = new ArrayList<Long>();
+						List<EarthquakeDTO> changed = saveQuakes(quakes, addedIds, updatedIds);
+						updateRepository(addedIds, updatedIds, deletedBefore, 0);
+						if (changed.size() == 0) return;
+						
+						changedQuakes.addAll(changed);
+						emit(changed);
+					}
+				})
+				.add(new Pipeline.Stage<List<EarthquakeDTO>, Alerts>("alert") {
+					@Override
+					protected void process(List<EarthquakeDTO> quakes) {
+						alerts.evaluate(quakes);
+					}
+					
+					@Override
+					protected void finish() throws InterruptedException {
+						if (!alerts.isEmpty()) emit(alerts);
+					}
+				})
+				.add(new Pipeline.Stage<Alerts, Void>("channel") {
+					@Override
+					protected void process(Alerts alerts) throws InterruptedException {
+						alerts.send();
+					}
+				});
+	}
+	
+	/**
+	 * Tunggu pipeline selesai dan simpan statistiknya.
+	 * 
+	 * @param pipeline Pipeline
+	 * @return True jika semua tahap selesai tanpa error
+	 */
+	private boolean finishPipeline(Pipeline pipeline) {
+		boolean completed;
+		try {
+			completed = pipeline.finish(PIPELINE_TIMEOUT) && pipeline.getError() == null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			completed = false;
+		}
+		
+		pipelineStats = pipeline.getStats();
+		for (Pipeline.StageStats stats : pipelineStats) {
+			Log.d(TAG, "Pipeline " + stats);
+		}
+		return completed;
+	}
+	
+	/**
+	 * Mendapatkan statistik setiap tahap pipeline pada refresh terakhir.
+	 * 
+	 * @return Statistik, list kosong jika belum pernah refresh
+	 */
+	public static List<Pipeline.StageStats> getPipelineStats() {
+		return pipelineStats;
+	}
+	
+	/**
+	 * Menghapus data gempa yang lebih lama dari waktu yang ditentukan.
+	 * 
+	 * @param time Batas waktu
 	 * @return Jumlah data yang dihapus
 	 */
-	private int deleteOldQuakes(long age) {
+	private int deleteOldQuakes(long time) {
 		EarthquakeModel table = new EarthquakeModel(this);
-		return table.deleteQuakes(age);
+		return table.deleteQuakesBefore(time);
 	}
 	
 	/**
-	 * Mendapatkan data yang tidak ada pada provider.
+	 * Kirim perubahan data ke {@link QuakeRepository}, sehingga activity yang 
+	 * terbuka hanya membaca data yang berubah.
 	 * 
-	 * @param quakes Data gempa
-	 * @return Data baru
+	 * @param addedIds Id data baru
+	 * @param updatedIds Id data yang direvisi
+	 * @param deletedBefore Batas waktu data yang dihapus
+	 * @param deletedCount Jumlah data yang dihapus
 	 */
-	private List<EarthquakeDTO> getNewQuakes(List<EarthquakeDTO> quakes) {
-		List<EarthquakeDTO> newQuakes = new ArrayList<EarthquakeDTO>();
-		
-		ContentResolver resolver = getContentResolver();
-		String selection = EarthquakeColumns.DATE + " = ?";
+	private void updateRepository(List<Long> addedIds, List<Long> updatedIds, 
+			long deletedBefore, int deletedCount) {
+		if (addedIds.isEmpty() && updatedIds.isEmpty() && deletedCount == 0) return;
+		QuakeRepository.getInstance(this).applyChanges(toArray(addedIds), 
+				toArray(updatedIds), deletedBefore);
+	}
+	
+	/**
+	 * Download globe gempa baru yang cukup besar ke cache, sehingga detail gempa
+	 * (misalnya dari notifikasi) dapat langsung ditampilkan. Dijalankan setelah 
+	 * broadcast dikirim agar tidak menunda tampilan data.
+	 * 
+	 * @param quakes Gempa baru atau direvisi
+	 */
+	private void prefetchGlobes(List<EarthquakeDTO> quakes) {
+		GlobeCache globeCache = GlobeCache.getInstance(this);
+		Set<String> urls = new HashSet<String>();
 		
 		for (EarthquakeDTO quake : quakes) {
-			String[] selectionArgs = new String[] { Long.toString(quake.time) };
+			if (urls.size() >= GLOBE_PREFETCH_MAX) break;
+			if (quake.magnitude < GLOBE_PREFETCH_MAGNITUDE) continue;
 			
-			Cursor cursor = resolver.query(EarthquakeProvider.CONTENT_URI, null, 
-					selection, selectionArgs, null);
-			if (cursor.getCount() == 0) newQuakes.add(quake);
-			cursor.close();
+			// Beberapa gempa bisa menggunakan globe yang sama
+			URL url = UsgsSource.getGlobeURL(quake);
+			if (url == null || !urls.add(url.toString())) continue;
+			globeCache.prefetch(url);
 		}
-		
-		return newQuakes;
+		if (!urls.isEmpty()) Log.d(TAG, "Prefetch globe: " + urls.size() + " gambar");
+	}
+	
+	private static long[] toArray(List<Long> values) {
+		long[] array = new long[values.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = values.get(i);
+		}
+		return array;
 	}
 	
 	/**
-	 * Menambahkan data gempa baru ke provider.
+	 * Menyimpan data gempa ke provider dalam satu batch upsert (satu transaksi 
+	 * dan satu notifikasi perubahan). Gempa yang sudah tersimpan hanya di-update
+	 * jika versinya lebih baru.
 	 * 
 	 * @param quakes List data gempa
-	 * @return List gempa yang ditambahkan dengan id tabelnya
+	 * @param addedIds Diisi dengan id data baru
+	 * @param updatedIds Diisi dengan id data yang direvisi
+	 * @return List gempa yang baru atau direvisi, dengan id tabelnya
 	 */
-	private List<EarthquakeDTO> addNewQuakes(List<EarthquakeDTO> quakes) {
+	private List<EarthquakeDTO> saveQuakes(List<EarthquakeDTO> quakes, 
+			List<Long> addedIds, List<Long> updatedIds) {
 		Log.d(TAG, "Menyimpan data... ");
 		ContentResolver resolver = getContentResolver();
 		
+		ArrayList<ContentProviderOperation> operations = 
+				new ArrayList<ContentProviderOperation>(quakes.size());
 		for (EarthquakeDTO quake : quakes) {
-			// Simpan ke provider
-			ContentValues values = new ContentValues();
-			values.put(EarthquakeColumns.SRC, quake.source);
-			values.put(EarthquakeColumns.EQID, quake.eqid);
-			values.put(EarthquakeColumns.VERSION, quake.version);
-			
-			values.put(EarthquakeColumns.DATE, quake.time);
-			values.put(EarthquakeColumns.LATITUDE, quake.latitude);
-			values.put(EarthquakeColumns.LONGITUDE, quake.longitude);
-			values.put(EarthquakeColumns.MAGNITUDE, quake.magnitude);
-			values.put(EarthquakeColumns.DEPTH, quake.depth);
-			values.put(EarthquakeColumns.NST, quake.nst);
-			values.put(EarthquakeColumns.REGION, quake.region);
-			
-			Uri uri = resolver.insert(EarthquakeProvider.CONTENT_URI, values);
+			operations.add(ContentProviderOperation.newInsert(EarthquakeProvider
+					.UPSERT_URI).withValues(getContentValues(quake)).build());
+		}
+		
+		List<EarthquakeDTO> changedQuakes = new ArrayList<EarthquakeDTO>();
+		try {
+			ContentProviderResult[] results = resolver.applyBatch(
+					EarthquakeProvider.AUTHORITY, operations);
 			
-			// Mendapatkan id dari data yang baru saja diinsert
-			long segment = Long.parseLong(uri.getPathSegments().get(1));
-			quake.id = segment;
+			// Ambil id dan status dari setiap data, data yang tidak berubah dibuang
+			for (int i = 0; i < results.length; i++) {
+				Uri uri = results[i].uri;
+				String status = uri.getQueryParameter(EarthquakeProvider.PARAM_STATUS);
+				if (EarthquakeProvider.STATUS_UNCHANGED.equals(status)) continue;
+				
+				EarthquakeDTO quake = quakes.get(i);
+				quake.id = ContentUris.parseId(uri);
+				changedQuakes.add(quake);
+				if (EarthquakeProvider.STATUS_NEW.equals(status)) {
+					addedIds.add(quake.id);
+				} else {
+					updatedIds.add(quake.id);
+				}
+			}
+		} catch (RemoteException e) {
+			Log.e(TAG, "Gagal menyimpan data: " + e.getMessage(), e);
+			throw new SQLException("Gagal menyimpan data: " + e.getMessage());
+		} catch (OperationApplicationException e) {
+			Log.e(TAG, "Gagal menyimpan data: " + e.getMessage(), e);
+			throw new SQLException("Gagal menyimpan data: " + e.getMessage());
 		}
 		
-		return quakes;
+		return changedQuakes;
 	}
 	
 	/**
-	 * Memberitahukan bahwa terdapat gempa baru (notifikasi, kirim SMS, share ke 
-	 * Facebook).
-	 * <p>
-	 * Disini dilakukan filter yang sesuai dengan minimal magnitudo pengaturan untuk
-	 * masing-masing pemberitahuan.
+	 * Konversi data gempa ke ContentValues.
 	 * 
-	 * @param quakes List gempa
+	 * @param quake Data gempa
+	 * @return ContentValues
 	 */
-	private void notifyNewQuake(List<EarthquakeDTO> quakes) {
-		if (quakes == null || quakes.size() == 0) return;
-		
-		// Load preference
-		boolean isNotify = prefs.isNotifySend();
-		boolean isSmsSend = prefs.isSmsSend();
-		boolean isFacebookSend = prefs.isFacebookSend();
-		boolean isTwitterSend = prefs.isTwitterSend();
-		boolean isMailSend = prefs.isMailSend();
-		
-		float notifyMinMagReg = prefs.getNotifyMinMagnitude(LocationType.REGIONAL);
-		float notifyMinMagGlobal = prefs.getNotifyMinMagnitude(LocationType.GLOBAL);
-		float facebookMinMagReg = prefs.getFacebookMinMagnitude(LocationType.REGIONAL);
-		float facebookMinMagGlobal = prefs.getFacebookMinMagnitude(LocationType.GLOBAL);
-		float twitterMinMagReg = prefs.getTwitterMinMagnitude(LocationType.REGIONAL);
-		float twitterMinMagGlobal = prefs.getTwitterMinMagnitude(LocationType.GLOBAL);
-		float mailMinMagReg = prefs.getMailMinMagnitude(LocationType.REGIONAL);
-		float mailMinMagGlobal = prefs.getMailMinMagnitude(LocationType.GLOBAL);
-		float smsMinMagReg = prefs.getSmsMinMagnitude(LocationType.REGIONAL);
-		float smsMinMagGlobal = prefs.getSmsMinMagnitude(LocationType.GLOBAL);
-		
-		float prefMinMag = prefs.getMinMagnitude();
-		int prefRange = prefs.getRange();
+	private ContentValues getContentValues(EarthquakeDTO quake) {
+		ContentValues values = new ContentValues();
+		values.put(EarthquakeColumns.SRC, quake.source);
+		values.put(EarthquakeColumns.EQID, quake.eqid);
+		values.put(EarthquakeColumns.VERSION, quake.version);
 		
+		values.put(EarthquakeColumns.DATE, quake.time);
+		values.put(EarthquakeColumns.LATITUDE, quake.latitude);
+		values.put(EarthquakeColumns.LONGITUDE, quake.longitude);
+		values.put(EarthquakeColumns.MAGNITUDE, quake.magnitude);
+		values.put(EarthquakeColumns.DEPTH, quake.depth);
+		values.put(EarthquakeColumns.NST, quake.nst);
+		values.put(EarthquakeColumns.REGION, quake.region);
+		return values;
+	}
+	
+	/**
+	 * Pemberitahuan gempa baru (notifikasi, kirim SMS, share ke Facebook). Data
+	 * gempa dievaluasi per batch selagi data masih diterima, kemudian dikirim
+	 * sekaligus.
+	 * <p>
+	 * Minimal magnitudo regional dan global setiap pemberitahuan dikompilasi menjadi
+	 * aturan {@link AlertEngine}, sehingga setiap gempa cukup dievaluasi sekali
+	 * untuk semua saluran. Setiap gempa juga dicocokkan dengan lokasi pantauan 
+	 * melalui {@link GeofenceIndex}, menghasilkan satu notifikasi untuk setiap 
+	 * lokasi.
+	 */
+	private class Alerts {
 		// Variable untuk menentukan data gempa yang paling besar dan diprioritaskan
 		// untuk lokasi regional
-		float lastMagReg = 0;
-		float lastMagGlobal = 0;
-		int quakeCount = 0;
+		private float lastMagReg = 0;
+		private float lastMagGlobal = 0;
+		private int quakeCount = 0;
 		
 		// Variable untuk menyimpan data
-		EarthquakeDTO quakeNotify = null;
-		List<EarthquakeDTO> quakesFacebook = new ArrayList<EarthquakeDTO>();
-		List<EarthquakeDTO> quakesTwitter = new ArrayList<EarthquakeDTO>();
-		List<EarthquakeDTO> quakesMail = new ArrayList<EarthquakeDTO>();
-		List<EarthquakeDTO> quakesSms = new ArrayList<EarthquakeDTO>();
+		private EarthquakeDTO quakeNotify = null;
+		private final List<EarthquakeDTO> quakesFacebook = new ArrayList<EarthquakeDTO>();
+		private final List<EarthquakeDTO> quakesTwitter = new ArrayList<EarthquakeDTO>();
+		private final List<EarthquakeDTO> quakesMail = new ArrayList<EarthquakeDTO>();
+		private final List<EarthquakeDTO> quakesSms = new ArrayList<EarthquakeDTO>();
+		private final List<OutboxDTO> watchedEntries = new ArrayList<OutboxDTO>();
+		private final List<WatchedLocationDTO> watchedMatches = 
+				new ArrayList<WatchedLocationDTO>();
 		
-		for (EarthquakeDTO quake : quakes) {
-			float magnitude = quake.magnitude;
-			if (magnitude < prefMinMag) continue;
+		// Bit mask aturan untuk setiap saluran
+		private long notifyRegMask = 0;
+		private long notifyGlobalMask = 0;
+		private long facebookMask = 0;
+		private long twitterMask = 0;
+		private long mailMask = 0;
+		private long smsMask = 0;
+		
+		private final AlertEngine engine;
+		
+		/** Index lokasi pantauan, dibuat pada thread tahap alert */
+		private GeofenceIndex geofences = null;
+		
+		/**
+		 * Load preference dan kompilasi menjadi aturan pemberitahuan.
+		 */
+		public Alerts() {
+			float prefMinMag = prefs.getMinMagnitude();
+			int prefRange = prefs.getRange();
+			List<AlertRule> rules = new ArrayList<AlertRule>();
 			
-			// Jarak dari masing-masing gempa berada pada range regional atau tidak
-			boolean inRange = false;
-			if (location != null) {
-				float distance = quake.getLocation().distanceTo(location);
-				inRange = distance <= prefRange;
+			if (prefs.isNotifySend()) {
+				notifyRegMask = addRule(rules, CHANNEL_NOTIFY, prefMinMag, prefRange, 
+						prefs.getNotifyMinMagnitude(LocationType.REGIONAL));
+				notifyGlobalMask = addRule(rules, CHANNEL_NOTIFY, prefMinMag, 
+						Float.POSITIVE_INFINITY, prefs.getNotifyMinMagnitude(LocationType.GLOBAL));
+			}
+			if (prefs.isFacebookSend()) {
+				facebookMask = addRules(rules, CHANNEL_FACEBOOK, prefMinMag, prefRange, 
+						prefs.getFacebookMinMagnitude(LocationType.REGIONAL), 
+						prefs.getFacebookMinMagnitude(LocationType.GLOBAL));
+			}
+			if (prefs.isTwitterSend()) {
+				twitterMask = addRules(rules, CHANNEL_TWITTER, prefMinMag, prefRange, 
+						prefs.getTwitterMinMagnitude(LocationType.REGIONAL), 
+						prefs.getTwitterMinMagnitude(LocationType.GLOBAL));
+			}
+			if (prefs.isMailSend()) {
+				mailMask = addRules(rules, CHANNEL_MAIL, prefMinMag, prefRange, 
+						prefs.getMailMinMagnitude(LocationType.REGIONAL), 
+						prefs.getMailMinMagnitude(LocationType.GLOBAL));
+			}
+			if (prefs.isSmsSend()) {
+				smsMask = addRules(rules, CHANNEL_SMS, prefMinMag, prefRange, 
+						prefs.getSmsMinMagnitude(LocationType.REGIONAL), 
+						prefs.getSmsMinMagnitude(LocationType.GLOBAL));
+			}
+			
+			engine = AlertEngine.compile(rules, location, TimeZone.getDefault());
+		}
+		
+		/**
+		 * Tambahkan aturan regional dan global untuk satu saluran.
+		 * 
+		 * @return Bit mask kedua aturan
+		 */
+		private long addRules(List<AlertRule> rules, String channel, float prefMinMag, 
+				int prefRange, float minMagReg, float minMagGlobal) {
+			return addRule(rules, channel, prefMinMag, prefRange, minMagReg)
+					| addRule(rules, channel, prefMinMag, Float.POSITIVE_INFINITY, minMagGlobal);
+		}
+		
+		/**
+		 * Tambahkan satu aturan.
+		 * 
+		 * @param rules List aturan
+		 * @param channel Nama saluran
+		 * @param prefMinMag Minimal magnitudo pengaturan umum
+		 * @param maxDistance Jarak maksimal (meter), tak hingga untuk global
+		 * @param minMagnitude Minimal magnitudo saluran
+		 * @return Bit mask aturan
+		 */
+		private long addRule(List<AlertRule> rules, String channel, float prefMinMag, 
+				float maxDistance, float minMagnitude) {
+			AlertRule rule = new AlertRule(channel);
+			rule.minMagnitude = Math.max(prefMinMag, minMagnitude);
+			rule.maxDistance = maxDistance;
+			rules.add(rule);
+			return 1L << (rules.size() - 1);
+		}
+		
+		/**
+		 * Evaluasi satu batch data gempa.
+		 * 
+		 * @param quakes List gempa
+		 */
+		public void evaluate(List<EarthquakeDTO> quakes) {
+			if (geofences == null) {
+				geofences = WatchedLocationModel.getInstance(EarthquakeService.this).getIndex();
 			}
 			
-			// Notifikasi status bar, diprioritaskan untuk regional
-			if (isNotify) {
-				if (inRange && notifyMinMagReg <= magnitude) {
+			long[] masks = engine.evaluate(quakes);
+			for (int i = 0; i < masks.length; i++) {
+				EarthquakeDTO quake = quakes.get(i);
+				
+				// Lokasi pantauan, satu pengiriman untuk setiap lokasi
+				watchedMatches.clear();
+				if (geofences.query(quake, watchedMatches) > 0) {
+					for (WatchedLocationDTO location : watchedMatches) {
+						watchedEntries.add(OutboxDTO.create(quake, CHANNEL_WATCHED_LOCATION, 
+								Long.toString(location.id)));
+					}
+				}
+				
+				long mask = masks[i];
+				if (mask == 0) continue;
+				float magnitude = quake.magnitude;
+				
+				// Notifikasi status bar, diprioritaskan untuk regional
+				if ((mask & notifyRegMask) != 0) {
 					quakeCount++;
 					if (lastMagReg < magnitude) {
 						quakeNotify = quake;
 						lastMagReg = magnitude;
 					}
-				} else if (notifyMinMagGlobal <= magnitude) {
+				} else if ((mask & notifyGlobalMask) != 0) {
 					quakeCount++;
 					if (lastMagGlobal < magnitude) {
 						// Jika belum ada notifikasi regional maka ini yang dipakai, 
@@ -300,48 +663,314 @@ public class EarthquakeService extends IntentService {
 						lastMagGlobal = magnitude;
 					}
 				}
+				
+				if ((mask & facebookMask) != 0) quakesFacebook.add(quake);
+				if ((mask & twitterMask) != 0) quakesTwitter.add(quake);
+				if ((mask & mailMask) != 0) quakesMail.add(quake);
+				if ((mask & smsMask) != 0) quakesSms.add(quake);
+			}
+		}
+		
+		/**
+		 * Apakah tidak ada pemberitahuan yang perlu dikirim.
+		 * 
+		 * @return True jika tidak ada
+		 */
+		public boolean isEmpty() {
+			return quakeCount == 0 && quakesFacebook.isEmpty() && quakesTwitter.isEmpty() 
+					&& quakesMail.isEmpty() && quakesSms.isEmpty() && watchedEntries.isEmpty();
+		}
+		
+		/**
+		 * Tampilkan notifikasi, kemudian masukkan pengiriman ke setiap saluran dan 
+		 * penerima ke outbox dan kirim.
+		 * 
+		 * @throws InterruptedException Jika pipeline dihentikan
+		 */
+		public void send() throws InterruptedException {
+			if (quakeCount > 0) sendNotification(quakeNotify, quakeCount);
+			
+			String[] self = new String[] { RECIPIENT_SELF };
+			ContactModel contacts = new ContactModel(EarthquakeService.this);
+			List<OutboxDTO> entries = new ArrayList<OutboxDTO>();
+			// Facebook dan Twitter hanya jika sudah login, tidak menampilkan dialog 
+			// login. Jika tidak, pengiriman hanya akan gagal sampai batas percobaan.
+			if (facebook.isSessionValid()) {
+				addEntries(entries, quakesFacebook, CHANNEL_FACEBOOK, self);
+			}
+			if (twitter.isAuthorized()) {
+				addEntries(entries, quakesTwitter, CHANNEL_TWITTER, self);
+			}
+			if (quakesMail.size() > 0) {
+				addEntries(entries, quakesMail, CHANNEL_MAIL, contacts.getMails());
+			}
+			if (quakesSms.size() > 0) {
+				addEntries(entries, quakesSms, CHANNEL_SMS, contacts.getPhones());
+			}
+			entries.addAll(watchedEntries);
+			
+			OutboxModel.getInstance(EarthquakeService.this).enqueue(entries, 
+					System.currentTimeMillis());
+			drainOutbox();
+		}
+		
+		private void addEntries(List<OutboxDTO> entries, List<EarthquakeDTO> quakes, 
+				String channel, String[] recipients) {
+			if (recipients == null) return;
+			for (String recipient : recipients) {
+				if (recipient.equals("")) continue;
+				for (EarthquakeDTO quake : quakes) {
+					entries.add(OutboxDTO.create(quake, channel, recipient));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Mengumpulkan data gempa yang selesai di-parse menjadi batch dan 
+	 * memasukkannya ke pipeline.
+	 */
+	private static class QuakeBatcher implements UsgsSource.OnQuakeReadListener {
+		private final Pipeline pipeline;
+		private List<EarthquakeDTO> batch = new ArrayList<EarthquakeDTO>(PIPELINE_BATCH_SIZE);
+		
+		public QuakeBatcher(Pipeline pipeline) {
+			this.pipeline = pipeline;
+		}
+		
+		@Override
+		public void onQuakeRead(EarthquakeDTO quake) throws IOException {
+			batch.add(quake);
+			if (batch.size() >= PIPELINE_BATCH_SIZE) flush();
+		}
+		
+		/**
+		 * Masukkan sisa data ke pipeline.
+		 * 
+		 * @throws IOException Jika thread diinterupsi
+		 */
+		public void flush() throws IOException {
+			if (batch.isEmpty()) return;
+			try {
+				pipeline.put(batch);
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("Pipeline dihentikan");
 			}
+			batch = new ArrayList<EarthquakeDTO>(PIPELINE_BATCH_SIZE);
+		}
+	}
+	
+	/**
+	 * Kirim pengiriman pada outbox yang sudah waktunya dikirim. Pengiriman 
+	 * dikelompokkan per saluran kemudian per penerima, sehingga satu penerima 
+	 * mendapat satu pesan untuk semua gempanya (kecuali Facebook, satu post per 
+	 * gempa). Setiap saluran dikirim bersamaan, kemudian percobaan berikutnya 
+	 * dijadwalkan.
+	 * <p>
+	 * Pengiriman diambil dengan lease ({@link OutboxModel#claimDue}) dan hasil 
+	 * setiap penerima disimpan oleh saluran itu sendiri segera setelah dikirim. 
+	 * Saluran yang masih berjalan setelah batas waktu (SMTP dan HTTP tidak dapat 
+	 * diinterupsi) tetap menyimpan hasilnya, dan selama itu pengirimannya tidak 
+	 * diambil lagi, sehingga tidak dikirim dua kali.
+	 * 
+	 * @throws InterruptedException Jika thread diinterupsi
+	 */
+	private void drainOutbox() throws InterruptedException {
+		final OutboxModel outbox = OutboxModel.getInstance(this);
+		List<OutboxDTO> due = outbox.claimDue(System.currentTimeMillis(), 
+				OUTBOX_DRAIN_LIMIT);
+		if (due.size() > 0) {
+			Log.d(TAG, "Mengirim outbox: " + due.size() + " pengiriman");
 			
-			// Share ke Facebook
-			if (isFacebookSend) addQuakeNotify(quakesFacebook, quake, inRange, magnitude, 
-					facebookMinMagReg, facebookMinMagGlobal);
+			long[] ids = new long[due.size()];
+			for (int i = 0; i < ids.length; i++) {
+				ids[i] = due.get(i).quakeId;
+			}
+			final Map<Long, EarthquakeDTO> quakes = new HashMap<Long, EarthquakeDTO>();
+			for (EarthquakeDTO quake : new EarthquakeModel(this).getQuakes(ids)) {
+				quakes.put(quake.id, quake);
+			}
 			
-			// Share ke Twitter
-			if (isTwitterSend) addQuakeNotify(quakesTwitter, quake, inRange, magnitude, 
-					twitterMinMagReg, twitterMinMagGlobal);
+			// Kelompokkan per saluran kemudian per penerima, pengiriman yang tidak 
+			// mungkin dikirim tidak dicoba lagi
+			Map<String, Map<String, List<OutboxDTO>>> channels = 
+					new LinkedHashMap<String, Map<String, List<OutboxDTO>>>();
+			List<OutboxDTO> dropped = new ArrayList<OutboxDTO>();
+			final GeofenceIndex geofences = WatchedLocationModel.getInstance(this).getIndex();
+			for (OutboxDTO entry : due) {
+				if (!isDeliverable(entry, quakes, geofences)) {
+					dropped.add(entry);
+					continue;
+				}
+				Map<String, List<OutboxDTO>> recipients = channels.get(entry.channel);
+				if (recipients == null) {
+					recipients = new LinkedHashMap<String, List<OutboxDTO>>();
+					channels.put(entry.channel, recipients);
+				}
+				List<OutboxDTO> entries = recipients.get(entry.recipient);
+				if (entries == null) {
+					entries = new ArrayList<OutboxDTO>();
+					recipients.put(entry.recipient, entries);
+				}
+				entries.add(entry);
+			}
+			List<OutboxDTO> none = Collections.emptyList();
+			outbox.commit(none, none, dropped, System.currentTimeMillis());
 			
-			// Kirim email
-			if (isMailSend) addQuakeNotify(quakesMail, quake, inRange, magnitude, 
-					mailMinMagReg, mailMinMagGlobal);
-
-			// SMS
-			if (isSmsSend) addQuakeNotify(quakesSms, quake, inRange, magnitude, 
-					smsMinMagReg, smsMinMagGlobal);
+			ChannelFanOut fanOut = new ChannelFanOut(CHANNEL_THREADS);
+			for (Map.Entry<String, Map<String, List<OutboxDTO>>> channel 
+					: channels.entrySet()) {
+				final String name = channel.getKey();
+				final Map<String, List<OutboxDTO>> recipients = channel.getValue();
+				fanOut.add(name, new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						return deliver(name, recipients, quakes, geofences, outbox);
+					}
+				});
+			}
+			Map<String, ChannelFanOut.Result> results = fanOut.run(CHANNEL_TIMEOUT);
 			
+			showResult(results.get(CHANNEL_FACEBOOK), R.string.facebook_post_sent, 
+					R.string.facebook_post_fail);
+			showResult(results.get(CHANNEL_TWITTER), R.string.twitter_post_sent, 
+					R.string.twitter_post_fail);
+			showResult(results.get(CHANNEL_MAIL), R.string.mail_sent, R.string.mail_fail);
+			showResult(results.get(CHANNEL_SMS), R.string.sms_sent, R.string.sms_fail);
+		}
+		
+		// Pengiriman yang masih berjalan dijadwalkan sampai batas waktu lease-nya
+		scheduleOutbox(outbox.getNextAttempt());
+	}
+	
+	/**
+	 * Apakah pengiriman masih mungkin dikirim: data gempa dan lokasi pantauan 
+	 * belum dihapus, dan user masih login ke Facebook/Twitter.
+	 * 
+	 * @param entry Pengiriman
+	 * @param quakes Data gempa berdasarkan id
+	 * @param geofences Index lokasi pantauan
+	 * @return True jika masih mungkin dikirim
+	 */
+	private boolean isDeliverable(OutboxDTO entry, Map<Long, EarthquakeDTO> quakes, 
+			GeofenceIndex geofences) {
+		if (!quakes.containsKey(entry.quakeId)) return false;
+		if (entry.channel.equals(CHANNEL_FACEBOOK)) return facebook.isSessionValid();
+		if (entry.channel.equals(CHANNEL_TWITTER)) return twitter.isAuthorized();
+		if (entry.channel.equals(CHANNEL_WATCHED_LOCATION)) {
+			return geofences.get(Long.parseLong(entry.recipient)) != null;
+		}
+		return true;
+	}
+	
+	/**
+	 * Kirim pengiriman satu saluran ke setiap penerima, hasil setiap penerima 
+	 * langsung disimpan ke outbox. Berhenti jika thread diinterupsi (batas waktu 
+	 * saluran terlewati), pengiriman yang belum dikirim dilepas untuk dicoba lagi.
+	 * 
+	 * @param channel Nama saluran
+	 * @param recipients Pengiriman setiap penerima
+	 * @param quakes Data gempa berdasarkan id
+	 * @param geofences Index lokasi pantauan
+	 * @param outbox Outbox untuk menyimpan hasil
+	 * @return True jika semua terkirim
+	 */
+	private boolean deliver(String channel, Map<String, List<OutboxDTO>> recipients, 
+			Map<Long, EarthquakeDTO> quakes, GeofenceIndex geofences, OutboxModel outbox) {
+		List<OutboxDTO> unsent = new ArrayList<OutboxDTO>();
+		for (List<OutboxDTO> entries : recipients.values()) {
+			unsent.addAll(entries);
 		}
 		
-		// Tampilkan notifikasi, dan/atau share
-		if (quakeCount > 0) sendNotification(quakeNotify, quakeCount);
-		if (quakesFacebook != null && quakesFacebook.size() > 0) shareToFacebook(quakesFacebook);
-		if (quakesTwitter != null && quakesTwitter.size() > 0) shareToTwitter(quakesTwitter);
-		if (quakesMail != null && quakesMail.size() > 0) sendMail(quakesMail);
-		if (quakesSms != null && quakesSms.size() > 0) sendSms(quakesSms);
+		boolean allSent = true;
+		try {
+			for (Map.Entry<String, List<OutboxDTO>> recipient : recipients.entrySet()) {
+				List<OutboxDTO> entries = recipient.getValue();
+				
+				if (channel.equals(CHANNEL_FACEBOOK)) {
+					// Satu post untuk setiap gempa
+					for (OutboxDTO entry : entries) {
+						if (Thread.currentThread().isInterrupted()) return false;
+						List<OutboxDTO> single = Collections.singletonList(entry);
+						boolean isSent = shareToFacebook(quakes.get(entry.quakeId));
+						commitResult(outbox, single, isSent);
+						unsent.remove(entry);
+						if (!isSent) allSent = false;
+					}
+					continue;
+				}
+				
+				if (Thread.currentThread().isInterrupted()) return false;
+				List<EarthquakeDTO> recipientQuakes = 
+						new ArrayList<EarthquakeDTO>(entries.size());
+				for (OutboxDTO entry : entries) {
+					recipientQuakes.add(quakes.get(entry.quakeId));
+				}
+				
+				boolean isSent;
+				if (channel.equals(CHANNEL_TWITTER)) {
+					isSent = shareToTwitter(recipientQuakes);
+				} else if (channel.equals(CHANNEL_MAIL)) {
+					isSent = sendMail(recipient.getKey(), recipientQuakes);
+				} else if (channel.equals(CHANNEL_SMS)) {
+					isSent = sendSms(recipient.getKey(), recipientQuakes);
+				} else if (channel.equals(CHANNEL_WATCHED_LOCATION)) {
+					sendNotification(geofences.get(Long.parseLong(recipient.getKey())), 
+							recipientQuakes);
+					isSent = true;
+				} else {
+					Log.w(TAG, "Saluran tidak dikenal: " + channel);
+					isSent = false;
+				}
+				
+				commitResult(outbox, entries, isSent);
+				unsent.removeAll(entries);
+				if (!isSent) allSent = false;
+			}
+			return allSent;
+			
+		} finally {
+			// Belum dikirim karena dihentikan atau error, dilepas dari lease
+			if (!unsent.isEmpty()) commitResult(outbox, unsent, false);
+		}
+	}
+	
+	/**
+	 * Simpan hasil pengiriman satu penerima ke outbox.
+	 * 
+	 * @param outbox Outbox
+	 * @param entries Pengiriman
+	 * @param sent True jika terkirim, false jika perlu dicoba lagi
+	 */
+	private static void commitResult(OutboxModel outbox, List<OutboxDTO> entries, 
+			boolean sent) {
+		List<OutboxDTO> none = Collections.emptyList();
+		if (sent) {
+			outbox.commit(entries, none, none, System.currentTimeMillis());
+		} else {
+			outbox.commit(none, entries, none, System.currentTimeMillis());
+		}
+	}
+	
+	private void showResult(ChannelFanOut.Result result, int sentResId, int failResId) {
+		if (result == null || result == ChannelFanOut.Result.SKIPPED) return;
+		showMessage((result == ChannelFanOut.Result.SENT) ? sentResId : failResId);
 	}
 	
 	/**
-	 * Tambahkan data gempa dengan filter minimal magnitudo regional dan global.
+	 * Jadwalkan pengiriman outbox berikutnya, atau batalkan jika outbox kosong.
 	 * 
-	 * @param toAdd Data gempa yang ditambahkan
-	 * @param quake Data gempa sumber
-	 * @param inRange True untuk dalam jarak regional, false untuk global
-	 * @param magnitude Magnitudo gempa
-	 * @param minMagReg Minimal magnitudo regional
-	 * @param minMagGlobal Minimal magnitudo global
+	 * @param time Waktu percobaan berikutnya, -1 jika tidak ada
 	 */
-	private void addQuakeNotify(List<EarthquakeDTO> toAdd, EarthquakeDTO quake, 
-			boolean inRange, float magnitude, float minMagReg, float minMagGlobal) {
-		if ((inRange && minMagReg <= magnitude) || (minMagGlobal <= magnitude)) {
-			toAdd.add(quake);
+	private void scheduleOutbox(long time) {
+		AlarmManager manager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+		Intent intent = new Intent(ACTION_DRAIN_OUTBOX, null, this, EarthquakeService.class);
+		PendingIntent pendingIntent = PendingIntent.getService(this, 0, intent, 
+				PendingIntent.FLAG_UPDATE_CURRENT);
+		if (time < 0) {
+			manager.cancel(pendingIntent);
+		} else {
+			manager.set(AlarmManager.RTC_WAKEUP, time, pendingIntent);
 		}
 	}
 	
@@ -364,27 +993,43 @@ public class EarthquakeService extends IntentService {
 		notifier.alert();
 	}
 	
+	/**
+	 * Kirim notifikasi untuk satu lokasi pantauan, menampilkan gempa yang paling
+	 * besar.
+	 * 
+	 * @param location Lokasi pantauan
+	 * @param quakes Gempa dalam radius lokasi tersebut
+	 */
+	private void sendNotification(WatchedLocationDTO location, List<EarthquakeDTO> quakes) {
+		Log.d(TAG, "Mengirim notifikasi lokasi pantauan " + location.name + "...");
+		
+		EarthquakeDTO largest = quakes.get(0);
+		for (EarthquakeDTO quake : quakes) {
+			if (quake.magnitude > largest.magnitude) largest = quake;
+		}
+		
+		EarthquakeNotification notifier = new EarthquakeNotification(this, largest, 
+				quakes.size(), prefs.isNotifyAlert(), prefs.getNotifyAlertSound(), 
+				prefs.isNotifyFlash(), prefs.isNotifyVibrate());
+		notifier.setWatchedLocation(location);
+		notifier.alert();
+	}
+	
 	/** 
-	 * Share ke Facebook. Dilakukan hanya jika sudah login. 
+	 * Share satu gempa ke Facebook. Dilakukan hanya jika sudah login. 
 	 * <p>
 	 * Sebagai catatan, service berjalan pada background, sehingga kita tidak perlu 
 	 * menampilkan dialog login, karena itu mungkin akan menjengkelkan user.
 	 * 
-	 * @param quakes Data gempa
+	 * @param quake Data gempa
+	 * @return True jika terkirim
 	 */
-	private void shareToFacebook(List<EarthquakeDTO> quakes) {
-		if (!facebook.isSessionValid()) return;
+	private boolean shareToFacebook(EarthquakeDTO quake) {
+		if (!facebook.isSessionValid()) return false;
 		Log.d(TAG, "Share ke Facebook...");
 		
-		// Post setiap list quake
-		boolean postSent = false;
-		for (EarthquakeDTO quake : quakes) {
-			Bundle params = facebook.genereateParams(quake, null, location);
-			postSent |= facebook.postMessage(params);
-		}
-		
-		showMessage((postSent) ? R.string.facebook_post_sent 
-				: R.string.facebook_post_fail);
+		Bundle params = facebook.genereateParams(quake, null, location);
+		return facebook.postMessage(params);
 	}
 
 	/** 
@@ -401,10 +1046,14 @@ public class EarthquakeService extends IntentService {
 	 * <p>
 	 * 
 	 * @param quakes Data gempa
+	 * @return True jika terkirim
 	 */
-	private void shareToTwitter(final List<EarthquakeDTO> quakes) {
+	private boolean shareToTwitter(final List<EarthquakeDTO> quakes) {
 		Log.d(TAG, "Share ke Twitter...");
 		
+		// Login tanpa activity hanya menggunakan user sebelumnya, listener 
+		// dipanggil langsung pada thread ini
+		final boolean[] postSent = new boolean[1];
 		twitter.login(null, new EarthquakeTwitter.AuthListener() {
 			@Override
 			public void onAuthComplete() {
@@ -414,70 +1063,64 @@ public class EarthquakeService extends IntentService {
 					message += twitter.getPostMessage(quake, location);
 				}
 				// Message maksimal 140 karakter
-				message = message.substring(0, 137) + "...";
-				boolean postSent = twitter.postMessage(message);
-				
-				showMessage((postSent) ? R.string.twitter_post_sent 
-						: R.string.twitter_post_fail);
+				if (message.length() > 140) message = message.substring(0, 137) + "...";
+				postSent[0] = twitter.postMessage(message);
 			}
 
 			@Override
 			public void onAuthFail() {
-				showMessage(R.string.twitter_post_fail);
+				postSent[0] = false;
 			}
 		});
+		return postSent[0];
 	}
 	
 	/**
 	 * Kirim pesan ke email.
 	 * 
+	 * @param to Alamat email tujuan
 	 * @param quakes Data gempa
+	 * @return True jika terkirim
 	 */
-	private void sendMail(List<EarthquakeDTO> quakes) {
+	private boolean sendMail(String to, List<EarthquakeDTO> quakes) {
 		try {
 			Log.d(TAG, "Mengirim Email...");
 			
+			// Objek baru untuk setiap email, body email sebelumnya tidak ikut terkirim
 			Context context = this;
+			EarthquakeMail mail = new EarthquakeMail(context);
 			mail.setFrom(prefs.getMailUsername());
-			ContactModel table = new ContactModel(this);
-			String[] mails = table.getMails();
-			mail.setTo(mails);
+			mail.setTo(new String[] { to });
 			mail.setSubject(context.getString(R.string.app_name));
 			String message = EarthquakeTemplate.getInstance(context).getMessage(
 	    			prefs.getMailTemplate(context), 
 	    			prefs.getMailTemplateDetail(context), 
 	    			quakes, location);
 			mail.setBody(message);
-			boolean mailSent = mail.send();
-			
-			showMessage((mailSent) ? R.string.mail_sent : R.string.mail_fail);
+			return mail.send();
 			
 		} catch (Exception e) {
-			showMessage(R.string.mail_fail);
 			Log.e(TAG, e.getMessage(), e);
+			return false;
 		}
 	}
 
 	/**
 	 * Kirim pesan SMS.
 	 * 
+	 * @param phone Nomor telepon tujuan
 	 * @param quakes Data gempa
+	 * @return True jika terkirim
 	 */
-	private void sendSms(List<EarthquakeDTO> quakes) {
+	private boolean sendSms(String phone, List<EarthquakeDTO> quakes) {
 		Log.d(TAG, "Mengirim sms...");
 		Context context = this;
 		String message = EarthquakeTemplate.getInstance(context).getMessage(
     			prefs.getSmsTemplate(context), prefs.getSmsTemplateDetail(context), 
     			quakes, location);
 		
-		ContactModel table = new ContactModel(this);
-		String[] phones = table.getPhones();
 		EarthquakeSms sms = new EarthquakeSms(this);
-		List<String> phonesSent = sms.sendTextMessage(phones, message, 
-				EarthquakeSms.SPLIT_SMS_MESSAGE);
-		
-		boolean smsSent = phonesSent != null && phonesSent.size() > 0;
-		showMessage((smsSent) ? R.string.sms_sent : R.string.sms_fail);
+		return sms.sendTextMessage(phone, message, EarthquakeSms.SPLIT_SMS_MESSAGE);
 	}
 	
 	/**
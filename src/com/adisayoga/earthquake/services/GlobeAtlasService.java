@@ -0,0 +1,60 @@
+/*
+ * Copyright 2011 Adi Sayoga.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.adisayoga.earthquake.services;
+
+import android.app.IntentService;
+import android.content.Intent;
+import android.util.Log;
+
+import com.adisayoga.earthquake.models.GlobeAtlas;
+import com.adisayoga.earthquake.wrapper.Prefs;
+
+/**
+ * Service untuk membuat atlas globe mode offline. Pembuatan atlas bisa memakan 
+ * waktu lama (ribuan download), jadi dijalankan pada service dan thread sendiri,
+ * terpisah dari {@link EarthquakeService}, sehingga refresh dan pengiriman 
+ * pemberitahuan tidak ikut menunggu. Permintaan yang datang selama atlas dibuat
+ * dijalankan berurutan setelahnya.
+ * 
+ * @author Adi Sayoga
+ */
+public class GlobeAtlasService extends IntentService {
+
+	private static final String TAG = "GlobeAtlasService";
+	private static final String NAME = "GlobeAtlasService";
+	
+	public GlobeAtlasService() {
+		super(NAME);
+	}
+	
+	@Override
+	protected void onHandleIntent(Intent intent) {
+		if (!GlobeAtlas.ACTION_BUILD.equals(intent.getAction())) return;
+		
+		// Berhenti jika mode offline dinonaktifkan selama proses berjalan
+		final Prefs prefs = Prefs.getInstance(this);
+		if (!prefs.isGlobeOffline()) return;
+		
+		Log.i(TAG, "Membuat atlas globe...");
+		GlobeAtlas.getInstance(this).build(new GlobeAtlas.Canceller() {
+			@Override
+			public boolean isCancelled() {
+				return !prefs.isGlobeOffline();
+			}
+		});
+	}
+}
@@ -0,0 +1,383 @@
+/*
+ * Copyright 2011 Adi Sayoga.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.adisayoga.earthquake.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import android.util.Log;
+
+/**
+ * Pipeline pemrosesan data yang terdiri dari beberapa tahap (stage). Setiap
+ * tahap berjalan pada executor-nya sendiri dan dihubungkan dengan antrian
+ * terbatas, sehingga tahap yang berbeda dapat berjalan bersamaan. Jika antrian
+ * penuh, tahap sebelumnya menunggu (backpressure), sehingga memory tetap
+ * terbatas walaupun salah satu tahap lambat.
+ * <p>
+ * Data dimasukkan dengan {@link #put(Object)} dari thread pemanggil (sumber),
+ * kemudian {@link #finish(long)} menandakan data sudah habis dan menunggu semua
+ * tahap selesai. Pipeline hanya digunakan sekali.
+ *
+ * @author Adi Sayoga
+ */
+public class Pipeline {
+
+	private static final String TAG = "Pipeline";
+
+	/** Penanda akhir data pada antrian */
+	private static final Object END = new Object();
+
+	private final int capacity;
+	private final Counter source;
+	private final List<Stage<?, ?>> stages = new ArrayList<Stage<?, ?>>();
+	private long startTime = 0;
+	private boolean started = false;
+
+	/**
+	 * @param sourceName Nama sumber data (thread pemanggil), untuk statistik
+	 * @param capacity Kapasitas antrian setiap tahap
+	 */
+	public Pipeline(String sourceName, int capacity) {
+		this.capacity = capacity;
+		this.source = new Counter(sourceName);
+	}
+
+	/**
+	 * Tambahkan tahap di akhir pipeline. Data yang di-emit oleh tahap
+	 * sebelumnya menjadi input tahap ini.
+	 *
+	 * @param stage Tahap
+	 * @return Pipeline ini
+	 */
+	public Pipeline add(Stage<?, ?> stage) {
+		if (started) throw new IllegalStateException("Pipeline sudah berjalan");
+		if (stage.queue != null) throw new IllegalArgumentException("Tahap sudah digunakan");
+
+		if (!stages.isEmpty()) stages.get(stages.size() - 1).next = stage;
+		stage.queue = new ArrayBlockingQueue<Object>(capacity);
+		stages.add(stage);
+		return this;
+	}
+
+	/**
+	 * Jalankan semua tahap.
+	 */
+	public void start() {
+		if (started) throw new IllegalStateException("Pipeline sudah berjalan");
+		if (stages.isEmpty()) throw new IllegalStateException("Pipeline tidak memiliki tahap");
+
+		started = true;
+		startTime = System.nanoTime();
+		for (Stage<?, ?> stage : stages) {
+			stage.start();
+		}
+	}
+
+	/**
+	 * Masukkan data ke tahap pertama. Menunggu jika antrian penuh.
+	 *
+	 * @param item Data
+	 * @throws InterruptedException Jika thread diinterupsi selama menunggu
+	 */
+	public void put(Object item) throws InterruptedException {
+		long start = System.nanoTime();
+		stages.get(0).enqueue(item);
+		source.waitNanos += System.nanoTime() - start;
+		source.count++;
+	}
+
+	/**
+	 * Tandai data sudah habis dan tunggu semua tahap selesai. Jika batas waktu
+	 * terlewati, semua tahap dihentikan.
+	 *
+	 * @param timeout Batas waktu (milliseconds)
+	 * @return True jika semua tahap selesai sebelum batas waktu
+	 * @throws InterruptedException Jika thread diinterupsi selama menunggu
+	 */
+	public boolean finish(long timeout) throws InterruptedException {
+		source.busyNanos = System.nanoTime() - startTime - source.waitNanos;
+		long deadline = System.currentTimeMillis() + timeout;
+		try {
+			stages.get(0).enqueue(END);
+			for (Stage<?, ?> stage : stages) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0 || !stage.executor.awaitTermination(remaining,
+						TimeUnit.MILLISECONDS)) {
+					Log.w(TAG, "Batas waktu terlewati pada tahap " + stage.counter.name);
+					cancel();
+					return false;
+				}
+			}
+			return true;
+
+		} catch (InterruptedException e) {
+			cancel();
+			throw e;
+		}
+	}
+
+	/**
+	 * Hentikan semua tahap tanpa menunggu data yang tersisa.
+	 */
+	public void cancel() {
+		for (Stage<?, ?> stage : stages) {
+			if (stage.executor != null) stage.executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Mendapatkan error pertama yang terjadi pada salah satu tahap, termasuk
+	 * Error seperti OutOfMemoryError. Tahap yang error tidak memproses data
+	 * berikutnya, tahap lainnya tetap berjalan.
+	 *
+	 * @return Error, atau null jika tidak ada
+	 */
+	public Throwable getError() {
+		for (Stage<?, ?> stage : stages) {
+			if (stage.error != null) return stage.error;
+		}
+		return null;
+	}
+
+	/**
+	 * Mendapatkan statistik sumber dan setiap tahap. Dipanggil setelah
+	 * {@link #finish(long)}.
+	 *
+	 * @return Statistik, diurutkan sesuai urutan tahap
+	 */
+	public List<StageStats> getStats() {
+		List<StageStats> stats = new ArrayList<StageStats>(stages.size() + 1);
+		stats.add(new StageStats(source, 0));
+		for (Stage<?, ?> stage : stages) {
+			stats.add(new StageStats(stage.counter, capacity));
+		}
+		return stats;
+	}
+
+	/**
+	 * Satu tahap pipeline. Method {@link #process(Object)} dan
+	 * {@link #finish()} selalu dipanggil pada thread yang sama, jadi state di
+	 * dalam tahap tidak perlu disinkronkan.
+	 *
+	 * @param <I> Tipe data input
+	 * @param <O> Tipe data output
+	 */
+	public abstract static class Stage<I, O> {
+
+		private final Counter counter;
+		private BlockingQueue<Object> queue = null;
+		private Stage<?, ?> next = null;
+		private ExecutorService executor = null;
+		private volatile Throwable error = null;
+
+		/**
+		 * @param name Nama tahap, untuk statistik dan log
+		 */
+		public Stage(String name) {
+			this.counter = new Counter(name);
+		}
+
+		/**
+		 * Proses satu data input.
+		 *
+		 * @param item Data input
+		 * @throws Exception Tahap berhenti memproses data berikutnya
+		 */
+		protected abstract void process(I item) throws Exception;
+
+		/**
+		 * Dipanggil setelah semua data input selesai diproses, misalnya untuk
+		 * meng-emit hasil yang dikumpulkan. Tidak dipanggil jika tahap error.
+		 *
+		 * @throws Exception Jika gagal
+		 */
+		protected void finish() throws Exception {
+		}
+
+		/**
+		 * Kirim data ke tahap berikutnya. Menunggu jika antrian tahap berikutnya
+		 * penuh, waktu menunggu tidak dihitung sebagai waktu proses.
+		 *
+		 * @param item Data output
+		 * @throws InterruptedException Jika pipeline dihentikan
+		 */
+		protected final void emit(O item) throws InterruptedException {
+			if (next == null) return;
+			long start = System.nanoTime();
+			next.enqueue(item);
+			counter.waitNanos += System.nanoTime() - start;
+		}
+
+		private void enqueue(Object item) throws InterruptedException {
+			queue.put(item);
+			if (item != END) counter.addDepth(queue.size());
+		}
+
+		private void start() {
+			executor = Executors.newSingleThreadExecutor();
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					loop();
+				}
+			});
+			executor.shutdown();
+		}
+
+		@SuppressWarnings("unchecked")
+		private void loop() {
+			boolean interrupted = false;
+			try {
+				Object item;
+				while ((item = queue.take()) != END) {
+					// Tahap yang error hanya membuang sisa data
+					if (error != null) continue;
+
+					long start = System.nanoTime();
+					long waitBefore = counter.waitNanos;
+					try {
+						process((I) item);
+						counter.count++;
+					} catch (InterruptedException e) {
+						throw e;
+					} catch (Throwable e) {
+						fail(e);
+					}
+					counter.busyNanos += System.nanoTime() - start
+							- (counter.waitNanos - waitBefore);
+				}
+
+				if (error == null) {
+					try {
+						finish();
+					} catch (InterruptedException e) {
+						throw e;
+					} catch (Throwable e) {
+						fail(e);
+					}
+				}
+
+			} catch (InterruptedException e) {
+				interrupted = true;
+				Log.w(TAG, "Tahap " + counter.name + " dihentikan");
+			} catch (Throwable e) {
+				fail(e);
+			} finally {
+				// Tahap berikutnya selalu diberi tahu data sudah habis, termasuk saat
+				// tahap ini error, agar finish tidak menunggu sampai batas waktu
+				if (next != null) next.end(interrupted);
+			}
+		}
+
+		/**
+		 * Masukkan penanda akhir data. Jika pipeline dihentikan, tahap ini juga
+		 * dihentikan, jadi tidak menunggu antrian yang penuh.
+		 */
+		private void end(boolean cancelled) {
+			if (cancelled) {
+				queue.offer(END);
+				return;
+			}
+
+			try {
+				queue.put(END);
+			} catch (InterruptedException e) {
+				Log.w(TAG, "Akhir data tidak terkirim ke tahap " + counter.name);
+			}
+		}
+
+		private void fail(Throwable e) {
+			Log.e(TAG, "Tahap " + counter.name + " gagal: " + e.getMessage(), e);
+			if (error == null) error = e;
+		}
+	}
+
+	/**
+	 * Penghitung statistik, hanya diubah oleh satu thread.
+	 */
+	private static class Counter {
+		private final String name;
+		private int count = 0;
+		private long busyNanos = 0;
+		private long waitNanos = 0;
+
+		// Diubah oleh thread tahap sebelumnya saat memasukkan data
+		private int maxDepth = 0;
+		private long totalDepth = 0;
+		private int enqueued = 0;
+
+		private Counter(String name) {
+			this.name = name;
+		}
+
+		private void addDepth(int depth) {
+			if (depth > maxDepth) maxDepth = depth;
+			totalDepth += depth;
+			enqueued++;
+		}
+	}
+
+	/**
+	 * Statistik satu tahap: jumlah data yang diproses, waktu proses, waktu
+	 * menunggu tahap berikutnya, dan kedalaman antrian input.
+	 */
+	public static class StageStats {
+
+		public final String name;
+
+		/** Jumlah data yang selesai diproses */
+		public final int count;
+
+		/** Waktu memproses data (milliseconds) */
+		public final long busyMillis;
+
+		/** Waktu menunggu antrian tahap berikutnya (milliseconds) */
+		public final long waitMillis;
+
+		/** Kedalaman antrian input maksimal, 0 untuk sumber */
+		public final int maxQueueDepth;
+
+		/** Kedalaman antrian input rata-rata saat data masuk */
+		public final float averageQueueDepth;
+
+		/** Kapasitas antrian input, 0 untuk sumber */
+		public final int queueCapacity;
+
+		private StageStats(Counter counter, int queueCapacity) {
+			this.name = counter.name;
+			this.count = counter.count;
+			this.busyMillis = counter.busyNanos / 1000000;
+			this.waitMillis = counter.waitNanos / 1000000;
+			this.maxQueueDepth = counter.maxDepth;
+			this.averageQueueDepth = (counter.enqueued > 0)
+					? (float) counter.totalDepth / counter.enqueued : 0;
+			this.queueCapacity = queueCapacity;
+		}
+
+		@Override
+		public String toString() {
+			return name + ": " + count + " items, proses " + busyMillis + " ms, tunggu "
+					+ waitMillis + " ms, antrian maks " + maxQueueDepth + "/"
+					+ queueCapacity + " rata-rata " + averageQueueDepth;
+		}
+	}
+}
@@ -41,10 +41,11 @@ import com.adisayoga.earthquake.R;
 import com.adisayoga.earthquake.dto.EarthquakeDTO;
 import com.adisayoga.earthquake.dto.EarthquakeTheme;
 import com.adisayoga.earthquake.dto.Unit;
+import com.adisayoga.earthquake.models.GlobeCache;
+import com.adisayoga.earthquake.models.QuakeRepository;
 import com.adisayoga.earthquake.models.UsgsSource;
 import com.adisayoga.earthquake.providers.EarthquakeColumns;
 import com.adisayoga.earthquake.utils.BaseLocationListener;
-import com.adisayoga.earthquake.utils.BitmapUtils;
 import com.adisayoga.earthquake.utils.LocationFinder;
 import com.adisayoga.earthquake.utils.LocationUtils;
 import com.adisayoga.earthquake.utils.TimeUtils;
@@ -103,8 +104,9 @@ public class EarthquakeDetailActivity extends Activity {
 		setListeners();
 		
 		Intent intent = getIntent();
-		if (intent.hasExtra(EarthquakeColumns.TABLE_NAME)) {
-			quake = (EarthquakeDTO) intent.getExtras().get(EarthquakeColumns.TABLE_NAME);
+		if (intent.hasExtra(EarthquakeColumns._ID)) {
+			quake = QuakeRepository.getInstance(this).getQuake(intent.getLongExtra(
+					EarthquakeColumns._ID, -1));
 			bindView(quake, theme);
 		}
 	}
@@ -186,13 +188,22 @@ public class EarthquakeDetailActivity extends Activity {
 	}
 	
 	/**
-	 * Load gambar globe dari server USGS. (dalam thread berbeda)
+	 * Load gambar globe dari cache, atau dari server USGS jika belum ada. (dalam
+	 * thread berbeda, kecuali jika sudah ada di memory)
 	 * 
 	 * @param url URL gambar
 	 */
 	private void loadGlobe(final URL url) {
 		if (url == null) return;
 		
+		final GlobeCache globeCache = GlobeCache.getInstance(this);
+		Bitmap cached = globeCache.getCached(url);
+		if (cached != null) {
+			imageView.setImageBitmap(cached);
+			imageMaskView.setVisibility(View.VISIBLE);
+			return;
+		}
+		
 		new AsyncTask<URL, Void, Bitmap>() {
 			@Override
 			protected void onPreExecute() {
@@ -201,10 +212,7 @@ public class EarthquakeDetailActivity extends Activity {
 
 			@Override
 			protected Bitmap doInBackground(URL... params) {
-				Bitmap bitmap = BitmapUtils.getImage(url);
-				if (bitmap == null) return null;
-				
-				return BitmapUtils.getRoundedCorner(bitmap, bitmap.getWidth() / 2);
+				return globeCache.get(url);
 			}
 			
 			@Override
@@ -256,7 +264,7 @@ public class EarthquakeDetailActivity extends Activity {
 	 */
     private void showMap(EarthquakeDTO quake) {
     	Intent intent = new Intent(this, EarthquakeMapActivity.class);
-    	if (quake != null) intent.putExtra(EarthquakeColumns.TABLE_NAME, quake);
+    	if (quake != null) intent.putExtra(EarthquakeColumns._ID, quake.id);
     	startActivity(intent);
     }
 
@@ -16,9 +16,6 @@
  
 package com.adisayoga.earthquake.ui;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
@@ -49,7 +46,8 @@ import android.widget.Toast;
 
 import com.adisayoga.earthquake.R;
 import com.adisayoga.earthquake.dto.EarthquakeDTO;
-import com.adisayoga.earthquake.models.EarthquakeModel;
+import com.adisayoga.earthquake.models.EarthquakePager;
+import com.adisayoga.earthquake.models.QuakeRepository;
 import com.adisayoga.earthquake.providers.EarthquakeColumns;
 import com.adisayoga.earthquake.receivers.EarthquakeReceiver;
 import com.adisayoga.earthquake.receivers.RefreshReceiver;
@@ -87,8 +85,10 @@ public class EarthquakeListActivity extends Activity {
 	private EarthquakeFacebook facebook;
 	private EarthquakeTwitter twitter;
 	
-	private final List<EarthquakeDTO> quakes = new ArrayList<EarthquakeDTO>();
+	private QuakeRepository repository;
+	private EarthquakePager pager;
 	private EarthquakeListAdapter adapter;
+	private boolean finishLoading = false;
 
 	private ImageButton refreshButton;
 	private ImageButton showMapButton;
@@ -145,11 +145,13 @@ public class EarthquakeListActivity extends Activity {
 		
     	setupActionBarListener();
         setupListAdapter();
+        repository = QuakeRepository.getInstance(this);
+        repository.registerListener(quakesChangedListener);
     	
         // Load data dari database saat di-create, saat onResume, akan diperbaharui 
         // setelah mendapatkan data dari server.
         noQuake = (LinearLayout) findViewById(R.id.no_quake);
-        updateQuakes(false);
+        updateQuakes(false, false);
         refreshData();
     }
     
@@ -167,8 +169,9 @@ public class EarthquakeListActivity extends Activity {
      * Setup list adapter dan listener list
      */
     private void setupListAdapter() {
+    	pager = new EarthquakePager(this, pageLoadedListener);
     	adapter = new EarthquakeListAdapter(this, R.layout.earthquake_list_item, 
-        		location, quakes, quickActionListener);
+        		location, pager, quickActionListener);
         list = (ListView) findViewById(R.id.listview);
         list.setAdapter(adapter);
         list.setOnItemClickListener(itemClickListener);
@@ -210,39 +213,66 @@ public class EarthquakeListActivity extends Activity {
     }
 
     /**
-     * Load data dari provider kemudian update list. (pada background thread)
+     * Load ulang data dari provider mulai dari halaman pertama, halaman 
+     * berikutnya di-load saat list di-scroll. (pada background thread)
      * 
      * @param finishLoading Menandakan proses loading selesai, animasi tombol refresh
-     *        akan dihentikan
+     *        akan dihentikan setelah halaman pertama di-load
+     * @param keepPosition True jika halaman yang sudah di-load juga di-load ulang 
+     *        sehingga posisi scroll tetap, false untuk mulai dari halaman pertama
      */
-    private void updateQuakes(boolean finishLoading) {
-    	new AsyncTask<Boolean, Void, List<EarthquakeDTO>>() {
-    		private boolean finishLoading;
-    		
-			@Override
-			protected List<EarthquakeDTO> doInBackground(Boolean... params) {
-				this.finishLoading = params[0];
-				
-    			// Load data dari provider
-    			EarthquakeModel table = new EarthquakeModel(EarthquakeListActivity.this);
-    			List<EarthquakeDTO> newQuakes = table.getMatchQuakes(
-    					prefs.getMinMagnitude(), prefs.getMaxAge());
-    			
-				return newQuakes;
-			}
-    		
-			@Override
-			protected void onPostExecute(List<EarthquakeDTO> newQuakes) {
-    			// Tambahkan ke quakes
-				quakes.clear();
-    			if (newQuakes != null) {
-    				for (EarthquakeDTO quake : newQuakes) {
-    					quakes.add(quake);
-    				}
+    private void updateQuakes(boolean finishLoading, boolean keepPosition) {
+    	this.finishLoading = finishLoading;
+    	final float minMagnitude = prefs.getMinMagnitude();
+    	final long maxAge = prefs.getMaxAge();
+    	if (keepPosition) {
+    		pager.refresh(minMagnitude, maxAge);
+    	} else {
+    		pager.reset(minMagnitude, maxAge);
+    	}
+    	
+    	// Load semua data ke repository, sehingga halaman berikutnya dan activity 
+    	// lain tidak perlu membaca dari provider
+    	if (!repository.isLoaded(minMagnitude, maxAge)) {
+    		new AsyncTask<Void, Void, Void>() {
+    			@Override
+    			protected Void doInBackground(Void... params) {
+    				repository.load(minMagnitude, maxAge);
+    				return null;
     			}
-    			
+    		}.execute();
+    	}
+    }
+    
+    /**
+     * Listener perubahan data pada repository, halaman yang sudah di-load 
+     * di-load ulang dari memory tanpa mengubah posisi scroll.
+     */
+    private final QuakeRepository.OnQuakesChangedListener quakesChangedListener 
+    		= new QuakeRepository.OnQuakesChangedListener() {
+		@Override
+		public void onQuakesChanged(QuakeRepository.Diff diff) {
+			updateQuakes(false, true);
+		}
+	};
+    
+    @Override
+	protected void onDestroy() {
+    	Log.d(TAG, "onDestroy");
+    	super.onDestroy();
+    	repository.unregisterListener(quakesChangedListener);
+    }
+    
+    /**
+     * Listener saat halaman data selesai di-load.
+     */
+    private final EarthquakePager.OnPageLoadedListener pageLoadedListener 
+    		= new EarthquakePager.OnPageLoadedListener() {
+		@Override
+		public void onPageLoaded(int page) {
+			if (page == 0) {
     			// Perlihatkan atau sembunyikan view
-				if (quakes.size() > 0) {
+				if (pager.getCount() > 0) {
 		    		Log.d(TAG, "Terdapat data, memperlihatkan list");
 		    		noQuake.setVisibility(View.GONE);
 		    		list.setVisibility(View.VISIBLE);
@@ -251,11 +281,12 @@ public class EarthquakeListActivity extends Activity {
 		    		noQuake.setVisibility(View.VISIBLE);
 		    		list.setVisibility(View.GONE);
 		    	}
-				adapter.notifyDataSetChanged();
 		    	if (finishLoading) animateRefreshButton(false);
+		    	finishLoading = false;
 			}
-    	}.execute(finishLoading);
-    }
+			adapter.notifyDataSetChanged();
+		}
+	};
     
     @Override
 	protected void onResume() {
@@ -388,7 +419,7 @@ public class EarthquakeListActivity extends Activity {
 	 */
     private void showQuakeDetails(EarthquakeDTO quake) {
 		Intent intent = new Intent(this, EarthquakeDetailActivity.class);
-		if (quake != null) intent.putExtra(EarthquakeColumns.TABLE_NAME, quake);
+		if (quake != null) intent.putExtra(EarthquakeColumns._ID, quake.id);
 		startActivity(intent);
     }
     
@@ -399,7 +430,7 @@ public class EarthquakeListActivity extends Activity {
      */
     private void showQuakeMap(EarthquakeDTO quake) {
     	Intent intent = new Intent(this, EarthquakeMapActivity.class);
-    	if (quake != null) intent.putExtra(EarthquakeColumns.TABLE_NAME, quake);
+    	if (quake != null) intent.putExtra(EarthquakeColumns._ID, quake.id);
     	startActivity(intent);
     }
     
@@ -481,8 +512,9 @@ public class EarthquakeListActivity extends Activity {
 			
 			switch (message.what) {
 			case EarthquakeReceiver.NEW_QUAKE_FOUND_WHAT:
-				// Terdapat gempa baru, load data dari provider
-				updateQuakes(true);
+				// Terdapat gempa baru, data sudah diperbaharui melalui repository,
+				// hanya menghentikan animasi refresh
+				animateRefreshButton(false);
 				break;
 				
 			case EarthquakeReceiver.NO_NEW_QUAKE_WHAT:
@@ -539,8 +571,8 @@ public class EarthquakeListActivity extends Activity {
 		@Override
 		public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
 			// Tampilkan detail gempa bumi
-			EarthquakeDTO quake = quakes.get(position);
-			showQuakeDetails(quake);
+			EarthquakeDTO quake = adapter.getItem(position);
+			if (quake != null) showQuakeDetails(quake);
 		}
 	};
 	
@@ -551,7 +583,8 @@ public class EarthquakeListActivity extends Activity {
 			= new AdapterView.OnItemLongClickListener() {
 		@Override
 		public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) {
-			final EarthquakeDTO selectedQuake = quakes.get(position);
+			final EarthquakeDTO selectedQuake = adapter.getItem(position);
+			if (selectedQuake == null) return false;
 			
 			AlertDialog.Builder builder = new AlertDialog.Builder(EarthquakeListActivity.this);
 			builder.setTitle(selectedQuake.region);
@@ -596,7 +629,8 @@ public class EarthquakeListActivity extends Activity {
 			= new EarthquakeListAdapter.OnQuickActionListener() {
 		@Override
 		public void onItemClick(int quakePos, int quickActionPos) {
-			EarthquakeDTO selectedQuake = quakes.get(quakePos);
+			EarthquakeDTO selectedQuake = adapter.getItem(quakePos);
+			if (selectedQuake == null) return;
 			
 			switch (quickActionPos) {
 			case 0: // Share ke Facebook
@@ -16,8 +16,6 @@
  
 package com.adisayoga.earthquake.ui;
 
-import java.util.List;
-
 import android.app.AlarmManager;
 import android.content.Context;
 import android.content.res.Resources;
@@ -27,7 +25,7 @@ import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
 import android.widget.FrameLayout;
 import android.widget.TextView;
 
@@ -35,6 +33,7 @@ import com.adisayoga.earthquake.R;
 import com.adisayoga.earthquake.dto.EarthquakeDTO;
 import com.adisayoga.earthquake.dto.EarthquakeTheme;
 import com.adisayoga.earthquake.dto.Unit;
+import com.adisayoga.earthquake.models.EarthquakePager;
 import com.adisayoga.earthquake.utils.QuickAction;
 import com.adisayoga.earthquake.utils.QuickAction.OnActionItemClickListener;
 import com.adisayoga.earthquake.utils.QuickactionItem;
@@ -42,17 +41,19 @@ import com.adisayoga.earthquake.utils.TimeUtils;
 import com.adisayoga.earthquake.wrapper.Prefs;
 
 /**
- * Adapter untuk daftar gempa.
+ * Adapter untuk daftar gempa. Data diambil dari {@link EarthquakePager}, baris 
+ * yang halamannya belum di-load ditampilkan kosong sampai halaman selesai di-load.
  * 
  * @author Adi Sayoga
  */
-public class EarthquakeListAdapter extends ArrayAdapter<EarthquakeDTO> {
+public class EarthquakeListAdapter extends BaseAdapter {
 	
 	private static final String TAG = "EarthquakeListAdapter";
 	private static Prefs prefs;
 	
 	private final Context context;
 	private final int resourceId;
+	private final EarthquakePager pager;
 	private final EarthquakeTheme theme;
 	private final OnQuickActionListener quickActionListener;
 	
@@ -67,12 +68,11 @@ public class EarthquakeListAdapter extends ArrayAdapter<EarthquakeDTO> {
 	private Location location;
 	
 	public EarthquakeListAdapter(Context context, int resourceId, Location location, 
-			List<EarthquakeDTO> quakes, OnQuickActionListener quickActionListener) {
-		super(context, resourceId, quakes);
-		
+			EarthquakePager pager, OnQuickActionListener quickActionListener) {
 		prefs = Prefs.getInstance(context);
 		this.context = context;
 		this.resourceId = resourceId;
+		this.pager = pager;
 		this.theme = Prefs.getInstance(context).getTheme();
 		this.location = location;
 		this.quickActionListener = quickActionListener;
@@ -88,6 +88,21 @@ public class EarthquakeListAdapter extends ArrayAdapter<EarthquakeDTO> {
 		setupQuickAction();
 	}
 	
+	@Override
+	public int getCount() {
+		return pager.getCount();
+	}
+	
+	@Override
+	public EarthquakeDTO getItem(int position) {
+		return pager.getItem(position);
+	}
+	
+	@Override
+	public long getItemId(int position) {
+		return position;
+	}
+	
 	@Override
 	public View getView(int position, View convertView, ViewGroup parent) {
 		// ViewHolder menyimpan reference view untuk menghindari
@@ -118,10 +133,29 @@ public class EarthquakeListAdapter extends ArrayAdapter<EarthquakeDTO> {
 		
 		// Bind data secara efektif dengan holder
 		EarthquakeDTO quake = getItem(position);
-		bindView(holder, quake, position);
+		if (quake != null) {
+			bindView(holder, quake, position);
+		} else {
+			bindEmptyView(holder);
+		}
 		return convertView;
 	}
 	
+	/**
+	 * Kosongkan view untuk data yang belum di-load.
+	 * 
+	 * @param holder ViewHolder
+	 */
+	private void bindEmptyView(ViewHolder holder) {
+		holder.severity.setBackgroundColor(0);
+		holder.magnitude.setText("");
+		holder.region.setText("");
+		holder.date.setText("");
+		holder.distance.setText("");
+		holder.depth.setText("");
+		holder.quickActionRegion.setOnClickListener(null);
+	}
+	
 	/**
 	 * Tampilkan data gempa ke view.
 	 * 
@@ -130,7 +164,7 @@ public class EarthquakeListAdapter extends ArrayAdapter<EarthquakeDTO> {
 	 */
 	private void bindView(ViewHolder holder, EarthquakeDTO quake, final int position) {
 		// Update value
-		holder.severity.setBackgroundColor(theme.getQuakeColor(quake.magnitude, "88"));
+		holder.severity.setBackgroundColor(theme.getQuakeColor(quake.magnitude, 0x88));
 		holder.magnitude.setText(Float.toString(quake.magnitude));
 		holder.region.setText(quake.region);
 		holder.date.setText(timeUtils.toHumanReadableShort(quake.time));
@@ -16,7 +16,8 @@
  
 package com.adisayoga.earthquake.ui;
 
-import java.util.ArrayList;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.List;
 
 import android.app.AlertDialog;
@@ -25,7 +26,6 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.graphics.drawable.AnimationDrawable;
-import android.graphics.drawable.Drawable;
 import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
@@ -33,6 +33,7 @@ import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -43,11 +44,15 @@ import android.view.Window;
 import android.widget.ImageButton;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
+import android.widget.SeekBar;
+import android.widget.SeekBar.OnSeekBarChangeListener;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import com.adisayoga.earthquake.R;
 import com.adisayoga.earthquake.dto.EarthquakeDTO;
-import com.adisayoga.earthquake.models.EarthquakeModel;
+import com.adisayoga.earthquake.models.QuakeRepository;
+import com.adisayoga.earthquake.models.QuakeStore;
 import com.adisayoga.earthquake.providers.EarthquakeColumns;
 import com.adisayoga.earthquake.receivers.EarthquakeReceiver;
 import com.adisayoga.earthquake.receivers.RefreshReceiver;
@@ -74,17 +79,26 @@ public class EarthquakeMapActivity extends MapActivity {
 	private static final String LAYER_SATTELITE_KEY = "map_layer_sattelite";
 	private static final String LAYER_STREET_VIEW_KEY = "map_layer_street_view";
 	private static final String LAYER_TRAFFIC_KEY = "map_layer_traffic";
+	private static final String LAYER_HEATMAP_KEY = "map_layer_heatmap";
 	
 	private static final int LAYER_SATTELITE_INDEX = 0;
 	private static final int LAYER_STREET_VIEW_INDEX = 1;
 	private static final int LAYER_TRAFFIC_INDEX = 2;
+	private static final int LAYER_HEATMAP_INDEX = 3;
+	
+	/** Lama memutar ulang seluruh data gempa (milisecond) */
+	private static final long PLAYBACK_DURATION = 20000;
+	
+	/** Jeda antar frame saat memutar ulang, sekitar 60 frame per detik */
+	private static final long PLAYBACK_FRAME_DELAY = 16;
 	
 	private static Prefs prefs;
 	private boolean firstStart = true;
 	private boolean centerLocationWhenAvailable = false;
 	
 	private EarthquakeReceiver quakeReceiver;
-	private List<EarthquakeDTO> quakes = new ArrayList<EarthquakeDTO>();
+	private QuakeRepository repository;
+	private QuakeStore.Snapshot quakes = QuakeStore.Snapshot.EMPTY;
 	
 	private LocationManager locationManager;
 	private LocationFinder locationFinder;
@@ -94,13 +108,23 @@ public class EarthquakeMapActivity extends MapActivity {
 	private ImageButton myLocationButton;
 	private MapView mapView;
 	private MapController mapController;
-	private final boolean[] layers = new boolean[3];
+	private final boolean[] layers = new boolean[4];
 	
 	private List<Overlay> overlays;
-	private List<EarthquakeOverlay> quakeOverlays;
+	private EarthquakeOverlay quakeOverlay;
+	private HeatmapOverlay heatmapOverlay;
 	
 	private LinearLayout locationLayout = null;
 	
+	private View playbackBar;
+	private ImageButton playbackButton;
+	private SeekBar playbackSeek;
+	private TextView playbackTimeText;
+	private final SimpleDateFormat playbackFormat = new SimpleDateFormat("dd-MMM-yyyy HH:mm");
+	private boolean playing = false;
+	private long playbackTime = 0;
+	private long lastFrameTime = 0;
+	
 	@Override
 	public void onWindowFocusChanged(boolean hasFocus) {
 		Log.d(TAG, "onWindowFocusChanged");
@@ -127,6 +151,8 @@ public class EarthquakeMapActivity extends MapActivity {
 		setContentView(R.layout.map);
 		
 		quakeReceiver = new EarthquakeReceiver(handler);
+		repository = QuakeRepository.getInstance(this);
+		repository.registerListener(quakesChangedListener);
 		
 		// Mendapatkan lokasi saat ini
 		locationManager = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
@@ -140,7 +166,12 @@ public class EarthquakeMapActivity extends MapActivity {
     	initializeMapView();
     	
 		// Load data gempa dari provider, kemudian tampilkan pada peta
-		quakeOverlays = new ArrayList<EarthquakeOverlay>();
+		heatmapOverlay = new HeatmapOverlay(mapView, prefs.getTheme(), 
+				HeatmapOverlay.WEIGHT_COUNT);
+		heatmapOverlay.setEnabled(layers[LAYER_HEATMAP_INDEX]);
+		overlays.add(heatmapOverlay);
+		quakeOverlay = new EarthquakeOverlay(mapView, location);
+		overlays.add(quakeOverlay);
     	updateQuakes(false);
         refreshData();
         
@@ -156,6 +187,13 @@ public class EarthquakeMapActivity extends MapActivity {
     	refreshButton.setOnClickListener(actionBarListener);
     	myLocationButton = (ImageButton) findViewById(R.id.location);
     	myLocationButton.setOnClickListener(actionBarListener);
+    	
+    	playbackBar = findViewById(R.id.playback_bar);
+    	playbackButton = (ImageButton) findViewById(R.id.playback_play);
+    	playbackButton.setOnClickListener(actionBarListener);
+    	playbackTimeText = (TextView) findViewById(R.id.playback_time);
+    	playbackSeek = (SeekBar) findViewById(R.id.playback_seek);
+    	playbackSeek.setOnSeekBarChangeListener(playbackSeekListener);
     }
     
 	/**
@@ -197,6 +235,8 @@ public class EarthquakeMapActivity extends MapActivity {
 		layers[LAYER_TRAFFIC_INDEX] = trafficShown;
 		mapView.setTraffic(trafficShown);
 		
+		layers[LAYER_HEATMAP_INDEX] = prefs.isLayerUsed(LAYER_HEATMAP_KEY);
+		
 		mapController = mapView.getController();
 		overlays = mapView.getOverlays();
 	}
@@ -259,12 +299,9 @@ public class EarthquakeMapActivity extends MapActivity {
 			protected Void doInBackground(Boolean... params) {
 				this.finishLoading = params[0];
 				
-				// Load data dari provider, urutkan berdasarkan tanggal ascending,
-				// karena pada ovelay list yang paling akhir yang akan ditampilkan 
-				// paling depan pada MapView
-    			EarthquakeModel table = new EarthquakeModel(EarthquakeMapActivity.this);
-    			quakes = table.getMatchQuakes(prefs.getMinMagnitude(), prefs.getMaxAge(), 
-    					EarthquakeColumns.DATE + " ASC");
+				// Load data dari repository (provider hanya dibaca jika belum ada di 
+				// memory), overlay membaca langsung dari snapshot repository
+				quakes = repository.load(prefs.getMinMagnitude(), prefs.getMaxAge());
 				return null;
 			}
 			
@@ -276,29 +313,151 @@ public class EarthquakeMapActivity extends MapActivity {
 		}.execute(finishLoading);
 	}
 	
+	/**
+	 * Listener perubahan data pada repository. Data sudah digabungkan di memory,
+	 * sehingga overlay cukup menerapkan perubahannya tanpa membaca ulang provider.
+	 */
+	private final QuakeRepository.OnQuakesChangedListener quakesChangedListener 
+			= new QuakeRepository.OnQuakesChangedListener() {
+		@Override
+		public void onQuakesChanged(QuakeRepository.Diff diff) {
+			if (diff.reset || !repository.isLoaded(prefs.getMinMagnitude(), prefs.getMaxAge())) {
+				updateQuakes(false);
+				return;
+			}
+			
+			quakes = repository.getSnapshot();
+			quakeOverlay.applyChanges(quakes, diff);
+			heatmapOverlay.setQuakes(quakes);
+			if (quakeOverlay.isPlayback()) setPlaybackTime(playbackTime);
+		}
+	};
+	
+	@Override
+	protected void onDestroy() {
+		Log.d(TAG, "onDestroy");
+		super.onDestroy();
+		repository.unregisterListener(quakesChangedListener);
+		stopPlayback();
+		quakeOverlay.release();
+		heatmapOverlay.release();
+	}
+	
 	/**
 	 * Setup overlay gempa.
 	 */
 	private void setupQuakeOverlay() {
-		// Kosongkan quakeOverlays dari overlays
-		for (Overlay overlay : quakeOverlays) {
-			overlays.remove(overlay);
-		}
-		quakeOverlays.clear();
+		// Satu overlay untuk semua gempa, cukup ganti datanya
+		quakeOverlay.setQuakes(quakes);
+		heatmapOverlay.setQuakes(quakes);
+		if (quakeOverlay.isPlayback()) setPlaybackTime(playbackTime);
+		mapView.invalidate();
+	}
+	
+	/**
+	 * Tampilkan atau sembunyikan panel putar ulang. Saat ditampilkan, peta dimulai
+	 * dari gempa yang paling lama.
+	 * 
+	 * @param shown True untuk menampilkan
+	 */
+	private void showPlayback(boolean shown) {
+		stopPlayback();
+		quakeOverlay.setPlayback(shown);
+		playbackBar.setVisibility(shown ? View.VISIBLE : View.GONE);
+		if (shown) setPlaybackTime(quakeOverlay.getStartTime());
+		mapView.invalidate();
+	}
+	
+	/**
+	 * Set waktu yang ditampilkan saat memutar ulang, posisi seek bar dan teks
+	 * waktu ikut diperbaharui.
+	 * 
+	 * @param time Waktu yang ditampilkan
+	 */
+	private void setPlaybackTime(long time) {
+		long start = quakeOverlay.getStartTime();
+		long end = quakeOverlay.getEndTime();
+		playbackTime = Math.max(start, Math.min(end, time));
 		
-		// Tambahkan quakeOverlay baru yang sesuai dengan database
-		for (EarthquakeDTO quake : quakes) {
-			Drawable quakeDrawable = getResources().getDrawable(R.drawable.one);
-			EarthquakeOverlay quakeOverlay = new EarthquakeOverlay(quakeDrawable, 
-					mapView, location);
-			quakeOverlay.addQuake(quake);
+		quakeOverlay.setPlaybackTime(playbackTime);
+		if (end > start) {
+			playbackSeek.setProgress((int) ((playbackTime - start) * playbackSeek.getMax() 
+					/ (end - start)));
+		}
+		playbackTimeText.setText(playbackFormat.format(new Date(playbackTime)));
+	}
+	
+	/**
+	 * Mulai memutar ulang dari waktu saat ini, atau dari awal jika sudah di akhir.
+	 */
+	private void startPlayback() {
+		if (playbackTime >= quakeOverlay.getEndTime()) {
+			setPlaybackTime(quakeOverlay.getStartTime());
+		}
+		playing = true;
+		lastFrameTime = SystemClock.uptimeMillis();
+		playbackButton.setImageResource(android.R.drawable.ic_media_pause);
+		handler.post(playbackFrame);
+	}
+	
+	/**
+	 * Hentikan pemutaran, waktu yang ditampilkan tetap.
+	 */
+	private void stopPlayback() {
+		playing = false;
+		handler.removeCallbacks(playbackFrame);
+		if (playbackButton != null) {
+			playbackButton.setImageResource(android.R.drawable.ic_media_play);
+		}
+	}
+	
+	/**
+	 * Satu frame putar ulang. Waktu dimajukan sesuai waktu yang benar-benar 
+	 * berlalu, sehingga lama pemutaran tetap walaupun ada frame yang terlambat.
+	 */
+	private final Runnable playbackFrame = new Runnable() {
+		@Override
+		public void run() {
+			if (!playing) return;
+			
+			long now = SystemClock.uptimeMillis();
+			long span = quakeOverlay.getEndTime() - quakeOverlay.getStartTime();
+			setPlaybackTime(playbackTime + Math.max(1, span * (now - lastFrameTime) 
+					/ PLAYBACK_DURATION));
+			lastFrameTime = now;
+			mapView.invalidate();
+			
+			if (playbackTime >= quakeOverlay.getEndTime()) {
+				stopPlayback();
+			} else {
+				handler.postDelayed(this, PLAYBACK_FRAME_DELAY);
+			}
+		}
+	};
+	
+	/**
+	 * Listener seek bar putar ulang.
+	 */
+	private final OnSeekBarChangeListener playbackSeekListener = new OnSeekBarChangeListener() {
+		@Override
+		public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+			if (!fromUser) return;
 			
-			quakeOverlays.add(quakeOverlay);
-			overlays.add(quakeOverlay);
+			long start = quakeOverlay.getStartTime();
+			long end = quakeOverlay.getEndTime();
+			setPlaybackTime(start + (end - start) * progress / seekBar.getMax());
+			mapView.invalidate();
 		}
 		
-		mapView.invalidate();
-	}
+		@Override
+		public void onStartTrackingTouch(SeekBar seekBar) {
+			stopPlayback();
+		}
+		
+		@Override
+		public void onStopTrackingTouch(SeekBar seekBar) {
+		}
+	};
 	
 	/**
 	 * Tampilkan gempa di tengah-tengah. Data gempa didapat dari extra pada intent.
@@ -307,8 +466,8 @@ public class EarthquakeMapActivity extends MapActivity {
 		EarthquakeDTO quake = null;
 		Intent intent = getIntent();
 		
-		if (intent.hasExtra(EarthquakeColumns.TABLE_NAME)) {
-			quake = (EarthquakeDTO) intent.getExtras().get(EarthquakeColumns.TABLE_NAME);
+		if (intent.hasExtra(EarthquakeColumns._ID)) {
+			quake = repository.getQuake(intent.getLongExtra(EarthquakeColumns._ID, -1));
 		}
 		
 		if (quake != null) {
@@ -396,7 +555,8 @@ public class EarthquakeMapActivity extends MapActivity {
     				new boolean[] { 
     					layers[LAYER_SATTELITE_INDEX], 
     					layers[LAYER_STREET_VIEW_INDEX], 
-    					layers[LAYER_TRAFFIC_INDEX]
+    					layers[LAYER_TRAFFIC_INDEX],
+    					layers[LAYER_HEATMAP_INDEX]
     				}, 
     				new DialogInterface.OnMultiChoiceClickListener() {
     			
@@ -416,12 +576,20 @@ public class EarthquakeMapActivity extends MapActivity {
 						mapView.setTraffic(isChecked);
 						prefs.setLayerUsed(LAYER_TRAFFIC_KEY, isChecked);
 						break;
+					case LAYER_HEATMAP_INDEX:
+						heatmapOverlay.setEnabled(isChecked);
+						prefs.setLayerUsed(LAYER_HEATMAP_KEY, isChecked);
+						break;
 					}
 				}
 			});
     		layersBuilder.show();
     		break;
     		
+    	case R.id.playback:
+    		showPlayback(!quakeOverlay.isPlayback());
+    		return true;
+    		
     	case R.id.preferences:
     		intent = new Intent(this, PrefsActivity.class);
     		startActivityForResult(intent, SHOW_PREFS_REQUEST);
@@ -471,8 +639,7 @@ public class EarthquakeMapActivity extends MapActivity {
 			
 			switch (message.what) {
 			case EarthquakeReceiver.NEW_QUAKE_FOUND_WHAT:
-				// Terdapat gempa baru, load data dari provider
-				updateQuakes(false);
+				// Terdapat gempa baru, data sudah diperbaharui melalui repository
 				
 			case EarthquakeReceiver.NO_NEW_QUAKE_WHAT:
 				// Tidak terdapat data, hanya menghentikan animasi refresh
@@ -505,9 +672,7 @@ public class EarthquakeMapActivity extends MapActivity {
 			showLocationMarker(location);
 			
 			// Update location pada earthquake overlay
-			for (EarthquakeOverlay quakeOverlay : quakeOverlays) {
-				quakeOverlay.setLocation(location);
-			}
+			quakeOverlay.setLocation(location);
 			
 			// Tampilkan lokasi saat ini di tengah-tengah
 			if (centerLocationWhenAvailable) {
@@ -559,6 +724,14 @@ public class EarthquakeMapActivity extends MapActivity {
 	    			}
 	    		}
 	    		break;
+	    		
+	    	case R.id.playback_play:
+	    		if (playing) {
+	    			stopPlayback();
+	    		} else {
+	    			startPlayback();
+	    		}
+	    		break;
 			}
 		}
 	};
@@ -16,9 +16,10 @@
  
 package com.adisayoga.earthquake.ui;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
+import android.app.AlarmManager;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Point;
 import android.graphics.drawable.Drawable;
@@ -29,56 +30,491 @@ import android.view.View.OnTouchListener;
 
 import com.adisayoga.earthquake.dto.EarthquakeDTO;
 import com.adisayoga.earthquake.dto.EarthquakeTheme;
+import com.adisayoga.earthquake.models.QuakeRepository;
+import com.adisayoga.earthquake.models.QuakeStore;
 import com.adisayoga.earthquake.wrapper.DrawValues;
 import com.adisayoga.earthquake.wrapper.Prefs;
 import com.google.android.maps.GeoPoint;
-import com.google.android.maps.ItemizedOverlay;
 import com.google.android.maps.MapController;
 import com.google.android.maps.MapView;
 import com.google.android.maps.MapView.LayoutParams;
 import com.google.android.maps.Overlay;
-import com.google.android.maps.OverlayItem;
 import com.google.android.maps.Projection;
 
 /**
- * Overlay untuk titik gempa.
+ * Overlay untuk semua titik gempa. Titik gempa disimpan pada {@link QuakeGrid},
+ * sehingga setiap frame hanya titik di sekitar area peta yang terlihat yang
+ * digambar, dan tap dijawab dengan mencari titik terdekat pada grid.
+ * <p>
+ * Pada zoom kecil titik gempa yang berdekatan digabungkan menjadi satu cluster
+ * (jumlah gempa dan magnitudo terbesar) menggunakan {@link QuakeQuadtree}, satu
+ * cluster untuk setiap sel layar. Cluster untuk setiap zoom dibuat sekali dan
+ * digunakan lagi selama peta digeser.
+ * <p>
+ * Titik gempa tidak digambar langsung ke layar, tetapi ke tile bitmap pada
+ * background thread ({@link QuakeTileCache}). Setiap frame overlay hanya
+ * mem-blit tile yang terlihat, sehingga waktu gambar tidak bergantung pada 
+ * jumlah gempa.
+ * <p>
+ * Data gempa dibaca langsung dari {@link QuakeStore.Snapshot} repository ke 
+ * array primitif, objek gempa hanya dibuat untuk balloon view.
+ * <p>
+ * Saat data di-refresh ({@link #applyChanges(QuakeStore.Snapshot, QuakeRepository.Diff)}), hanya
+ * tile di sekitar gempa yang berubah yang digambar ulang, dan hanya area tile
+ * tersebut yang di-invalidate. Posisi peta dan balloon view tetap.
+ * <p>
+ * Saat memutar ulang data gempa ({@link #setPlayback(boolean)}), hanya gempa
+ * dalam rentang waktu tertentu yang digambar langsung ke layar tanpa tile.
+ * Karena data diurutkan berdasarkan waktu, gempa dalam rentang tersebut selalu
+ * bersebelahan, sehingga setiap frame cukup menggeser dua batas rentang.
  * 
  * @author Adi Sayoga
  */
-public class EarthquakeOverlay extends ItemizedOverlay<OverlayItem> {
+public class EarthquakeOverlay extends Overlay {
 	
 	@SuppressWarnings("unused")
 	private static final String TAG = "EarthquakeOverlay";
 	
-	private static final int TEXT_SIZE = 10;
-	private static final int PADDING = 2;
+	/** Radius sentuhan untuk memilih titik gempa (dip) */
+	private static final int TOUCH_RADIUS = 16;
+	
+	/** Batas tambahan di luar layar untuk mencari titik yang di-tap (pixels) */
+	private static final int VIEWPORT_MARGIN = 24;
+	
+	private static final int TILE_SIZE = QuakeTileRenderer.TILE_SIZE;
+	private static final int CLUSTER_MAX_ZOOM = QuakeTileRenderer.CLUSTER_MAX_ZOOM;
+	private static final int CLUSTER_CELL_SHIFT = QuakeTileRenderer.CLUSTER_CELL_SHIFT;
+	
+	/** Rentang waktu gempa yang terlihat saat memutar ulang */
+	private static final long PLAYBACK_WINDOW = AlarmManager.INTERVAL_DAY * 3;
+	
+	/** Batas geser rentang satu per satu, lebih dari ini gunakan binary search */
+	private static final int PLAYBACK_MAX_STEPS = 64;
 	
 	private final EarthquakeTheme theme;
 	
 	private final Point point = new Point();
 	private final MapView mapView;
 	private final MapController controller;
+	private final int touchRadius;
 	private EarthquakeBalloonView balloonView = null;
+	private long balloonId = -1;
 	private View clickRegion;
 	private int viewOffset = 0;
 	
-	private final List<OverlayItem> items = new ArrayList<OverlayItem>();
-	private final List<EarthquakeDTO> quakes = new ArrayList<EarthquakeDTO>();
+	// Data gempa diurutkan dari yang terbaru, sedangkan array di bawah ini dari 
+	// yang terlama (yang terbaru digambar paling depan): index i adalah baris 
+	// quakes.size - 1 - i
+	private QuakeStore.Snapshot quakes = QuakeStore.Snapshot.EMPTY;
+	private long[] ids = new long[0];
+	private int[] latE6 = new int[0];
+	private int[] lonE6 = new int[0];
+	private QuakeGrid grid = new QuakeGrid(new int[0], new int[0]);
+	private QuakeQuadtree quadtree = new QuakeQuadtree(new int[0], new int[0], new float[0]);
+	private int[] visible = new int[0];
+	
+	private final QuakeTileCache tileCache;
+	private long refreshTime = 0;
+	
+	// Gambar langsung saat memutar ulang, rentang gempa yang terlihat adalah
+	// playbackFrom s/d playbackTo - 1
+	private long[] times = new long[0];
+	private DrawValues playbackValues = null;
+	private QuakeTileRenderer playbackRenderer = null;
+	private boolean playback = false;
+	private int playbackFrom = 0;
+	private int playbackTo = 0;
+	
+	// Area peta yang terlihat: latitude dan longitude minimal, kemudian maksimal
+	private final int[] bounds = new int[4];
 	private Location location;
 	
-	public EarthquakeOverlay(Drawable defaultMarker, MapView mapView, Location location) {
-		super(boundCenterBottom(defaultMarker));
-		
+	public EarthquakeOverlay(MapView mapView, Location location) {
 		this.mapView = mapView;
 		this.controller = mapView.getController();
 		this.location = location;
 		
+		float density = mapView.getResources().getDisplayMetrics().density;
+		touchRadius = (int) (TOUCH_RADIUS * density + 0.5f);
+		
 		Prefs prefs = Prefs.getInstance(mapView.getContext());
 		theme = prefs.getTheme();
+		
+		tileCache = new QuakeTileCache(new QuakeTileCache.OnTileReadyListener() {
+			@Override
+			public void onTileReady(int zoom, int tileX, int tileY) {
+				invalidateTile(zoom, tileX, tileY);
+			}
+			
+			@Override
+			public void onTilesInvalidated() {
+				EarthquakeOverlay.this.mapView.invalidate();
+			}
+		});
+	}
+	
+	/**
+	 * Ganti semua data gempa pada overlay, buat ulang index grid dan quadtree, dan
+	 * hitung atribut gambar setiap gempa. Semua tile akan digambar ulang.
+	 * 
+	 * @param quakes Data gempa dari repository
+	 */
+	public void setQuakes(QuakeStore.Snapshot quakes) {
+		update(quakes, null);
+	}
+	
+	/**
+	 * Terapkan perubahan data dari repository. Index dan atribut gambar gempa
+	 * yang tidak berubah disalin dari data sebelumnya, dan hanya tile di sekitar
+	 * gempa yang ditambahkan, direvisi atau dihapus yang digambar ulang. Balloon view tetap terbuka, kecuali gempanya dihapus.
+	 * 
+	 * @param quakes Data gempa dari repository setelah perubahan
+	 * @param diff Perubahan data
+	 */
+	public void applyChanges(QuakeStore.Snapshot quakes, QuakeRepository.Diff diff) {
+		if (diff.reset || ids.length == 0 || playbackValues == null) {
+			setQuakes(quakes);
+			mapView.invalidate();
+		} else {
+			update(quakes, diff);
+			// Saat memutar ulang tidak ada tile, gempa digambar langsung
+			if (playback) mapView.invalidate();
+		}
+	}
+	
+	private void update(QuakeStore.Snapshot quakes, QuakeRepository.Diff diff) {
+		int size = quakes.size;
+		long[] ids = new long[size];
+		int[] latE6 = new int[size];
+		int[] lonE6 = new int[size];
+		float[] magnitudes = new float[size];
+		long[] times = new long[size];
+		int balloonRow = -1;
+		for (int i = 0; i < size; i++) {
+			int row = size - 1 - i;
+			ids[i] = quakes.getId(row);
+			if (ids[i] == balloonId) balloonRow = row;
+			latE6[i] = quakes.getLatitudeE6(row);
+			lonE6[i] = quakes.getLongitudeE6(row);
+			magnitudes[i] = quakes.getMagnitude(row);
+			times[i] = quakes.getTime(row);
+		}
+		
+		// Index dan atribut gambar gempa yang tidak berubah disalin dari data lama
+		long[] changed = (diff == null) ? null : getChangedIds(diff);
+		int[] previousIndex = (changed == null) ? null : getPreviousIndex(ids, changed);
+		QuakeGrid grid;
+		QuakeQuadtree quadtree;
+		if (previousIndex == null) {
+			grid = new QuakeGrid(latE6, lonE6);
+			quadtree = new QuakeQuadtree(latE6, lonE6, magnitudes);
+		} else {
+			grid = new QuakeGrid(latE6, lonE6, this.grid, previousIndex);
+			quadtree = new QuakeQuadtree(latE6, lonE6, magnitudes, this.quadtree, previousIndex);
+		}
+		
+		// Tile lama yang tetap digunakan digambar dengan alpha pada waktu refresh 
+		// terakhir, atribut yang baru harus dihitung pada waktu yang sama
+		if (diff == null) refreshTime = System.currentTimeMillis();
+		DrawValues values = new DrawValues(theme, QuakeTileRenderer.TEXT_SIZE, times, 
+				magnitudes, refreshTime, (previousIndex == null) ? null : playbackValues, 
+				previousIndex);
+		
+		// Renderer terpisah, karena renderer tile digunakan oleh background thread.
+		// Salinan dibuat sebelum values diberikan ke background thread
+		DrawValues newPlaybackValues = new DrawValues(values);
+		QuakeTileRenderer renderer = new QuakeTileRenderer(latE6, lonE6, grid, quadtree, values);
+		
+		if (diff == null) {
+			tileCache.setRenderer(renderer);
+		} else {
+			applyDiff(renderer, changed, ids, latE6, lonE6, newPlaybackValues);
+		}
+		
+		// Balloon view tetap terbuka dengan data terbaru, kecuali gempanya dihapus
+		if (balloonId >= 0) {
+			if (balloonRow < 0) {
+				hideBalloon();
+			} else {
+				positionBalloon(quakes.toDTO(balloonRow));
+			}
+		}
+		
+		this.quakes = quakes;
+		this.ids = ids;
+		this.latE6 = latE6;
+		this.lonE6 = lonE6;
+		this.grid = grid;
+		this.quadtree = quadtree;
+		this.visible = new int[size];
+		this.times = times;
+		this.playbackValues = newPlaybackValues;
+		playbackRenderer = new QuakeTileRenderer(latE6, lonE6, grid, quadtree, newPlaybackValues);
+		playbackFrom = playbackTo = 0;
+	}
+	
+	/**
+	 * Id gempa yang ditambahkan, direvisi atau dihapus, diurutkan agar dapat
+	 * dicari dengan binary search.
+	 */
+	private static long[] getChangedIds(QuakeRepository.Diff diff) {
+		long[] changed = new long[diff.added.length + diff.updated.length + diff.removed.length];
+		System.arraycopy(diff.added, 0, changed, 0, diff.added.length);
+		System.arraycopy(diff.updated, 0, changed, diff.added.length, diff.updated.length);
+		System.arraycopy(diff.removed, 0, changed, diff.added.length + diff.updated.length, 
+				diff.removed.length);
+		Arrays.sort(changed);
+		return changed;
+	}
+	
+	/**
+	 * Posisi setiap gempa pada array sebelumnya, -1 untuk gempa yang berubah.
+	 * Kedua array diurutkan berdasarkan waktu, sehingga gempa yang tidak berubah
+	 * muncul dengan urutan yang sama dan cukup dicocokkan satu per satu.
+	 * 
+	 * @param newIds Id gempa setelah perubahan
+	 * @param changed Id gempa yang berubah, diurutkan
+	 * @return Posisi sebelumnya, atau null jika urutan tidak cocok (index dan
+	 *         atribut gambar dibuat ulang semua)
+	 */
+	private int[] getPreviousIndex(long[] newIds, long[] changed) {
+		int[] result = new int[newIds.length];
+		int old = 0;
+		for (int i = 0; i < newIds.length; i++) {
+			if (Arrays.binarySearch(changed, newIds[i]) >= 0) {
+				result[i] = -1;
+				continue;
+			}
+			while (old < ids.length && Arrays.binarySearch(changed, ids[old]) >= 0) old++;
+			if (old == ids.length || ids[old] != newIds[i]) return null;
+			result[i] = old++;
+		}
+		
+		while (old < ids.length && Arrays.binarySearch(changed, ids[old]) >= 0) old++;
+		return (old == ids.length) ? result : null;
+	}
+	
+	/**
+	 * Ganti renderer tile, hanya tile di sekitar posisi lama dan baru gempa yang
+	 * berubah yang digambar ulang. Dipanggil sebelum field data gempa diganti.
+	 */
+	private void applyDiff(QuakeTileRenderer renderer, long[] changed, long[] newIds, 
+			int[] newLatE6, int[] newLonE6, DrawValues newValues) {
+		// Posisi lama dan baru setiap gempa yang berubah
+		int capacity = 2 * changed.length;
+		int[] dirtyLat = new int[capacity];
+		int[] dirtyLon = new int[capacity];
+		int[] dirtyMeters = new int[capacity];
+		int count = 0;
+		for (int i = 0; i < ids.length; i++) {
+			if (Arrays.binarySearch(changed, ids[i]) < 0) continue;
+			dirtyLat[count] = latE6[i];
+			dirtyLon[count] = lonE6[i];
+			dirtyMeters[count++] = playbackValues.getDmgMeters(i);
+		}
+		
+		for (int i = 0; i < newIds.length; i++) {
+			if (Arrays.binarySearch(changed, newIds[i]) < 0) continue;
+			dirtyLat[count] = newLatE6[i];
+			dirtyLon[count] = newLonE6[i];
+			dirtyMeters[count++] = newValues.getDmgMeters(i);
+		}
+		
+		tileCache.setRenderer(renderer, dirtyLat, dirtyLon, dirtyMeters, count);
+	}
+	
+	/**
+	 * Invalidate area layar tile tertentu, jika tile tersebut terlihat. Pada zoom
+	 * kecil satu tile bisa terlihat lebih dari sekali.
+	 * 
+	 * @param zoom Level zoom
+	 * @param tileX Kolom tile
+	 * @param tileY Baris tile
+	 */
+	private void invalidateTile(int zoom, int tileX, int tileY) {
+		if (zoom != mapView.getZoomLevel()) return;
+		
+		mapView.getProjection().toPixels(QuakeTileRenderer.WORLD_ORIGIN, point);
+		int worldSize = TILE_SIZE << zoom;
+		int scrollX = mapView.getScrollX();
+		int width = mapView.getWidth();
+		int top = point.y + tileY * TILE_SIZE;
+		
+		// Salinan tile paling kiri yang mungkin terlihat
+		int left = point.x + tileX * TILE_SIZE;
+		left -= (floorDiv(left - scrollX, worldSize) + 1) * worldSize;
+		for (; left < scrollX + width; left += worldSize) {
+			if (left + TILE_SIZE > scrollX) {
+				mapView.invalidate(left, top, left + TILE_SIZE, top + TILE_SIZE);
+			}
+		}
+	}
+	
+	/**
+	 * Aktifkan atau nonaktifkan mode putar ulang. Saat tidak aktif semua gempa
+	 * ditampilkan seperti biasa.
+	 * 
+	 * @param playback True untuk mengaktifkan
+	 */
+	public void setPlayback(boolean playback) {
+		this.playback = playback;
+		if (!playback) playbackFrom = playbackTo = 0;
+	}
+	
+	/**
+	 * Apakah mode putar ulang sedang aktif.
+	 * 
+	 * @return True jika aktif
+	 */
+	public boolean isPlayback() {
+		return playback;
+	}
+	
+	/**
+	 * Waktu gempa yang paling lama.
+	 * 
+	 * @return Waktu gempa, atau 0 jika tidak ada data
+	 */
+	public long getStartTime() {
+		return (times.length == 0) ? 0 : times[0];
+	}
+	
+	/**
+	 * Waktu gempa yang paling baru.
+	 * 
+	 * @return Waktu gempa, atau 0 jika tidak ada data
+	 */
+	public long getEndTime() {
+		return (times.length == 0) ? 0 : times[times.length - 1];
+	}
+	
+	/**
+	 * Set waktu yang ditampilkan saat memutar ulang. Gempa yang terlihat adalah
+	 * gempa sejak {@link #PLAYBACK_WINDOW} sebelum waktu tersebut, transparansi
+	 * sesuai umur gempa terhadap waktu tersebut. Batas rentang digeser dari 
+	 * posisi sebelumnya, sehingga biayanya sebanding dengan jumlah gempa yang
+	 * masuk dan keluar rentang.
+	 * 
+	 * @param time Waktu yang ditampilkan
+	 */
+	public void setPlaybackTime(long time) {
+		if (playbackRenderer == null) return;
+		
+		playbackTo = upperBound(times, time, playbackTo);
+		playbackFrom = upperBound(times, time - PLAYBACK_WINDOW, playbackFrom);
+		playbackRenderer.refresh(time, playbackFrom, playbackTo);
+	}
+	
+	/**
+	 * Posisi gempa pertama yang waktunya lebih besar dari value. Pencarian 
+	 * dimulai dari posisi sebelumnya, jika terlalu jauh gunakan binary search.
+	 * 
+	 * @param times Waktu gempa, diurutkan ascending
+	 * @param value Batas waktu
+	 * @param hint Hasil pencarian sebelumnya
+	 * @return Posisi gempa, 0 s/d times.length
+	 */
+	private static int upperBound(long[] times, long value, int hint) {
+		int position = Math.max(0, Math.min(times.length, hint));
+		for (int step = 0; step < PLAYBACK_MAX_STEPS; step++) {
+			if (position < times.length && times[position] <= value) {
+				position++;
+			} else if (position > 0 && times[position - 1] > value) {
+				position--;
+			} else {
+				return position;
+			}
+		}
+		
+		int low = 0, high = times.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (times[middle] <= value) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+	
+	/**
+	 * Hentikan background thread dan hapus semua tile. Dipanggil saat activity
+	 * dihancurkan.
+	 */
+	public void release() {
+		tileCache.release();
 	}
 	
 	@Override
-	protected boolean onTap(int index) {
+	public boolean onTap(GeoPoint tapPoint, MapView mapView) {
+		int height = mapView.getHeight();
+		int width = mapView.getWidth();
+		if (height == 0 || width == 0) return false;
+		
+		// Radius sentuhan dalam pixel dikonversi ke derajat sesuai zoom saat ini
+		updateBounds(mapView, width, height);
+		if (mapView.getZoomLevel() < CLUSTER_MAX_ZOOM && !playback) {
+			return onTapCluster(tapPoint, mapView);
+		}
+		
+		int radiusLat = (int) ((long) mapView.getLatitudeSpan() * touchRadius / height);
+		int radiusLon = (int) ((long) mapView.getLongitudeSpan() * touchRadius / width);
+		int index = grid.nearest(tapPoint.getLatitudeE6(), tapPoint.getLongitudeE6(), 
+				radiusLat, radiusLon);
+		if (index < 0) return false;
+		// Saat memutar ulang, gempa di luar rentang waktu tidak terlihat
+		if (playback && (index < playbackFrom || index >= playbackTo)) return false;
+		
+		showBalloon(index);
+		return true;
+	}
+	
+	/**
+	 * Tap pada zoom kecil. Cluster dengan satu gempa menampilkan balloon view,
+	 * cluster lainnya memperbesar peta pada posisi cluster tersebut.
+	 * 
+	 * @param tapPoint Posisi tap
+	 * @param mapView MapView
+	 * @return True jika ada cluster yang di-tap
+	 */
+	private boolean onTapCluster(GeoPoint tapPoint, MapView mapView) {
+		Projection projection = mapView.getProjection();
+		QuakeQuadtree.Level level = quadtree.getLevel(mapView.getZoomLevel() 
+				+ CLUSTER_CELL_SHIFT);
+		Point tap = projection.toPixels(tapPoint, null);
+		int count = level.query(bounds[0], bounds[1], bounds[2], bounds[3], visible);
+		
+		int nearest = -1;
+		long nearestDistance = (long) touchRadius * touchRadius;
+		for (int i = 0; i < count; i++) {
+			int c = visible[i];
+			projection.toPixels(level.points[c], point);
+			long dx = point.x - tap.x;
+			long dy = point.y - tap.y;
+			long distance = dx * dx + dy * dy;
+			if (distance <= nearestDistance) {
+				nearest = c;
+				nearestDistance = distance;
+			}
+		}
+		if (nearest < 0) return false;
+		
+		if (level.counts[nearest] == 1) {
+			showBalloon(level.top[nearest]);
+		} else {
+			projection.toPixels(level.points[nearest], point);
+			controller.zoomInFixing(point.x, point.y);
+		}
+		return true;
+	}
+	
+	/**
+	 * Tampilkan balloon view untuk data gempa.
+	 * 
+	 * @param index Posisi data gempa
+	 */
+	private void showBalloon(int index) {
 		if (balloonView == null) {
 			balloonView =  new EarthquakeBalloonView(mapView.getContext(), viewOffset);
 			mapView.addView(balloonView);
@@ -110,125 +546,121 @@ public class EarthquakeOverlay extends ItemizedOverlay<OverlayItem> {
 		drawable.setState(new int[] {});
 		drawable.invalidateSelf();
 		
-		GeoPoint point = createItem(index).getPoint();
-		MapView.LayoutParams params = new MapView.LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams
-				.WRAP_CONTENT, point, LayoutParams.BOTTOM_CENTER);
-		params.mode = LayoutParams.MODE_MAP;
-		balloonView.setLayoutParams(params);
-		balloonView.setData(quakes.get(index), location);
-		
-		List<Overlay> overlays = mapView.getOverlays();
-		if (overlays.size() > 1) hideOtherBalloons(overlays);
-		
+		positionBalloon(quakes.toDTO(quakes.size - 1 - index));
 		balloonView.setVisibility(View.VISIBLE);
-		controller.animateTo(point);
-		return true;
+		controller.animateTo(new GeoPoint(latE6[index], lonE6[index]));
 	}
 	
 	/**
-	 * Sembunikan balloon view lainnya.
+	 * Pindahkan balloon view ke posisi gempa dan tampilkan datanya, tanpa 
+	 * menggeser peta.
 	 * 
-	 * @param overlays Daftar overlay
+	 * @param quake Data gempa
 	 */
-	private void hideOtherBalloons(List<Overlay> overlays) {
-		for (Overlay overlay : overlays) {
-			if (overlay instanceof EarthquakeOverlay && overlay != this) {
-				((EarthquakeOverlay) overlay).hideBalloon();
-			}
-		}
+	private void positionBalloon(EarthquakeDTO quake) {
+		MapView.LayoutParams params = new MapView.LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams
+				.WRAP_CONTENT, quake.getPoint(), LayoutParams.BOTTOM_CENTER);
+		params.mode = LayoutParams.MODE_MAP;
+		balloonView.setLayoutParams(params);
+		balloonView.setData(quake, location);
+		balloonId = quake.id;
 	}
 	
 	/**
-	 * Sembunyikan balloon view ini.
+	 * Sembunyikan balloon view.
 	 */
-	private void hideBalloon() {
+	public void hideBalloon() {
 		if (balloonView != null) balloonView.setVisibility(View.GONE);
+		balloonId = -1;
 	}
 	
 	@Override
 	public void draw(Canvas canvas, MapView mapView, boolean shadow) {
-		if (shadow) return;
-		
-		for (int i = items.size() - 1; i >= 0; i--) {
-			drawQuake(canvas, mapView, quakes.get(i), theme);
-		}
-	}
-	
-	/**
-	 * Gambar titik gempa pada peta.
-	 * 
-	 * @param canvas Canvas
-	 * @param mapView MapView
-	 * @param quake Data gempa
-	 * @param theme Tema yang digunakan
-	 */
-	private void drawQuake(Canvas canvas, MapView mapView, EarthquakeDTO quake, 
-			EarthquakeTheme theme) {
+		if (shadow || ids.length == 0) return;
 		
 		Projection projection = mapView.getProjection();
-		projection.toPixels(quake.getPoint(), point);
-		
 		int height = mapView.getHeight();
 		int width = mapView.getWidth();
 		int scrollX = mapView.getScrollX();
 		int scrollY = mapView.getScrollY();
-		
-		if (point.x < scrollX || point.x > scrollX + width) return;
-		if (point.y < scrollY || point.y > scrollY + height) return;
-		
-		DrawValues.prepare(theme, TEXT_SIZE, quake.magnitude, quake.time);
-		
 		int zoom = mapView.getZoomLevel();
-		int radius = (zoom >= 6) ? 4 : DrawValues.markRadius;
+		if (height == 0 || width == 0) return;
 		
-		canvas.drawCircle(point.x, point.y, radius + 2, DrawValues.markGlowPaint);
-		canvas.drawCircle(point.x, point.y, radius + 1, DrawValues.markOutlinePaint);
-		canvas.drawCircle(point.x, point.y, radius, DrawValues.markPaint);
+		if (playback) {
+			// Gambar langsung pada koordinat dunia relatif terhadap pojok kiri atas layar
+			projection.toPixels(QuakeTileRenderer.WORLD_ORIGIN, point);
+			canvas.save();
+			canvas.translate(scrollX, scrollY);
+			playbackRenderer.renderRange(canvas, zoom, scrollX - point.x, scrollY - point.y,
+					width, height, playbackFrom, playbackTo);
+			canvas.restore();
+			return;
+		}
 		
-		int dmgRadius = (int) projection.metersToEquatorPixels(DrawValues.dmgMeters);
-		if (dmgRadius > 3 * DrawValues.markRadius) {
-			canvas.drawCircle(point.x, point.y, dmgRadius, DrawValues.feelOutlinePaint);
-			canvas.drawCircle(point.x, point.y, dmgRadius, DrawValues.feelPaint);
+		long now = System.currentTimeMillis();
+		if (now - refreshTime >= DrawValues.REFRESH_INTERVAL || now < refreshTime) {
+			refreshTime = now;
+			tileCache.refresh();
 		}
 		
-		if (zoom >= 6 && DrawValues.text != "") {
-			int x = point.x;
-			int y = point.y + radius + TEXT_SIZE + PADDING * 3;
-			canvas.drawText(DrawValues.text, x, y, DrawValues.textOutlinePaint);
-			canvas.drawText(DrawValues.text, x, y, DrawValues.textPaint);
+		// Posisi tile dihitung dari pojok kiri atas dunia, satu kali setiap frame
+		projection.toPixels(QuakeTileRenderer.WORLD_ORIGIN, point);
+		int tiles = 1 << zoom;
+		int fromX = floorDiv(scrollX - point.x, TILE_SIZE);
+		int toX = floorDiv(scrollX + width - point.x, TILE_SIZE);
+		int fromY = Math.max(0, floorDiv(scrollY - point.y, TILE_SIZE));
+		int toY = Math.min(tiles - 1, floorDiv(scrollY + height - point.y, TILE_SIZE));
+		
+		for (int tileY = fromY; tileY <= toY; tileY++) {
+			for (int tileX = fromX; tileX <= toX; tileX++) {
+				// Dunia berulang ke arah horizontal
+				int wrappedX = ((tileX % tiles) + tiles) % tiles;
+				Bitmap bitmap = tileCache.getTile(zoom, wrappedX, tileY);
+				if (bitmap == null) continue;
+				
+				canvas.drawBitmap(bitmap, point.x + tileX * TILE_SIZE, 
+						point.y + tileY * TILE_SIZE, null);
+			}
 		}
 	}
 	
-	/**
-	 * Tambahkan overlay.
-	 * 
-	 * @param overlay Overlay
-	 */
-	public void addOverlay(OverlayItem overlay) {
-		items.add(overlay);
-		populate();
+	private static int floorDiv(int value, int divisor) {
+		return (value >= 0) ? value / divisor : -((-value + divisor - 1) / divisor);
 	}
 	
 	/**
-	 * Tambahkan data gempa.
+	 * Hitung area peta yang terlihat ditambah {@link #VIEWPORT_MARGIN}, disimpan 
+	 * ke {@link #bounds}.
 	 * 
-	 * @param quake Data Gempa
+	 * @param mapView MapView
+	 * @param width Lebar MapView
+	 * @param height Tinggi MapView
 	 */
-	public void addQuake(EarthquakeDTO quake) {
-		quakes.add(quake);
+	private void updateBounds(MapView mapView, int width, int height) {
+		GeoPoint center = mapView.getMapCenter();
+		long latSpan = mapView.getLatitudeSpan();
+		long lonSpan = mapView.getLongitudeSpan();
+		long halfLat = latSpan / 2 + latSpan * VIEWPORT_MARGIN / height;
+		long halfLon = lonSpan / 2 + lonSpan * VIEWPORT_MARGIN / width;
 		
-		OverlayItem overlay = new OverlayItem(quake.getPoint(), "", "");
-		items.add(overlay);
-		populate();
+		bounds[0] = (int) Math.max(-90000000L, center.getLatitudeE6() - halfLat);
+		bounds[2] = (int) Math.min(90000000L, center.getLatitudeE6() + halfLat);
+		if (2 * halfLon >= 360000000L) {
+			bounds[1] = -180000000;
+			bounds[3] = 180000000;
+		} else {
+			bounds[1] = QuakeGrid.wrapLongitude(center.getLongitudeE6() - halfLon);
+			bounds[3] = QuakeGrid.wrapLongitude(center.getLongitudeE6() + halfLon);
+		}
 	}
 	
 	/**
-	 * Hapus/kosongkan overlay dan data gempa
+	 * Jumlah data gempa pada overlay.
+	 * 
+	 * @return Jumlah data gempa
 	 */
-	public void clear() {
-		quakes.clear();
-		items.clear();
-		populate();
+	public int size() {
+		return ids.length;
 	}
 	
 	/**
@@ -248,15 +680,5 @@ public class EarthquakeOverlay extends ItemizedOverlay<OverlayItem> {
 	public void setBalloonBotomOffset(int pixels) {
 		this.viewOffset = pixels;
 	}
-	
-	@Override
-	protected OverlayItem createItem(int i) {
-		return (items.size() > 0) ? items.get(i) : null;
-	}
-
-	@Override
-	public int size() {
-		return items.size();
-	}
 
 }
@@ -0,0 +1,475 @@
+/*
+ * Copyright 2011 Adi Sayoga.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.adisayoga.earthquake.ui;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Point;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.adisayoga.earthquake.dto.EarthquakeTheme;
+import com.adisayoga.earthquake.models.QuakeStore;
+import com.google.android.maps.MapView;
+import com.google.android.maps.Overlay;
+
+/**
+ * Overlay heatmap kepadatan gempa. Gempa dikumpulkan ke dalam grid pada zoom
+ * saat ini (berdasarkan jumlah atau energi), di-blur dengan kernel Gaussian
+ * yang dipisah (horizontal kemudian vertikal), diwarnai dengan palet tema, dan
+ * digambar sebagai satu bitmap. Semua perhitungan dilakukan pada background
+ * thread.
+ * <p>
+ * Grid mencakup area layar ditambah satu layar di setiap sisi, dan hanya dibuat
+ * ulang jika zoom berubah atau peta digeser keluar dari area tersebut. Jika
+ * data gempa berubah, hanya gempa yang ditambahkan, direvisi, atau dihapus yang
+ * diperbarui, dan blur dihitung ulang hanya di sekitar sel yang berubah.
+ *
+ * @author Adi Sayoga
+ */
+public class HeatmapOverlay extends Overlay {
+
+	private static final String TAG = "HeatmapOverlay";
+
+	/** Setiap gempa bernilai sama */
+	public static final int WEIGHT_COUNT = 0;
+	/** Gempa bernilai sesuai energinya (relatif terhadap gempa M4) */
+	public static final int WEIGHT_ENERGY = 1;
+
+	/** Ukuran sel grid (pixels) */
+	private static final int CELL_SIZE = 8;
+
+	/** Radius kernel blur (sel) */
+	private static final int KERNEL_RADIUS = 4;
+
+	/** Alpha maksimal heatmap */
+	private static final int MAX_ALPHA = 180;
+
+	private static final int TILE_SIZE = QuakeTileRenderer.TILE_SIZE;
+
+	private final MapView mapView;
+	private final int[] colors;
+	private final int weight;
+
+	private final Handler uiHandler = new Handler(Looper.getMainLooper());
+	private final HandlerThread workerThread;
+	private final Handler workerHandler;
+
+	// Hanya digunakan oleh background thread
+	private final Grid grid;
+
+	// Heatmap yang sudah jadi, hanya digunakan oleh UI thread
+	private Bitmap bitmap = null;
+	private int bitmapZoom;
+	private int bitmapX;
+	private int bitmapY;
+
+	// Area grid terakhir yang diminta, untuk menghindari permintaan berulang
+	private int requestZoom = -1;
+	private int requestX, requestY, requestWidth, requestHeight;
+	private volatile int requestGeneration = 0;
+
+	private boolean enabled = false;
+
+	private final Point point = new Point();
+	private final RectF rect = new RectF();
+	private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+	/**
+	 * @param mapView MapView
+	 * @param theme Tema, menentukan palet warna heatmap
+	 * @param weight {@link #WEIGHT_COUNT} atau {@link #WEIGHT_ENERGY}
+	 */
+	public HeatmapOverlay(MapView mapView, EarthquakeTheme theme, int weight) {
+		this.mapView = mapView;
+		this.colors = createColors(theme.getPalette());
+		this.weight = weight;
+		this.grid = new Grid();
+
+		workerThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+		workerThread.start();
+		workerHandler = new Handler(workerThread.getLooper());
+	}
+
+	/**
+	 * Tampilkan atau sembunyikan heatmap.
+	 *
+	 * @param enabled True jika heatmap ditampilkan
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+		mapView.invalidate();
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Perbarui data gempa. Hanya perubahan dari data sebelumnya yang dihitung.
+	 *
+	 * @param quakes Data gempa dari repository
+	 */
+	public void setQuakes(final QuakeStore.Snapshot quakes) {
+		workerHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (grid.update(quakes)) publish();
+			}
+		});
+	}
+
+	/**
+	 * Hentikan background thread. Dipanggil saat activity dihancurkan.
+	 */
+	public void release() {
+		workerHandler.removeCallbacksAndMessages(null);
+		workerThread.quit();
+		if (bitmap != null) bitmap.recycle();
+		bitmap = null;
+	}
+
+	@Override
+	public void draw(Canvas canvas, MapView mapView, boolean shadow) {
+		if (shadow || !enabled) return;
+
+		int width = mapView.getWidth();
+		int height = mapView.getHeight();
+		if (width == 0 || height == 0) return;
+
+		int zoom = mapView.getZoomLevel();
+		mapView.getProjection().toPixels(QuakeTileRenderer.WORLD_ORIGIN, point);
+
+		// Area layar dalam pixel dunia pada zoom saat ini
+		int viewX = mapView.getScrollX() - point.x;
+		int viewY = mapView.getScrollY() - point.y;
+		if (!isRequested(zoom, viewX, viewY, width, height)) {
+			requestGrid(zoom, viewX - width, viewY - height, 3 * width, 3 * height);
+		}
+
+		if (bitmap == null) return;
+
+		// Heatmap dari zoom lain diperbesar/diperkecil sampai heatmap baru selesai
+		float scale = (zoom >= bitmapZoom) ? (1 << (zoom - bitmapZoom))
+				: 1f / (1 << (bitmapZoom - zoom));
+		rect.left = point.x + bitmapX * scale;
+		rect.top = point.y + bitmapY * scale;
+		rect.right = rect.left + bitmap.getWidth() * CELL_SIZE * scale;
+		rect.bottom = rect.top + bitmap.getHeight() * CELL_SIZE * scale;
+		canvas.drawBitmap(bitmap, null, rect, paint);
+	}
+
+	/**
+	 * Apakah area layar sudah tercakup oleh grid yang terakhir diminta.
+	 */
+	private boolean isRequested(int zoom, int viewX, int viewY, int width, int height) {
+		return zoom == requestZoom && viewX >= requestX && viewY >= requestY
+				&& viewX + width <= requestX + requestWidth
+				&& viewY + height <= requestY + requestHeight;
+	}
+
+	/**
+	 * Buat ulang grid untuk area baru pada background thread.
+	 *
+	 * @param zoom Level zoom
+	 * @param x Posisi kiri area (pixel dunia)
+	 * @param y Posisi atas area (pixel dunia)
+	 * @param width Lebar area (pixels)
+	 * @param height Tinggi area (pixels)
+	 */
+	private void requestGrid(final int zoom, final int x, final int y, final int width,
+			final int height) {
+		requestZoom = zoom;
+		requestX = x;
+		requestY = y;
+		requestWidth = width;
+		requestHeight = height;
+
+		final int generation = ++requestGeneration;
+		workerHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				// Permintaan yang sudah digantikan permintaan lain tidak perlu dihitung
+				if (generation != requestGeneration) return;
+				grid.reset(zoom, x, y, width / CELL_SIZE + 1, height / CELL_SIZE + 1);
+				publish();
+			}
+		});
+	}
+
+	/**
+	 * Buat bitmap dari grid dan tampilkan pada UI thread. Dijalankan pada
+	 * background thread.
+	 */
+	private void publish() {
+		final Bitmap newBitmap;
+		try {
+			newBitmap = grid.createBitmap();
+		} catch (OutOfMemoryError e) {
+			Log.w(TAG, "Memory tidak cukup untuk heatmap");
+			return;
+		}
+		if (newBitmap == null) return;
+
+		final int zoom = grid.zoom;
+		final int x = grid.originX;
+		final int y = grid.originY;
+		uiHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (bitmap != null) bitmap.recycle();
+				bitmap = newBitmap;
+				bitmapZoom = zoom;
+				bitmapX = x;
+				bitmapY = y;
+				mapView.invalidate();
+			}
+		});
+	}
+
+	/**
+	 * Buat tabel warna heatmap dari palet tema: intensitas rendah berwarna seperti
+	 * gempa kecil dan transparan, intensitas tinggi seperti gempa besar.
+	 *
+	 * @param palette Warna setiap tingkat magnitudo
+	 * @return Warna untuk intensitas 0-255
+	 */
+	private static int[] createColors(int[] palette) {
+		int[] colors = new int[256];
+		for (int i = 1; i < colors.length; i++) {
+			float position = i / 255f * (palette.length - 1);
+			int from = (int) position;
+			int to = Math.min(from + 1, palette.length - 1);
+			float t = position - from;
+
+			int red = mix((palette[from] >> 16) & 0xff, (palette[to] >> 16) & 0xff, t);
+			int green = mix((palette[from] >> 8) & 0xff, (palette[to] >> 8) & 0xff, t);
+			int blue = mix(palette[from] & 0xff, palette[to] & 0xff, t);
+			int alpha = i * MAX_ALPHA / 255;
+			colors[i] = (alpha << 24) | (red << 16) | (green << 8) | blue;
+		}
+		return colors;
+	}
+
+	private static int mix(int from, int to, float t) {
+		return (int) (from + (to - from) * t);
+	}
+
+	/**
+	 * Grid kepadatan gempa beserta hasil blur dan warnanya. Hanya digunakan oleh
+	 * background thread.
+	 */
+	private class Grid {
+		private final float[] kernel = new float[KERNEL_RADIUS + 1];
+
+		int zoom = -1;
+		int originX;
+		int originY;
+		private int columns = 0;
+		private int rows = 0;
+
+		private float[] values = new float[0];
+		private float[] horizontal = new float[0];
+		private float[] blurred = new float[0];
+		private int[] pixels = new int[0];
+
+		// Gempa yang sudah masuk ke grid
+		private QuakeStore.Snapshot quakes = QuakeStore.Snapshot.EMPTY;
+
+		// Area sel yang berubah sejak blur terakhir
+		private int dirtyLeft, dirtyTop, dirtyRight, dirtyBottom;
+
+		Grid() {
+			// Gaussian dengan puncak 1, nilai sel gempa tunggal sama dengan bobotnya
+			float sigma = KERNEL_RADIUS / 2f;
+			for (int i = 0; i <= KERNEL_RADIUS; i++) {
+				kernel[i] = (float) Math.exp(-(i * i) / (2 * sigma * sigma));
+			}
+		}
+
+		/**
+		 * Buat ulang grid untuk area baru, semua gempa dimasukkan ulang.
+		 */
+		void reset(int zoom, int originX, int originY, int columns, int rows) {
+			this.zoom = zoom;
+			this.originX = originX;
+			this.originY = originY;
+			this.columns = columns;
+			this.rows = rows;
+
+			int size = columns * rows;
+			values = new float[size];
+			horizontal = new float[size];
+			blurred = new float[size];
+			pixels = new int[size];
+
+			clearDirty();
+			for (int row = 0; row < quakes.size; row++) {
+				add(quakes, row, 1);
+			}
+			// Seluruh area dihitung, termasuk sel yang kosong
+			dirtyLeft = 0;
+			dirtyTop = 0;
+			dirtyRight = columns - 1;
+			dirtyBottom = rows - 1;
+			blur();
+			Log.d(TAG, "Grid " + columns + "x" + rows + " pada zoom " + zoom + " dibuat ulang");
+		}
+
+		/**
+		 * Perbarui grid dengan data gempa baru. Hanya gempa yang berubah yang
+		 * dimasukkan atau dikeluarkan dari grid.
+		 *
+		 * @return True jika grid berubah
+		 */
+		boolean update(QuakeStore.Snapshot newQuakes) {
+			QuakeStore.Snapshot oldQuakes = quakes;
+			if (newQuakes == oldQuakes) return false;
+			clearDirty();
+
+			int changed = 0;
+			for (int row = 0; row < newQuakes.size; row++) {
+				int oldRow = oldQuakes.indexOfId(newQuakes.getId(row));
+				if (oldRow >= 0 
+						&& oldQuakes.getLatitudeE6(oldRow) == newQuakes.getLatitudeE6(row)
+						&& oldQuakes.getLongitudeE6(oldRow) == newQuakes.getLongitudeE6(row)
+						&& oldQuakes.getMagnitude(oldRow) == newQuakes.getMagnitude(row)) {
+					continue;
+				}
+				if (oldRow >= 0) add(oldQuakes, oldRow, -1);
+				add(newQuakes, row, 1);
+				changed++;
+			}
+			// Gempa lama yang sudah tidak ada pada data baru
+			for (int oldRow = 0; oldRow < oldQuakes.size; oldRow++) {
+				if (newQuakes.indexOfId(oldQuakes.getId(oldRow)) >= 0) continue;
+				add(oldQuakes, oldRow, -1);
+				changed++;
+			}
+			quakes = newQuakes;
+
+			if (changed == 0 || zoom < 0) return false;
+			Log.d(TAG, changed + " gempa berubah");
+			if (dirtyLeft > dirtyRight) return false;
+			blur();
+			return true;
+		}
+
+		/**
+		 * Tambahkan (atau kurangi) bobot gempa pada sel-nya, termasuk salinannya
+		 * jika area grid lebih lebar dari dunia.
+		 */
+		private void add(QuakeStore.Snapshot snapshot, int quakeRow, int sign) {
+			if (zoom < 0) return;
+
+			long worldSize = (long) TILE_SIZE << zoom;
+			double worldX = QuakeQuadtree.mercatorX(snapshot.getLongitudeE6(quakeRow)) * worldSize;
+			double worldY = QuakeQuadtree.mercatorY(snapshot.getLatitudeE6(quakeRow)) * worldSize;
+
+			int row = (int) Math.floor((worldY - originY) / CELL_SIZE);
+			if (row < 0 || row >= rows) return;
+
+			float value = sign * getWeight(snapshot.getMagnitude(quakeRow));
+			double x = worldX - Math.ceil((worldX - originX) / worldSize) * worldSize;
+			for (; x < originX + (long) columns * CELL_SIZE; x += worldSize) {
+				int column = (int) Math.floor((x - originX) / CELL_SIZE);
+				if (column < 0 || column >= columns) continue;
+
+				values[row * columns + column] += value;
+				dirtyLeft = Math.min(dirtyLeft, column);
+				dirtyRight = Math.max(dirtyRight, column);
+				dirtyTop = Math.min(dirtyTop, row);
+				dirtyBottom = Math.max(dirtyBottom, row);
+			}
+		}
+
+		private float getWeight(float magnitude) {
+			if (weight == WEIGHT_ENERGY) {
+				// Energi naik 10^1.5 setiap kenaikan satu magnitudo
+				return (float) Math.pow(10, 1.5 * (magnitude - 4));
+			}
+			return 1;
+		}
+
+		private void clearDirty() {
+			dirtyLeft = Integer.MAX_VALUE;
+			dirtyTop = Integer.MAX_VALUE;
+			dirtyRight = Integer.MIN_VALUE;
+			dirtyBottom = Integer.MIN_VALUE;
+		}
+
+		/**
+		 * Blur dan warnai ulang area di sekitar sel yang berubah. Hasil blur
+		 * horizontal disimpan, sehingga baris yang tidak berubah tidak dihitung
+		 * ulang.
+		 */
+		private void blur() {
+			int left = Math.max(0, dirtyLeft - KERNEL_RADIUS);
+			int right = Math.min(columns - 1, dirtyRight + KERNEL_RADIUS);
+
+			// Blur horizontal hanya berubah pada baris yang berubah
+			for (int row = dirtyTop; row <= dirtyBottom; row++) {
+				int offset = row * columns;
+				for (int column = left; column <= right; column++) {
+					float sum = values[offset + column] * kernel[0];
+					for (int i = 1; i <= KERNEL_RADIUS; i++) {
+						if (column - i >= 0) sum += values[offset + column - i] * kernel[i];
+						if (column + i < columns) sum += values[offset + column + i] * kernel[i];
+					}
+					horizontal[offset + column] = sum;
+				}
+			}
+
+			// Blur vertikal berubah sampai radius kernel dari baris yang berubah
+			int top = Math.max(0, dirtyTop - KERNEL_RADIUS);
+			int bottom = Math.min(rows - 1, dirtyBottom + KERNEL_RADIUS);
+			float scale = (weight == WEIGHT_ENERGY) ? 30f : 3f;
+			for (int row = top; row <= bottom; row++) {
+				for (int column = left; column <= right; column++) {
+					int index = row * columns + column;
+					float sum = horizontal[index] * kernel[0];
+					for (int i = 1; i <= KERNEL_RADIUS; i++) {
+						if (row - i >= 0) sum += horizontal[index - i * columns] * kernel[i];
+						if (row + i < rows) sum += horizontal[index + i * columns] * kernel[i];
+					}
+					blurred[index] = sum;
+
+					// Intensitas 0-1 tanpa nilai maksimal global, sehingga sel
+					// lain tidak perlu diwarnai ulang
+					double intensity = (sum > 0) ? 1 - Math.exp(-sum / scale) : 0;
+					pixels[index] = colors[(int) (intensity * 255)];
+				}
+			}
+			clearDirty();
+		}
+
+		/**
+		 * Buat bitmap dari warna setiap sel, satu pixel untuk setiap sel.
+		 *
+		 * @return Bitmap, atau null jika grid belum dibuat
+		 */
+		Bitmap createBitmap() {
+			if (columns == 0 || rows == 0) return null;
+			return Bitmap.createBitmap(pixels, columns, rows, Bitmap.Config.ARGB_8888);
+		}
+	}
+}
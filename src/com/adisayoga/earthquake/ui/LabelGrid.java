@@ -0,0 +1,141 @@
+/*
+ * Copyright 2011 Adi Sayoga.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.adisayoga.earthquake.ui;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Spatial hash untuk menempatkan teks tanpa saling tumpang tindih. Setiap
+ * kotak teks yang sudah ditempatkan dicatat pada semua sel yang disentuhnya,
+ * sehingga pemeriksaan tabrakan hanya membandingkan kotak pada sel yang sama,
+ * bukan semua kotak.
+ * <p>
+ * Koordinat dalam pixel dunia pada satu level zoom. Dunia berulang ke arah
+ * horizontal, kotak di dekat garis 180 derajat juga dibandingkan dengan kotak
+ * di sisi sebaliknya.
+ *
+ * @author Adi Sayoga
+ */
+public class LabelGrid {
+
+	/** Ukuran sel (pixels) */
+	private static final int CELL_SIZE = 64;
+
+	private long worldSize = 0;
+	private long columns = 1;
+
+	// Setiap kotak: tengah x, tengah y, setengah lebar, setengah tinggi
+	private float[] boxes = new float[64];
+	private int size = 0;
+
+	private final Map<Long, int[]> cells = new HashMap<Long, int[]>();
+
+	/**
+	 * Hapus semua kotak dan mulai lagi pada level zoom tertentu.
+	 *
+	 * @param worldSize Ukuran dunia pada level zoom (pixels)
+	 */
+	public void reset(long worldSize) {
+		this.worldSize = worldSize;
+		this.columns = Math.max(1, (worldSize + CELL_SIZE - 1) / CELL_SIZE);
+		size = 0;
+		cells.clear();
+	}
+
+	/**
+	 * Tempatkan kotak jika tidak menabrak kotak yang sudah ada.
+	 *
+	 * @param centerX Tengah kotak (pixel dunia)
+	 * @param centerY Tengah kotak (pixel dunia)
+	 * @param halfWidth Setengah lebar kotak
+	 * @param halfHeight Setengah tinggi kotak
+	 * @return True jika kotak ditempatkan, false jika menabrak
+	 */
+	public boolean reserve(float centerX, float centerY, float halfWidth, float halfHeight) {
+		long minColumn = (long) Math.floor((centerX - halfWidth) / CELL_SIZE);
+		long maxColumn = (long) Math.floor((centerX + halfWidth) / CELL_SIZE);
+		long minRow = (long) Math.floor((centerY - halfHeight) / CELL_SIZE);
+		long maxRow = (long) Math.floor((centerY + halfHeight) / CELL_SIZE);
+
+		for (long row = minRow; row <= maxRow; row++) {
+			for (long column = minColumn; column <= maxColumn; column++) {
+				int[] cell = cells.get(getKey(column, row));
+				if (cell == null) continue;
+
+				// Elemen pertama adalah jumlah kotak pada sel
+				for (int i = 1; i <= cell[0]; i++) {
+					if (intersects(cell[i], centerX, centerY, halfWidth, halfHeight)) return false;
+				}
+			}
+		}
+
+		int box = add(centerX, centerY, halfWidth, halfHeight);
+		for (long row = minRow; row <= maxRow; row++) {
+			for (long column = minColumn; column <= maxColumn; column++) {
+				addToCell(getKey(column, row), box);
+			}
+		}
+		return true;
+	}
+
+	private boolean intersects(int box, float centerX, float centerY, float halfWidth,
+			float halfHeight) {
+		int offset = box * 4;
+		double dx = Math.abs(boxes[offset] - centerX);
+		// Jarak horizontal terpendek, dunia berulang setiap worldSize
+		if (worldSize > 0) {
+			dx %= worldSize;
+			dx = Math.min(dx, worldSize - dx);
+		}
+		double dy = Math.abs(boxes[offset + 1] - centerY);
+		return dx < boxes[offset + 2] + halfWidth && dy < boxes[offset + 3] + halfHeight;
+	}
+
+	private int add(float centerX, float centerY, float halfWidth, float halfHeight) {
+		if ((size + 1) * 4 > boxes.length) {
+			float[] newBoxes = new float[boxes.length * 2];
+			System.arraycopy(boxes, 0, newBoxes, 0, boxes.length);
+			boxes = newBoxes;
+		}
+		int offset = size * 4;
+		boxes[offset] = centerX;
+		boxes[offset + 1] = centerY;
+		boxes[offset + 2] = halfWidth;
+		boxes[offset + 3] = halfHeight;
+		return size++;
+	}
+
+	private void addToCell(long key, int box) {
+		int[] cell = cells.get(key);
+		if (cell == null) {
+			cell = new int[4];
+		} else if (cell[0] + 1 >= cell.length) {
+			int[] newCell = new int[cell.length * 2];
+			System.arraycopy(cell, 0, newCell, 0, cell.length);
+			cell = newCell;
+		}
+		cell[++cell[0]] = box;
+		cells.put(key, cell);
+	}
+
+	private long getKey(long column, long row) {
+		// Kolom dinormalisasi agar kedua sisi garis 180 derajat berada pada sel yang sama
+		long wrapped = ((column % columns) + columns) % columns;
+		return (row << 32) ^ wrapped;
+	}
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2011 Adi Sayoga.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.adisayoga.earthquake.ui;
+
+import java.util.Arrays;
+
+/**
+ * Index spasial titik gempa berupa grid latitude/longitude dengan ukuran sel
+ * tetap. Isi setiap sel disimpan berurutan pada satu array (seperti counting
+ * sort), sehingga index dibuat dalam O(n) dan query area hanya mengunjungi
+ * sel yang beririsan dengan area tersebut.
+ * <p>
+ * Posisi titik yang dikembalikan adalah posisi pada array yang diberikan saat
+ * index dibuat. Index tidak berubah setelah dibuat.
+ *
+ * @author Adi Sayoga
+ */
+public class QuakeGrid {
+
+	/** Ukuran sel dalam derajat * 1E6 */
+	private static final int CELL_SIZE_E6 = 2000000;
+
+	private static final int ROWS = 180000000 / CELL_SIZE_E6;
+	private static final int COLUMNS = 360000000 / CELL_SIZE_E6;
+
+	private final int[] latE6;
+	private final int[] lonE6;
+
+	// Isi sel ke-c adalah cellItems[cellStart[c]] s/d cellItems[cellStart[c + 1] - 1]
+	private final int[] cellStart = new int[ROWS * COLUMNS + 1];
+	private final int[] cellItems;
+
+	/**
+	 * Buat index dari posisi titik gempa.
+	 *
+	 * @param latE6 Latitude setiap titik (derajat * 1E6)
+	 * @param lonE6 Longitude setiap titik (derajat * 1E6)
+	 */
+	public QuakeGrid(int[] latE6, int[] lonE6) {
+		this.latE6 = latE6;
+		this.lonE6 = lonE6;
+		this.cellItems = new int[latE6.length];
+
+		int[] cells = new int[latE6.length];
+		for (int i = 0; i < latE6.length; i++) {
+			cells[i] = cellOf(latE6[i], lonE6[i]);
+			cellStart[cells[i] + 1]++;
+		}
+		for (int c = 0; c < ROWS * COLUMNS; c++) {
+			cellStart[c + 1] += cellStart[c];
+		}
+
+		// Urutan titik dalam setiap sel tetap sesuai urutan array
+		int[] next = new int[ROWS * COLUMNS];
+		System.arraycopy(cellStart, 0, next, 0, next.length);
+		for (int i = 0; i < cells.length; i++) {
+			cellItems[next[cells[i]]++] = i;
+		}
+	}
+
+	/**
+	 * Buat index setelah sebagian titik berubah. Titik yang tidak berubah
+	 * dipindahkan dari sel pada index sebelumnya, hanya sel titik baru yang
+	 * dihitung.
+	 *
+	 * @param latE6 Latitude setiap titik (derajat * 1E6)
+	 * @param lonE6 Longitude setiap titik (derajat * 1E6)
+	 * @param previous Index sebelumnya
+	 * @param previousIndex Posisi setiap titik pada index sebelumnya, -1 jika
+	 *        titik baru atau posisinya berubah. Titik yang tidak berubah harus
+	 *        tetap dalam urutan yang sama
+	 */
+	public QuakeGrid(int[] latE6, int[] lonE6, QuakeGrid previous, int[] previousIndex) {
+		this.latE6 = latE6;
+		this.lonE6 = lonE6;
+		this.cellItems = new int[latE6.length];
+
+		// Titik baru diurutkan berdasarkan sel, kemudian posisi
+		long[] added = new long[countAdded(previousIndex)];
+		int count = 0;
+		for (int i = 0; i < previousIndex.length; i++) {
+			if (previousIndex[i] >= 0) continue;
+			added[count++] = ((long) cellOf(latE6[i], lonE6[i]) << 32) | i;
+		}
+		Arrays.sort(added);
+
+		// Isi sel sebelumnya tetap urut setelah posisinya diganti, cukup digabung
+		// dengan titik baru pada sel yang sama
+		int[] newIndex = invert(previousIndex, previous.size());
+		int position = 0;
+		int a = 0;
+		for (int c = 0; c < ROWS * COLUMNS; c++) {
+			cellStart[c] = position;
+			for (int p = previous.cellStart[c]; p < previous.cellStart[c + 1]; p++) {
+				int index = newIndex[previous.cellItems[p]];
+				if (index < 0) continue;
+				while (a < added.length && (int) (added[a] >>> 32) == c
+						&& (int) added[a] < index) {
+					cellItems[position++] = (int) added[a++];
+				}
+				cellItems[position++] = index;
+			}
+			while (a < added.length && (int) (added[a] >>> 32) == c) {
+				cellItems[position++] = (int) added[a++];
+			}
+		}
+		cellStart[ROWS * COLUMNS] = position;
+	}
+
+	/**
+	 * Jumlah titik baru, yaitu yang tidak mempunyai posisi sebelumnya.
+	 */
+	static int countAdded(int[] previousIndex) {
+		int count = 0;
+		for (int i = 0; i < previousIndex.length; i++) {
+			if (previousIndex[i] < 0) count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Kebalikan dari previousIndex: posisi baru setiap titik sebelumnya, -1 jika
+	 * titik tersebut dihapus atau berubah.
+	 */
+	static int[] invert(int[] previousIndex, int previousSize) {
+		int[] result = new int[previousSize];
+		Arrays.fill(result, -1);
+		for (int i = 0; i < previousIndex.length; i++) {
+			if (previousIndex[i] >= 0) result[previousIndex[i]] = i;
+		}
+		return result;
+	}
+
+	/**
+	 * Jumlah titik pada index.
+	 *
+	 * @return Jumlah titik
+	 */
+	public int size() {
+		return cellItems.length;
+	}
+
+	/**
+	 * Mendapatkan titik pada sel yang beririsan dengan area. Titik di tepi sel
+	 * bisa sedikit di luar area, sehingga pemanggil tetap harus memeriksa
+	 * posisinya. Jika minLonE6 lebih besar dari maxLonE6, area dianggap melewati
+	 * garis 180 derajat.
+	 *
+	 * @param minLatE6 Latitude minimal
+	 * @param minLonE6 Longitude minimal, -180 s/d 180 derajat
+	 * @param maxLatE6 Latitude maksimal
+	 * @param maxLonE6 Longitude maksimal, -180 s/d 180 derajat
+	 * @param out Array untuk menampung posisi titik, minimal sebesar {@link #size()}
+	 * @return Jumlah titik yang ditulis ke out
+	 */
+	public int query(int minLatE6, int minLonE6, int maxLatE6, int maxLonE6, int[] out) {
+		int minRow = rowOf(minLatE6);
+		int maxRow = rowOf(maxLatE6);
+		int minColumn = columnOf(minLonE6);
+		int maxColumn = columnOf(maxLonE6);
+
+		int count = 0;
+		if (minLonE6 <= maxLonE6) {
+			count = queryCells(minRow, maxRow, minColumn, maxColumn, out, count);
+		} else if (maxColumn >= minColumn) {
+			// Kedua sisi berada pada kolom yang sama, seluruh kolom terlihat
+			count = queryCells(minRow, maxRow, 0, COLUMNS - 1, out, count);
+		} else {
+			count = queryCells(minRow, maxRow, minColumn, COLUMNS - 1, out, count);
+			count = queryCells(minRow, maxRow, 0, maxColumn, out, count);
+		}
+		return count;
+	}
+
+	private int queryCells(int minRow, int maxRow, int minColumn, int maxColumn,
+			int[] out, int count) {
+		for (int row = minRow; row <= maxRow; row++) {
+			int rowStart = row * COLUMNS;
+			// Sel yang bersebelahan dalam satu baris isinya juga bersebelahan
+			int from = cellStart[rowStart + minColumn];
+			int to = cellStart[rowStart + maxColumn + 1];
+			System.arraycopy(cellItems, from, out, count, to - from);
+			count += to - from;
+		}
+		return count;
+	}
+
+	/**
+	 * Cari titik terdekat dari suatu posisi dalam radius tertentu. Radius arah
+	 * latitude dan longitude dipisahkan agar pemanggil dapat menyesuaikannya
+	 * dengan skala proyeksi peta (misalnya sentuhan dalam pixel). Jika ada
+	 * beberapa titik dengan jarak sama, yang dipilih adalah posisi terbesar
+	 * (yang digambar paling depan).
+	 *
+	 * @param latE6 Latitude posisi
+	 * @param lonE6 Longitude posisi
+	 * @param radiusLatE6 Radius dalam arah latitude
+	 * @param radiusLonE6 Radius dalam arah longitude
+	 * @return Posisi titik terdekat, atau -1 jika tidak ada
+	 */
+	public int nearest(int latE6, int lonE6, int radiusLatE6, int radiusLonE6) {
+		if (radiusLatE6 <= 0 || radiusLonE6 <= 0) return -1;
+
+		int minRow = rowOf(latE6 - radiusLatE6);
+		int maxRow = rowOf(latE6 + radiusLatE6);
+		int columns = radiusLonE6 / CELL_SIZE_E6 + 1;
+		int fromColumn = columnOf(lonE6) - columns;
+		int toColumn = columnOf(lonE6) + columns;
+		if (toColumn - fromColumn + 1 >= COLUMNS) {
+			fromColumn = 0;
+			toColumn = COLUMNS - 1;
+		}
+
+		int nearest = -1;
+		double nearestDistance = Double.MAX_VALUE;
+		for (int row = minRow; row <= maxRow; row++) {
+			for (int k = fromColumn; k <= toColumn; k++) {
+				int cell = row * COLUMNS + (k + COLUMNS) % COLUMNS;
+
+				for (int j = cellStart[cell]; j < cellStart[cell + 1]; j++) {
+					int i = cellItems[j];
+					double dLat = (double) (this.latE6[i] - latE6) / radiusLatE6;
+					double dLon = (double) wrapLongitude(this.lonE6[i] - lonE6) / radiusLonE6;
+					double distance = dLat * dLat + dLon * dLon;
+					if (distance > 1) continue;
+
+					if (distance < nearestDistance
+							|| (distance == nearestDistance && i > nearest)) {
+						nearest = i;
+						nearestDistance = distance;
+					}
+				}
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * Normalisasi selisih longitude ke -180 s/d 180 derajat.
+	 *
+	 * @param lonE6 Longitude (derajat * 1E6)
+	 * @return Longitude yang sudah dinormalisasi
+	 */
+	public static int wrapLongitude(long lonE6) {
+		lonE6 %= 360000000L;
+		if (lonE6 >= 180000000L) lonE6 -= 360000000L;
+		if (lonE6 < -180000000L) lonE6 += 360000000L;
+		return (int) lonE6;
+	}
+
+	private static int cellOf(int latE6, int lonE6) {
+		return rowOf(latE6) * COLUMNS + columnOf(lonE6);
+	}
+
+	private static int rowOf(int latE6) {
+		int row = (latE6 + 90000000) / CELL_SIZE_E6;
+		if (row < 0) return 0;
+		return (row >= ROWS) ? ROWS - 1 : row;
+	}
+
+	private static int columnOf(int lonE6) {
+		// Tidak dinormalisasi, agar 180 derajat tetap menjadi kolom terakhir
+		int column = (lonE6 + 180000000) / CELL_SIZE_E6;
+		if (column < 0) return 0;
+		return (column >= COLUMNS) ? COLUMNS - 1 : column;
+	}
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright 2011 Adi Sayoga.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.adisayoga.earthquake.ui;
+
+import java.util.Arrays;
+
+import com.google.android.maps.GeoPoint;
+
+/**
+ * Quadtree titik gempa pada proyeksi Mercator, digunakan untuk mengelompokkan
+ * (cluster) titik gempa pada zoom kecil. Quadtree disimpan secara linear: titik
+ * diurutkan berdasarkan kode Morton sel terkecil, sehingga semua titik pada satu
+ * node (pada kedalaman berapapun) letaknya bersebelahan.
+ * <p>
+ * Node pada kedalaman d membagi dunia menjadi 2^d x 2^d sel, sama dengan tile
+ * peta pada zoom d. Cluster untuk setiap kedalaman dibuat sekali saat pertama
+ * kali diperlukan dan disimpan sampai quadtree dibuang (data berubah).
+ *
+ * @author Adi Sayoga
+ */
+public class QuakeQuadtree {
+
+	/** Kedalaman maksimal quadtree */
+	public static final int MAX_DEPTH = 8;
+
+	/** Batas latitude proyeksi Mercator pada peta */
+	private static final double MAX_LATITUDE = 85.05112878;
+
+	private final int[] latE6;
+	private final int[] lonE6;
+	private final float[] magnitudes;
+
+	// Posisi titik diurutkan berdasarkan kode Morton, beserta kodenya
+	private final int[] order;
+	private final int[] codes;
+
+	private final Level[] levels = new Level[MAX_DEPTH + 1];
+
+	/**
+	 * Buat quadtree dari posisi titik gempa.
+	 *
+	 * @param latE6 Latitude setiap titik (derajat * 1E6)
+	 * @param lonE6 Longitude setiap titik (derajat * 1E6)
+	 * @param magnitudes Magnitudo setiap titik
+	 */
+	public QuakeQuadtree(int[] latE6, int[] lonE6, float[] magnitudes) {
+		this.latE6 = latE6;
+		this.lonE6 = lonE6;
+		this.magnitudes = magnitudes;
+
+		// Kode di bit atas, posisi di bit bawah: urutan posisi dalam satu sel tetap
+		long[] keys = new long[latE6.length];
+		for (int i = 0; i < keys.length; i++) {
+			int code = morton(cellX(lonE6[i], MAX_DEPTH), cellY(latE6[i], MAX_DEPTH));
+			keys[i] = ((long) code << 32) | i;
+		}
+		Arrays.sort(keys);
+
+		order = new int[keys.length];
+		codes = new int[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			order[i] = (int) keys[i];
+			codes[i] = (int) (keys[i] >>> 32);
+		}
+	}
+
+	/**
+	 * Buat quadtree setelah sebagian titik berubah. Urutan titik yang tidak
+	 * berubah diambil dari quadtree sebelumnya, hanya titik baru yang diurutkan
+	 * lalu digabung.
+	 *
+	 * @param latE6 Latitude setiap titik (derajat * 1E6)
+	 * @param lonE6 Longitude setiap titik (derajat * 1E6)
+	 * @param magnitudes Magnitudo setiap titik
+	 * @param previous Quadtree sebelumnya
+	 * @param previousIndex Posisi setiap titik pada quadtree sebelumnya, -1 jika
+	 *        titik baru atau posisinya berubah. Titik yang tidak berubah harus
+	 *        tetap dalam urutan yang sama
+	 */
+	public QuakeQuadtree(int[] latE6, int[] lonE6, float[] magnitudes,
+			QuakeQuadtree previous, int[] previousIndex) {
+		this.latE6 = latE6;
+		this.lonE6 = lonE6;
+		this.magnitudes = magnitudes;
+
+		long[] added = new long[QuakeGrid.countAdded(previousIndex)];
+		int count = 0;
+		for (int i = 0; i < previousIndex.length; i++) {
+			if (previousIndex[i] >= 0) continue;
+			int code = morton(cellX(lonE6[i], MAX_DEPTH), cellY(latE6[i], MAX_DEPTH));
+			added[count++] = ((long) code << 32) | i;
+		}
+		Arrays.sort(added);
+
+		// Kunci titik lama tetap urut setelah posisinya diganti
+		int[] newIndex = QuakeGrid.invert(previousIndex, previous.order.length);
+		order = new int[latE6.length];
+		codes = new int[latE6.length];
+		int position = 0;
+		int a = 0;
+		for (int p = 0; p < previous.order.length; p++) {
+			int index = newIndex[previous.order[p]];
+			if (index < 0) continue;
+			long key = ((long) previous.codes[p] << 32) | index;
+			for (; a < added.length && added[a] < key; a++, position++) {
+				order[position] = (int) added[a];
+				codes[position] = (int) (added[a] >>> 32);
+			}
+			order[position] = index;
+			codes[position++] = previous.codes[p];
+		}
+		for (; a < added.length; a++, position++) {
+			order[position] = (int) added[a];
+			codes[position] = (int) (added[a] >>> 32);
+		}
+	}
+
+	/**
+	 * Mendapatkan cluster pada kedalaman tertentu. Cluster dibuat saat pertama
+	 * kali diminta, selanjutnya hasil yang sama dikembalikan.
+	 *
+	 * @param depth Kedalaman, 0 s/d {@link #MAX_DEPTH}
+	 * @return Cluster pada kedalaman tersebut
+	 */
+	public synchronized Level getLevel(int depth) {
+		depth = Math.max(0, Math.min(MAX_DEPTH, depth));
+		if (levels[depth] == null) levels[depth] = new Level(depth);
+		return levels[depth];
+	}
+
+	/**
+	 * Kumpulan cluster pada satu kedalaman quadtree, satu cluster untuk setiap
+	 * sel yang berisi titik gempa. Cluster diurutkan berdasarkan kode Morton sel.
+	 */
+	public class Level {
+		public final int depth;
+		/** Jumlah cluster */
+		public final int size;
+
+		/** Kode Morton sel setiap cluster */
+		private final int[] cellCodes;
+		/** Jumlah titik setiap cluster */
+		public final int[] counts;
+		/** Posisi titik dengan magnitudo terbesar pada setiap cluster */
+		public final int[] top;
+		/** Posisi rata-rata titik pada setiap cluster */
+		public final GeoPoint[] points;
+		/** Teks jumlah titik setiap cluster */
+		public final String[] labels;
+
+		private Level(int depth) {
+			this.depth = depth;
+			int shift = 2 * (MAX_DEPTH - depth);
+
+			int size = 0;
+			for (int i = 0; i < codes.length; i++) {
+				if (i == 0 || (codes[i] >>> shift) != (codes[i - 1] >>> shift)) size++;
+			}
+			this.size = size;
+			cellCodes = new int[size];
+			counts = new int[size];
+			top = new int[size];
+			points = new GeoPoint[size];
+			labels = new String[size];
+
+			int c = -1;
+			long sumLat = 0, sumLon = 0;
+			for (int i = 0; i < codes.length; i++) {
+				int index = order[i];
+				int code = codes[i] >>> shift;
+				if (c < 0 || code != cellCodes[c]) {
+					if (c >= 0) finish(c, sumLat, sumLon);
+					c++;
+					cellCodes[c] = code;
+					top[c] = index;
+					sumLat = sumLon = 0;
+				}
+
+				counts[c]++;
+				sumLat += latE6[index];
+				sumLon += lonE6[index];
+				// Magnitudo sama, yang terbaru (posisi terbesar) yang dipilih
+				if (magnitudes[index] > magnitudes[top[c]]
+						|| (magnitudes[index] == magnitudes[top[c]] && index > top[c])) {
+					top[c] = index;
+				}
+			}
+			if (c >= 0) finish(c, sumLat, sumLon);
+		}
+
+		private void finish(int c, long sumLat, long sumLon) {
+			if (counts[c] == 1) {
+				points[c] = new GeoPoint(latE6[top[c]], lonE6[top[c]]);
+			} else {
+				points[c] = new GeoPoint((int) (sumLat / counts[c]), (int) (sumLon / counts[c]));
+			}
+			labels[c] = String.valueOf(counts[c]);
+		}
+
+		/**
+		 * Mendapatkan cluster pada sel yang beririsan dengan area. Jika minLonE6
+		 * lebih besar dari maxLonE6, area dianggap melewati garis 180 derajat.
+		 *
+		 * @param minLatE6 Latitude minimal
+		 * @param minLonE6 Longitude minimal, -180 s/d 180 derajat
+		 * @param maxLatE6 Latitude maksimal
+		 * @param maxLonE6 Longitude maksimal, -180 s/d 180 derajat
+		 * @param out Array untuk menampung posisi cluster, minimal sebesar {@link #size}
+		 * @return Jumlah cluster yang ditulis ke out
+		 */
+		public int query(int minLatE6, int minLonE6, int maxLatE6, int maxLonE6, int[] out) {
+			int cells = 1 << depth;
+			int minX = cellX(minLonE6, depth);
+			int maxX = cellX(maxLonE6, depth);
+			if (minLonE6 > maxLonE6) maxX += cells;
+			if (maxX - minX + 1 > cells) {
+				minX = 0;
+				maxX = cells - 1;
+			}
+			// Sumbu y Mercator mengarah ke selatan
+			int minY = cellY(maxLatE6, depth);
+			int maxY = cellY(minLatE6, depth);
+
+			// Jumlah sel yang diperiksa sebanding dengan luas layar, bukan jumlah data
+			int count = 0;
+			for (int y = minY; y <= maxY; y++) {
+				for (int x = minX; x <= maxX; x++) {
+					int c = Arrays.binarySearch(cellCodes, morton(x % cells, y));
+					if (c >= 0) out[count++] = c;
+				}
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * Kolom sel pada kedalaman tertentu.
+	 *
+	 * @param lonE6 Longitude (derajat * 1E6)
+	 * @param depth Kedalaman
+	 * @return Kolom sel
+	 */
+	private static int cellX(int lonE6, int depth) {
+		int cells = 1 << depth;
+		return Math.max(0, Math.min(cells - 1, (int) (mercatorX(lonE6) * cells)));
+	}
+
+	/**
+	 * Baris sel pada kedalaman tertentu (proyeksi Mercator, 0 di utara).
+	 *
+	 * @param latE6 Latitude (derajat * 1E6)
+	 * @param depth Kedalaman
+	 * @return Baris sel
+	 */
+	private static int cellY(int latE6, int depth) {
+		int cells = 1 << depth;
+		return Math.max(0, Math.min(cells - 1, (int) (mercatorY(latE6) * cells)));
+	}
+
+	/**
+	 * Posisi x pada proyeksi Mercator, 0 di -180 derajat dan 1 di 180 derajat.
+	 *
+	 * @param lonE6 Longitude (derajat * 1E6)
+	 * @return Posisi x, 0 s/d 1
+	 */
+	public static double mercatorX(int lonE6) {
+		return (lonE6 + 180000000L) / 360000000.0;
+	}
+
+	/**
+	 * Posisi y pada proyeksi Mercator, 0 di utara dan 1 di selatan.
+	 *
+	 * @param latE6 Latitude (derajat * 1E6)
+	 * @return Posisi y, 0 s/d 1
+	 */
+	public static double mercatorY(int latE6) {
+		double latitude = Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latE6 / 1E6));
+		double sin = Math.sin(Math.toRadians(latitude));
+		return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+	}
+
+	/**
+	 * Kebalikan dari {@link #mercatorX(int)}.
+	 *
+	 * @param x Posisi x, 0 s/d 1
+	 * @return Longitude (derajat * 1E6)
+	 */
+	public static int longitudeE6(double x) {
+		return (int) Math.round(x * 360000000.0 - 180000000.0);
+	}
+
+	/**
+	 * Kebalikan dari {@link #mercatorY(int)}.
+	 *
+	 * @param y Posisi y, 0 s/d 1
+	 * @return Latitude (derajat * 1E6)
+	 */
+	public static int latitudeE6(double y) {
+		double latitude = Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * y))));
+		return (int) Math.round(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude)) * 1E6);
+	}
+
+	/**
+	 * Gabungkan bit kolom dan baris menjadi kode Morton.
+	 *
+	 * @param x Kolom
+	 * @param y Baris
+	 * @return Kode Morton
+	 */
+	private static int morton(int x, int y) {
+		int code = 0;
+		for (int bit = 0; bit < MAX_DEPTH; bit++) {
+			code |= ((x >> bit) & 1) << (2 * bit);
+			code |= ((y >> bit) & 1) << (2 * bit + 1);
+		}
+		return code;
+	}
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2011 Adi Sayoga.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.adisayoga.earthquake.ui;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Cache bitmap tile layer gempa untuk setiap (zoom, tile). Tile digambar oleh
+ * {@link QuakeTileRenderer} pada background thread, dan selama peta digeser
+ * tile yang sudah ada cukup di-blit. Jumlah memory dibatasi, tile yang paling
+ * lama tidak digunakan dibuang lebih dulu (LRU).
+ * <p>
+ * Tile menjadi tidak berlaku saat renderer diganti (data atau tema berubah)
+ * atau alpha gempa berubah. Jika hanya sebagian gempa yang berubah, hanya tile
+ * di sekitar gempa tersebut yang digambar ulang. Tile lama tetap ditampilkan sampai tile penggantinya
+ * selesai digambar, sehingga peta tidak berkedip.
+ * <p>
+ * Semua method harus dipanggil dari UI thread.
+ *
+ * @author Adi Sayoga
+ */
+public class QuakeTileCache {
+
+	private static final String TAG = "QuakeTileCache";
+
+	/** Batas memory maksimal untuk semua tile (byte) */
+	private static final int MAX_BYTES = 8 * 1024 * 1024;
+
+	private static final int TILE_SIZE = QuakeTileRenderer.TILE_SIZE;
+
+	private final int maxBytes;
+	private int bytes = 0;
+
+	// Diurutkan berdasarkan akses terakhir, yang paling lama di awal
+	private final Map<Long, Tile> tiles = new LinkedHashMap<Long, Tile>(32, 0.75f, true);
+	private final Set<Long> pending = new HashSet<Long>();
+
+	private final Handler uiHandler = new Handler(Looper.getMainLooper());
+	private final HandlerThread workerThread;
+	private final Handler workerHandler;
+	private final OnTileReadyListener listener;
+
+	private QuakeTileRenderer renderer = null;
+	private int generation = 0;
+
+	public QuakeTileCache(OnTileReadyListener listener) {
+		this.listener = listener;
+
+		// Maksimal 1/8 dari memory aplikasi
+		maxBytes = (int) Math.min(MAX_BYTES, Runtime.getRuntime().maxMemory() / 8);
+
+		workerThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+		workerThread.start();
+		workerHandler = new Handler(workerThread.getLooper());
+	}
+
+	/**
+	 * Ganti renderer (data atau tema berubah). Semua tile menjadi tidak berlaku.
+	 *
+	 * @param renderer Renderer baru
+	 */
+	public void setRenderer(QuakeTileRenderer renderer) {
+		this.renderer = renderer;
+		invalidate();
+	}
+
+	/**
+	 * Ganti renderer karena sebagian gempa berubah. Tile yang tidak tersentuh
+	 * gempa yang berubah (posisi lama maupun baru) tetap berlaku, sehingga
+	 * biayanya sebanding dengan jumlah perubahan, bukan jumlah gempa.
+	 *
+	 * @param renderer Renderer baru, atribut gambarnya harus dihitung pada waktu
+	 *        yang sama dengan renderer lama
+	 * @param latE6 Latitude gempa yang berubah
+	 * @param lonE6 Longitude gempa yang berubah
+	 * @param dmgMeters Radius daerah yang merasakan gempa yang berubah (meter)
+	 * @param count Jumlah gempa yang berubah
+	 */
+	public void setRenderer(QuakeTileRenderer renderer, int[] latE6, int[] lonE6,
+			int[] dmgMeters, int count) {
+		int oldGeneration = generation;
+		setRenderer(renderer);
+
+		for (Map.Entry<Long, Tile> entry : tiles.entrySet()) {
+			Tile tile = entry.getValue();
+			if (tile.generation != oldGeneration) continue;
+
+			long key = entry.getKey();
+			int zoom = getZoom(key);
+			int tileX = getTileX(key);
+			int tileY = getTileY(key);
+			boolean touched = false;
+			for (int i = 0; i < count && !touched; i++) {
+				touched = QuakeTileRenderer.touchesTile(latE6[i], lonE6[i], dmgMeters[i],
+						zoom, tileX, tileY);
+			}
+			if (!touched) tile.generation = generation;
+		}
+	}
+
+	/**
+	 * Tandai semua tile tidak berlaku, tile akan digambar ulang saat diminta.
+	 */
+	public void invalidate() {
+		generation++;
+		pending.clear();
+		workerHandler.removeCallbacksAndMessages(null);
+	}
+
+	/**
+	 * Mendapatkan bitmap tile. Jika tile belum ada atau tidak berlaku lagi, tile
+	 * akan digambar pada background thread dan listener dipanggil setelah selesai.
+	 *
+	 * @param zoom Level zoom
+	 * @param tileX Kolom tile, 0 s/d 2^zoom - 1
+	 * @param tileY Baris tile, 0 s/d 2^zoom - 1
+	 * @return Bitmap tile (mungkin tile lama), atau null jika belum ada
+	 */
+	public Bitmap getTile(int zoom, int tileX, int tileY) {
+		long key = getKey(zoom, tileX, tileY);
+		Tile tile = tiles.get(key);
+		if (tile == null || tile.generation != generation) {
+			requestTile(key, zoom, tileX, tileY);
+		}
+		return (tile != null) ? tile.bitmap : null;
+	}
+
+	/**
+	 * Hitung ulang alpha gempa pada background thread, jika ada yang berubah
+	 * semua tile tidak berlaku lagi.
+	 */
+	public void refresh() {
+		final QuakeTileRenderer renderer = this.renderer;
+		if (renderer == null) return;
+
+		final int requestGeneration = generation;
+		workerHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (!renderer.refresh(System.currentTimeMillis())) return;
+
+				uiHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						if (requestGeneration != generation) return;
+						invalidate();
+						listener.onTilesInvalidated();
+					}
+				});
+			}
+		});
+	}
+
+	private void requestTile(final long key, final int zoom, final int tileX,
+			final int tileY) {
+		final QuakeTileRenderer renderer = this.renderer;
+		if (renderer == null || pending.contains(key)) return;
+		pending.add(key);
+
+		final int requestGeneration = generation;
+		workerHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				final Bitmap bitmap;
+				try {
+					bitmap = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+				} catch (OutOfMemoryError e) {
+					Log.w(TAG, "Memory tidak cukup untuk tile " + zoom + "/" + tileX + "/" + tileY);
+					// Hapus dari pending agar tile diminta lagi saat digambar berikutnya,
+					// jika tidak tile tetap kosong sampai invalidate()
+					uiHandler.post(new Runnable() {
+						@Override
+						public void run() {
+							if (requestGeneration == generation) pending.remove(key);
+						}
+					});
+					return;
+				}
+				renderer.renderTile(new Canvas(bitmap), zoom, tileX, tileY);
+
+				uiHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						if (requestGeneration != generation) {
+							bitmap.recycle();
+							return;
+						}
+						pending.remove(key);
+						putTile(key, new Tile(bitmap, requestGeneration));
+						listener.onTileReady(zoom, tileX, tileY);
+					}
+				});
+			}
+		});
+	}
+
+	private void putTile(long key, Tile tile) {
+		Tile old = tiles.put(key, tile);
+		if (old != null) {
+			bytes -= old.getBytes();
+			old.bitmap.recycle();
+		}
+		bytes += tile.getBytes();
+
+		Iterator<Tile> iterator = tiles.values().iterator();
+		while (bytes > maxBytes && iterator.hasNext()) {
+			Tile eldest = iterator.next();
+			if (eldest == tile) break;
+			bytes -= eldest.getBytes();
+			eldest.bitmap.recycle();
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Hapus semua tile dan hentikan background thread. Objek ini tidak dapat
+	 * digunakan lagi.
+	 */
+	public void release() {
+		invalidate();
+		workerThread.quit();
+		for (Tile tile : tiles.values()) {
+			tile.bitmap.recycle();
+		}
+		tiles.clear();
+		bytes = 0;
+	}
+
+	private static long getKey(int zoom, int tileX, int tileY) {
+		return ((long) zoom << 56) | ((long) tileX << 28) | tileY;
+	}
+
+	private static int getZoom(long key) {
+		return (int) (key >>> 56);
+	}
+
+	private static int getTileX(long key) {
+		return (int) ((key >>> 28) & 0xfffffff);
+	}
+
+	private static int getTileY(long key) {
+		return (int) (key & 0xfffffff);
+	}
+
+	/**
+	 * Bitmap tile beserta generasi renderer yang menggambarnya.
+	 */
+	private static class Tile {
+		final Bitmap bitmap;
+		int generation;
+
+		Tile(Bitmap bitmap, int generation) {
+			this.bitmap = bitmap;
+			this.generation = generation;
+		}
+
+		int getBytes() {
+			return bitmap.getRowBytes() * bitmap.getHeight();
+		}
+	}
+
+	/**
+	 * Listener saat tile selesai digambar.
+	 */
+	public interface OnTileReadyListener {
+
+		/**
+		 * Dipanggil pada UI thread, area tile tersebut perlu digambar ulang.
+		 *
+		 * @param zoom Level zoom
+		 * @param tileX Kolom tile
+		 * @param tileY Baris tile
+		 */
+		public void onTileReady(int zoom, int tileX, int tileY);
+
+		/**
+		 * Dipanggil pada UI thread saat semua tile tidak berlaku lagi, seluruh
+		 * peta perlu digambar ulang.
+		 */
+		public void onTilesInvalidated();
+	}
+}
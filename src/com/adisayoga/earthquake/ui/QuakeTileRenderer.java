@@ -0,0 +1,492 @@
+/*
+ * Copyright 2011 Adi Sayoga.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.adisayoga.earthquake.ui;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.graphics.Canvas;
+
+import com.adisayoga.earthquake.wrapper.DrawValues;
+import com.google.android.maps.GeoPoint;
+
+/**
+ * Menggambar titik gempa ke satu tile peta (256 x 256 pixels pada proyeksi
+ * Mercator). Posisi dihitung sendiri tanpa Projection dari MapView, sehingga
+ * dapat dijalankan pada background thread. Objek ini hanya boleh digunakan oleh
+ * satu thread, data gempa (grid dan quadtree) tidak berubah setelah dibuat.
+ * <p>
+ * Teks magnitudo ditempatkan lebih dulu untuk seluruh dunia pada setiap level
+ * zoom ({@link LabelGrid}), teks gempa dengan magnitudo lebih besar didahulukan
+ * dan teks yang menabrak tidak digambar. Hasilnya sama untuk semua tile pada zoom
+ * tersebut, sehingga teks di tepi tile tidak terpotong sebelah.
+ *
+ * @author Adi Sayoga
+ */
+public class QuakeTileRenderer {
+
+	/** Ukuran tile (pixels) */
+	public static final int TILE_SIZE = 256;
+
+	/** Pojok kiri atas dunia pada proyeksi Mercator */
+	public static final GeoPoint WORLD_ORIGIN = new GeoPoint(85051128, -180000000);
+
+	static final int TEXT_SIZE = 10;
+	static final int PADDING = 2;
+
+	/** Di bawah zoom ini titik gempa digambar sebagai cluster */
+	static final int CLUSTER_MAX_ZOOM = 6;
+
+	/** Ukuran sel cluster 256 >> 2 = 64 pixels, kedalaman quadtree = zoom + 2 */
+	static final int CLUSTER_CELL_SHIFT = 2;
+
+	/** Tambahan radius tanda cluster dibanding tanda satu gempa (pixels) */
+	private static final int CLUSTER_PADDING = 4;
+
+	/** Batas di luar tile yang masih dapat tergambar oleh tanda dan teks (pixels) */
+	private static final int MARK_MARGIN = 32;
+
+	/** Radius tanda gempa pada zoom besar (pixels) */
+	private static final int ZOOMED_MARK_RADIUS = 4;
+
+	/** Keliling bumi di ekuator (meter) */
+	private static final double EQUATOR_METERS = 40075016.686;
+
+	private final int[] latE6;
+	private final int[] lonE6;
+	private final QuakeGrid grid;
+	private final QuakeQuadtree quadtree;
+	private final DrawValues values;
+
+	private final int[] visible;
+
+	// Teks yang boleh digambar pada setiap zoom, dibuat saat pertama kali diperlukan
+	private final LabelGrid labelGrid = new LabelGrid();
+	private final Map<Integer, boolean[]> tileLabels = new HashMap<Integer, boolean[]>();
+	private boolean[] labels;
+
+	// Teks pada renderRange, digunakan lagi selama area dan gempa bertekst pada
+	// area sama. Posisi teks yang ditempatkan dicatat untuk dihapus lagi
+	private boolean[] rangeLabels;
+	private int[] rangePlaced;
+	private int rangePlacedCount = 0;
+	private int rangeTextFrom = -1;
+	private int rangeTextTo = -1;
+	private int rangeZoom;
+	private long rangeOriginX;
+	private long rangeOriginY;
+	private int rangeWidth;
+	private int rangeHeight;
+
+	/**
+	 * @param latE6 Latitude setiap gempa (derajat * 1E6)
+	 * @param lonE6 Longitude setiap gempa (derajat * 1E6)
+	 * @param grid Index grid gempa
+	 * @param quadtree Quadtree gempa
+	 * @param values Atribut gambar gempa, hanya digunakan oleh renderer ini
+	 */
+	public QuakeTileRenderer(int[] latE6, int[] lonE6, QuakeGrid grid,
+			QuakeQuadtree quadtree, DrawValues values) {
+		this.latE6 = latE6;
+		this.lonE6 = lonE6;
+		this.grid = grid;
+		this.quadtree = quadtree;
+		this.values = values;
+		this.visible = new int[latE6.length];
+	}
+
+	/**
+	 * Hitung ulang alpha dan teks gempa sesuai waktu saat ini.
+	 *
+	 * @param now Waktu saat ini
+	 * @return True jika ada yang berubah, tile yang sudah digambar tidak sesuai lagi
+	 */
+	public boolean refresh(long now) {
+		if (!values.refresh(now)) return false;
+		tileLabels.clear();
+		return true;
+	}
+
+	/**
+	 * Hitung ulang alpha dan teks sebagian gempa terhadap waktu acuan tertentu.
+	 * Biayanya sebanding dengan jumlah gempa yang masuk, keluar, atau pindah
+	 * tingkat alpha, bukan panjang rentang.
+	 *
+	 * @param now Waktu acuan umur gempa
+	 * @param from Posisi gempa pertama
+	 * @param to Posisi setelah gempa terakhir
+	 */
+	public void refresh(long now, int from, int to) {
+		values.refresh(now, from, to);
+	}
+
+	/**
+	 * Gambar semua gempa yang terlihat pada tile. Canvas harus berukuran
+	 * {@link #TILE_SIZE} dan sudah dikosongkan.
+	 *
+	 * @param canvas Canvas tile
+	 * @param zoom Level zoom
+	 * @param tileX Kolom tile, 0 s/d 2^zoom - 1
+	 * @param tileY Baris tile, 0 s/d 2^zoom - 1
+	 */
+	public void renderTile(Canvas canvas, int zoom, int tileX, int tileY) {
+		if (latE6.length == 0) return;
+
+		long worldSize = (long) TILE_SIZE << zoom;
+		long originX = (long) tileX * TILE_SIZE;
+		long originY = (long) tileY * TILE_SIZE;
+
+		// Lingkaran daerah yang merasakan gempa bisa jauh lebih besar dari tile
+		int margin = (int) Math.min(worldSize, Math.max(MARK_MARGIN,
+				metersToPixels(values.getMaxDmgMeters(), worldSize) + MARK_MARGIN));
+
+		int minLat = QuakeQuadtree.latitudeE6((double) (originY + TILE_SIZE + margin) / worldSize);
+		int maxLat = QuakeQuadtree.latitudeE6((double) (originY - margin) / worldSize);
+		int minLon, maxLon;
+		if (TILE_SIZE + 2L * margin >= worldSize) {
+			minLon = -180000000;
+			maxLon = 180000000;
+		} else {
+			minLon = QuakeGrid.wrapLongitude(QuakeQuadtree.longitudeE6(
+					(double) (originX - margin) / worldSize));
+			maxLon = QuakeGrid.wrapLongitude(QuakeQuadtree.longitudeE6(
+					(double) (originX + TILE_SIZE + margin) / worldSize));
+		}
+
+		labels = getTileLabels(zoom, worldSize);
+		if (zoom < CLUSTER_MAX_ZOOM) {
+			renderClusters(canvas, zoom, worldSize, originX, originY,
+					minLat, minLon, maxLat, maxLon);
+			return;
+		}
+
+		int count = grid.query(minLat, minLon, maxLat, maxLon, visible);
+		// Gempa terbaru digambar paling depan
+		Arrays.sort(visible, 0, count);
+		for (int i = 0; i < count; i++) {
+			int index = visible[i];
+			float x = toTileX(lonE6[index], worldSize, originX);
+			float y = (float) (QuakeQuadtree.mercatorY(latE6[index]) * worldSize - originY);
+			drawQuake(canvas, x, y, zoom, worldSize, TILE_SIZE, TILE_SIZE, index);
+		}
+	}
+
+	/**
+	 * Gambar gempa pada rentang posisi tertentu (misalnya gempa dalam satu
+	 * rentang waktu) ke area sembarang, tanpa cluster. Jumlah gempa yang
+	 * diperiksa sama dengan panjang rentang, bukan jumlah semua gempa. Harus
+	 * didahului {@link #refresh(long, int, int)} dengan rentang yang sama.
+	 * <p>
+	 * Teks hanya ditempatkan ulang jika area berubah, atau ada gempa bertekst
+	 * yang masuk atau keluar rentang di dalam area.
+	 *
+	 * @param canvas Canvas, posisi (0, 0) adalah pojok kiri atas area
+	 * @param zoom Level zoom
+	 * @param originX Posisi kiri area (pixel dunia)
+	 * @param originY Posisi atas area (pixel dunia)
+	 * @param width Lebar area
+	 * @param height Tinggi area
+	 * @param from Posisi gempa pertama
+	 * @param to Posisi setelah gempa terakhir
+	 */
+	public void renderRange(Canvas canvas, int zoom, long originX, long originY,
+			int width, int height, int from, int to) {
+		long worldSize = (long) TILE_SIZE << zoom;
+		long centerX = originX + width / 2;
+
+		long minX = originX - MARK_MARGIN;
+		long maxX = originX + width + MARK_MARGIN;
+		long minY = originY - MARK_MARGIN;
+		long maxY = originY + height + MARK_MARGIN;
+		int textFrom = values.getRangeTextFrom();
+		int textTo = values.getRangeTextTo();
+		if (rangeTextFrom < 0 || zoom != rangeZoom || originX != rangeOriginX
+				|| originY != rangeOriginY || width != rangeWidth || height != rangeHeight
+				|| hasTextInArea(rangeTextFrom, textFrom, worldSize, minX, maxX, minY, maxY)
+				|| hasTextInArea(rangeTextTo, textTo, worldSize, minX, maxX, minY, maxY)) {
+			placeRangeLabels(zoom, worldSize, minX, maxX, minY, maxY, from, to);
+			rangeZoom = zoom;
+			rangeOriginX = originX;
+			rangeOriginY = originY;
+			rangeWidth = width;
+			rangeHeight = height;
+		}
+		rangeTextFrom = textFrom;
+		rangeTextTo = textTo;
+		labels = rangeLabels;
+
+		for (int index = from; index < to; index++) {
+			// Salinan dunia yang dipilih adalah yang paling dekat dengan tengah area
+			float x = toTileX(lonE6[index], worldSize, centerX) + width / 2;
+			float y = (float) (QuakeQuadtree.mercatorY(latE6[index]) * worldSize - originY);
+			drawQuake(canvas, x, y, zoom, worldSize, width, height, index);
+		}
+	}
+
+	private void renderClusters(Canvas canvas, int zoom, long worldSize, long originX,
+			long originY, int minLat, int minLon, int maxLat, int maxLon) {
+		QuakeQuadtree.Level level = quadtree.getLevel(zoom + CLUSTER_CELL_SHIFT);
+		int count = level.query(minLat, minLon, maxLat, maxLon, visible);
+		for (int i = 0; i < count; i++) {
+			int c = visible[i];
+			int pointLat = level.points[c].getLatitudeE6();
+			int pointLon = level.points[c].getLongitudeE6();
+			float x = toTileX(pointLon, worldSize, originX);
+			float y = (float) (QuakeQuadtree.mercatorY(pointLat) * worldSize - originY);
+
+			if (level.counts[c] == 1) {
+				drawQuake(canvas, x, y, zoom, worldSize, TILE_SIZE, TILE_SIZE, level.top[c]);
+			} else {
+				drawCluster(canvas, x, y, level.top[c], level.labels[c]);
+			}
+		}
+	}
+
+	/**
+	 * Apakah gempa pada posisi tertentu dapat tergambar pada tile, baik sebagai
+	 * titik, teks, lingkaran daerah yang merasakan gempa, maupun bagian dari
+	 * cluster. Digunakan untuk menentukan tile yang harus digambar ulang saat
+	 * sebagian data berubah.
+	 *
+	 * @param latE6 Latitude gempa
+	 * @param lonE6 Longitude gempa
+	 * @param dmgMeters Radius daerah yang merasakan gempa (meter)
+	 * @param zoom Level zoom tile
+	 * @param tileX Kolom tile
+	 * @param tileY Baris tile
+	 * @return True jika tile harus digambar ulang
+	 */
+	static boolean touchesTile(int latE6, int lonE6, int dmgMeters, int zoom,
+			int tileX, int tileY) {
+		long worldSize = (long) TILE_SIZE << zoom;
+		float reach = Math.max(MARK_MARGIN, metersToPixels(dmgMeters, worldSize) + MARK_MARGIN);
+		// Tanda cluster berada di posisi rata-rata, bisa di mana saja pada sel gempa
+		if (zoom < CLUSTER_MAX_ZOOM) reach += TILE_SIZE >> CLUSTER_CELL_SHIFT;
+
+		// Posisi relatif terhadap tengah tile
+		long centerX = (long) tileX * TILE_SIZE + TILE_SIZE / 2;
+		float x = toTileX(lonE6, worldSize, centerX);
+		double y = QuakeQuadtree.mercatorY(latE6) * worldSize - (long) tileY * TILE_SIZE
+				- TILE_SIZE / 2;
+		return Math.abs(x) <= TILE_SIZE / 2 + reach && Math.abs(y) <= TILE_SIZE / 2 + reach;
+	}
+
+	/**
+	 * Teks yang boleh digambar pada tile di level zoom tertentu, ditempatkan
+	 * untuk seluruh dunia sekali saja sampai teks gempa berubah.
+	 */
+	private boolean[] getTileLabels(int zoom, long worldSize) {
+		if (zoom < CLUSTER_MAX_ZOOM) return null;
+
+		boolean[] result = tileLabels.get(zoom);
+		if (result == null) {
+			result = new boolean[latE6.length];
+			placeLabels(result, null, zoom, worldSize, 0, latE6.length, Long.MIN_VALUE,
+					Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE);
+			tileLabels.put(zoom, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Apakah ada gempa bertekst di dalam area antara dua urutan gempa bertekst
+	 * (lihat {@link DrawValues#getTextIndex(int)}), yaitu gempa yang masuk atau
+	 * keluar rentang sejak teks terakhir ditempatkan.
+	 */
+	private boolean hasTextInArea(int a, int b, long worldSize, long minX, long maxX,
+			long minY, long maxY) {
+		long centerX = minX / 2 + maxX / 2;
+		for (int n = Math.min(a, b); n < Math.max(a, b); n++) {
+			if (isInArea(values.getTextIndex(n), worldSize, minX, maxX, minY, maxY, centerX)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Tempatkan ulang teks untuk renderRange. Array teks digunakan lagi, hanya
+	 * teks yang ditempatkan sebelumnya yang dihapus.
+	 */
+	private void placeRangeLabels(int zoom, long worldSize, long minX, long maxX,
+			long minY, long maxY, int from, int to) {
+		if (rangeLabels == null) {
+			rangeLabels = new boolean[latE6.length];
+			rangePlaced = new int[values.getTextCount(latE6.length)];
+		}
+		for (int i = 0; i < rangePlacedCount; i++) {
+			rangeLabels[rangePlaced[i]] = false;
+		}
+
+		rangePlacedCount = placeLabels(rangeLabels, rangePlaced, zoom, worldSize, from, to,
+				minX, maxX, minY, maxY);
+	}
+
+	/**
+	 * Tempatkan teks gempa pada rentang posisi tertentu. Teks diurutkan dari
+	 * magnitudo terbesar (magnitudo sama, yang terbaru), dan teks yang menabrak
+	 * teks sebelumnya dilewati. Hanya gempa yang teksnya dapat ditampilkan yang
+	 * diperiksa, bukan semua gempa pada rentang.
+	 *
+	 * @param result Diisi true untuk setiap posisi gempa yang teksnya boleh digambar
+	 * @param placed Diisi posisi gempa yang teksnya boleh digambar, boleh null
+	 * @param zoom Level zoom
+	 * @param worldSize Ukuran dunia pada zoom ini (pixels)
+	 * @param from Posisi gempa pertama
+	 * @param to Posisi setelah gempa terakhir
+	 * @param minX Batas kiri area (pixel dunia)
+	 * @param maxX Batas kanan area
+	 * @param minY Batas atas area
+	 * @param maxY Batas bawah area
+	 * @return Jumlah teks yang boleh digambar
+	 */
+	private int placeLabels(boolean[] result, int[] placed, int zoom, long worldSize,
+			int from, int to, long minX, long maxX, long minY, long maxY) {
+		if (zoom < CLUSTER_MAX_ZOOM) return 0;
+
+		int textFrom = values.getTextCount(from);
+		int textTo = values.getTextCount(to);
+		long[] candidates = new long[textTo - textFrom];
+		int count = 0;
+		long centerX = minX / 2 + maxX / 2;
+		// Magnitudo teks selalu positif, sehingga urutan bit float sama dengan urutan nilainya
+		for (int n = textFrom; n < textTo; n++) {
+			int index = values.getTextIndex(n);
+			if (values.getText(index) == null) continue;
+			if (!isInArea(index, worldSize, minX, maxX, minY, maxY, centerX)) continue;
+
+			int bits = Float.floatToIntBits(Math.max(0, values.getMagnitude(index)));
+			candidates[count++] = ((long) bits << 32) | index;
+		}
+		Arrays.sort(candidates, 0, count);
+
+		labelGrid.reset(worldSize);
+		int placedCount = 0;
+		for (int i = count - 1; i >= 0; i--) {
+			int index = (int) candidates[i];
+			float halfWidth = values.getTextWidth(index) / 2 + PADDING;
+			float halfHeight = (TEXT_SIZE + PADDING * 2) / 2f;
+
+			// Kotak teks sesuai posisi pada drawQuake
+			float x = (float) (QuakeQuadtree.mercatorX(lonE6[index]) * worldSize);
+			float y = (float) (QuakeQuadtree.mercatorY(latE6[index]) * worldSize)
+					+ ZOOMED_MARK_RADIUS + PADDING * 3 + TEXT_SIZE / 2f;
+			if (labelGrid.reserve(x, y, halfWidth, halfHeight)) {
+				result[index] = true;
+				if (placed != null) placed[placedCount] = index;
+				placedCount++;
+			}
+		}
+		return placedCount;
+	}
+
+	/**
+	 * Apakah posisi gempa berada di dalam area (pixel dunia). Batas kiri
+	 * Long.MIN_VALUE berarti seluruh lebar dunia.
+	 */
+	private boolean isInArea(int index, long worldSize, long minX, long maxX, long minY,
+			long maxY, long centerX) {
+		double y = QuakeQuadtree.mercatorY(latE6[index]) * worldSize;
+		if (y < minY || y > maxY) return false;
+		if (minX == Long.MIN_VALUE) return true;
+
+		double x = toTileX(lonE6[index], worldSize, centerX) + centerX;
+		return x >= minX && x <= maxX;
+	}
+
+	/**
+	 * Posisi x pada tile, dipilih salinan dunia yang paling dekat dengan tile
+	 * (untuk gempa di sekitar garis 180 derajat).
+	 */
+	private static float toTileX(int lonE6, long worldSize, long originX) {
+		double x = QuakeQuadtree.mercatorX(lonE6) * worldSize - originX;
+		if (x < -worldSize / 2) x += worldSize;
+		if (x > worldSize / 2) x -= worldSize;
+		return (float) x;
+	}
+
+	private static float metersToPixels(int meters, long worldSize) {
+		return (float) (meters * worldSize / EQUATOR_METERS);
+	}
+
+	/**
+	 * Gambar titik gempa pada tile.
+	 *
+	 * @param canvas Canvas tile
+	 * @param x Posisi x pada tile
+	 * @param y Posisi y pada tile
+	 * @param zoom Level zoom
+	 * @param worldSize Ukuran dunia pada zoom ini (pixels)
+	 * @param width Lebar tile
+	 * @param height Tinggi tile
+	 * @param index Posisi gempa
+	 */
+	private void drawQuake(Canvas canvas, float x, float y, int zoom, long worldSize,
+			int width, int height, int index) {
+		int markRadius = values.getMarkRadius(index);
+		int radius = (zoom >= 6) ? ZOOMED_MARK_RADIUS : markRadius;
+		int dmgRadius = (int) metersToPixels(values.getDmgMeters(index), worldSize);
+		boolean drawFeel = dmgRadius > 3 * markRadius;
+
+		// Lewati gempa yang tidak menyentuh tile sama sekali
+		int reach = drawFeel ? Math.max(dmgRadius, MARK_MARGIN) : MARK_MARGIN;
+		if (x < -reach || x > width + reach || y < -reach || y > height + reach) return;
+
+		values.prepare(index);
+		canvas.drawCircle(x, y, radius + 2, values.markGlowPaint);
+		canvas.drawCircle(x, y, radius + 1, values.markOutlinePaint);
+		canvas.drawCircle(x, y, radius, values.markPaint);
+
+		if (drawFeel) {
+			canvas.drawCircle(x, y, dmgRadius, values.feelOutlinePaint);
+			canvas.drawCircle(x, y, dmgRadius, values.feelPaint);
+		}
+
+		String text = values.getText(index);
+		if (zoom >= 6 && text != null && labels != null && labels[index]) {
+			float textY = y + radius + TEXT_SIZE + PADDING * 3;
+			canvas.drawText(text, x, textY, values.textOutlinePaint);
+			canvas.drawText(text, x, textY, values.textPaint);
+		}
+	}
+
+	/**
+	 * Gambar tanda cluster, warna dan ukurannya sesuai gempa dengan magnitudo
+	 * terbesar, jumlah gempa ditulis di tengah.
+	 *
+	 * @param canvas Canvas tile
+	 * @param x Posisi x pada tile
+	 * @param y Posisi y pada tile
+	 * @param index Posisi gempa dengan magnitudo terbesar pada cluster
+	 * @param label Jumlah gempa pada cluster
+	 */
+	private void drawCluster(Canvas canvas, float x, float y, int index, String label) {
+		if (x < -MARK_MARGIN || x > TILE_SIZE + MARK_MARGIN) return;
+		if (y < -MARK_MARGIN || y > TILE_SIZE + MARK_MARGIN) return;
+
+		values.prepare(index);
+		int radius = Math.max(values.getMarkRadius(index), TEXT_SIZE) + CLUSTER_PADDING;
+		canvas.drawCircle(x, y, radius + 2, values.markGlowPaint);
+		canvas.drawCircle(x, y, radius + 1, values.markOutlinePaint);
+		canvas.drawCircle(x, y, radius, values.markPaint);
+
+		float textY = y + TEXT_SIZE / 2 - 1;
+		canvas.drawText(label, x, textY, values.textOutlinePaint);
+		canvas.drawText(label, x, textY, values.textPaint);
+	}
+}
@@ -30,7 +30,9 @@ import android.view.ContextThemeWrapper;
 
 import com.adisayoga.earthquake.R;
 import com.adisayoga.earthquake.dto.Unit;
+import com.adisayoga.earthquake.models.GlobeAtlas;
 import com.adisayoga.earthquake.receivers.RefreshReceiver;
+import com.adisayoga.earthquake.services.GlobeAtlasService;
 import com.adisayoga.earthquake.ui.ContactActivity;
 import com.adisayoga.earthquake.ui.ManualLocationActivity;
 import com.adisayoga.earthquake.ui.SocialConnectActivity;
@@ -247,6 +249,15 @@ public class PrefsActivity extends PreferenceActivity implements
 				sendBroadcast(new Intent(RefreshReceiver.CANCEL, null, this, 
 						RefreshReceiver.class));
 			}
+		
+		} else if (key.equals(Prefs.GLOBE_OFFLINE)) {
+			// Atlas dibuat oleh service-nya sendiri, berhenti sendiri jika dinonaktifkan
+			if (prefs.isGlobeOffline()) {
+				startService(new Intent(GlobeAtlas.ACTION_BUILD, null, this, 
+						GlobeAtlasService.class));
+			} else {
+				GlobeAtlas.getInstance(this).delete();
+			}
 		}
 		
 		setResult(prefsResult);
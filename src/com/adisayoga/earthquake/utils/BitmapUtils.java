@@ -16,14 +16,17 @@
  
 package com.adisayoga.earthquake.utils;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.PorterDuff.Mode;
@@ -77,6 +80,132 @@ public class BitmapUtils {
 		}
 	}
 	
+	/**
+	 * Download data gambar dari URL tanpa men-decode-nya, sehingga ukuran gambar
+	 * dapat diperiksa lebih dulu (lihat {@link #decodeSampled(byte[], int, int)}).
+	 * 
+	 * @param url Url gambar
+	 * @return Data gambar, atau null jika gagal
+	 */
+	public static byte[] download(URL url) {
+		InputStream is = null;
+		try {
+			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			connection.setConnectTimeout(30 * 1000); // 30 detik
+			connection.setReadTimeout(30 * 1000);    // 30 detik
+			
+			if (connection.getResponseCode() != 200) { 
+				// Koneksi gagal
+				Log.e(TAG, "Koneksi ke " + url.toString() + " gagal, response code: " 
+						+ connection.getResponseCode());
+				return null;
+			}
+			
+			is = connection.getInputStream();
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int count;
+			while ((count = is.read(buffer)) != -1) {
+				out.write(buffer, 0, count);
+			}
+			return out.toByteArray();
+			
+		} catch (IOException e) {
+			Log.e(TAG, "Gagal membaca gambar " + e.getMessage(), e);
+			return null;
+			
+		} finally {
+			try { if (is != null) is.close(); } catch (IOException e) {}
+		}
+	}
+	
+	/**
+	 * Decode gambar dengan ukuran diperkecil (kelipatan 2) sehingga tidak jauh 
+	 * lebih besar dari ukuran yang diperlukan. Gambar ukuran penuh tidak pernah
+	 * dibuat di memory.
+	 * 
+	 * @param data Data gambar
+	 * @param width Lebar yang diperlukan (pixels)
+	 * @param height Tinggi yang diperlukan (pixels)
+	 * @return Bitmap, atau null jika data tidak valid
+	 */
+	public static Bitmap decodeSampled(byte[] data, int width, int height) {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(data, 0, data.length, options);
+		if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+		
+		int sampleSize = getSampleSize(options, width, height);
+		options = new BitmapFactory.Options();
+		options.inSampleSize = sampleSize;
+		return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+	}
+	
+	/**
+	 * Decode gambar dari buffer (misalnya potongan memory-mapped file) dengan 
+	 * ukuran diperkecil seperti {@link #decodeSampled(byte[], int, int)}. Data 
+	 * dibaca langsung dari buffer tanpa disalin ke array lebih dulu.
+	 * 
+	 * @param data Data gambar, posisi buffer tidak berubah
+	 * @param width Lebar yang diperlukan (pixels)
+	 * @param height Tinggi yang diperlukan (pixels)
+	 * @return Bitmap, atau null jika data tidak valid
+	 */
+	public static Bitmap decodeSampled(ByteBuffer data, int width, int height) {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeStream(new ByteBufferInputStream(data.duplicate()), null, options);
+		if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+		
+		int sampleSize = getSampleSize(options, width, height);
+		options = new BitmapFactory.Options();
+		options.inSampleSize = sampleSize;
+		return BitmapFactory.decodeStream(new ByteBufferInputStream(data.duplicate()), null, 
+				options);
+	}
+	
+	/**
+	 * Kelipatan 2 terbesar yang hasilnya masih tidak lebih kecil dari ukuran 
+	 * yang diperlukan.
+	 */
+	private static int getSampleSize(BitmapFactory.Options options, int width, int height) {
+		int sampleSize = 1;
+		while (options.outWidth / (sampleSize * 2) >= width 
+				&& options.outHeight / (sampleSize * 2) >= height) {
+			sampleSize *= 2;
+		}
+		return sampleSize;
+	}
+	
+	/**
+	 * InputStream yang membaca isi ByteBuffer.
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+		
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+		
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? (buffer.get() & 0xff) : -1;
+		}
+		
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (!buffer.hasRemaining()) return -1;
+			length = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, length);
+			return length;
+		}
+		
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+	
 	/**
 	 * Buat sisi pojok bulat.
 	 * 
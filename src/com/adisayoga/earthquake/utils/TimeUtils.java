@@ -46,6 +46,13 @@ public class TimeUtils {
 	private static final long ONE_MONTH = ONE_DAY * 30;
 	private static final long ONE_YEAR = ONE_DAY * 365;
 	
+	/** Nilai kembalian {@link #parseUsgsDate(char[], int, int)} jika gagal parse */
+	public static final long INVALID_DATE = Long.MIN_VALUE;
+	
+	private static final String[] MONTHS = new String[] { 
+		"jan", "feb", "mar", "apr", "may", "jun", 
+		"jul", "aug", "sep", "oct", "nov", "dec" };
+	
 	private static TimeUtils instance = null;
 	
 	private static String justNow;
@@ -212,4 +219,109 @@ public class TimeUtils {
 			throw e;
 		}
 	}
-}
+	
+	/**
+	 * Parse tanggal dengan format USGS (<code>EEEE, MMMM d, yyyy HH:mm:ss</code>,
+	 * contoh: <code>Tuesday, November 29, 2011 18:35:19</code>) langsung dari 
+	 * array karakter dalam zona waktu UTC.
+	 * <p>
+	 * Method ini tidak menggunakan SimpleDateFormat dan tidak membuat objek baru, 
+	 * sehingga aman dipanggil dari beberapa thread sekaligus. Jika format tidak 
+	 * sesuai, akan mengembalikan {@link #INVALID_DATE} dan pemanggil sebaiknya 
+	 * menggunakan SimpleDateFormat dengan zona waktu UTC.
+	 * <p>
+	 * Hasilnya berbeda dengan {@link #parseDate(String, SimpleDateFormat)} yang
+	 * sebelumnya digunakan untuk feed USGS. Method tersebut mem-parse sebagai waktu
+	 * lokal kemudian menambahkan ZONE_OFFSET dan DST_OFFSET saat aplikasi 
+	 * dijalankan, sehingga waktu gempa pada sisi lain pergantian DST (daylight 
+	 * saving time) bergeser 1 jam. Method ini menghitung UTC yang sebenarnya, 
+	 * jadi pada zona waktu dengan DST waktu gempa tersebut berbeda 1 jam dengan 
+	 * yang tersimpan oleh versi sebelumnya (sampai direvisi oleh feed).
+	 * 
+	 * @param value Array karakter sumber
+	 * @param start Index awal (inklusif)
+	 * @param end Index akhir (eksklusif)
+	 * @return Waktu dalam milisecond (UTC), atau INVALID_DATE
+	 */
+	public static long parseUsgsDate(char[] value, int start, int end) {
+		// Lewati nama hari sampai ", "
+		int pos = start;
+		while (pos < end && value[pos] != ',') pos++;
+		pos += 2;
+		if (pos >= end || value[pos - 1] != ' ') return INVALID_DATE;
+		
+		// Nama bulan, cukup dibandingkan 3 huruf pertama
+		int monthStart = pos;
+		while (pos < end && value[pos] != ' ') pos++;
+		if (pos - monthStart < 3) return INVALID_DATE;
+		int month = -1;
+		for (int i = 0; i < MONTHS.length; i++) {
+			String name = MONTHS[i];
+			if (Character.toLowerCase(value[monthStart]) == name.charAt(0)
+					&& Character.toLowerCase(value[monthStart + 1]) == name.charAt(1)
+					&& Character.toLowerCase(value[monthStart + 2]) == name.charAt(2)) {
+				month = i + 1;
+				break;
+			}
+		}
+		if (month == -1) return INVALID_DATE;
+		pos++;
+		
+		// Tanggal diikuti ", "
+		int day = 0;
+		int digits = 0;
+		while (pos < end && value[pos] >= '0' && value[pos] <= '9') {
+			day = day * 10 + (value[pos++] - '0');
+			digits++;
+		}
+		if (digits == 0 || digits > 2 || pos + 2 >= end || value[pos] != ',' 
+				|| value[pos + 1] != ' ') return INVALID_DATE;
+		pos += 2;
+		
+		// Tahun diikuti spasi, kemudian HH:mm:ss
+		int year = 0;
+		digits = 0;
+		while (pos < end && value[pos] >= '0' && value[pos] <= '9') {
+			year = year * 10 + (value[pos++] - '0');
+			digits++;
+		}
+		if (digits != 4 || end - pos != 9 || value[pos] != ' ' || value[pos + 3] != ':' 
+				|| value[pos + 6] != ':') return INVALID_DATE;
+		int hour = parseTwoDigits(value, pos + 1);
+		int minute = parseTwoDigits(value, pos + 4);
+		int second = parseTwoDigits(value, pos + 7);
+		if (hour < 0 || minute < 0 || second < 0) return INVALID_DATE;
+		
+		long days = daysFromCivil(year, month, day);
+		return (((days * 24 + hour) * 60 + minute) * 60 + second) * ONE_SECOND;
+	}
+	
+	/**
+	 * Parse 2 digit angka.
+	 * 
+	 * @return Angka, atau -1 jika bukan angka
+	 */
+	private static int parseTwoDigits(char[] value, int pos) {
+		char tens = value[pos];
+		char ones = value[pos + 1];
+		if (tens < '0' || tens > '9' || ones < '0' || ones > '9') return -1;
+		return (tens - '0') * 10 + (ones - '0');
+	}
+	
+	/**
+	 * Jumlah hari sejak 1970-01-01 untuk tanggal kalender Gregorian.
+	 * 
+	 * @param year Tahun
+	 * @param month Bulan (1-12)
+	 * @param day Tanggal (1-31)
+	 * @return Jumlah hari
+	 */
+	private static long daysFromCivil(int year, int month, int day) {
+		year -= (month <= 2) ? 1 : 0;
+		long era = (year >= 0 ? year : year - 399) / 400;
+		long yearOfEra = year - era * 400;
+		long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+}
\ No newline at end of file
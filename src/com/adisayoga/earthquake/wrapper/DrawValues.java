@@ -16,6 +16,10 @@
 
 package com.adisayoga.earthquake.wrapper;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
 import android.app.AlarmManager;
 import android.graphics.Color;
 import android.graphics.Paint;
@@ -26,8 +30,17 @@ import android.graphics.Typeface;
 import com.adisayoga.earthquake.dto.EarthquakeTheme;
 
 /**
- * Class helper berisi objek Paint digunakan untuk menggambar titik gempa
- * pada peta.
+ * Class helper berisi objek Paint dan atribut gambar setiap titik gempa pada
+ * peta. Warna, radius, dan teks dihitung sekali saat data di-load, sedangkan
+ * alpha (yang bergantung pada umur gempa) dikelompokkan menjadi beberapa
+ * tingkat dan hanya dihitung ulang setiap {@link #REFRESH_INTERVAL}. Dengan
+ * begitu {@link #prepare(int)} pada loop gambar tidak melakukan alokasi
+ * maupun parsing.
+ * <p>
+ * Paint dimiliki oleh objek ini, bukan static, sehingga setiap overlay (atau
+ * thread) harus menggunakan objek DrawValues-nya sendiri. Atribut yang tidak
+ * berubah (warna, radius, teks) dapat digunakan bersama dengan
+ * {@link #DrawValues(DrawValues)}, hanya Paint dan tingkat alpha yang disalin.
  * 
  * @author Adi Sayoga
  */
@@ -35,28 +48,199 @@ public class DrawValues {
 	private static final long AGE = AlarmManager.INTERVAL_DAY * 3;
 	private static final float MIN_MAGNITUDE = 4;
 	
-	public static final Paint markPaint = new Paint();
-	public static final Paint markGlowPaint = new Paint();
-	public static final Paint markOutlinePaint = new Paint();
-	public static final Paint feelPaint = new Paint();
-	public static final Paint feelOutlinePaint = new Paint();
+	/** Jumlah tingkat alpha */
+	private static final int ALPHA_LEVELS = 16;
+	
+	/** Jumlah kelas umur: lebih dari AGE, kemudian setiap tingkat alpha */
+	private static final int AGE_CLASSES = ALPHA_LEVELS + 1;
 	
-	public static final Paint textPaint = new Paint();
-	public static final Paint textOutlinePaint = new Paint();
+	/** Interval perhitungan ulang tingkat alpha dan teks */
+	public static final long REFRESH_INTERVAL = 60 * 1000;
 	
-	public static String text = "";
-	public static int markRadius = 0;
-	public static int dmgMeters = 0;
+	// Alpha setiap paint untuk setiap tingkat alpha
+	private static final int[] DEFAULT_ALPHA = new int[ALPHA_LEVELS];
+	private static final int[] MARK_ALPHA = new int[ALPHA_LEVELS];
+	private static final int[] FEEL_ALPHA = new int[ALPHA_LEVELS];
 	
 	static {
+		for (int level = 0; level < ALPHA_LEVELS; level++) {
+			float alpha = level * 255f / (ALPHA_LEVELS - 1);
+			DEFAULT_ALPHA[level] = (int) ((alpha * 205 / 255) + 50); // 50-255 -> 0-205 + 50
+			MARK_ALPHA[level] = (int) ((alpha * 90 / 255) + 10);     // 10-100 -> 0-90 + 10
+			FEEL_ALPHA[level] = (int) ((alpha * 40 / 255) + 10);     // 10-50  -> 0-40 + 10
+		}
+	}
+	
+	public final Paint markPaint = new Paint();
+	public final Paint markGlowPaint = new Paint();
+	public final Paint markOutlinePaint = new Paint();
+	public final Paint feelPaint = new Paint();
+	public final Paint feelOutlinePaint = new Paint();
+	
+	public final Paint textPaint = new Paint();
+	public final Paint textOutlinePaint = new Paint();
+	
+	private final int textSize;
+	
+	// Atribut setiap gempa, sesuai posisi pada array data gempa. Hanya tingkat
+	// alpha dan teks yang terlihat yang diubah setelah dibuat
+	private final long[] times;
+	private final float[] magnitudes;
+	private final int[] colors;
+	private final int[] markRadius;
+	private final int[] dmgMeters;
+	private final String[] labels;
+	private final byte[] alphaLevels;
+	private final boolean[] textVisible;
+	private final int maxDmgMeters;
+	
+	// Posisi gempa yang teksnya dapat ditampilkan (magnitudo minimal MIN_MAGNITUDE)
+	private final int[] textIndexes;
+	
+	// Lebar teks pada textPaint, jumlah teks magnitudo hanya puluhan
+	private final Map<String, Float> textWidths = new HashMap<String, Float>();
+	
+	private long refreshTime = 0;
+	
+	// Posisi pertama setiap kelas umur pada refresh rentang terakhir, beserta
+	// urutan gempa bertekst yang teksnya ditampilkan
+	private int[] rangeStart = new int[AGE_CLASSES + 1];
+	private int[] nextRangeStart = new int[AGE_CLASSES + 1];
+	private boolean rangeValid = false;
+	private int rangeTextFrom = 0;
+	private int rangeTextTo = 0;
+	
+	/**
+	 * Hitung atribut gambar semua gempa.
+	 * 
+	 * @param theme Tema
+	 * @param textSize Ukuran teks
+	 * @param times Waktu setiap gempa
+	 * @param magnitudes Magnitudo setiap gempa
+	 */
+	public DrawValues(EarthquakeTheme theme, int textSize, long[] times, float[] magnitudes) {
+		this(theme, textSize, times, magnitudes, System.currentTimeMillis());
+	}
+	
+	/**
+	 * Hitung atribut gambar semua gempa, tingkat alpha dihitung terhadap waktu
+	 * tertentu. Digunakan jika hasilnya harus sama dengan DrawValues sebelumnya
+	 * (misalnya tile lama yang tetap digunakan).
+	 * 
+	 * @param theme Tema
+	 * @param textSize Ukuran teks
+	 * @param times Waktu setiap gempa, tidak boleh diubah setelah diberikan
+	 * @param magnitudes Magnitudo setiap gempa, tidak boleh diubah setelah diberikan
+	 * @param now Waktu acuan umur gempa
+	 */
+	public DrawValues(EarthquakeTheme theme, int textSize, long[] times, float[] magnitudes, 
+			long now) {
+		this(theme, textSize, times, magnitudes, now, null, null);
+	}
+	
+	/**
+	 * Hitung atribut gambar gempa setelah sebagian data berubah. Atribut gempa
+	 * yang tidak berubah disalin dari DrawValues sebelumnya, hanya gempa baru
+	 * atau yang direvisi yang dihitung ulang.
+	 * 
+	 * @param theme Tema, harus sama dengan tema DrawValues sebelumnya
+	 * @param textSize Ukuran teks
+	 * @param times Waktu setiap gempa, tidak boleh diubah setelah diberikan
+	 * @param magnitudes Magnitudo setiap gempa, tidak boleh diubah setelah diberikan
+	 * @param now Waktu acuan umur gempa
+	 * @param previous DrawValues sebelumnya, atau null untuk menghitung semua gempa
+	 * @param previousIndex Posisi setiap gempa pada DrawValues sebelumnya, -1 jika
+	 *        gempa baru atau direvisi
+	 */
+	public DrawValues(EarthquakeTheme theme, int textSize, long[] times, float[] magnitudes, 
+			long now, DrawValues previous, int[] previousIndex) {
+		this.textSize = textSize;
+		initPaints(textSize);
+		
+		int size = times.length;
+		this.times = times;
+		this.magnitudes = magnitudes;
+		colors = new int[size];
+		markRadius = new int[size];
+		dmgMeters = new int[size];
+		labels = new String[size];
+		alphaLevels = new byte[size];
+		textVisible = new boolean[size];
+		
+		// Teks magnitudo yang sama digunakan bersama, jumlahnya hanya puluhan
+		Map<Float, String> labelCache = new HashMap<Float, String>();
+		int maxDmgMeters = 0;
+		for (int i = 0; i < size; i++) {
+			int old = (previous == null) ? -1 : previousIndex[i];
+			if (old >= 0) {
+				colors[i] = previous.colors[old];
+				markRadius[i] = previous.markRadius[old];
+				dmgMeters[i] = previous.dmgMeters[old];
+				labels[i] = previous.labels[old];
+			} else {
+				float magnitude = magnitudes[i];
+				colors[i] = theme.getQuakeColor(magnitude) & 0x00ffffff;
+				markRadius[i] = (int) (magnitude * 2);
+				dmgMeters[i] = (int) Math.max(magnitude * 10, Math.pow(magnitude, 3)) * 1000;
+				labels[i] = labelCache.get(magnitude);
+				if (labels[i] == null) {
+					labels[i] = "M" + magnitude;
+					labelCache.put(magnitude, labels[i]);
+				}
+			}
+			maxDmgMeters = Math.max(maxDmgMeters, dmgMeters[i]);
+		}
+		this.maxDmgMeters = maxDmgMeters;
+		textIndexes = findTextIndexes(magnitudes);
+		
+		refresh(now);
+	}
+	
+	/**
+	 * Salinan untuk thread lain. Atribut setiap gempa digunakan bersama tanpa
+	 * disalin, sedangkan Paint dan tingkat alpha dimiliki salinan ini sendiri.
+	 * Harus dibuat sebelum source digunakan oleh thread lain.
+	 * 
+	 * @param source DrawValues yang disalin
+	 */
+	public DrawValues(DrawValues source) {
+		textSize = source.textSize;
+		initPaints(textSize);
+		
+		times = source.times;
+		magnitudes = source.magnitudes;
+		colors = source.colors;
+		markRadius = source.markRadius;
+		dmgMeters = source.dmgMeters;
+		labels = source.labels;
+		maxDmgMeters = source.maxDmgMeters;
+		textIndexes = source.textIndexes;
+		alphaLevels = source.alphaLevels.clone();
+		textVisible = source.textVisible.clone();
+		refreshTime = source.refreshTime;
+	}
+	
+	private static int[] findTextIndexes(float[] magnitudes) {
+		int count = 0;
+		for (int i = 0; i < magnitudes.length; i++) {
+			if (magnitudes[i] >= MIN_MAGNITUDE) count++;
+		}
+		
+		int[] result = new int[count];
+		count = 0;
+		for (int i = 0; i < magnitudes.length; i++) {
+			if (magnitudes[i] >= MIN_MAGNITUDE) result[count++] = i;
+		}
+		return result;
+	}
+	
+	private void initPaints(int textSize) {
 		markPaint.setAntiAlias(true);
 		
-		markGlowPaint.setColor(Color.BLACK);
 		markGlowPaint.setAntiAlias(true);
 		markGlowPaint.setStyle(Paint.Style.STROKE);
 		markGlowPaint.setStrokeWidth(1);
 		
-		markOutlinePaint.setColor(Color.WHITE);
 		markOutlinePaint.setAntiAlias(true);
 		markOutlinePaint.setStyle(Paint.Style.STROKE);
 		markOutlinePaint.setStrokeWidth(1);
@@ -71,6 +255,7 @@ public class DrawValues {
 		textPaint.setColor(0xffffa500);
 		textPaint.setTextAlign(Align.CENTER);
 		textPaint.setTypeface(Typeface.DEFAULT_BOLD);
+		textPaint.setTextSize(textSize);
 		
 		textOutlinePaint.setAntiAlias(true);
 		textOutlinePaint.setColor(Color.BLACK);
@@ -78,89 +263,250 @@ public class DrawValues {
 		textOutlinePaint.setTypeface(Typeface.DEFAULT_BOLD);
 		textOutlinePaint.setStyle(Style.STROKE);
 		textOutlinePaint.setStrokeWidth(3);
+		textOutlinePaint.setTextSize(textSize);
 	}
 	
 	/**
-	 * Atur paint dan teks.
+	 * Hitung ulang tingkat alpha dan teks jika sudah lewat {@link #REFRESH_INTERVAL}
+	 * dari perhitungan sebelumnya. Cukup dipanggil sekali setiap frame.
 	 * 
-	 * @param theme Tema
-	 * @param textSize Ukuran teks
-	 * @param magnitude Magnitudo gempa
-	 * @param time Waktu terjadinya gempa
+	 * @param now Waktu saat ini
+	 * @return True jika ada tingkat alpha atau teks yang berubah
 	 */
-	public static void prepare(EarthquakeTheme theme, int textSize, float magnitude, 
-			long time) {
-		textPaint.setTextSize(textSize);
-		textOutlinePaint.setTextSize(textSize);
+	public boolean refresh(long now) {
+		if (now - refreshTime < REFRESH_INTERVAL && now >= refreshTime) return false;
+		refreshTime = now;
+		rangeValid = false;
 		
-		setColor(theme.getQuakeColor(magnitude));
-		setMagnitude(magnitude);
-		setAlpha(time);
-		setText(magnitude, time);
+		boolean changed = false;
+		for (int i = 0; i < times.length; i++) {
+			long delta = now - times[i];
+			byte alphaLevel = (byte) calculateAlphaLevel(delta, AGE);
+			boolean visible = magnitudes[i] >= MIN_MAGNITUDE && delta <= AGE;
+			
+			if (alphaLevel != alphaLevels[i] || visible != textVisible[i]) {
+				alphaLevels[i] = alphaLevel;
+				textVisible[i] = visible;
+				changed = true;
+			}
+		}
+		return changed;
 	}
 	
 	/**
-	 * Set warna paint.
+	 * Hitung ulang tingkat alpha dan teks sebagian gempa, tanpa memperhatikan
+	 * {@link #REFRESH_INTERVAL}. Digunakan saat waktu yang ditampilkan bukan
+	 * waktu saat ini (misalnya saat memutar ulang data gempa), waktu gempa harus
+	 * urut dari yang terlama.
+	 * <p>
+	 * Karena waktu urut, gempa dengan tingkat alpha yang sama selalu bersebelahan.
+	 * Batas setiap tingkat dicari dengan binary search, dan hanya gempa yang
+	 * pindah tingkat (atau baru masuk rentang) sejak pemanggilan sebelumnya yang
+	 * diubah. Biayanya sebanding dengan jumlah gempa tersebut, bukan panjang
+	 * rentang.
 	 * 
-	 * @param color Warna
+	 * @param now Waktu acuan umur gempa
+	 * @param from Posisi gempa pertama
+	 * @param to Posisi setelah gempa terakhir
 	 */
-	private static void setColor(int color) {
-		markPaint.setColor(color);
-		feelPaint.setColor(color);
-		feelOutlinePaint.setColor(color);
+	public void refresh(long now, int from, int to) {
+		int[] start = nextRangeStart;
+		start[0] = from;
+		start[AGE_CLASSES] = to;
+		for (int ageClass = 1; ageClass < AGE_CLASSES; ageClass++) {
+			start[ageClass] = findAgeClass(now, ageClass, start[ageClass - 1], to);
+		}
+		
+		for (int ageClass = 0; ageClass < AGE_CLASSES; ageClass++) {
+			int begin = start[ageClass];
+			int end = start[ageClass + 1];
+			if (rangeValid) {
+				// Posisi yang sebelumnya sudah berada pada kelas yang sama dilewati
+				setAgeClass(ageClass, begin, Math.min(end, rangeStart[ageClass]));
+				setAgeClass(ageClass, Math.max(begin, rangeStart[ageClass + 1]), end);
+			} else {
+				setAgeClass(ageClass, begin, end);
+			}
+		}
+		nextRangeStart = rangeStart;
+		rangeStart = start;
+		rangeValid = true;
+		
+		// Gempa bertekst pada rentang selalu berurutan pada textIndexes
+		rangeTextFrom = getTextCount(start[1]);
+		rangeTextTo = getTextCount(to);
 	}
 	
 	/**
-	 * Set radius magnitudo
+	 * Urutan gempa bertekst pertama (lihat {@link #getTextIndex(int)}) yang
+	 * teksnya ditampilkan pada {@link #refresh(long, int, int)} terakhir.
 	 * 
-	 * @param magnitude Magnitudo
+	 * @return Urutan gempa
 	 */
-	private static void setMagnitude(float magnitude) {
-		markRadius = (int) (magnitude * 2);
-		dmgMeters = (int) Math.max(magnitude * 10, Math.pow(magnitude, 3)) * 1000;
+	public int getRangeTextFrom() {
+		return rangeTextFrom;
 	}
 	
 	/**
-	 * Set alpha, Gempa yang lebih lama akan lebih transparan
+	 * Urutan setelah gempa bertekst terakhir yang teksnya ditampilkan pada
+	 * {@link #refresh(long, int, int)} terakhir.
 	 * 
-	 * @param time Waktu tejadinya gempa
+	 * @return Urutan gempa
 	 */
-	private static void setAlpha(long time) {
-		float alpha = calculateAlpha(time, AGE);
-		int defaultAlpha = (int) ((alpha * 205 / 255) + 50); // 50-255 -> 0-205 + 50
-		int markAlpha = (int) ((alpha * 90 / 255) + 10);     // 10-100 -> 0-90 + 10
-		int feelAlpha = (int) ((alpha * 40 / 255) + 10);     // 10-50  -> 0-40 + 10
-		
-		markPaint.setAlpha(markAlpha);
-		markGlowPaint.setAlpha(defaultAlpha);
-		markOutlinePaint.setAlpha(defaultAlpha);
-		feelPaint.setAlpha(feelAlpha);
-		feelOutlinePaint.setAlpha(defaultAlpha);
+	public int getRangeTextTo() {
+		return rangeTextTo;
+	}
+	
+	/**
+	 * Posisi pertama pada rentang yang kelas umurnya minimal ageClass.
+	 */
+	private int findAgeClass(long now, int ageClass, int low, int high) {
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (calculateAgeClass(now - times[middle]) >= ageClass) {
+				high = middle;
+			} else {
+				low = middle + 1;
+			}
+		}
+		return low;
+	}
+	
+	private void setAgeClass(int ageClass, int from, int to) {
+		byte alphaLevel = (byte) Math.max(0, ageClass - 1);
+		for (int i = from; i < to; i++) {
+			alphaLevels[i] = alphaLevel;
+			textVisible[i] = ageClass > 0 && magnitudes[i] >= MIN_MAGNITUDE;
+		}
 	}
 	
 	/**
-	 * Perhitungan alpha berdasarkan waktu terjadinya gempa.
+	 * Kelas umur gempa: 0 jika lebih dari {@link #AGE}, selainnya tingkat alpha
+	 * + 1. Semakin baru gempa, kelasnya tidak pernah lebih kecil.
+	 */
+	private static int calculateAgeClass(long delta) {
+		return (delta > AGE) ? 0 : calculateAlphaLevel(delta, AGE) + 1;
+	}
+	
+	/**
+	 * Tingkat alpha berdasarkan umur gempa, gempa yang lebih lama akan lebih 
+	 * transparan.
 	 * 
-	 * @param time Waktu terjadinya gempa
+	 * @param delta Umur gempa
 	 * @param age Umur minimal pengaturan
-	 * @return Alpha
+	 * @return Tingkat alpha, 0 s/d ALPHA_LEVELS - 1
 	 */
-	private static float calculateAlpha(long time, long age) {
-		long delta = System.currentTimeMillis() - time;
+	private static int calculateAlphaLevel(long delta, long age) {
 		if (delta > age) return 0;
+		if (delta < 0) return ALPHA_LEVELS - 1;
+		
+		float alpha = 1f - ((float) delta / (float) age);
+		return Math.round(alpha * (ALPHA_LEVELS - 1));
+	}
+	
+	/**
+	 * Atur warna dan alpha paint untuk gempa pada posisi tertentu.
+	 * 
+	 * @param index Posisi gempa
+	 */
+	public void prepare(int index) {
+		int level = alphaLevels[index];
+		int color = colors[index];
+		int defaultAlpha = DEFAULT_ALPHA[level] << 24;
 		
-		return 255f - ((float) delta / (float) age * 255f);
+		markPaint.setColor((MARK_ALPHA[level] << 24) | color);
+		markGlowPaint.setColor(defaultAlpha | (Color.BLACK & 0x00ffffff));
+		markOutlinePaint.setColor(defaultAlpha | (Color.WHITE & 0x00ffffff));
+		feelPaint.setColor((FEEL_ALPHA[level] << 24) | color);
+		feelOutlinePaint.setColor(defaultAlpha | color);
+	}
+	
+	/**
+	 * Magnitudo gempa.
+	 * 
+	 * @param index Posisi gempa
+	 * @return Magnitudo
+	 */
+	public float getMagnitude(int index) {
+		return magnitudes[index];
+	}
+	
+	/**
+	 * Radius tanda gempa (pixels).
+	 * 
+	 * @param index Posisi gempa
+	 * @return Radius
+	 */
+	public int getMarkRadius(int index) {
+		return markRadius[index];
+	}
+	
+	/**
+	 * Radius daerah yang merasakan gempa (meter).
+	 * 
+	 * @param index Posisi gempa
+	 * @return Radius
+	 */
+	public int getDmgMeters(int index) {
+		return dmgMeters[index];
+	}
+	
+	/**
+	 * Radius daerah yang merasakan gempa terbesar dari semua gempa (meter).
+	 * 
+	 * @return Radius
+	 */
+	public int getMaxDmgMeters() {
+		return maxDmgMeters;
+	}
+	
+	/**
+	 * Lebar teks gempa pada {@link #textPaint}. Lebar setiap teks magnitudo
+	 * hanya diukur sekali.
+	 * 
+	 * @param index Posisi gempa
+	 * @return Lebar teks (pixels)
+	 */
+	public float getTextWidth(int index) {
+		String label = labels[index];
+		Float width = textWidths.get(label);
+		if (width == null) {
+			width = textPaint.measureText(label);
+			textWidths.put(label, width);
+		}
+		return width;
+	}
+	
+	/**
+	 * Jumlah gempa yang teksnya dapat ditampilkan (tanpa memperhatikan umur)
+	 * sebelum posisi tertentu.
+	 * 
+	 * @param index Posisi gempa, 0 s/d jumlah gempa
+	 * @return Jumlah gempa
+	 */
+	public int getTextCount(int index) {
+		int position = Arrays.binarySearch(textIndexes, index);
+		return (position >= 0) ? position : -position - 1;
+	}
+	
+	/**
+	 * Posisi gempa yang teksnya dapat ditampilkan, berdasarkan urutannya.
+	 * 
+	 * @param n Urutan, 0 s/d {@link #getTextCount(int)} semua gempa - 1
+	 * @return Posisi gempa
+	 */
+	public int getTextIndex(int n) {
+		return textIndexes[n];
 	}
 	
 	/**
-	 * Set teks yang akan ditampilkan, Pada magnitudo dan waktu tertentu, teks 
-	 * akan bernilai kosong.
+	 * Teks yang akan ditampilkan, pada magnitudo dan waktu tertentu teks tidak 
+	 * ditampilkan.
 	 * 
-	 * @param magnitude Mangitudo
-	 * @param time Waktu terjadinya gempa
+	 * @param index Posisi gempa
+	 * @return Teks, atau null jika tidak ditampilkan
 	 */
-	private static void setText(float magnitude, long time) {
-		text = (magnitude >= MIN_MAGNITUDE && System.currentTimeMillis() - time <= AGE)
-				? "M" + magnitude : "";
+	public String getText(int index) {
+		return textVisible[index] ? labels[index] : null;
 	}
 }
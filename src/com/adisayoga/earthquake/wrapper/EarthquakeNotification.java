@@ -43,6 +43,7 @@ import android.util.Log;
 
 import com.adisayoga.earthquake.R;
 import com.adisayoga.earthquake.dto.EarthquakeDTO;
+import com.adisayoga.earthquake.dto.WatchedLocationDTO;
 import com.adisayoga.earthquake.providers.EarthquakeColumns;
 import com.adisayoga.earthquake.receivers.NotificationClickReceiver;
 
@@ -55,6 +56,9 @@ public class EarthquakeNotification {
 	private static final String TAG = "EarthquakeNotification";
 	private static final int ALERT_ID = 1;
 	
+	/** Tag notifikasi lokasi pantauan, id notifikasinya adalah id lokasi */
+	private static final String WATCHED_LOCATION_TAG = "watched_location";
+	
 	private final Context context;
 	private final EarthquakeDTO quake;
 	private final int quakeCount;
@@ -64,6 +68,8 @@ public class EarthquakeNotification {
 	private final boolean isFlash;
 	private final boolean isVibrate;
 	
+	private WatchedLocationDTO watchedLocation = null;
+	
 	public EarthquakeNotification(Context context, EarthquakeDTO quake, int quakeCount,
 			boolean isAlert, Uri alertSound, boolean isFlash, boolean isVibrate) {
 		
@@ -77,6 +83,16 @@ public class EarthquakeNotification {
 		this.isVibrate = isVibrate;
 	}
 	
+	/**
+	 * Jadikan notifikasi untuk lokasi pantauan. Setiap lokasi memiliki notifikasi
+	 * sendiri, terpisah dari notifikasi gempa baru.
+	 * 
+	 * @param location Lokasi pantauan
+	 */
+	public void setWatchedLocation(WatchedLocationDTO location) {
+		this.watchedLocation = location;
+	}
+	
 	/**
 	 * Tampilkan notifikasi.
 	 */
@@ -110,17 +126,25 @@ public class EarthquakeNotification {
 			notification.vibrate = vibrate;
 		}
 		
-		CharSequence contentTitle = context.getText(R.string.new_quake_title);
+		CharSequence contentTitle = (watchedLocation != null) ? watchedLocation.name 
+				: context.getText(R.string.new_quake_title);
 		CharSequence contentText = getContentText();
 		
 		Intent intent = new Intent(context, NotificationClickReceiver.class);
-		intent.putExtra(EarthquakeColumns.TABLE_NAME, quake);
-		PendingIntent pendingIntent = PendingIntent.getBroadcast(context, 0, intent, 0);
+		intent.putExtra(EarthquakeColumns._ID, quake.id);
+		// Request code berbeda untuk setiap lokasi, agar extra-nya tidak tertimpa
+		int requestCode = (watchedLocation != null) ? (int) watchedLocation.id : 0;
+		PendingIntent pendingIntent = PendingIntent.getBroadcast(context, requestCode, 
+				intent, 0);
 		
 		notification.setLatestEventInfo(context, contentTitle, contentText, pendingIntent);
 		NotificationManager manager = (NotificationManager) context.getSystemService(
 				Context.NOTIFICATION_SERVICE);
-		manager.notify(ALERT_ID, notification);
+		if (watchedLocation != null) {
+			manager.notify(WATCHED_LOCATION_TAG, (int) watchedLocation.id, notification);
+		} else {
+			manager.notify(ALERT_ID, notification);
+		}
 		
 		Log.i(TAG, "Alert sent: " + contentText);
 	}
@@ -132,7 +156,13 @@ public class EarthquakeNotification {
 	 * @return Ticker teks
 	 */
 	private CharSequence getTickerText() {
-		String message = (String) context.getText(R.string.tpl_new_quake_ticker);
+		String message;
+		if (watchedLocation != null) {
+			message = (String) context.getText(R.string.tpl_watched_location_ticker);
+			message = message.replace(Prefs.TPL_NAME, watchedLocation.name);
+		} else {
+			message = (String) context.getText(R.string.tpl_new_quake_ticker);
+		}
 		message = message.replace(Prefs.TPL_MAGNITUDE, Float.toString(quake.magnitude));
 		message = message.replace(Prefs.TPL_REGION, quake.region);
 		return message;
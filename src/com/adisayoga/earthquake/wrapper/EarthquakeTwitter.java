@@ -97,6 +97,16 @@ public class EarthquakeTwitter {
 		});
 	}
 	
+	/**
+	 * Apakah user sudah pernah login (token tersimpan pada preference).
+	 * 
+	 * @return True jika sudah login
+	 */
+	public boolean isAuthorized() {
+		String[] tokens = prefs.getTwitterToken();
+		return !tokens[0].equals("") && !tokens[1].equals("");
+	}
+	
 	/**
 	 * User sebelumnya telah diberikan ijin untuk menggunakan Twitter. Oleh
 	 * karena itu kita mengambil mandat ini dan mengisinya ke helper Twitter4j.
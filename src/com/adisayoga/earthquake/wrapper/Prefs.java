@@ -27,6 +27,7 @@ import android.preference.PreferenceManager;
 
 import com.adisayoga.earthquake.R;
 import com.adisayoga.earthquake.dto.EarthquakeTheme;
+import com.adisayoga.earthquake.dto.FeedWatermark;
 import com.adisayoga.earthquake.dto.LocationType;
 import com.adisayoga.earthquake.dto.Unit;
 import com.adisayoga.earthquake.utils.LocationUtils;
@@ -45,6 +46,7 @@ public class Prefs {
 	public static final String MAX_AGE = "max_age";
 	public static final String UNIT = "unit";
 	public static final String THEME = "theme";
+	public static final String GLOBE_OFFLINE = "globe_offline";
 	
 	// Lokasi
 	public static final String LOC_DETECT = "loc_detect";
@@ -102,6 +104,12 @@ public class Prefs {
 	public static final String DIALOG_STARTUP = "dialog_startup";
 	public static final String DIALOG_INTERVAL = "dialog_interval";
 	public static final String LAST_UPDATE = "last_update";
+	public static final String WATERMARK_TIME = "watermark_time";
+	public static final String WATERMARK_EQIDS = "watermark_eqids";
+	public static final String REVISION_WINDOW = "revision_window";
+	public static final String FEED_BYTES_DOWNLOADED = "feed_bytes_downloaded";
+	public static final String FEED_BYTES_SAVED = "feed_bytes_saved";
+	public static final String FEED_NOT_MODIFIED = "feed_not_modified";
 	public static final String ZOOM_TO_FIT = "zoom_to_fit";
 	
 	// Tags
@@ -113,6 +121,7 @@ public class Prefs {
 	public static final String TPL_DEPTH = "{depth}";
 	public static final String TPL_DISTANCE = "{distance}";
 	public static final String TPL_COUNT = "{count}";
+	public static final String TPL_NAME = "{name}";
 	
 	// Default value
 	private static final String DEF_MIN_MAG = "3";
@@ -196,6 +205,15 @@ public class Prefs {
 		prefs.edit().putBoolean(AUTO_UPDATE, value).commit();
 	}
 	
+	/**
+	 * Mendapatkan apakah gambar globe disimpan di perangkat (mode offline).
+	 * 
+	 * @return True jika mode offline aktif
+	 */
+	public boolean isGlobeOffline() {
+		return prefs.getBoolean(GLOBE_OFFLINE, false);
+	}
+	
 	/**
 	 * Mendapatkan seberapa sering gempa bumi baru dicek secara periodik.
 	 * 
@@ -1010,6 +1028,105 @@ public class Prefs {
 		prefs.edit().putLong(LAST_UPDATE, value).commit();
 	}
 	
+	/**
+	 * Mendapatkan high-water mark dari file feed USGS.
+	 * 
+	 * @param feed Nama file feed
+	 * @return Watermark, atau null jika file feed belum pernah dibaca
+	 */
+	public FeedWatermark getFeedWatermark(String feed) {
+		String timeKey = WATERMARK_TIME + "_" + feed;
+		if (!prefs.contains(timeKey)) return null;
+		
+		long time = prefs.getLong(timeKey, 0);
+		String eqids = prefs.getString(WATERMARK_EQIDS + "_" + feed, "");
+		return new FeedWatermark(time, FeedWatermark.splitEqids(eqids));
+	}
+	
+	/**
+	 * Menyimpan high-water mark dari file feed USGS.
+	 * 
+	 * @param feed Nama file feed
+	 * @param value Watermark, null untuk menghapus
+	 */
+	public void setFeedWatermark(String feed, FeedWatermark value) {
+		Editor editor = prefs.edit();
+		if (value == null) {
+			editor.remove(WATERMARK_TIME + "_" + feed);
+			editor.remove(WATERMARK_EQIDS + "_" + feed);
+		} else {
+			editor.putLong(WATERMARK_TIME + "_" + feed, value.time);
+			editor.putString(WATERMARK_EQIDS + "_" + feed, value.joinEqids());
+		}
+		editor.commit();
+	}
+	
+	/**
+	 * Mendapatkan rentang waktu sebelum watermark yang tetap dibaca, karena 
+	 * data gempa pada rentang ini masih mungkin direvisi oleh USGS.
+	 * 
+	 * @return Rentang waktu dalam milisecond
+	 */
+	public long getRevisionWindow() {
+		String window = prefs.getString(REVISION_WINDOW, Long.toString(
+				AlarmManager.INTERVAL_HOUR));
+		return Long.parseLong(window);
+	}
+	
+	/**
+	 * Menyimpan rentang waktu sebelum watermark yang tetap dibaca.
+	 * 
+	 * @param value Rentang waktu dalam milisecond
+	 */
+	public void setRevisionWindow(long value) {
+		prefs.edit().putString(REVISION_WINDOW, Long.toString(value)).commit();
+	}
+	
+	/**
+	 * Tambahkan statistik satu kali pengambilan feed USGS ke total sejak
+	 * aplikasi diinstall.
+	 * 
+	 * @param bytesDownloaded Jumlah byte yang diterima dari server
+	 * @param bytesSaved Jumlah byte yang dihemat oleh kompresi gzip atau response 304
+	 * @param notModified True jika server menjawab 304 (tidak ada perubahan)
+	 */
+	public void addFeedStats(long bytesDownloaded, long bytesSaved, boolean notModified) {
+		Editor editor = prefs.edit();
+		editor.putLong(FEED_BYTES_DOWNLOADED, getFeedBytesDownloaded() + bytesDownloaded);
+		editor.putLong(FEED_BYTES_SAVED, getFeedBytesSaved() + bytesSaved);
+		if (notModified) editor.putInt(FEED_NOT_MODIFIED, getFeedNotModifiedCount() + 1);
+		editor.commit();
+	}
+	
+	/**
+	 * Mendapatkan total byte feed USGS yang diterima dari server (sebelum 
+	 * dekompresi).
+	 * 
+	 * @return Jumlah byte
+	 */
+	public long getFeedBytesDownloaded() {
+		return prefs.getLong(FEED_BYTES_DOWNLOADED, 0);
+	}
+	
+	/**
+	 * Mendapatkan total byte feed USGS yang dihemat oleh kompresi gzip dan 
+	 * response 304.
+	 * 
+	 * @return Jumlah byte
+	 */
+	public long getFeedBytesSaved() {
+		return prefs.getLong(FEED_BYTES_SAVED, 0);
+	}
+	
+	/**
+	 * Mendapatkan berapa kali server menjawab 304 (tidak ada perubahan).
+	 * 
+	 * @return Jumlah response 304
+	 */
+	public int getFeedNotModifiedCount() {
+		return prefs.getInt(FEED_NOT_MODIFIED, 0);
+	}
+	
 	/**
 	 * Mendapatkan apakah layer pada peta digunakan atau tidak.
 	 * 
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2011 Adi Sayoga.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.adisayoga.earthquake.models;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import android.util.Log;
+
+import com.adisayoga.earthquake.dto.EarthquakeDTO;
+
+/**
+ * Benchmark memory {@link QuakeStore}: heap untuk 20.000 gempa sebagai 
+ * {@link QuakeStore.Snapshot} dibandingkan dengan list {@link EarthquakeDTO} 
+ * beserta map id-nya, seperti yang disimpan {@link QuakeRepository} sebelumnya. 
+ * Setiap string dibuat baru, sama seperti string yang dibaca dari cursor. Hasil 
+ * ditulis ke log (tag {@value #TAG}).
+ * 
+ * @author Adi Sayoga
+ */
+public class QuakeStoreMemoryBenchmark extends TestCase {
+	
+	private static final String TAG = "QuakeStoreMemoryBenchmark";
+	
+	private static final int QUAKE_COUNT = 20000;
+	private static final int REGION_COUNT = 500;
+	
+	// Disimpan pada field supaya tidak dibuang GC sebelum diukur
+	private List<EarthquakeDTO> quakes;
+	private Map<Long, EarthquakeDTO> quakesById;
+	private QuakeStore.Snapshot snapshot;
+	
+	public void testHeapPerQuake() {
+		long start = usedMemory();
+		quakes = createQuakes();
+		quakesById = new HashMap<Long, EarthquakeDTO>();
+		for (EarthquakeDTO quake : quakes) {
+			quakesById.put(quake.id, quake);
+		}
+		long dtoBytes = usedMemory() - start;
+		quakes = null;
+		quakesById = null;
+		
+		start = usedMemory();
+		snapshot = QuakeStore.fromList(createQuakes());
+		long storeBytes = usedMemory() - start;
+		
+		Log.i(TAG, QUAKE_COUNT + " gempa: EarthquakeDTO " + (dtoBytes / QUAKE_COUNT) 
+				+ " byte/gempa, QuakeStore " + (storeBytes / QUAKE_COUNT) + " byte/gempa");
+		assertEquals(QUAKE_COUNT, snapshot.size);
+		assertTrue("QuakeStore " + storeBytes + " byte, EarthquakeDTO " + dtoBytes + " byte", 
+				dtoBytes >= 3 * storeBytes);
+	}
+	
+	/**
+	 * Data gempa acak, diurutkan dari yang terbaru. Semua string dibuat baru.
+	 */
+	private static List<EarthquakeDTO> createQuakes() {
+		Random random = new Random(1);
+		long now = System.currentTimeMillis();
+		List<EarthquakeDTO> quakes = new ArrayList<EarthquakeDTO>(QUAKE_COUNT);
+		for (int i = 0; i < QUAKE_COUNT; i++) {
+			String eqid = "c" + (1000000 + random.nextInt(9000000));
+			String region = "Region " + random.nextInt(REGION_COUNT) + ", Indonesia";
+			quakes.add(new EarthquakeDTO(QUAKE_COUNT - i, new String("us"), eqid, 
+					String.valueOf(random.nextInt(10)), now - i * 60000L, 
+					random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180, 
+					random.nextFloat() * 8, random.nextFloat() * 100, random.nextInt(100), 
+					region));
+		}
+		return quakes;
+	}
+	
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			System.runFinalization();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
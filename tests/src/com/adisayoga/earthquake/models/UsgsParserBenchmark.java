@@ -0,0 +1,280 @@
+/*
+ * Copyright 2011 Adi Sayoga.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.adisayoga.earthquake.models;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.adisayoga.earthquake.dto.EarthquakeDTO;
+
+/**
+ * Membandingkan {@link UsgsParser} dengan regex yang sebelumnya dipakai
+ * UsgsSource.read(): hasil setiap field harus sama persis, dan waktu parse
+ * keduanya ditulis ke log (tag {@value #TAG}).
+ * <p>
+ * Feed contoh ada pada assets project test ({@value #FEED_ASSET}), dengan format
+ * feed CSV USGS. Selain itu dibuat feed acak dengan jumlah digit yang
+ * bervariasi, termasuk angka yang harus di-parse dengan parser standar.
+ * Tanggal pada regex di-parse dengan SimpleDateFormat dalam zona waktu UTC,
+ * sama dengan {@link com.adisayoga.earthquake.utils.TimeUtils#parseUsgsDate}.
+ *
+ * @author Adi Sayoga
+ */
+public class UsgsParserBenchmark extends InstrumentationTestCase {
+
+	private static final String TAG = "UsgsParserBenchmark";
+
+	private static final String FEED_ASSET = "eqs7day-M1.txt";
+	private static final int RANDOM_LINES = 20000;
+	private static final int FEED_REPEAT = 50;
+	private static final int WARMUP_RUNS = 3;
+	private static final int RUNS = 5;
+
+	/** Regex UsgsSource sebelum diganti dengan UsgsParser */
+	private static final Pattern PATTERN = Pattern.compile(
+	      // src____ eqid___ ver____ datetime________ lat____ lon____ mag_____
+			"([^,]+),([^,]+),([^,]+),\"([^\"]+) UTC\",([^,]+),([^,]+),([^,]+),"
+		  // depth__ nst________ region______
+		  + "([^,]+),\\s?([^,]+),\"([^\"]+)\"");
+
+	private static final String DATE_PATTERN = "EEEE, MMMM d, yyyy HH:mm:ss";
+
+	private static final String[] SOURCES = new String[] { "ak", "ci", "nc", "us", "hv" };
+	private static final String[] REGIONS = new String[] { "Southern Alaska",
+		"Southern California", "Banda Sea", "Island of Hawaii, Hawaii", "Tonga" };
+
+	private SimpleDateFormat format;
+	private byte[] recordedFeed;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		format = new SimpleDateFormat(DATE_PATTERN, Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		recordedFeed = readAsset(FEED_ASSET);
+	}
+
+	/**
+	 * Hasil sama dengan regex pada feed contoh.
+	 */
+	public void testMatchesRegexOnRecordedFeed() throws IOException {
+		List<EarthquakeDTO> expected = readWithRegex(recordedFeed);
+		assertTrue("Feed contoh kosong", expected.size() > 0);
+		assertQuakesEqual(expected, readWithParser(recordedFeed));
+	}
+
+	/**
+	 * Hasil sama dengan regex pada feed acak, termasuk baris yang tidak sesuai
+	 * format dan angka yang di-parse dengan Double/Float.parseX.
+	 */
+	public void testMatchesRegexOnRandomFeed() throws IOException {
+		byte[] feed = createRandomFeed(RANDOM_LINES);
+		assertQuakesEqual(readWithRegex(feed), readWithParser(feed));
+	}
+
+	/**
+	 * Waktu parse feed contoh (diulang {@value #FEED_REPEAT} kali) dengan
+	 * UsgsParser dan dengan regex.
+	 */
+	public void testThroughput() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < FEED_REPEAT; i++) {
+			out.write(recordedFeed);
+		}
+		byte[] feed = out.toByteArray();
+
+		int count = 0;
+		for (int i = 0; i < WARMUP_RUNS; i++) {
+			count = readWithParser(feed).size();
+			readWithRegex(feed);
+		}
+
+		long parserTime = 0;
+		long regexTime = 0;
+		for (int i = 0; i < RUNS; i++) {
+			long start = System.nanoTime();
+			readWithParser(feed);
+			long middle = System.nanoTime();
+			readWithRegex(feed);
+			long end = System.nanoTime();
+
+			parserTime += middle - start;
+			regexTime += end - middle;
+		}
+
+		Log.i(TAG, count + " gempa: UsgsParser " + (parserTime / RUNS / 1000)
+				+ " us, regex " + (regexTime / RUNS / 1000) + " us");
+	}
+
+	private static void assertQuakesEqual(List<EarthquakeDTO> expected,
+			List<EarthquakeDTO> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			EarthquakeDTO a = expected.get(i);
+			EarthquakeDTO b = actual.get(i);
+			String line = "Gempa " + i + " (" + a.source + a.eqid + ")";
+			assertEquals(line, a.source, b.source);
+			assertEquals(line, a.eqid, b.eqid);
+			assertEquals(line, a.version, b.version);
+			assertEquals(line, a.time, b.time);
+			assertEquals(line, Double.doubleToLongBits(a.latitude),
+					Double.doubleToLongBits(b.latitude));
+			assertEquals(line, Double.doubleToLongBits(a.longitude),
+					Double.doubleToLongBits(b.longitude));
+			assertEquals(line, Float.floatToIntBits(a.magnitude),
+					Float.floatToIntBits(b.magnitude));
+			assertEquals(line, Float.floatToIntBits(a.depth),
+					Float.floatToIntBits(b.depth));
+			assertEquals(line, a.nst, b.nst);
+			assertEquals(line, a.region, b.region);
+		}
+	}
+
+	private static List<EarthquakeDTO> readWithParser(byte[] feed) throws IOException {
+		List<EarthquakeDTO> quakes = new ArrayList<EarthquakeDTO>();
+		UsgsParser parser = new UsgsParser(new ByteArrayInputStream(feed));
+		EarthquakeDTO quake;
+		while ((quake = parser.next()) != null) {
+			quakes.add(quake);
+		}
+		return quakes;
+	}
+
+	/**
+	 * Membaca feed seperti UsgsSource.read() sebelumnya: baris per baris, baris
+	 * yang tidak sesuai atau gagal di-parse dilewati.
+	 */
+	private List<EarthquakeDTO> readWithRegex(byte[] feed) throws IOException {
+		List<EarthquakeDTO> quakes = new ArrayList<EarthquakeDTO>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new ByteArrayInputStream(feed), "ISO-8859-1"), 8192);
+		String line;
+		while ((line = reader.readLine()) != null) {
+			try {
+				EarthquakeDTO quake = getQuake(line);
+				if (quake != null) quakes.add(quake);
+			} catch (Exception e) {
+				// Dilewati, sama dengan UsgsSource.read() sebelumnya
+			}
+		}
+		return quakes;
+	}
+
+	private EarthquakeDTO getQuake(String line) throws Exception {
+		Matcher matcher = PATTERN.matcher(line);
+		if (!matcher.matches()) return null;
+
+		String source = matcher.group(1);
+		String eqid = matcher.group(2);
+		String version = matcher.group(3);
+
+		double latitude = Double.parseDouble(matcher.group(5));
+		double longitude = Double.parseDouble(matcher.group(6));
+		long time = format.parse(matcher.group(4)).getTime();
+
+		float magnitude = Float.parseFloat(matcher.group(7));
+		float depth = Float.parseFloat(matcher.group(8)) * 1000;
+		int nst = Integer.parseInt(matcher.group(9));
+		String region = matcher.group(10);
+
+		return new EarthquakeDTO(0, source, eqid, version, time, latitude, longitude,
+				magnitude, depth, nst, region);
+	}
+
+	private byte[] readAsset(String name) throws IOException {
+		InputStream in = getInstrumentation().getContext().getAssets().open(name);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int length;
+			while ((length = in.read(buffer)) > 0) {
+				out.write(buffer, 0, length);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Membuat feed acak. Jumlah digit di belakang koma bervariasi, sebagian angka
+	 * terlalu panjang untuk parse cepat, dan sebagian baris tidak sesuai format.
+	 */
+	private byte[] createRandomFeed(int lineCount) throws IOException {
+		Random random = new Random(1);
+		StringBuilder feed = new StringBuilder();
+		feed.append("Src,Eqid,Version,Datetime,Lat,Lon,Magnitude,Depth,NST,Region\r\n");
+		for (int i = 0; i < lineCount; i++) {
+			if (random.nextInt(100) == 0) {
+				feed.append("baris,tidak,sesuai,format\n");
+				continue;
+			}
+
+			long time = (long) (random.nextDouble() * 1893456000L) * 1000;
+			feed.append(SOURCES[random.nextInt(SOURCES.length)]).append(',')
+					.append(Integer.toString(random.nextInt(100000000), 36)).append(',')
+					.append(random.nextInt(10)).append(",\"")
+					.append(format.format(new Date(time))).append(" UTC\",")
+					.append(randomDecimal(random, 90, 6)).append(',')
+					.append(randomDecimal(random, 180, 6)).append(',')
+					.append(randomDecimal(random, 10, 7)).append(',')
+					.append(randomDecimal(random, 700, 4)).append(',')
+					.append(random.nextBoolean() ? " " : "").append(random.nextInt(500))
+					.append(",\"").append(REGIONS[random.nextInt(REGIONS.length)])
+					.append('"').append(random.nextBoolean() ? "\r\n" : "\n");
+		}
+		return feed.toString().getBytes("ISO-8859-1");
+	}
+
+	private static String randomDecimal(Random random, int max, int maxFraction) {
+		StringBuilder value = new StringBuilder();
+		if (random.nextBoolean()) value.append('-');
+
+		// Sebagian angka dibuat terlalu panjang untuk parse cepat
+		int intPart = random.nextInt(max + 1);
+		int fraction = random.nextInt(maxFraction + 1);
+		if (random.nextInt(50) == 0) {
+			intPart = random.nextInt(Integer.MAX_VALUE);
+			fraction = 12;
+		}
+
+		value.append(intPart);
+		if (fraction > 0) {
+			value.append('.');
+			for (int i = 0; i < fraction; i++) {
+				value.append((char) ('0' + random.nextInt(10)));
+			}
+		}
+		return value.toString();
+	}
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2011 Adi Sayoga.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.adisayoga.earthquake.providers;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+/**
+ * Test migrasi database: database dengan skema versi 1 beserta datanya dibuka
+ * melalui {@link DatabaseHelper}, kemudian data, index dan tabel pada versi 
+ * {@link DatabaseHelper#DATABASE_VERSION} diperiksa.
+ * <p>
+ * Database test menggunakan prefix nama file sendiri, sehingga database aplikasi
+ * tidak terpengaruh.
+ * 
+ * @author Adi Sayoga
+ */
+public class DatabaseHelperTest extends AndroidTestCase {
+	
+	private static final String PREFIX = "test.";
+	
+	private Context context;
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		context = new RenamingDelegatingContext(getContext(), PREFIX);
+		context.deleteDatabase(DatabaseHelper.DATABASE_NAME);
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		context.deleteDatabase(DatabaseHelper.DATABASE_NAME);
+		super.tearDown();
+	}
+	
+	/**
+	 * Upgrade dari versi 1: data gempa duplikat (src, eqid) dihapus dan yang 
+	 * tersisa data yang terakhir disimpan, data lain dan contact tetap ada.
+	 */
+	public void testUpgradeFromVersion1KeepsData() {
+		createVersion1Database();
+		
+		SQLiteDatabase db = new DatabaseHelper(context, null).getWritableDatabase();
+		try {
+			assertEquals(DatabaseHelper.DATABASE_VERSION, db.getVersion());
+			
+			// Id 1 duplikat dari id 2, gempa tanpa eqid tidak dianggap duplikat
+			assertEquals(setOf(2, 3, 4, 5), queryIds(db, EarthquakeColumns.TABLE_NAME, 
+					EarthquakeColumns._ID));
+			assertEquals(setOf(1), queryIds(db, ContactColumns.TABLE_NAME, 
+					ContactColumns._ID));
+			
+			Cursor cursor = db.query(EarthquakeColumns.TABLE_NAME, null, 
+					EarthquakeColumns._ID + " = 2", null, null, null, null);
+			try {
+				assertTrue(cursor.moveToFirst());
+				assertEquals("us", cursor.getString(EarthquakeColumns.SRC_INDEX));
+				assertEquals("c0001", cursor.getString(EarthquakeColumns.EQID_INDEX));
+				assertEquals("2", cursor.getString(EarthquakeColumns.VERSION_INDEX));
+				assertEquals(1300000060000L, cursor.getLong(EarthquakeColumns.DATE_INDEX));
+				assertEquals(5.1f, cursor.getFloat(EarthquakeColumns.MAGNITUDE_INDEX), 0.001f);
+				assertEquals("Bali region, Indonesia", 
+						cursor.getString(EarthquakeColumns.REGION_INDEX));
+			} finally {
+				cursor.close();
+			}
+		} finally {
+			db.close();
+		}
+	}
+	
+	/**
+	 * Upgrade dari versi 1 membuat semua index dan tabel baru, dan index unik 
+	 * (src, eqid) mencegah data duplikat.
+	 */
+	public void testUpgradeFromVersion1CreatesSchema() {
+		createVersion1Database();
+		
+		SQLiteDatabase db = new DatabaseHelper(context, null).getWritableDatabase();
+		try {
+			Set<String> indexes = querySchema(db, "index");
+			assertTrue(indexes.contains(EarthquakeColumns.SRC_EQID_INDEX));
+			assertTrue(indexes.contains(EarthquakeColumns.DATE_MAGNITUDE_INDEX));
+			assertTrue(indexes.contains(EarthquakeColumns.DATE_ROWID_INDEX));
+			assertTrue(indexes.contains(OutboxColumns.STATUS_NEXT_ATTEMPT_INDEX));
+			
+			Set<String> tables = querySchema(db, "table");
+			assertTrue(tables.contains(OutboxColumns.TABLE_NAME));
+			assertTrue(tables.contains(WatchedLocationColumns.TABLE_NAME));
+			
+			// Index spasial hanya ada jika modul rtree tersedia, isinya harus
+			// sama dengan tabel gempa
+			if (tables.contains(EarthquakeColumns.SPATIAL_TABLE_NAME)) {
+				assertEquals(setOf(2, 3, 4, 5), queryIds(db, 
+						EarthquakeColumns.SPATIAL_TABLE_NAME, EarthquakeColumns.SPATIAL_ID));
+			}
+			
+			try {
+				db.insertOrThrow(EarthquakeColumns.TABLE_NAME, null, 
+						earthquake("us", "c0001", "3", 1300000120000L, 5.2f));
+				fail("Data duplikat (src, eqid) harus ditolak");
+			} catch (SQLiteConstraintException e) {
+				// Seharusnya
+			}
+			
+			// Migrasi 7: lokasi pantauan
+			ContentValues values = new ContentValues();
+			values.put(WatchedLocationColumns.NAME, "Denpasar");
+			values.put(WatchedLocationColumns.LATITUDE, -8.65f);
+			values.put(WatchedLocationColumns.LONGITUDE, 115.22f);
+			values.put(WatchedLocationColumns.RADIUS, 100000f);
+			values.put(WatchedLocationColumns.MIN_MAGNITUDE, 4f);
+			assertTrue(db.insert(WatchedLocationColumns.TABLE_NAME, null, values) > 0);
+		} finally {
+			db.close();
+		}
+	}
+	
+	/**
+	 * Database baru dan database hasil upgrade dari versi 1 harus memiliki skema
+	 * yang sama.
+	 */
+	public void testUpgradeMatchesNewDatabase() {
+		SQLiteDatabase db = new DatabaseHelper(context, null).getWritableDatabase();
+		Set<String> created;
+		try {
+			created = querySchemaSql(db);
+		} finally {
+			db.close();
+		}
+		context.deleteDatabase(DatabaseHelper.DATABASE_NAME);
+		
+		createVersion1Database();
+		db = new DatabaseHelper(context, null).getWritableDatabase();
+		try {
+			assertEquals(created, querySchemaSql(db));
+		} finally {
+			db.close();
+		}
+	}
+	
+	/**
+	 * Buat database dengan skema versi 1 beserta datanya. Skema ditulis ulang di
+	 * sini (bukan memanggil helper), karena harus tetap sama dengan database 
+	 * yang sudah ada di perangkat.
+	 */
+	private void createVersion1Database() {
+		SQLiteDatabase db = context.openOrCreateDatabase(DatabaseHelper.DATABASE_NAME, 
+				Context.MODE_PRIVATE, null);
+		try {
+			db.execSQL("CREATE TABLE earthquake (_id INTEGER PRIMARY KEY AUTOINCREMENT, " 
+					+ "src TEXT, eqid TEXT, version TEXT, date INTEGER, latitude FLOAT, "
+					+ "longitude FLOAT, magnitude FLOAT, depth FLOAT, nst INTEGER, " 
+					+ "region TEXT);");
+			db.execSQL("CREATE TABLE contact (_id INTEGER PRIMARY KEY AUTOINCREMENT, " 
+					+ "name TEXT, phone_number TEXT, mail TEXT);");
+			
+			// Versi 1 tidak memiliki index unik, gempa yang sama bisa tersimpan dua kali
+			db.insertOrThrow("earthquake", null, 
+					earthquake("us", "c0001", "1", 1300000000000L, 5.0f));
+			db.insertOrThrow("earthquake", null, 
+					earthquake("us", "c0001", "2", 1300000060000L, 5.1f));
+			db.insertOrThrow("earthquake", null, 
+					earthquake("us", "c0002", "1", 1300000300000L, 4.4f));
+			db.insertOrThrow("earthquake", null, 
+					earthquake("us", null, "1", 1300000600000L, 3.2f));
+			db.insertOrThrow("earthquake", null, 
+					earthquake("us", null, "1", 1300000600000L, 3.2f));
+			
+			ContentValues contact = new ContentValues();
+			contact.put("name", "Adi");
+			contact.put("phone_number", "08123456789");
+			contact.put("mail", "adi@example.com");
+			db.insertOrThrow("contact", null, contact);
+			
+			db.setVersion(1);
+		} finally {
+			db.close();
+		}
+	}
+	
+	private static ContentValues earthquake(String src, String eqid, String version, 
+			long date, float magnitude) {
+		ContentValues values = new ContentValues();
+		values.put("src", src);
+		values.put("eqid", eqid);
+		values.put("version", version);
+		values.put("date", date);
+		values.put("latitude", -8.5f);
+		values.put("longitude", 115.5f);
+		values.put("magnitude", magnitude);
+		values.put("depth", 10f);
+		values.put("nst", 20);
+		values.put("region", "Bali region, Indonesia");
+		return values;
+	}
+	
+	private static Set<Long> queryIds(SQLiteDatabase db, String table, String column) {
+		Set<Long> ids = new HashSet<Long>();
+		Cursor cursor = db.query(table, new String[] { column }, null, null, null, null, 
+				null);
+		try {
+			while (cursor.moveToNext()) {
+				ids.add(cursor.getLong(0));
+			}
+		} finally {
+			cursor.close();
+		}
+		return ids;
+	}
+	
+	/**
+	 * Nama objek skema dengan tipe tertentu (table, index, trigger).
+	 */
+	private static Set<String> querySchema(SQLiteDatabase db, String type) {
+		Set<String> names = new HashSet<String>();
+		Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = ?", 
+				new String[] { type });
+		try {
+			while (cursor.moveToNext()) {
+				names.add(cursor.getString(0));
+			}
+		} finally {
+			cursor.close();
+		}
+		return names;
+	}
+	
+	/**
+	 * SQL semua objek skema, kecuali tabel internal SQLite dan Android.
+	 */
+	private static Set<String> querySchemaSql(SQLiteDatabase db) {
+		Set<String> sql = new HashSet<String>();
+		Cursor cursor = db.rawQuery("SELECT type, name, sql FROM sqlite_master " 
+				+ "WHERE name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+		try {
+			while (cursor.moveToNext()) {
+				sql.add(cursor.getString(0) + " " + cursor.getString(1) + ": " 
+						+ cursor.getString(2));
+			}
+		} finally {
+			cursor.close();
+		}
+		return sql;
+	}
+	
+	private static Set<Long> setOf(long... ids) {
+		Set<Long> set = new HashSet<Long>();
+		for (long id : ids) {
+			set.add(id);
+		}
+		return set;
+	}
+}
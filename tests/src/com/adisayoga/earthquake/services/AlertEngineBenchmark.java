@@ -0,0 +1,161 @@
+/*
+ * Copyright 2011 Adi Sayoga.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.adisayoga.earthquake.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+import android.location.Location;
+import android.util.Log;
+
+import com.adisayoga.earthquake.dto.AlertRule;
+import com.adisayoga.earthquake.dto.EarthquakeDTO;
+
+/**
+ * Benchmark {@link AlertEngine} dengan 100.000 gempa acak dan 10 aturan (lima 
+ * saluran, masing-masing regional dan global), dibandingkan dengan perulangan 
+ * per gempa per saluran seperti sebelum aturan dikompilasi. Hasil waktu ditulis
+ * ke log (tag {@value #TAG}), hasil evaluasi harus sama dengan perulangan.
+ * 
+ * @author Adi Sayoga
+ */
+public class AlertEngineBenchmark extends TestCase {
+	
+	private static final String TAG = "AlertEngineBenchmark";
+	
+	private static final int QUAKE_COUNT = 100000;
+	private static final int WARMUP_RUNS = 3;
+	private static final int RUNS = 5;
+	
+	/** Jarak maksimal aturan regional (meter) */
+	private static final float REGIONAL_DISTANCE = 1000000;
+	
+	/** Magnitudo minimal regional dan global setiap saluran */
+	private static final float[][] THRESHOLDS = new float[][] { 
+		{ 3, 5 }, { 4, 6 }, { 4.5f, 6 }, { 5, 6.5f }, { 5, 7 } };
+	
+	private List<EarthquakeDTO> quakes;
+	private Location reference;
+	private AlertEngine engine;
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		
+		Random random = new Random(1);
+		long now = System.currentTimeMillis();
+		quakes = new ArrayList<EarthquakeDTO>(QUAKE_COUNT);
+		for (int i = 0; i < QUAKE_COUNT; i++) {
+			quakes.add(new EarthquakeDTO(i, "us", "b" + i, "1", now - i * 1000L, 
+					random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180, 
+					random.nextFloat() * 8, 10, 20, "Bali region, Indonesia"));
+		}
+		
+		reference = new Location("test");
+		reference.setLatitude(-8.65);
+		reference.setLongitude(115.2);
+		
+		List<AlertRule> rules = new ArrayList<AlertRule>();
+		for (float[] threshold : THRESHOLDS) {
+			AlertRule regional = new AlertRule("regional");
+			regional.minMagnitude = threshold[0];
+			regional.maxDistance = REGIONAL_DISTANCE;
+			rules.add(regional);
+			
+			AlertRule global = new AlertRule("global");
+			global.minMagnitude = threshold[1];
+			rules.add(global);
+		}
+		engine = AlertEngine.compile(rules, reference, TimeZone.getDefault());
+	}
+	
+	/**
+	 * Hasil engine sama dengan perulangan. Gempa yang jaraknya sangat dekat dengan
+	 * batas regional dilewati, karena engine menghitung jarak pada bola sedangkan
+	 * {@link Location#distanceTo(Location)} pada ellipsoid.
+	 */
+	public void testMatchesLoop() {
+		long[] masks = engine.evaluate(quakes);
+		long[] expected = evaluateLoop(quakes);
+		
+		int compared = 0;
+		for (int i = 0; i < QUAKE_COUNT; i++) {
+			float distance = quakes.get(i).getLocation().distanceTo(reference);
+			if (Math.abs(distance - REGIONAL_DISTANCE) < REGIONAL_DISTANCE * 0.005f) continue;
+			
+			assertEquals("Gempa " + i, expected[i], masks[i]);
+			compared++;
+		}
+		assertTrue(compared > QUAKE_COUNT * 0.99);
+	}
+	
+	/**
+	 * Waktu evaluasi semua gempa oleh engine dan oleh perulangan.
+	 */
+	public void testThroughput() {
+		for (int i = 0; i < WARMUP_RUNS; i++) {
+			engine.evaluate(quakes);
+			evaluateLoop(quakes);
+		}
+		
+		long engineTime = 0;
+		long loopTime = 0;
+		for (int i = 0; i < RUNS; i++) {
+			long start = System.nanoTime();
+			engine.evaluate(quakes);
+			long middle = System.nanoTime();
+			evaluateLoop(quakes);
+			long end = System.nanoTime();
+			
+			engineTime += middle - start;
+			loopTime += end - middle;
+		}
+		
+		Log.i(TAG, QUAKE_COUNT + " gempa, " + THRESHOLDS.length * 2 + " aturan: engine " 
+				+ (engineTime / RUNS / 1000) + " us, perulangan " 
+				+ (loopTime / RUNS / 1000) + " us, prosesor " 
+				+ Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Evaluasi per gempa per saluran, seperti sebelum aturan dikompilasi: jarak
+	 * dihitung dengan {@link Location#distanceTo(Location)} untuk setiap gempa.
+	 */
+	private long[] evaluateLoop(List<EarthquakeDTO> quakes) {
+		long[] masks = new long[quakes.size()];
+		for (int i = 0; i < masks.length; i++) {
+			EarthquakeDTO quake = quakes.get(i);
+			boolean regional = quake.getLocation().distanceTo(reference) <= REGIONAL_DISTANCE;
+			
+			long mask = 0;
+			for (int channel = 0; channel < THRESHOLDS.length; channel++) {
+				if (regional && quake.magnitude >= THRESHOLDS[channel][0]) {
+					mask |= 1L << (2 * channel);
+				}
+				if (quake.magnitude >= THRESHOLDS[channel][1]) {
+					mask |= 1L << (2 * channel + 1);
+				}
+			}
+			masks[i] = mask;
+		}
+		return masks;
+	}
+}
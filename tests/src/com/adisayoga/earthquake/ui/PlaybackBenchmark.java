@@ -0,0 +1,198 @@
+/*
+ * Copyright 2011 Adi Sayoga.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.adisayoga.earthquake.ui;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import android.app.AlarmManager;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.util.Log;
+
+import com.adisayoga.earthquake.dto.EarthquakeTheme;
+import com.adisayoga.earthquake.wrapper.DrawValues;
+
+/**
+ * Benchmark putar ulang dengan 100.000 gempa acak selama 30 hari: setiap frame
+ * menghitung ulang alpha pada rentang 3 hari dan menggambar rentang tersebut ke
+ * bitmap seukuran layar, seperti EarthquakeOverlay saat memutar ulang. Waktu
+ * setiap frame ditulis ke log (tag {@value #TAG}).
+ * <p>
+ * Sebagian besar gempa berada di sekitar Indonesia, area yang digambar ada di
+ * tengahnya pada zoom {@value #ZOOM}, sehingga teks sering ditempatkan ulang.
+ *
+ * @author Adi Sayoga
+ */
+public class PlaybackBenchmark extends TestCase {
+
+	private static final String TAG = "PlaybackBenchmark";
+
+	private static final int QUAKE_COUNT = 100000;
+	private static final long SPAN = AlarmManager.INTERVAL_DAY * 30;
+	private static final long WINDOW = AlarmManager.INTERVAL_DAY * 3;
+
+	/** Jumlah frame, sama dengan 20 detik pada 16 ms per frame */
+	private static final int FRAMES = 1250;
+	private static final int CHECK_INTERVAL = 25;
+
+	private static final int ZOOM = 6;
+	private static final int WIDTH = 480;
+	private static final int HEIGHT = 800;
+
+	private static final long START_TIME = 1300000000000L;
+
+	private long[] times;
+	private int[] latE6;
+	private int[] lonE6;
+	private float[] magnitudes;
+	private QuakeGrid grid;
+	private QuakeQuadtree quadtree;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		Random random = new Random(1);
+		times = new long[QUAKE_COUNT];
+		for (int i = 0; i < QUAKE_COUNT; i++) {
+			times[i] = START_TIME + (long) (random.nextDouble() * SPAN);
+		}
+		Arrays.sort(times);
+
+		// Magnitudo kecil jauh lebih banyak, sekitar 5% minimal 4
+		latE6 = new int[QUAKE_COUNT];
+		lonE6 = new int[QUAKE_COUNT];
+		magnitudes = new float[QUAKE_COUNT];
+		for (int i = 0; i < QUAKE_COUNT; i++) {
+			if (random.nextInt(10) < 7) {
+				latE6[i] = -10000000 + random.nextInt(20000000);
+				lonE6[i] = 105000000 + random.nextInt(20000000);
+			} else {
+				latE6[i] = random.nextInt(160000000) - 80000000;
+				lonE6[i] = random.nextInt(360000000) - 180000000;
+			}
+			double magnitude = 1 - Math.log(1 - random.nextDouble()) / Math.log(10) * 2.3;
+			magnitudes[i] = Math.min(9.5f, Math.round(magnitude * 10) / 10f);
+		}
+
+		grid = new QuakeGrid(latE6, lonE6);
+		quadtree = new QuakeQuadtree(latE6, lonE6, magnitudes);
+	}
+
+	/**
+	 * Alpha dan teks yang dihitung bertahap setiap frame sama dengan perhitungan
+	 * ulang semua gempa pada waktu yang sama.
+	 */
+	public void testMatchesFullRefresh() {
+		DrawValues values = createValues(START_TIME);
+		int from = 0;
+		int to = 0;
+		for (int frame = 0; frame < FRAMES; frame++) {
+			long time = getFrameTime(frame);
+			to = upperBound(time);
+			from = upperBound(time - WINDOW);
+			values.refresh(time, from, to);
+			if (frame % CHECK_INTERVAL != 0) continue;
+
+			DrawValues expected = createValues(time);
+			for (int i = from; i < to; i++) {
+				values.prepare(i);
+				expected.prepare(i);
+				String message = "Frame " + frame + ", gempa " + i;
+				assertEquals(message, expected.markPaint.getColor(), values.markPaint.getColor());
+				assertEquals(message, expected.getText(i), values.getText(i));
+			}
+		}
+	}
+
+	/**
+	 * Waktu setiap frame: hitung ulang alpha, tempatkan teks (jika berubah) dan
+	 * gambar semua gempa pada rentang.
+	 */
+	public void testFrameTime() {
+		QuakeTileRenderer renderer = new QuakeTileRenderer(latE6, lonE6, grid, quadtree,
+				createValues(START_TIME));
+		Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+		Canvas canvas = new Canvas(bitmap);
+
+		long worldSize = (long) QuakeTileRenderer.TILE_SIZE << ZOOM;
+		long originX = (long) (QuakeQuadtree.mercatorX(115000000) * worldSize) - WIDTH / 2;
+		long originY = (long) (QuakeQuadtree.mercatorY(0) * worldSize) - HEIGHT / 2;
+
+		long[] frameTimes = new long[FRAMES];
+		long refreshTime = 0;
+		int maxWindow = 0;
+		for (int frame = 0; frame < FRAMES; frame++) {
+			long time = getFrameTime(frame);
+			long start = System.nanoTime();
+			int to = upperBound(time);
+			int from = upperBound(time - WINDOW);
+			renderer.refresh(time, from, to);
+			long middle = System.nanoTime();
+
+			bitmap.eraseColor(0);
+			renderer.renderRange(canvas, ZOOM, originX, originY, WIDTH, HEIGHT, from, to);
+			long end = System.nanoTime();
+
+			refreshTime += middle - start;
+			frameTimes[frame] = end - start;
+			maxWindow = Math.max(maxWindow, to - from);
+		}
+		bitmap.recycle();
+
+		long total = 0;
+		int slowFrames = 0;
+		for (long frameTime : frameTimes) {
+			total += frameTime;
+			if (frameTime > 16000000) slowFrames++;
+		}
+		Arrays.sort(frameTimes);
+		Log.i(TAG, QUAKE_COUNT + " gempa, rentang maksimal " + maxWindow + ": refresh "
+				+ (refreshTime / FRAMES / 1000) + " us, frame rata-rata "
+				+ (total / FRAMES / 1000) + " us, p99 "
+				+ (frameTimes[FRAMES * 99 / 100] / 1000) + " us, maksimal "
+				+ (frameTimes[FRAMES - 1] / 1000) + " us, lebih dari 16 ms "
+				+ slowFrames + " frame");
+	}
+
+	private DrawValues createValues(long now) {
+		return new DrawValues(EarthquakeTheme.DEFAULT, QuakeTileRenderer.TEXT_SIZE, times,
+				magnitudes, now);
+	}
+
+	private static long getFrameTime(int frame) {
+		return START_TIME + SPAN * (frame + 1) / FRAMES;
+	}
+
+	/**
+	 * Posisi gempa pertama yang waktunya lebih besar dari value.
+	 */
+	private int upperBound(long value) {
+		int low = 0, high = times.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (times[middle] <= value) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2011 Adi Sayoga.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.adisayoga.earthquake.utils;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+import android.util.Log;
+
+/**
+ * Benchmark {@link TimeUtils#parseUsgsDate(char[], int, int)} dengan 100.000 
+ * tanggal acak, dibandingkan dengan SimpleDateFormat dalam zona waktu UTC. Hasil
+ * waktu ditulis ke log (tag {@value #TAG}).
+ * 
+ * @author Adi Sayoga
+ */
+public class TimeUtilsBenchmark extends TestCase {
+	
+	private static final String TAG = "TimeUtilsBenchmark";
+	
+	private static final String PATTERN = "EEEE, MMMM d, yyyy HH:mm:ss";
+	private static final int DATE_COUNT = 100000;
+	private static final int WARMUP_RUNS = 3;
+	private static final int RUNS = 5;
+	
+	private SimpleDateFormat format;
+	private String[] strings;
+	private char[][] values;
+	private long[] times;
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		format = new SimpleDateFormat(PATTERN, Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		
+		// Detik acak dari 1970 sampai 2030
+		Random random = new Random(1);
+		strings = new String[DATE_COUNT];
+		values = new char[DATE_COUNT][];
+		times = new long[DATE_COUNT];
+		for (int i = 0; i < DATE_COUNT; i++) {
+			times[i] = (long) (random.nextDouble() * 1893456000L) * 1000;
+			strings[i] = format.format(new Date(times[i]));
+			values[i] = strings[i].toCharArray();
+		}
+	}
+	
+	/**
+	 * Hasil sama dengan SimpleDateFormat dalam zona waktu UTC.
+	 */
+	public void testMatchesSimpleDateFormat() {
+		for (int i = 0; i < DATE_COUNT; i++) {
+			assertEquals(strings[i], times[i], 
+					TimeUtils.parseUsgsDate(values[i], 0, values[i].length));
+		}
+	}
+	
+	/**
+	 * Hasil tidak bergantung pada zona waktu perangkat, termasuk pada sisi lain
+	 * pergantian DST.
+	 */
+	public void testIgnoresDefaultTimeZone() {
+		TimeZone defaultZone = TimeZone.getDefault();
+		try {
+			TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+			assertEquals(1325419200000L, parse("Sunday, January 1, 2012 12:00:00"));
+			assertEquals(1341144000000L, parse("Sunday, July 1, 2012 12:00:00"));
+		} finally {
+			TimeZone.setDefault(defaultZone);
+		}
+	}
+	
+	/**
+	 * Waktu parse semua tanggal dengan parseUsgsDate dan dengan SimpleDateFormat.
+	 */
+	public void testThroughput() throws ParseException {
+		for (int i = 0; i < WARMUP_RUNS; i++) {
+			parseAll();
+			parseAllWithFormat();
+		}
+		
+		long fastTime = 0;
+		long formatTime = 0;
+		for (int i = 0; i < RUNS; i++) {
+			long start = System.nanoTime();
+			parseAll();
+			long middle = System.nanoTime();
+			parseAllWithFormat();
+			long end = System.nanoTime();
+			
+			fastTime += middle - start;
+			formatTime += end - middle;
+		}
+		
+		Log.i(TAG, DATE_COUNT + " tanggal: parseUsgsDate " + (fastTime / RUNS / 1000) 
+				+ " us, SimpleDateFormat " + (formatTime / RUNS / 1000) + " us");
+	}
+	
+	private long parse(String value) {
+		return TimeUtils.parseUsgsDate(value.toCharArray(), 0, value.length());
+	}
+	
+	private long parseAll() {
+		long sum = 0;
+		for (int i = 0; i < DATE_COUNT; i++) {
+			sum += TimeUtils.parseUsgsDate(values[i], 0, values[i].length);
+		}
+		return sum;
+	}
+	
+	private long parseAllWithFormat() throws ParseException {
+		long sum = 0;
+		for (int i = 0; i < DATE_COUNT; i++) {
+			sum += format.parse(strings[i]).getTime();
+		}
+		return sum;
+	}
+}